@@ -1,8 +1,28 @@
 precision mediump float;
 
 uniform sampler2D uTextureUnit;
+uniform sampler2D uPaperUnit;
+uniform sampler2D uOverlayUnit;
+uniform vec4 uOverlayRect;
+uniform vec4 uPaperColor;
+uniform vec2 uPaperRepeat;
+uniform vec4 uInkColor;
+uniform float uAlphaOnly;
+uniform mat4 uColorMatrix;
+uniform vec4 uColorOffset;
 varying vec2 vTextureCoordinates;
 varying vec4 vBlendColor;
 void main() {
-    gl_FragColor = texture2D(uTextureUnit, vTextureCoordinates) * vBlendColor;
+    // 纸张、内容、覆盖层依次叠加，纹理均为预乘alpha
+    vec4 content = texture2D(uTextureUnit, vTextureCoordinates);
+    vec3 paper = texture2D(uPaperUnit, vTextureCoordinates * uPaperRepeat).rgb * uPaperColor.rgb;
+    vec3 ink = mix(content.rgb, uInkColor.rgb * content.a, uAlphaOnly);
+    // 覆盖层纹理只覆盖批注所在的矩形uOverlayRect(左上右下)
+    vec2 overlayCoordinates = (vTextureCoordinates - uOverlayRect.xy) / (uOverlayRect.zw - uOverlayRect.xy);
+    vec2 inside = step(uOverlayRect.xy, vTextureCoordinates) * step(vTextureCoordinates, uOverlayRect.zw);
+    vec4 overlay = texture2D(uOverlayUnit, overlayCoordinates) * inside.x * inside.y;
+    vec3 page = (paper * (1.0 - content.a) + ink) * (1.0 - overlay.a) + overlay.rgb;
+    vec4 color = vec4(page, 1.0) * vBlendColor;
+    // 阅读主题(亮度、夜间、护眼)在绘制时变换颜色，页面纹理保持不变
+    gl_FragColor = clamp(uColorMatrix * color + uColorOffset, 0.0, 1.0);
 }
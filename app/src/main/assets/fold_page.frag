@@ -1,13 +1,34 @@
 precision mediump float;
 
 uniform sampler2D uTextureUnit;
+uniform sampler2D uPaperUnit;
+uniform sampler2D uOverlayUnit;
+uniform vec4 uOverlayRect;
+uniform vec4 uPaperColor;
+uniform vec2 uPaperRepeat;
+uniform vec4 uInkColor;
+uniform float uAlphaOnly;
+uniform mat4 uColorMatrix;
+uniform vec4 uColorOffset;
 varying vec2 vTextureCoordinates;
 varying vec4 vBlendColor;
 varying float vIsMix;
 void main() {
+    // 纸张、内容、覆盖层依次叠加，纹理均为预乘alpha
+    vec4 content = texture2D(uTextureUnit, vTextureCoordinates);
+    vec3 paper = texture2D(uPaperUnit, vTextureCoordinates * uPaperRepeat).rgb * uPaperColor.rgb;
+    vec3 ink = mix(content.rgb, uInkColor.rgb * content.a, uAlphaOnly);
+    // 覆盖层纹理只覆盖批注所在的矩形uOverlayRect(左上右下)
+    vec2 overlayCoordinates = (vTextureCoordinates - uOverlayRect.xy) / (uOverlayRect.zw - uOverlayRect.xy);
+    vec2 inside = step(uOverlayRect.xy, vTextureCoordinates) * step(vTextureCoordinates, uOverlayRect.zw);
+    vec4 overlay = texture2D(uOverlayUnit, overlayCoordinates) * inside.x * inside.y;
+    vec4 page = vec4((paper * (1.0 - content.a) + ink) * (1.0 - overlay.a) + overlay.rgb, 1.0);
+    vec4 color;
     if (vIsMix > 0.5) {
-        gl_FragColor = mix(texture2D(uTextureUnit, vTextureCoordinates), vec4(1.0), 0.85) * vBlendColor * vec4(0.95, 0.95, 0.95, 1.0);
+        color = mix(page, vec4(1.0), 0.85) * vBlendColor * vec4(0.95, 0.95, 0.95, 1.0);
     } else {
-        gl_FragColor = texture2D(uTextureUnit, vTextureCoordinates)* vBlendColor;
+        color = page * vBlendColor;
     }
+    // 阅读主题(亮度、夜间、护眼)在绘制时变换颜色，页面纹理保持不变
+    gl_FragColor = clamp(uColorMatrix * color + uColorOffset, 0.0, 1.0);
 }
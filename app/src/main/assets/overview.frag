@@ -0,0 +1,11 @@
+precision mediump float;
+
+uniform sampler2D uTextureUnit;
+uniform mat4 uColorMatrix;
+uniform vec4 uColorOffset;
+varying vec2 vTextureCoordinates;
+void main() {
+    vec4 color = texture2D(uTextureUnit, vTextureCoordinates);
+    // 与页面相同的阅读主题
+    gl_FragColor = clamp(uColorMatrix * color + uColorOffset, 0.0, 1.0);
+}
@@ -0,0 +1,15 @@
+precision mediump float;
+
+uniform mat4 uMVPMatrix;
+
+// 屏幕像素坐标，每页两个三角形
+attribute vec2 aPosition;
+// 缩略图在图集中的位置
+attribute vec2 aTextureCoordinates;
+
+varying vec2 vTextureCoordinates;
+
+void main() {
+    vTextureCoordinates = aTextureCoordinates;
+    gl_Position = uMVPMatrix * vec4(aPosition, 0.0, 1.0);
+}
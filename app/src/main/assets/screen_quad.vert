@@ -0,0 +1,13 @@
+precision mediump float;
+
+attribute vec2 aPosition;
+
+// 离屏纹理中实际绘制区域的比例
+uniform vec2 uTextureScale;
+
+varying vec2 vTextureCoordinates;
+
+void main() {
+    vTextureCoordinates = (aPosition * 0.5 + 0.5) * uTextureScale;
+    gl_Position = vec4(aPosition, 0.0, 1.0);
+}
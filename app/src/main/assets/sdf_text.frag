@@ -0,0 +1,22 @@
+precision mediump float;
+
+uniform sampler2D uAtlas;
+uniform vec4 uTextColor;
+// 轮廓两侧的过渡宽度，随字号缩放
+uniform float uSmoothing;
+uniform mat4 uColorMatrix;
+uniform vec4 uColorOffset;
+varying vec2 vGlyphCoord;
+varying vec4 vBlendColor;
+varying float vIsMix;
+void main() {
+    float distance = texture2D(uAtlas, vGlyphCoord).a;
+    float alpha = smoothstep(0.5 - uSmoothing, 0.5 + uSmoothing, distance) * uTextColor.a;
+    if (vIsMix > 0.5) {
+        // 背面透过纸张的字迹，与fold_page.frag中混合的白色比例一致
+        alpha *= 0.15;
+    }
+    vec4 color = vec4(uTextColor.rgb, 1.0) * vBlendColor;
+    color = clamp(uColorMatrix * color + uColorOffset, 0.0, 1.0);
+    gl_FragColor = vec4(color.rgb, alpha);
+}
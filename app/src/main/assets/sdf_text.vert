@@ -0,0 +1,102 @@
+precision mediump float;
+
+const float PI = 3.1415927;
+
+uniform mat4 uMVPMatrix;
+// 1.0时按fold_page.vert的方式折叠，0.0时为平展页面
+uniform float uFold;
+uniform vec2 uOriginPoint;
+uniform vec2 uDragPoint;
+uniform vec2 uPageSize;
+uniform float uFoldHeight;
+// 沿法线抬起字形，避免与页面深度冲突
+uniform float uLift;
+
+attribute vec2 aPosition;
+attribute vec2 aGlyphCoord;
+
+varying vec2 vGlyphCoord;
+varying vec4 vBlendColor;
+varying float vIsMix;
+
+struct Light {
+    // 定向光
+    vec3 direction;
+
+    vec3 ambient;
+    vec3 diffuse;
+    vec3 specular;
+    vec3 color;
+};
+
+uniform Light uLight;
+uniform vec3 uViewPos;
+
+void main() {
+    vGlyphCoord = aGlyphCoord;
+    vec3 newPosition = vec3(aPosition.xy, 0.0);
+    vec3 normal = vec3(0.0, 0.0, 1.0);
+    vIsMix = 0.0;
+
+    if (uFold > 0.5) {
+        // 与fold_page.vert相同的折叠计算
+        float x0 = (uDragPoint.x + uOriginPoint.x) / 2.0;
+        float y0 = (uDragPoint.y + uOriginPoint.y) / 2.0;
+        vec2 dragVec = uDragPoint - uOriginPoint;
+        float origin = (uOriginPoint.x - x0) * dragVec.x + (uOriginPoint.y - y0) * dragVec.y;
+        float current = (aPosition.x - x0) * dragVec.x + (aPosition.y - y0) * dragVec.y;
+        float dist = abs(current) / sqrt(dragVec.x * dragVec.x + dragVec.y * dragVec.y);
+        vec2 normalizedDragVec = normalize(dragVec);
+        bool needFold = origin * current > 0.0;
+        float halfFoldHeight = uFoldHeight / 2.0;
+        if (needFold) {
+            vec2 symmetric = aPosition + (dist * 2.0) * normalizedDragVec;
+            newPosition = vec3(symmetric.xy, halfFoldHeight);
+            vIsMix = 1.0;
+        } else {
+            newPosition.z = -halfFoldHeight;
+        }
+
+        float radius = halfFoldHeight;
+        float maxDist = PI/2.0 * radius;
+        if (dist < maxDist) {
+            float alpha = (maxDist - dist) / radius;
+            float d = radius * sin(alpha);
+            float offsetDist = (maxDist - dist) - d;
+            vec2 offsetPosition = vec2(newPosition.xy) + offsetDist * normalizedDragVec;
+            newPosition.x = offsetPosition.x;
+            newPosition.y = offsetPosition.y;
+
+            float h = radius * cos(alpha);
+            vec2 centerPoint = vec2(newPosition.xy) + (maxDist - dist) * normalizedDragVec;
+            if (needFold) {
+                newPosition.z = h;
+                normal = newPosition - vec3(centerPoint, 0.0);
+            } else {
+                newPosition.z = -h;
+                normal = -newPosition + vec3(centerPoint, 0.0);
+            }
+        }
+        newPosition.z += halfFoldHeight;
+        normal = normalize(normal);
+    }
+    vec3 litPosition = newPosition;
+    newPosition += normal * uLift;
+
+    // 环境光
+    vec3 ambient = uLight.ambient * uLight.color;
+
+    // 漫反射
+    vec3 direction=normalize(uLight.direction);
+    float diff = max(dot(normal,-direction), 0.0);
+    vec3 diffuse =uLight.diffuse * diff * uLight.color;
+
+    // 镜面光
+    vec3 viewDir = normalize(uViewPos - litPosition);
+    vec3 reflectDir = reflect(-direction, normal);
+    float spec = pow(max(dot(viewDir, reflectDir), 0.0), 32.0);
+    vec3 specular = uLight.specular * spec * uLight.color;
+
+    vBlendColor = vec4(ambient + diffuse + specular, 1.0);
+    gl_Position = uMVPMatrix * vec4(newPosition, 1.0);
+}
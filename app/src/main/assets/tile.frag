@@ -0,0 +1,19 @@
+precision mediump float;
+
+uniform sampler2D uTextureUnit;
+uniform sampler2D uOverlayUnit;
+uniform vec4 uOverlayRect;
+uniform mat4 uColorMatrix;
+uniform vec4 uColorOffset;
+varying vec2 vTextureCoordinates;
+varying vec2 vPageCoordinates;
+void main() {
+    vec4 color = texture2D(uTextureUnit, vTextureCoordinates);
+    // 批注覆盖层按页面坐标叠加在瓦片上，与页面相同
+    vec2 overlayCoordinates = (vPageCoordinates - uOverlayRect.xy) / (uOverlayRect.zw - uOverlayRect.xy);
+    vec2 inside = step(uOverlayRect.xy, vPageCoordinates) * step(vPageCoordinates, uOverlayRect.zw);
+    vec4 overlay = texture2D(uOverlayUnit, overlayCoordinates) * inside.x * inside.y;
+    color = vec4(color.rgb * (1.0 - overlay.a) + overlay.rgb, color.a);
+    // 与页面相同的阅读主题
+    gl_FragColor = clamp(uColorMatrix * color + uColorOffset, 0.0, 1.0);
+}
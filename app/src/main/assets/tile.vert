@@ -0,0 +1,17 @@
+precision mediump float;
+
+uniform mat4 uMVPMatrix;
+uniform vec2 uPageSize;
+
+// 页面坐标
+attribute vec2 aPosition;
+attribute vec2 aTextureCoordinates;
+
+varying vec2 vTextureCoordinates;
+varying vec2 vPageCoordinates;
+
+void main() {
+    vTextureCoordinates = aTextureCoordinates;
+    vPageCoordinates = aPosition / uPageSize;
+    gl_Position = uMVPMatrix * vec4(aPosition, 0.0, 1.0);
+}
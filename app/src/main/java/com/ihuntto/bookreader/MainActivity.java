@@ -16,47 +16,546 @@
 
 package com.ihuntto.bookreader;
 
+import android.content.Context;
+import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Bundle;
-import android.support.annotation.IdRes;
+import android.os.ParcelFileDescriptor;
 import android.support.v7.app.AppCompatActivity;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.TypedValue;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import com.ihuntto.bookreader.book.BookSource;
+import com.ihuntto.bookreader.book.EpubBook;
+import com.ihuntto.bookreader.book.FolderImageSource;
+import com.ihuntto.bookreader.book.ImageBookSource;
+import com.ihuntto.bookreader.book.MappedTextBookSource;
+import com.ihuntto.bookreader.book.ZipImageSource;
+import com.ihuntto.bookreader.device.DeviceTier;
+import com.ihuntto.bookreader.device.DeviceTierProbe;
+import com.ihuntto.bookreader.epub.EpubPageProvider;
 import com.ihuntto.bookreader.flip.FlipOver;
 import com.ihuntto.bookreader.flip.FlipOverPage;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.image.ImagePageProvider;
+import com.ihuntto.bookreader.page.AbstractPageProvider;
+import com.ihuntto.bookreader.page.DiskPageCache;
+import com.ihuntto.bookreader.pdf.PdfPageProvider;
+import com.ihuntto.bookreader.text.PageStyle;
+import com.ihuntto.bookreader.text.TextPageProvider;
 import com.ihuntto.bookreader.ui.PageEditView;
 import com.ihuntto.bookreader.ui.SimpleFlipOver;
 import com.ihuntto.bookreader.ui.SimulateFlipOver;
 import com.ihuntto.bookreader.ui.ViewPagerFlipOver;
 import com.ihuntto.bookreader.ui.gl.SimpleGLFlipOver;
+import com.ihuntto.bookreader.ui.gl.util.CompressedTextureCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
+    private static final String PAGINATION_DIR = "pagination";
+    private static final String BOOK_COPY_DIR = "book_copies";
+    private static final long BOOK_COPY_BYTES = 256L * 1024 * 1024;
+    private static final String EPUB_TYPE = "application/epub+zip";
+    private static final String PDF_TYPE = "application/pdf";
+    private static final String PAGE_CACHE_DIR = "pages";
+    private static final long PAGE_CACHE_BYTES = 128L * 1024 * 1024;
+    private static final String TEXTURE_CACHE_DIR = "etc1_pages";
+    private static final long TEXTURE_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final String THUMBNAIL_DIR = "thumbnails";
+    private static final String[] IMAGE_BOOK_TYPES = {
+            "application/zip",
+            "application/x-cbz",
+            "application/vnd.comicbook+zip"
+    };
 
     private FlipOver mFlipOver;
+    private FrameLayout mFlipOverContainer;
     private PageEditView mPageEditView;
+    private float mFontScale = 1.0f;
+    private ReadingTheme mReadingTheme = ReadingTheme.DEFAULT;
+    private DeviceTier mDeviceTier;
+    private Bitmap.Config mPageConfig = Bitmap.Config.ARGB_8888;
+    private DiskPageCache mDiskPageCache;
+    private CompressedTextureCache mCompressedTextureCache;
+    // 打开书籍要解码或复制整个文件，在后台进行
+    private final ExecutorService mBookExecutor = Executors.newSingleThreadExecutor();
+    // 每次打开书籍加一，过期的打开结果直接关闭
+    private int mBookGeneration;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-        useFlipOver(SimpleGLFlipOver.class, R.id.simple_gl_flip_over);
+        mFlipOverContainer = findViewById(R.id.flip_over_container);
         mPageEditView = findViewById(R.id.page_edit_view);
+        mPageEditView.setOnPageEditListener(mOnPageEditListener);
+        mPageEditView.setThumbnailDirectory(new File(getCacheDir(), THUMBNAIL_DIR));
+        mDiskPageCache = DiskPageCache.open(new File(getCacheDir(), PAGE_CACHE_DIR), PAGE_CACHE_BYTES);
+        mCompressedTextureCache = CompressedTextureCache.open(
+                new File(getCacheDir(), TEXTURE_CACHE_DIR), TEXTURE_CACHE_BYTES);
+        openBookAsync(getIntent());
+
+        DeviceTier deviceTier = DeviceTierProbe.getCachedTier(this);
+        if (deviceTier != null) {
+            applyDeviceTier(deviceTier);
+        } else {
+            // 先按中档显示页面，首帧之后再测试
+            applyDeviceTier(DeviceTier.MEDIUM);
+            getWindow().getDecorView().post(new Runnable() {
+                @Override
+                public void run() {
+                    probeDeviceTier();
+                }
+            });
+        }
+    }
+
+    private void probeDeviceTier() {
+        final Context appContext = getApplicationContext();
+        final DeviceTier provisionalTier = mDeviceTier;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final DeviceTier deviceTier = DeviceTierProbe.probe(appContext);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // 用户已从菜单换过翻页方式时不再改变
+                        if (isFinishing() || mFlipOver == null || deviceTier == provisionalTier
+                                || mFlipOver.getClass() != getFlipOverClass(provisionalTier)) {
+                            return;
+                        }
+                        int currentPageIndex = mFlipOver.getCurrentPageIndex();
+                        Class<? extends FlipOver> flipOverClass = mFlipOver.getClass();
+                        applyDeviceTier(deviceTier);
+                        if (mFlipOver.getClass() != flipOverClass) {
+                            mFlipOver.setCurrentPageIndex(currentPageIndex);
+                        }
+                    }
+                });
+            }
+        }, "DeviceTierProbe").start();
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        setIntent(intent);
+        closeBook();
+        if (mFlipOver != null) {
+            mFlipOver.setPageProvider(null);
+        }
+        openBookAsync(intent);
+    }
+
+    /**
+     * Opens the book of intent on a background thread and shows its first
+     * page once it is ready.
+     */
+    private void openBookAsync(final Intent intent) {
+        final int generation = ++mBookGeneration;
+        final PageStyle pageStyle = createPageStyle();
+        mBookExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final FlipOver.PageProvider pageProvider = openPageProvider(intent, pageStyle);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mBookGeneration) {
+                            // 已换书或界面已销毁
+                            closePageProvider(pageProvider);
+                            return;
+                        }
+                        setBook(pageProvider);
+                    }
+                });
+            }
+        });
+    }
+
+    private void setBook(FlipOver.PageProvider pageProvider) {
+        if (pageProvider instanceof AbstractPageProvider) {
+            AbstractPageProvider abstractPageProvider = (AbstractPageProvider) pageProvider;
+            abstractPageProvider.setBitmapConfig(mPageConfig);
+            abstractPageProvider.setDiskCache(mDiskPageCache);
+        }
+        mPageProvider = pageProvider;
+        mPageEditView.setPageProvider(pageProvider);
+        if (mFlipOver != null) {
+            mFlipOver.setPageProvider(pageProvider);
+        }
+    }
+
+    // 在后台线程调用
+    private FlipOver.PageProvider openPageProvider(Intent intent, PageStyle pageStyle) {
+        Uri uri = intent != null ? intent.getData() : null;
+        if (uri == null) {
+            return mSamplePageProvider;
+        }
+        if (isPdf(uri)) {
+            PdfPageProvider pageProvider = openPdf(uri);
+            return pageProvider != null ? pageProvider : mSamplePageProvider;
+        }
+        if (isEpub(uri)) {
+            EpubBook book = openEpub(uri);
+            if (book == null) {
+                return mSamplePageProvider;
+            }
+            EpubPageProvider pageProvider = new EpubPageProvider(book, pageStyle);
+            pageProvider.setIndexDirectory(new File(getCacheDir(), PAGINATION_DIR));
+            pageProvider.setOnPagesChangedListener(mOnPagesChangedListener);
+            return pageProvider;
+        }
+        if (isImageBook(uri)) {
+            ImageBookSource imageSource = openImageSource(uri);
+            if (imageSource == null) {
+                return mSamplePageProvider;
+            }
+            return new ImagePageProvider(imageSource);
+        }
+        BookSource source = openBookSource(uri);
+        if (source == null) {
+            return mSamplePageProvider;
+        }
+        TextPageProvider pageProvider = new TextPageProvider(source, pageStyle);
+        pageProvider.setIndexDirectory(new File(getCacheDir(), PAGINATION_DIR));
+        pageProvider.setOnPagesChangedListener(mOnPagesChangedListener);
+        return pageProvider;
+    }
+
+    private void closeBook() {
+        // 停止在后台生成缩略图后再关闭
+        mPageEditView.setPageProvider(null);
+        closePageProvider(mPageProvider);
+        mPageProvider = null;
+    }
+
+    private static void closePageProvider(FlipOver.PageProvider pageProvider) {
+        if (pageProvider instanceof AbstractPageProvider) {
+            AbstractPageProvider abstractPageProvider = (AbstractPageProvider) pageProvider;
+            abstractPageProvider.setOnPagesChangedListener(null);
+            abstractPageProvider.close();
+        }
+    }
+
+    private boolean isPdf(Uri uri) {
+        if (PDF_TYPE.equals(getContentResolver().getType(uri))) {
+            return true;
+        }
+        String path = uri.getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".pdf");
+    }
+
+    private PdfPageProvider openPdf(Uri uri) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Log.w(TAG, "PdfRenderer needs API 21: " + uri);
+            return null;
+        }
+        try {
+            File file = "file".equals(uri.getScheme()) ? new File(uri.getPath()) : copyToCache(uri);
+            return new PdfPageProvider(uri.toString(), file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open PDF: " + uri, e);
+            return null;
+        }
+    }
+
+    private boolean isEpub(Uri uri) {
+        if (EPUB_TYPE.equals(getContentResolver().getType(uri))) {
+            return true;
+        }
+        String path = uri.getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".epub");
+    }
+
+    private EpubBook openEpub(Uri uri) {
+        try {
+            File file = "file".equals(uri.getScheme()) ? new File(uri.getPath()) : copyToCache(uri);
+            return new EpubBook(uri.toString(), file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open EPUB: " + uri, e);
+            return null;
+        }
+    }
+
+    private boolean isImageBook(Uri uri) {
+        String path = uri.getPath();
+        if ("file".equals(uri.getScheme()) && path != null && new File(path).isDirectory()) {
+            return true;
+        }
+        String type = getContentResolver().getType(uri);
+        for (String imageBookType : IMAGE_BOOK_TYPES) {
+            if (imageBookType.equals(type)) {
+                return true;
+            }
+        }
+        if (path == null) {
+            return false;
+        }
+        String lowerCasePath = path.toLowerCase(Locale.US);
+        return lowerCasePath.endsWith(".cbz") || lowerCasePath.endsWith(".zip");
+    }
+
+    private ImageBookSource openImageSource(Uri uri) {
+        try {
+            if ("file".equals(uri.getScheme())) {
+                File file = new File(uri.getPath());
+                if (file.isDirectory()) {
+                    return new FolderImageSource(file);
+                }
+                return new ZipImageSource(uri.toString(), file);
+            }
+            // ZipFile需要随机访问，content uri先复制到缓存目录
+            return new ZipImageSource(uri.toString(), copyToCache(uri));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open image book: " + uri, e);
+            return null;
+        }
+    }
+
+    private File copyToCache(Uri uri) throws IOException {
+        File directory = new File(getCacheDir(), BOOK_COPY_DIR);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File file = new File(directory, Integer.toHexString(uri.toString().hashCode()) + ".zip");
+        // 大小一致时沿用上次的副本，流没有大小时总是重新复制
+        try {
+            ParcelFileDescriptor fileDescriptor = getContentResolver().openFileDescriptor(uri, "r");
+            if (fileDescriptor != null) {
+                long size = fileDescriptor.getStatSize();
+                fileDescriptor.close();
+                if (size > 0 && size == file.length()) {
+                    // 记录最近使用的时间，清理时最后删除
+                    file.setLastModified(System.currentTimeMillis());
+                    return file;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not stat " + uri, e);
+        }
+        InputStream input = getContentResolver().openInputStream(uri);
+        if (input == null) {
+            throw new IOException("Could not open " + uri);
+        }
+        OutputStream output = null;
+        try {
+            output = new FileOutputStream(file);
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+            if (output != null) {
+                output.close();
+            }
+        }
+        trimBookCopies(directory, file);
+        return file;
+    }
+
+    // 按最近使用的顺序保留副本，总大小不超过BOOK_COPY_BYTES，刚复制的总是保留
+    private static void trimBookCopies(File directory, File keep) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = b.lastModified() - a.lastModified();
+                return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+            }
+        });
+        long total = keep.length();
+        for (File file : files) {
+            if (file.equals(keep)) {
+                continue;
+            }
+            long length = file.length();
+            if (total + length <= BOOK_COPY_BYTES || !file.delete()) {
+                total += length;
+            }
+        }
+    }
+
+    private BookSource openBookSource(Uri uri) {
+        ParcelFileDescriptor fileDescriptor = null;
+        try {
+            fileDescriptor = getContentResolver().openFileDescriptor(uri, "r");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map book, copying it instead: " + uri, e);
+        }
+        if (fileDescriptor != null) {
+            FileInputStream input = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor);
+            try {
+                return new MappedTextBookSource(uri.toString(), input);
+            } catch (IOException e) {
+                // 管道等不能映射的描述符
+                Log.w(TAG, "Could not map book, copying it instead: " + uri, e);
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        // 管道等不能映射的内容先流式复制到缓存目录再映射，不整个读入内存
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(copyToCache(uri));
+            return new MappedTextBookSource(uri.toString(), input);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read book: " + uri, e);
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    private PageStyle createPageStyle() {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        return new PageStyle.Builder()
+                .textSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 18 * mFontScale, metrics))
+                .padding((int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 16, metrics))
+                .create();
+    }
+
+    private AbstractPageProvider.OnPagesChangedListener mOnPagesChangedListener =
+            new AbstractPageProvider.OnPagesChangedListener() {
+                @Override
+                public void onPagesChanged() {
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mFlipOver == null) {
+                                return;
+                            }
+                            // 新排出的页由翻页引擎在持有当前页的线程编号，当前页随之移动
+                            mFlipOver.notifyDataSetChanged();
+                        }
+                    });
+                }
+            };
+
+    private PageEditView.OnPageEditListener mOnPageEditListener = new PageEditView.OnPageEditListener() {
+        @Override
+        public void onFontScaleChanged(float fontScale) {
+            mFontScale = fontScale;
+            if (mPageProvider instanceof EpubPageProvider && mFlipOver != null) {
+                // 从当前章节的第一页继续
+                EpubPageProvider pageProvider = (EpubPageProvider) mPageProvider;
+                int index = pageProvider.setStyle(createPageStyle(), mFlipOver.getCurrentPageIndex());
+                mFlipOver.clearAnnotations();
+                mFlipOver.setCurrentPageIndex(index);
+                mFlipOver.notifyDataSetChanged();
+                return;
+            }
+            if (!(mPageProvider instanceof TextPageProvider) || mFlipOver == null) {
+                return;
+            }
+            TextPageProvider pageProvider = (TextPageProvider) mPageProvider;
+            // 以当前页的起始位置为锚点，先排出这一页，其余页在后台向两侧排版
+            int anchorOffset = pageProvider.getPageOffset(mFlipOver.getCurrentPageIndex());
+            pageProvider.setStyle(createPageStyle(), anchorOffset);
+            // 批注记录的是旧排版中的位置
+            mFlipOver.clearAnnotations();
+            mFlipOver.setCurrentPageIndex(pageProvider.getPageIndex(anchorOffset));
+            mFlipOver.notifyDataSetChanged();
+        }
+
+        @Override
+        public void onReadingThemeChanged(ReadingTheme readingTheme) {
+            mReadingTheme = readingTheme;
+            if (mFlipOver != null) {
+                mFlipOver.setReadingTheme(readingTheme);
+            }
+        }
+
+        @Override
+        public void onPageScrubbed(int pageIndex) {
+            if (mFlipOver != null) {
+                mFlipOver.setCurrentPageIndex(pageIndex);
+            }
+        }
+    };
+
+    private void applyDeviceTier(DeviceTier deviceTier) {
+        mDeviceTier = deviceTier;
+        mPageConfig = deviceTier.getPageConfig();
+        if (mPageProvider instanceof AbstractPageProvider) {
+            ((AbstractPageProvider) mPageProvider).setBitmapConfig(mPageConfig);
+        }
+        if (mFlipOver instanceof SimpleGLFlipOver) {
+            ((SimpleGLFlipOver) mFlipOver).setRenderQuality(deviceTier.getRenderQuality());
+        }
+        useFlipOver(getFlipOverClass(deviceTier));
+    }
+
+    private static Class<? extends FlipOver> getFlipOverClass(DeviceTier deviceTier) {
+        return deviceTier.useFold() ? SimpleGLFlipOver.class : SimpleFlipOver.class;
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (mFlipOver instanceof GLSurfaceView) {
+            ((GLSurfaceView) mFlipOver).onResume();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        if (mFlipOver instanceof GLSurfaceView) {
+            ((GLSurfaceView) mFlipOver).onPause();
+        }
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mFlipOver.setOnPageFlipListener(null);
-        mFlipOver.setPageProvider(null);
+        releaseFlipOver();
+        // 还在打开的书籍完成后自行关闭
+        mBookGeneration++;
+        mBookExecutor.shutdown();
+        closeBook();
+        mDiskPageCache.close();
+        if (mCompressedTextureCache != null) {
+            mCompressedTextureCache.close();
+        }
     }
 
     private FlipOver.OnPageFlipListener mOnPageFlipListener = new FlipOver.OnPageFlipListener() {
@@ -68,11 +567,22 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void onPageClick() {
+            if (mFlipOver != null) {
+                mPageEditView.setCurrentPageIndex(mFlipOver.getCurrentPageIndex());
+            }
             mPageEditView.switchVisibility();
         }
+
+        @Override
+        public void onPageJump(int index) {
+            mPageEditView.setCurrentPageIndex(index);
+            mPageEditView.dismiss();
+        }
     };
 
-    private FlipOver.PageProvider mPageProvider = new FlipOver.PageProvider() {
+    private FlipOver.PageProvider mPageProvider;
+
+    private FlipOver.PageProvider mSamplePageProvider = new FlipOver.PageProvider() {
         private int[] mBitmapIds = new int[]{
                 R.mipmap.one,
                 R.mipmap.two,
@@ -81,6 +591,11 @@ public class MainActivity extends AppCompatActivity {
 
         private Bitmap[] mBitmaps = new Bitmap[mBitmapIds.length];
 
+        @Override
+        public String getBookId() {
+            return "sample";
+        }
+
         @Override
         public int getPageCount() {
             return mBitmaps.length * 2;
@@ -107,12 +622,13 @@ public class MainActivity extends AppCompatActivity {
             if (cachedBitmap != null
                     && !cachedBitmap.isRecycled()
                     && cachedBitmap.getWidth() == width
-                    && cachedBitmap.getHeight() == height) {
+                    && cachedBitmap.getHeight() == height
+                    && cachedBitmap.getConfig() == mPageConfig) {
                 Log.i(TAG, "use cached bitmap");
                 return cachedBitmap;
             }
 
-            cachedBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            cachedBitmap = Bitmap.createBitmap(width, height, mPageConfig);
             cachedBitmap.eraseColor(Color.WHITE);
             Canvas canvas = new Canvas(cachedBitmap);
             Drawable drawable = getResources().getDrawable(mBitmapIds[bitmapIndex]);
@@ -169,40 +685,56 @@ public class MainActivity extends AppCompatActivity {
 
         //noinspection SimplifiableIfStatement
         if (id == R.id.use_view_pager) {
-            useFlipOver(ViewPagerFlipOver.class, R.id.view_pager_flip_over);
+            useFlipOver(ViewPagerFlipOver.class);
             return true;
         } else if (id == R.id.use_third_party) {
-            useFlipOver(SimulateFlipOver.class, R.id.simulate_flip_over);
+            useFlipOver(SimulateFlipOver.class);
             return true;
         } else if (id == R.id.use_simple) {
-            useFlipOver(SimpleFlipOver.class, R.id.simple_flip_over);
+            useFlipOver(SimpleFlipOver.class);
             return true;
         } else if (id == R.id.use_simple_gl) {
-            useFlipOver(SimpleGLFlipOver.class, R.id.simple_gl_flip_over);
+            useFlipOver(SimpleGLFlipOver.class);
         }
 
         return super.onOptionsItemSelected(item);
     }
 
-    private void useFlipOver(Class flipOverClazz, @IdRes int viewId) {
-        if (hideFlipOver(flipOverClazz)) return;
-        mFlipOver = findViewById(viewId);
-        showAndInitFlipOver();
-    }
-
-    private void showAndInitFlipOver() {
-        ((View) mFlipOver).setVisibility(View.VISIBLE);
+    private void useFlipOver(Class<? extends FlipOver> flipOverClazz) {
+        if (mFlipOver != null && mFlipOver.getClass() == flipOverClazz) {
+            return;
+        }
+        releaseFlipOver();
+        mFlipOver = createFlipOver(flipOverClazz);
+        if (mFlipOver instanceof SimpleGLFlipOver && mDeviceTier != null) {
+            ((SimpleGLFlipOver) mFlipOver).setRenderQuality(mDeviceTier.getRenderQuality());
+        }
+        if (mFlipOver instanceof SimpleGLFlipOver) {
+            ((SimpleGLFlipOver) mFlipOver).setCompressedTextureCache(mCompressedTextureCache);
+        }
+        mFlipOverContainer.addView((View) mFlipOver, new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
         mFlipOver.setOnPageFlipListener(mOnPageFlipListener);
+        mFlipOver.setReadingTheme(mReadingTheme);
         mFlipOver.setPageProvider(mPageProvider);
     }
 
-    private boolean hideFlipOver(Class clazz) {
-        if (mFlipOver != null) {
-            if (mFlipOver.getClass() == clazz) {
-                return true;
-            }
-            ((View) mFlipOver).setVisibility(View.GONE);
+    private FlipOver createFlipOver(Class<? extends FlipOver> flipOverClazz) {
+        try {
+            return flipOverClazz.getConstructor(Context.class).newInstance(this);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not create flip over: " + flipOverClazz.getName(), e);
+        }
+    }
+
+    // 移除后GLSurfaceView会退出渲染线程并销毁EGL context
+    private void releaseFlipOver() {
+        if (mFlipOver == null) {
+            return;
         }
-        return false;
+        mFlipOver.setOnPageFlipListener(null);
+        mFlipOver.setPageProvider(null);
+        mFlipOverContainer.removeView((View) mFlipOver);
+        mFlipOver = null;
     }
 }
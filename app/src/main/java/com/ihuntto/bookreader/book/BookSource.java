@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+/**
+ * Character content of a book, served by range so that implementations do
+ * not need to hold the whole text on the heap.
+ */
+public interface BookSource {
+    // 内容的唯一标识，用于缓存
+    String getId();
+
+    int length();
+
+    CharSequence subSequence(int start, int end);
+
+    void close();
+}
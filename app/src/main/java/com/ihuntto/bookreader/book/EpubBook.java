@@ -0,0 +1,220 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Spine of an EPUB archive. Opening reads the central directory, the
+ * container and the package document; chapter documents are only inflated
+ * when {@link #openChapter(int)} is called.
+ */
+public class EpubBook {
+    private static final String CONTAINER_PATH = "META-INF/container.xml";
+
+    private final String mId;
+    private final ZipFile mZipFile;
+    private final List<ZipEntry> mChapters = new ArrayList<>();
+    private String mTitle;
+
+    public EpubBook(String id, File file) throws IOException {
+        mZipFile = new ZipFile(file);
+        try {
+            String packagePath = readPackagePath();
+            readPackage(packagePath);
+        } catch (XmlPullParserException e) {
+            mZipFile.close();
+            throw new IOException("Malformed EPUB: " + e.getMessage());
+        } catch (IOException e) {
+            mZipFile.close();
+            throw e;
+        }
+        mId = id + "#" + file.length() + "-" + Long.toHexString(file.lastModified());
+    }
+
+    private String readPackagePath() throws IOException, XmlPullParserException {
+        XmlPullParser parser = openParser(CONTAINER_PATH);
+        try {
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG && "rootfile".equals(parser.getName())) {
+                    String path = parser.getAttributeValue(null, "full-path");
+                    if (path != null) {
+                        return path;
+                    }
+                }
+                eventType = parser.next();
+            }
+        } finally {
+            closeParser(parser);
+        }
+        throw new IOException("No package document in " + CONTAINER_PATH);
+    }
+
+    private void readPackage(String packagePath) throws IOException, XmlPullParserException {
+        int slash = packagePath.lastIndexOf('/');
+        String baseDirectory = slash >= 0 ? packagePath.substring(0, slash + 1) : "";
+        Map<String, String> manifest = new HashMap<>();
+        List<String> spine = new ArrayList<>();
+        XmlPullParser parser = openParser(packagePath);
+        try {
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    String name = parser.getName();
+                    if ("item".equals(name)) {
+                        String mediaType = parser.getAttributeValue(null, "media-type");
+                        String href = parser.getAttributeValue(null, "href");
+                        String id = parser.getAttributeValue(null, "id");
+                        // 只有XHTML文档可以放入spine
+                        if (id != null && href != null && mediaType != null && mediaType.contains("html")) {
+                            manifest.put(id, href);
+                        }
+                    } else if ("itemref".equals(name)) {
+                        String idref = parser.getAttributeValue(null, "idref");
+                        if (idref != null) {
+                            spine.add(idref);
+                        }
+                    } else if (mTitle == null && "title".equals(localName(name))) {
+                        mTitle = parser.nextText();
+                    }
+                }
+                eventType = parser.next();
+            }
+        } finally {
+            closeParser(parser);
+        }
+        for (String idref : spine) {
+            String href = manifest.get(idref);
+            if (href == null) {
+                continue;
+            }
+            ZipEntry entry = mZipFile.getEntry(resolve(baseDirectory, href));
+            if (entry != null) {
+                mChapters.add(entry);
+            }
+        }
+        if (mChapters.isEmpty()) {
+            throw new IOException("Empty spine in " + packagePath);
+        }
+    }
+
+    private XmlPullParser openParser(String path) throws IOException, XmlPullParserException {
+        ZipEntry entry = mZipFile.getEntry(path);
+        if (entry == null) {
+            throw new IOException("Missing " + path);
+        }
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        parser.setInput(mZipFile.getInputStream(entry), null);
+        return parser;
+    }
+
+    private static void closeParser(XmlPullParser parser) {
+        try {
+            parser.setInput(null);
+        } catch (XmlPullParserException ignored) {
+        }
+    }
+
+    private static String localName(String name) {
+        int colon = name.indexOf(':');
+        return colon >= 0 ? name.substring(colon + 1) : name;
+    }
+
+    // href相对于包文档所在目录，可能含有百分号编码和..
+    private static String resolve(String baseDirectory, String href) {
+        int fragment = href.indexOf('#');
+        if (fragment >= 0) {
+            href = href.substring(0, fragment);
+        }
+        try {
+            href = URLDecoder.decode(href.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ignored) {
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : (baseDirectory + href).split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                if (!segments.isEmpty()) {
+                    segments.remove(segments.size() - 1);
+                }
+            } else {
+                segments.add(segment);
+            }
+        }
+        StringBuilder path = new StringBuilder();
+        for (String segment : segments) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(segment);
+        }
+        return path.toString();
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    // 可能为null
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public int getChapterCount() {
+        return mChapters.size();
+    }
+
+    /**
+     * Compressed size of chapter index in bytes, known from the central
+     * directory without inflating anything.
+     */
+    public long getChapterSize(int index) {
+        ZipEntry entry = mChapters.get(index);
+        long size = entry.getCompressedSize();
+        return size >= 0 ? size : Math.max(0, entry.getSize());
+    }
+
+    public InputStream openChapter(int index) throws IOException {
+        return mZipFile.getInputStream(mChapters.get(index));
+    }
+
+    public void close() {
+        try {
+            mZipFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
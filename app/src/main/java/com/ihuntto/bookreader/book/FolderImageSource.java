@@ -0,0 +1,77 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Images of a directory in natural name order.
+ */
+public class FolderImageSource implements ImageBookSource {
+    private final String mId;
+    private final List<File> mFiles = new ArrayList<>();
+
+    public FolderImageSource(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Not a readable directory: " + directory);
+        }
+        List<String> names = new ArrayList<>();
+        long lastModified = 0;
+        for (File file : files) {
+            if (file.isFile() && ImageNames.isImage(file.getName())) {
+                names.add(file.getName());
+                lastModified = Math.max(lastModified, file.lastModified());
+            }
+        }
+        ImageNames.sort(names);
+        for (String name : names) {
+            mFiles.add(new File(directory, name));
+        }
+        // 增删或修改图片后旧的缓存不再可用
+        mId = directory.getAbsolutePath() + "#" + names.size() + "-" + Long.toHexString(lastModified);
+    }
+
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @Override
+    public int getImageCount() {
+        return mFiles.size();
+    }
+
+    @Override
+    public InputStream openImage(int index) throws IOException {
+        return new FileInputStream(mFiles.get(index));
+    }
+
+    @Override
+    public String getImagePath(int index) {
+        return mFiles.get(index).getAbsolutePath();
+    }
+
+    @Override
+    public void close() {
+    }
+}
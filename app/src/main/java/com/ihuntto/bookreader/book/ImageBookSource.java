@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Ordered page images of a book, such as a folder of scans or a CBZ
+ * archive. Images are opened one at a time so that only the pages being
+ * decoded are read.
+ */
+public interface ImageBookSource {
+    // 内容的唯一标识，用于缓存
+    String getId();
+
+    int getImageCount();
+
+    // 可能在多个线程同时调用，调用方负责关闭
+    InputStream openImage(int index) throws IOException;
+
+    // 图片是普通文件时返回其路径，解码器可以直接读取；否则为null
+    String getImagePath(int index);
+
+    void close();
+}
@@ -0,0 +1,99 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * File name rules shared by the image sources.
+ */
+final class ImageNames {
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png", ".webp", ".gif", ".bmp"};
+
+    private ImageNames() {
+    }
+
+    static boolean isImage(String name) {
+        String lowerCase = name.toLowerCase(Locale.US);
+        for (String extension : EXTENSIONS) {
+            if (lowerCase.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sorts names so that embedded numbers compare by value: page2 comes
+     * before page10.
+     */
+    static void sort(List<String> names) {
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return compareNatural(a, b);
+            }
+        });
+    }
+
+    static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int startA = i;
+                int startB = j;
+                while (i < a.length() && Character.isDigit(a.charAt(i))) {
+                    i++;
+                }
+                while (j < b.length() && Character.isDigit(b.charAt(j))) {
+                    j++;
+                }
+                String numberA = trimZeros(a.substring(startA, i));
+                String numberB = trimZeros(b.substring(startB, j));
+                if (numberA.length() != numberB.length()) {
+                    return numberA.length() - numberB.length();
+                }
+                int result = numberA.compareTo(numberB);
+                if (result != 0) {
+                    return result;
+                }
+            } else {
+                int result = Character.toLowerCase(ca) - Character.toLowerCase(cb);
+                if (result != 0) {
+                    return result;
+                }
+                i++;
+                j++;
+            }
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static String trimZeros(String number) {
+        int start = 0;
+        while (start < number.length() - 1 && number.charAt(start) == '0') {
+            start++;
+        }
+        return number.substring(start);
+    }
+}
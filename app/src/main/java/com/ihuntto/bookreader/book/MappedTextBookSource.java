@@ -0,0 +1,276 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Plain text book backed by a memory mapped file. The file is decoded in
+ * fixed size byte windows; a table of (byte offset, char offset) checkpoints
+ * at window boundaries lets any character range be decoded on demand, and
+ * only a few decoded windows are kept on the heap regardless of book size.
+ */
+public class MappedTextBookSource implements BookSource {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = MappedTextBookSource.class.getSimpleName();
+
+    private static final int WINDOW_BYTES = 64 * 1024;
+    private static final int DETECT_BYTES = 64 * 1024;
+    private static final int CACHED_WINDOWS = 4;
+
+    private final FileInputStream mInput;
+    private final MappedByteBuffer mBuffer;
+    private final Charset mCharset;
+    private final String mId;
+
+    // 第i个窗口从mByteOffsets[i]字节、mCharOffsets[i]字符开始，两者都落在字符边界上
+    private int[] mByteOffsets;
+    private int[] mCharOffsets;
+    private int mWindowCount;
+    private int mLength;
+
+    private final Map<Integer, char[]> mWindows = new LinkedHashMap<Integer, char[]>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+            return size() > CACHED_WINDOWS;
+        }
+    };
+
+    /**
+     * Maps and indexes the whole stream. Takes ownership of input, which is
+     * closed by {@link #close()}.
+     */
+    public MappedTextBookSource(String uri, FileInputStream input) throws IOException {
+        mInput = input;
+        FileChannel channel = input.getChannel();
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large: " + size);
+        }
+        mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        int bomLength = detectBom();
+        mCharset = detectCharset(bomLength);
+        mId = uri + "#" + size + "-" + Long.toHexString(checksum());
+        buildCheckpoints(bomLength);
+        if (D) {
+            Log.d(TAG, "mapped " + size + " bytes as " + mCharset.name()
+                    + ", " + mLength + " chars in " + mWindowCount + " windows");
+        }
+    }
+
+    public Charset getCharset() {
+        return mCharset;
+    }
+
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @Override
+    public int length() {
+        return mLength;
+    }
+
+    @Override
+    public synchronized CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > mLength || start > end) {
+            throw new IndexOutOfBoundsException("start=" + start + " end=" + end + " length=" + mLength);
+        }
+        StringBuilder text = new StringBuilder(end - start);
+        int window = findWindow(start);
+        int position = start;
+        while (position < end) {
+            char[] chars = getWindow(window);
+            int windowStart = mCharOffsets[window];
+            int from = position - windowStart;
+            int to = Math.min(end - windowStart, chars.length);
+            text.append(chars, from, to - from);
+            position = windowStart + to;
+            window++;
+        }
+        return text;
+    }
+
+    @Override
+    public synchronized void close() {
+        mWindows.clear();
+        try {
+            mInput.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private int detectBom() {
+        int size = mBuffer.limit();
+        int b0 = size > 0 ? mBuffer.get(0) & 0xFF : -1;
+        int b1 = size > 1 ? mBuffer.get(1) & 0xFF : -1;
+        int b2 = size > 2 ? mBuffer.get(2) & 0xFF : -1;
+        if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+            return 3;
+        }
+        if ((b0 == 0xFF && b1 == 0xFE) || (b0 == 0xFE && b1 == 0xFF)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    private Charset detectCharset(int bomLength) {
+        if (bomLength == 3) {
+            return Charset.forName("UTF-8");
+        }
+        if (bomLength == 2) {
+            return Charset.forName((mBuffer.get(0) & 0xFF) == 0xFF ? "UTF-16LE" : "UTF-16BE");
+        }
+        // 没有BOM时，开头一段是合法的UTF-8就按UTF-8处理，否则按中文网文常见的GBK处理
+        ByteBuffer sample = mBuffer.duplicate();
+        sample.limit(Math.min(sample.limit(), DETECT_BYTES));
+        boolean truncated = sample.limit() < mBuffer.limit();
+        CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer out = CharBuffer.allocate(1024);
+        while (true) {
+            CoderResult result = decoder.decode(sample, out, !truncated);
+            if (result.isError()) {
+                return Charset.forName("GBK");
+            }
+            if (result.isUnderflow()) {
+                return Charset.forName("UTF-8");
+            }
+            out.clear();
+        }
+    }
+
+    // 文件大小加首尾各一段内容的校验和，文件被改写后标识随之变化
+    private long checksum() {
+        CRC32 crc = new CRC32();
+        int size = mBuffer.limit();
+        byte[] bytes = new byte[Math.min(size, DETECT_BYTES)];
+        ByteBuffer head = mBuffer.duplicate();
+        head.get(bytes);
+        crc.update(bytes);
+        ByteBuffer tail = mBuffer.duplicate();
+        tail.position(size - bytes.length);
+        tail.get(bytes);
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private void buildCheckpoints(int bomLength) throws CharacterCodingException {
+        int size = mBuffer.limit();
+        int capacity = size / WINDOW_BYTES + 2;
+        mByteOffsets = new int[capacity];
+        mCharOffsets = new int[capacity];
+
+        CharsetDecoder decoder = newDecoder();
+        CharBuffer out = CharBuffer.allocate(WINDOW_BYTES);
+        ByteBuffer in = mBuffer.duplicate();
+        in.position(bomLength);
+        int chars = 0;
+        while (true) {
+            addCheckpoint(in.position(), chars);
+            if (!in.hasRemaining()) {
+                break;
+            }
+            in.limit(Math.min(size, in.position() + WINDOW_BYTES));
+            boolean endOfInput = in.limit() == size;
+            // 窗口末尾不完整的多字节字符留在in中，由下一个窗口解码
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (endOfInput) {
+                decoder.flush(out);
+            }
+            chars += out.position();
+            out.clear();
+            in.limit(size);
+        }
+        mLength = chars;
+    }
+
+    private void addCheckpoint(int byteOffset, int charOffset) {
+        if (mWindowCount > 0 && mByteOffsets[mWindowCount - 1] == byteOffset) {
+            return;
+        }
+        if (mWindowCount == mByteOffsets.length) {
+            mByteOffsets = Arrays.copyOf(mByteOffsets, mWindowCount * 2);
+            mCharOffsets = Arrays.copyOf(mCharOffsets, mWindowCount * 2);
+        }
+        mByteOffsets[mWindowCount] = byteOffset;
+        mCharOffsets[mWindowCount] = charOffset;
+        mWindowCount++;
+    }
+
+    private int findWindow(int charOffset) {
+        // 最后一个检查点是文件结尾，不构成窗口
+        int low = 0;
+        int high = mWindowCount - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mCharOffsets[mid] <= charOffset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private char[] getWindow(int window) {
+        char[] chars = mWindows.get(window);
+        if (chars != null) {
+            return chars;
+        }
+        ByteBuffer in = mBuffer.duplicate();
+        in.limit(mByteOffsets[window + 1]);
+        in.position(mByteOffsets[window]);
+        CharBuffer out = CharBuffer.allocate(mCharOffsets[window + 1] - mCharOffsets[window]);
+        CharsetDecoder decoder = newDecoder();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        chars = out.array();
+        mWindows.put(window, chars);
+        return chars;
+    }
+
+    private CharsetDecoder newDecoder() {
+        return mCharset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+public class StringBookSource implements BookSource {
+    private final String mId;
+    private final CharSequence mText;
+
+    public StringBookSource(String id, CharSequence text) {
+        mId = id;
+        mText = text;
+    }
+
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @Override
+    public int length() {
+        return mText.length();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return mText.subSequence(start, end);
+    }
+
+    @Override
+    public void close() {
+    }
+}
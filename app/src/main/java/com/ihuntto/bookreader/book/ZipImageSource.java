@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Images of a ZIP or CBZ archive in natural name order. Entries are read
+ * through the archive's central directory, nothing is extracted.
+ */
+public class ZipImageSource implements ImageBookSource {
+    private final String mId;
+    private final ZipFile mZipFile;
+    private final List<ZipEntry> mEntries = new ArrayList<>();
+
+    public ZipImageSource(String id, File file) throws IOException {
+        mZipFile = new ZipFile(file);
+        Map<String, ZipEntry> entries = new HashMap<>();
+        Enumeration<? extends ZipEntry> enumeration = mZipFile.entries();
+        while (enumeration.hasMoreElements()) {
+            ZipEntry entry = enumeration.nextElement();
+            if (!entry.isDirectory() && ImageNames.isImage(entry.getName())) {
+                entries.put(entry.getName(), entry);
+            }
+        }
+        List<String> names = new ArrayList<>(entries.keySet());
+        ImageNames.sort(names);
+        for (String name : names) {
+            mEntries.add(entries.get(name));
+        }
+        mId = id + "#" + file.length() + "-" + Long.toHexString(file.lastModified());
+    }
+
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @Override
+    public int getImageCount() {
+        return mEntries.size();
+    }
+
+    @Override
+    public InputStream openImage(int index) throws IOException {
+        return mZipFile.getInputStream(mEntries.get(index));
+    }
+
+    @Override
+    public String getImagePath(int index) {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mZipFile.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.device;
+
+import android.graphics.Bitmap;
+
+import com.ihuntto.bookreader.ui.gl.RenderQuality;
+
+public enum DeviceTier {
+    // 低端机不使用3D折叠
+    LOW(false, 10, RenderQuality.SHADOW_NONE, Bitmap.Config.RGB_565),
+    MEDIUM(true, 10, RenderQuality.SHADOW_CAST, Bitmap.Config.RGB_565),
+    HIGH(true, 5, RenderQuality.SHADOW_ALL, Bitmap.Config.ARGB_8888);
+
+    private final boolean mUseFold;
+    private final int mMeshStep;
+    private final int mShadowPasses;
+    private final Bitmap.Config mPageConfig;
+
+    DeviceTier(boolean useFold, int meshStep, int shadowPasses, Bitmap.Config pageConfig) {
+        mUseFold = useFold;
+        mMeshStep = meshStep;
+        mShadowPasses = shadowPasses;
+        mPageConfig = pageConfig;
+    }
+
+    public boolean useFold() {
+        return mUseFold;
+    }
+
+    public Bitmap.Config getPageConfig() {
+        return mPageConfig;
+    }
+
+    public RenderQuality getRenderQuality() {
+        return new RenderQuality.Builder()
+                .meshStep(mMeshStep)
+                .shadowPasses(mShadowPasses)
+                .minRenderScale(this == HIGH ? 0.6f : 0.5f)
+                .create();
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.device;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.ui.gl.light.Light;
+import com.ihuntto.bookreader.ui.gl.shape.FoldPage;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+import static android.opengl.GLES20.GL_COLOR_BUFFER_BIT;
+import static android.opengl.GLES20.GL_DEPTH_BUFFER_BIT;
+import static android.opengl.GLES20.GL_DEPTH_TEST;
+import static android.opengl.GLES20.GL_RENDERER;
+import static android.opengl.GLES20.glClear;
+import static android.opengl.GLES20.glEnable;
+import static android.opengl.GLES20.glFinish;
+import static android.opengl.GLES20.glGetString;
+import static android.opengl.GLES20.glViewport;
+import static android.opengl.Matrix.orthoM;
+
+/**
+ * Classifies the device once by memory class, GL renderer and a short fold
+ * benchmark on an offscreen pbuffer. The result is cached per system build.
+ */
+public final class DeviceTierProbe {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = DeviceTierProbe.class.getSimpleName();
+
+    private static final String PREFS_NAME = "device_tier";
+    private static final String KEY_TIER = "tier";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+    private static final int EGL_OPENGL_ES2_BIT = 0x0004;
+
+    private static final int WARM_UP_FRAMES = 2;
+    private static final int BENCHMARK_FRAMES = 12;
+
+    private static final float HIGH_FRAME_MILLIS = 8.0f;
+    private static final float MEDIUM_FRAME_MILLIS = 16.0f;
+    private static final int LOW_MEMORY_CLASS = 96;
+
+    // 已知填充率不足以流畅绘制全屏折叠的GPU
+    private static final String[] WEAK_RENDERERS = {
+            "Mali-400",
+            "Mali-450",
+            "PowerVR SGX",
+            "Adreno (TM) 2",
+            "Adreno (TM) 30",
+            "VideoCore IV"
+    };
+    private static final String[] SOFTWARE_RENDERERS = {
+            "SwiftShader",
+            "llvmpipe",
+            "softpipe"
+    };
+
+    public static DeviceTier getCachedTier(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+            return null;
+        }
+        String tier = prefs.getString(KEY_TIER, null);
+        if (tier == null) {
+            return null;
+        }
+        try {
+            return DeviceTier.valueOf(tier);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // 需在工作线程调用，会创建临时的EGL context
+    public static DeviceTier probe(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = activityManager.getMemoryClass();
+        boolean lowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice();
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        String[] renderer = new String[1];
+        float frameMillis = benchmarkFold(context, metrics.widthPixels, metrics.heightPixels, renderer);
+
+        DeviceTier tier = classify(memoryClass, lowRam, renderer[0], frameMillis);
+        if (D) {
+            Log.d(TAG, "probe memoryClass=" + memoryClass
+                    + " lowRam=" + lowRam
+                    + " renderer=" + renderer[0]
+                    + " frameMillis=" + frameMillis
+                    + " tier=" + tier);
+        }
+
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                .putString(KEY_TIER, tier.name())
+                .apply();
+        return tier;
+    }
+
+    static DeviceTier classify(int memoryClass, boolean lowRam, String renderer, float frameMillis) {
+        if (lowRam || memoryClass < LOW_MEMORY_CLASS || frameMillis < 0) {
+            return DeviceTier.LOW;
+        }
+        if (renderer != null) {
+            if (containsAny(renderer, SOFTWARE_RENDERERS)) {
+                return DeviceTier.LOW;
+            }
+            if (containsAny(renderer, WEAK_RENDERERS)) {
+                return frameMillis < MEDIUM_FRAME_MILLIS ? DeviceTier.MEDIUM : DeviceTier.LOW;
+            }
+        }
+        if (frameMillis < HIGH_FRAME_MILLIS) {
+            return DeviceTier.HIGH;
+        } else if (frameMillis < MEDIUM_FRAME_MILLIS) {
+            return DeviceTier.MEDIUM;
+        }
+        return DeviceTier.LOW;
+    }
+
+    private static boolean containsAny(String value, String[] candidates) {
+        for (String candidate : candidates) {
+            if (value.contains(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draws a few fold frames into a half resolution pbuffer and returns the
+     * average frame time extrapolated to full screen, or -1 if GL is unusable.
+     */
+    private static float benchmarkFold(Context context, int screenWidth, int screenHeight, String[] outRenderer) {
+        int width = Math.max(1, screenWidth / 2);
+        int height = Math.max(1, screenHeight / 2);
+
+        EGL10 egl = (EGL10) EGLContext.getEGL();
+        EGLDisplay display = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+        if (display == EGL10.EGL_NO_DISPLAY || !egl.eglInitialize(display, new int[2])) {
+            return -1;
+        }
+
+        int[] configAttribs = {
+                EGL10.EGL_RED_SIZE, 8,
+                EGL10.EGL_GREEN_SIZE, 8,
+                EGL10.EGL_BLUE_SIZE, 8,
+                EGL10.EGL_DEPTH_SIZE, 16,
+                EGL10.EGL_RENDERABLE_TYPE, EGL_OPENGL_ES2_BIT,
+                EGL10.EGL_SURFACE_TYPE, EGL10.EGL_PBUFFER_BIT,
+                EGL10.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!egl.eglChooseConfig(display, configAttribs, configs, 1, numConfigs) || numConfigs[0] == 0) {
+            return -1;
+        }
+
+        EGLContext eglContext = egl.eglCreateContext(display, configs[0], EGL10.EGL_NO_CONTEXT,
+                new int[]{EGL_CONTEXT_CLIENT_VERSION, 2, EGL10.EGL_NONE});
+        if (eglContext == null || eglContext == EGL10.EGL_NO_CONTEXT) {
+            return -1;
+        }
+        EGLSurface surface = egl.eglCreatePbufferSurface(display, configs[0],
+                new int[]{EGL10.EGL_WIDTH, width, EGL10.EGL_HEIGHT, height, EGL10.EGL_NONE});
+        if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+            egl.eglDestroyContext(display, eglContext);
+            return -1;
+        }
+
+        try {
+            if (!egl.eglMakeCurrent(display, surface, surface, eglContext)) {
+                return -1;
+            }
+            outRenderer[0] = glGetString(GL_RENDERER);
+
+            float[] viewProjectionMatrix = new float[16];
+            orthoM(viewProjectionMatrix, 0, -1.0f, 1.0f, -1.0f, 1.0f, -10.0f, 10.0f);
+            float[] eyePos = new float[]{0f, 0f, height * 2};
+            Light light = new Light.Builder()
+                    .direction(-1.0f, 0.0f, -8.0f)
+                    .ambient(0.65f, 0.65f, 0.65f)
+                    .color(1.0f, 1.0f, 1.0f)
+                    .specular(0.05f, 0.05f, 0.05f)
+                    .diffuse(0.35f, 0.35f, 0.35f)
+                    .create();
+
+            // 阅读界面可能已在绘制，不能替换它共用的着色器
+            FoldPage foldPage = FoldPage.createWithOwnPrograms(context, width, height);
+            glViewport(0, 0, width, height);
+            glEnable(GL_DEPTH_TEST);
+
+            long totalNanos = 0;
+            for (int i = 0; i < WARM_UP_FRAMES + BENCHMARK_FRAMES; i++) {
+                long start = System.nanoTime();
+                float dragX = width - (i + 1) * width / (float) (WARM_UP_FRAMES + BENCHMARK_FRAMES);
+                glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+                foldPage.fold(width, height * 0.8f, dragX, height * 0.75f);
+                foldPage.draw(eyePos, light, viewProjectionMatrix);
+                foldPage.drawShadow(light, viewProjectionMatrix);
+                glFinish();
+                if (i >= WARM_UP_FRAMES) {
+                    totalNanos += System.nanoTime() - start;
+                }
+            }
+
+            float pixelRatio = (float) (screenWidth * screenHeight) / (width * height);
+            return totalNanos / (float) BENCHMARK_FRAMES / 1000000.0f * pixelRatio;
+        } finally {
+            egl.eglMakeCurrent(display, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_CONTEXT);
+            egl.eglDestroySurface(display, surface);
+            egl.eglDestroyContext(display, eglContext);
+        }
+    }
+
+    private DeviceTierProbe() {
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.epub;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Process;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.book.EpubBook;
+import com.ihuntto.bookreader.book.StringBookSource;
+import com.ihuntto.bookreader.flip.LayeredPageProvider;
+import com.ihuntto.bookreader.page.AbstractPageProvider;
+import com.ihuntto.bookreader.text.PageStyle;
+import com.ihuntto.bookreader.text.TextPaginator;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pages of an EPUB book. Only the chapter being read and the next one are
+ * parsed, both in the background; each loaded chapter gets its own
+ * {@link TextPaginator}. Pages of a chapter still being parsed are drawn
+ * blank and redrawn once the chapter is laid out. Chapters that were never laid out count as many
+ * pages as their compressed size suggests, calibrated by the chapters that
+ * have been laid out, and the estimates are replaced through
+ * {@link #publishPages(int)}.
+ */
+public class EpubPageProvider extends AbstractPageProvider implements LayeredPageProvider {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = EpubPageProvider.class.getSimpleName();
+
+    // 没有排版过的章节时，按每个字符约半个压缩字节估算
+    private static final float COMPRESSED_BYTES_PER_CHAR = 0.5f;
+    private static final int DEFAULT_CHARS_PER_PAGE = 600;
+
+    private static final class Chapter {
+        final int index;
+        CharSequence text;
+        TextPaginator paginator;
+        // 排版完成后的页数，未知为-1
+        int pageCount = -1;
+        boolean loading;
+        // 排版前已画成空白的最小页号，没有为-1；排版线程也会读取
+        volatile int blankPage = -1;
+
+        Chapter(int index) {
+            this.index = index;
+        }
+    }
+
+    private final EpubBook mBook;
+    private final Chapter[] mChapters;
+    // 对外编号所用的每章页数，只在publishPages中改变
+    private final int[] mPageCounts;
+    private final ExecutorService mExecutor;
+    private PageStyle mStyle;
+    private TextPaint mRenderPaint;
+    private File mIndexDirectory;
+    private int mCurrentChapter = -1;
+    private int mNumbering;
+    // 已排版章节的压缩字节数与页数之和，用于估算其余章节
+    private long mMeasuredBytes;
+    private int mMeasuredPages;
+    private boolean mClosed;
+
+    public EpubPageProvider(EpubBook book, PageStyle style) {
+        mBook = book;
+        mStyle = style;
+        mRenderPaint = style.createTextPaint();
+        mChapters = new Chapter[book.getChapterCount()];
+        for (int i = 0; i < mChapters.length; i++) {
+            mChapters[i] = new Chapter(i);
+        }
+        mPageCounts = new int[mChapters.length];
+        estimatePageCounts();
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "EpubParser");
+            }
+        });
+    }
+
+    /**
+     * Directory for persisted page breaks of every chapter.
+     */
+    public synchronized void setIndexDirectory(File indexDirectory) {
+        mIndexDirectory = indexDirectory;
+    }
+
+    /**
+     * Switches to a new style and returns the index of the first page of
+     * the chapter that holds currentIndex, where reading continues.
+     */
+    public synchronized int setStyle(PageStyle style, int currentIndex) {
+        int chapter = getChapterIndex(currentIndex);
+        mStyle = style;
+        mRenderPaint = style.createTextPaint();
+        relayout();
+        return chapter >= 0 ? getChapterStart(chapter) : 0;
+    }
+
+    public synchronized PageStyle getStyle() {
+        return mStyle;
+    }
+
+    @Override
+    public synchronized String getBookId() {
+        // 章节页数改变后页码对应的内容随之改变
+        return mBook.getId() + "/" + mStyle.getLayoutKey() + "/" + mNumbering;
+    }
+
+    @Override
+    protected synchronized String getRenderKey(int index) {
+        // 章节页数在每次运行中独立估算，页码不能跨运行标识内容；
+        // 只查询已排版的章节，不切换当前章节
+        int chapterIndex = getChapterIndex(index);
+        int[] range = getPageRange(index);
+        if (range == null) {
+            return null;
+        }
+        return mBook.getId() + "/" + mStyle.getLayoutKey() + "/" + mStyle.getTextColor()
+                + "/" + mStyle.getBackgroundColor() + "/" + chapterIndex + "@" + range[0];
+    }
+
+    @Override
+    public synchronized int getPageCount() {
+        int count = 0;
+        for (int pageCount : mPageCounts) {
+            count += pageCount;
+        }
+        return count;
+    }
+
+    /**
+     * Replaces estimated chapter page counts with the ones laid out since
+     * the last call and keeps the reader on the same page of its chapter.
+     */
+    @Override
+    public synchronized int publishPages(int currentIndex) {
+        int chapter = getChapterIndex(currentIndex);
+        int page = chapter >= 0 ? currentIndex - getChapterStart(chapter) : 0;
+        boolean changed = false;
+        for (int i = 0; i < mChapters.length; i++) {
+            if (isBlankPageReady(mChapters[i])) {
+                // 页数不变时空白页也要重画
+                mChapters[i].blankPage = -1;
+                changed = true;
+            }
+            int count = measureChapter(i);
+            if (count < 0) {
+                count = estimatePageCount(i);
+            }
+            if (count != mPageCounts[i]) {
+                mPageCounts[i] = count;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return 0;
+        }
+        mNumbering++;
+        invalidate();
+        if (chapter < 0) {
+            return 0;
+        }
+        int index = getChapterStart(chapter) + Math.min(page, Math.max(0, mPageCounts[chapter] - 1));
+        return index - currentIndex;
+    }
+
+    private static boolean isBlankPageReady(Chapter chapter) {
+        TextPaginator paginator = chapter.paginator;
+        return chapter.blankPage >= 0 && paginator != null
+                && (paginator.isComplete() || paginator.getKnownPageCount() > chapter.blankPage);
+    }
+
+    // 返回排版完成的页数，尚未完成为-1
+    private int measureChapter(int index) {
+        Chapter chapter = mChapters[index];
+        if (chapter.pageCount < 0 && chapter.paginator != null && chapter.paginator.isComplete()) {
+            chapter.pageCount = chapter.paginator.getPageCount();
+            mMeasuredBytes += mBook.getChapterSize(index);
+            mMeasuredPages += chapter.pageCount;
+        }
+        return chapter.pageCount;
+    }
+
+    private void estimatePageCounts() {
+        for (int i = 0; i < mChapters.length; i++) {
+            mPageCounts[i] = mChapters[i].pageCount >= 0 ? mChapters[i].pageCount : estimatePageCount(i);
+        }
+    }
+
+    private int estimatePageCount(int index) {
+        float bytesPerPage;
+        if (mMeasuredPages > 0) {
+            bytesPerPage = mMeasuredBytes / (float) mMeasuredPages;
+        } else {
+            bytesPerPage = estimateCharsPerPage() * COMPRESSED_BYTES_PER_CHAR;
+        }
+        return Math.max(1, Math.round(mBook.getChapterSize(index) / Math.max(1.0f, bytesPerPage)));
+    }
+
+    private int estimateCharsPerPage() {
+        int width = getPageWidth() - mStyle.getPadding() * 2;
+        int height = getPageHeight() - mStyle.getPadding() * 2;
+        if (width <= 0 || height <= 0) {
+            return DEFAULT_CHARS_PER_PAGE;
+        }
+        float textSize = mStyle.getTextSize();
+        float lineHeight = textSize * mStyle.getLineSpacingMultiplier() + mStyle.getLineSpacingExtra();
+        int lines = Math.max(1, (int) (height / lineHeight));
+        int charsPerLine = Math.max(1, (int) (width / (textSize * 0.5f)));
+        return lines * charsPerLine;
+    }
+
+    private int getChapterIndex(int index) {
+        if (index < 0) {
+            return -1;
+        }
+        int start = 0;
+        for (int i = 0; i < mPageCounts.length; i++) {
+            start += mPageCounts[i];
+            if (index < start) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getChapterStart(int chapter) {
+        int start = 0;
+        for (int i = 0; i < chapter; i++) {
+            start += mPageCounts[i];
+        }
+        return start;
+    }
+
+    @Override
+    protected void onPageSizeChanged(int width, int height) {
+        relayout();
+    }
+
+    // 排版参数改变，已知的页数全部作废
+    private void relayout() {
+        mMeasuredBytes = 0;
+        mMeasuredPages = 0;
+        for (Chapter chapter : mChapters) {
+            if (chapter.paginator != null) {
+                chapter.paginator.stop();
+                chapter.paginator = null;
+            }
+            chapter.pageCount = -1;
+            chapter.blankPage = -1;
+        }
+        estimatePageCounts();
+        mNumbering++;
+        invalidate();
+        for (Chapter chapter : mChapters) {
+            if (chapter.text != null) {
+                startPagination(chapter, chapter.text);
+            }
+        }
+    }
+
+    @Override
+    protected void onRenderPage(int index, Bitmap bitmap) {
+        bitmap.eraseColor(mStyle.getBackgroundColor());
+        drawText(index, bitmap);
+    }
+
+    @Override
+    protected boolean canRenderThumbnail(int index) {
+        // 其他章节的页面会切换当前章节并释放正在阅读的章节
+        int chapterIndex = getChapterIndex(index);
+        return chapterIndex >= 0 && chapterIndex == mCurrentChapter && mChapters[chapterIndex].text != null;
+    }
+
+    @Override
+    protected boolean canCachePage(int index) {
+        return getPageRange(index) != null;
+    }
+
+    @Override
+    protected Bitmap.Config choosePageConfig(Bitmap.Config requested) {
+        // 纯色背景上的文字在RGB_565下看不出差别
+        return Bitmap.Config.RGB_565;
+    }
+
+    @Override
+    protected Bitmap.Config getContentConfig() {
+        return Bitmap.Config.ALPHA_8;
+    }
+
+    @Override
+    protected void onRenderContent(int index, Bitmap bitmap) {
+        drawText(index, bitmap);
+    }
+
+    private void drawText(int index, Bitmap bitmap) {
+        int chapterIndex = getChapterIndex(index);
+        if (chapterIndex < 0) {
+            return;
+        }
+        setCurrentChapter(chapterIndex);
+        // 在后台解析，渲染线程不等待
+        prefetchChapter(chapterIndex);
+        int[] range = getPageRange(index);
+        if (range == null) {
+            // 章节尚未排版，或估算的页数多于实际页数
+            Chapter chapter = mChapters[chapterIndex];
+            int page = index - getChapterStart(chapterIndex);
+            if (chapter.blankPage < 0 || page < chapter.blankPage) {
+                chapter.blankPage = page;
+            }
+            return;
+        }
+        CharSequence text = mChapters[chapterIndex].text;
+        int padding = mStyle.getPadding();
+        int contentWidth = Math.max(1, bitmap.getWidth() - padding * 2);
+        StaticLayout layout = TextPaginator.createLayout(
+                text.subSequence(range[0], range[1]), mRenderPaint, contentWidth, mStyle);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(padding, padding);
+        layout.draw(canvas);
+    }
+
+    // 已排版章节中页面的{start, end}，章节未载入时不等待解析
+    private int[] getPageRange(int index) {
+        int chapterIndex = getChapterIndex(index);
+        if (chapterIndex < 0) {
+            return null;
+        }
+        TextPaginator paginator = mChapters[chapterIndex].paginator;
+        return paginator != null ? paginator.getPageRange(index - getChapterStart(chapterIndex)) : null;
+    }
+
+    // 只保留当前章节及前后相邻的章节，并在后台解析下一章
+    private void setCurrentChapter(int chapterIndex) {
+        if (mCurrentChapter == chapterIndex) {
+            return;
+        }
+        mCurrentChapter = chapterIndex;
+        for (int i = 0; i < mChapters.length; i++) {
+            if (Math.abs(i - chapterIndex) > 1) {
+                releaseChapter(mChapters[i]);
+            }
+        }
+        prefetchChapter(chapterIndex + 1);
+    }
+
+    private void prefetchChapter(final int index) {
+        if (mClosed || index >= mChapters.length) {
+            return;
+        }
+        final Chapter chapter = mChapters[index];
+        if (chapter.text != null || chapter.loading) {
+            return;
+        }
+        chapter.loading = true;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CharSequence text = parseChapter(index);
+                synchronized (EpubPageProvider.this) {
+                    chapter.loading = false;
+                    if (!mClosed && chapter.text == null && Math.abs(index - mCurrentChapter) <= 1) {
+                        startPagination(chapter, text);
+                    }
+                }
+            }
+        });
+    }
+
+    private void startPagination(final Chapter chapter, CharSequence text) {
+        chapter.text = text;
+        if (getPageWidth() <= 0 || getPageHeight() <= 0) {
+            return;
+        }
+        TextPaginator paginator = new TextPaginator(new StringBookSource(mBook.getId() + "/" + chapter.index, text));
+        paginator.setIndexDirectory(mIndexDirectory);
+        paginator.setOnPaginationListener(new TextPaginator.OnPaginationListener() {
+            @Override
+            public void onPaginationChanged(int knownPageCount, boolean complete) {
+                if (complete || chapter.blankPage >= 0) {
+                    notifyPagesChanged();
+                }
+            }
+        });
+        paginator.setLayout(mStyle, getPageWidth(), getPageHeight());
+        chapter.paginator = paginator;
+        if (paginator.isComplete() || chapter.blankPage >= 0) {
+            // 分页索引中已有完整结果时排版线程不会启动；空白页现在就能重画
+            notifyPagesChanged();
+        }
+    }
+
+    private void releaseChapter(Chapter chapter) {
+        if (chapter.paginator != null) {
+            // 保留已排完的页数，之后不必重新排版
+            measureChapter(chapter.index);
+            chapter.paginator.stop();
+            chapter.paginator = null;
+        }
+        chapter.text = null;
+    }
+
+    private CharSequence parseChapter(int index) {
+        long startMillis = System.currentTimeMillis();
+        InputStream in = null;
+        try {
+            in = mBook.openChapter(index);
+            CharSequence text = XhtmlSpanner.parse(in);
+            if (D) {
+                Log.d(TAG, "parsed chapter " + index + " (" + text.length() + " chars) in "
+                        + (System.currentTimeMillis() - startMillis) + "ms");
+            }
+            return text;
+        } catch (IOException | XmlPullParserException e) {
+            Log.e(TAG, "Could not parse chapter " + index, e);
+            return "";
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public Bitmap getPaperBitmap() {
+        return null;
+    }
+
+    @Override
+    public synchronized int getPaperColor() {
+        return mStyle.getBackgroundColor();
+    }
+
+    @Override
+    public synchronized int getInkColor() {
+        return mStyle.getTextColor();
+    }
+
+    @Override
+    public boolean isAlphaOnlyContent() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            for (Chapter chapter : mChapters) {
+                releaseChapter(chapter);
+            }
+        }
+        mExecutor.shutdownNow();
+        super.close();
+        mBook.close();
+    }
+}
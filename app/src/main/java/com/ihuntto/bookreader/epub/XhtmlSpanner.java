@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.epub;
+
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Converts one XHTML chapter into styled text for pagination: block
+ * elements become paragraphs separated by line feeds, headings and
+ * emphasis become spans, and everything the pages cannot show is dropped.
+ */
+final class XhtmlSpanner {
+    private static final String FEATURE_RELAXED = "http://xmlpull.org/v1/doc/features.html#relaxed";
+    private static final float[] HEADING_SIZES = {1.5f, 1.3f, 1.15f, 1.05f, 1.0f, 1.0f};
+    private static final String[][] ENTITIES = {
+            {"nbsp", "\u00a0"}, {"ensp", "\u2002"}, {"emsp", "\u2003"},
+            {"ndash", "\u2013"}, {"mdash", "\u2014"}, {"hellip", "\u2026"},
+            {"lsquo", "\u2018"}, {"rsquo", "\u2019"}, {"ldquo", "\u201c"}, {"rdquo", "\u201d"},
+            {"middot", "\u00b7"}, {"copy", "\u00a9"}, {"reg", "\u00ae"}
+    };
+
+    private static final class OpenTag {
+        final String name;
+        final int start;
+
+        OpenTag(String name, int start) {
+            this.name = name;
+            this.start = start;
+        }
+    }
+
+    private XhtmlSpanner() {
+    }
+
+    static Spanned parse(InputStream in) throws IOException, XmlPullParserException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+        // Xml.newPullParser()默认处理DOCTYPE，此时不能再定义实体
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_DOCDECL, false);
+        try {
+            // 章节中常有未声明的HTML实体
+            parser.setFeature(FEATURE_RELAXED, true);
+        } catch (XmlPullParserException ignored) {
+        }
+        parser.setInput(in, null);
+        for (String[] entity : ENTITIES) {
+            parser.defineEntityReplacementText(entity[0], entity[1]);
+        }
+
+        SpannableStringBuilder text = new SpannableStringBuilder();
+        Deque<OpenTag> openTags = new ArrayDeque<>();
+        // 大于0时位于head、script等不显示的元素内
+        int hiddenDepth = 0;
+        boolean inBody = false;
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                String name = parser.getName().toLowerCase(Locale.US);
+                if ("body".equals(name)) {
+                    inBody = true;
+                } else if (hiddenDepth > 0 || isHidden(name)) {
+                    hiddenDepth++;
+                } else if (inBody) {
+                    if ("br".equals(name)) {
+                        text.append('\n');
+                    } else if (isBlock(name)) {
+                        endParagraph(text);
+                    }
+                    openTags.push(new OpenTag(name, text.length()));
+                }
+            } else if (eventType == XmlPullParser.END_TAG) {
+                String name = parser.getName().toLowerCase(Locale.US);
+                if ("body".equals(name)) {
+                    inBody = false;
+                } else if (hiddenDepth > 0) {
+                    hiddenDepth--;
+                } else if (!openTags.isEmpty()) {
+                    OpenTag tag = openTags.pop();
+                    applyStyle(text, tag.name, tag.start);
+                    if (isBlock(tag.name)) {
+                        endParagraph(text);
+                    }
+                }
+            } else if (eventType == XmlPullParser.TEXT && inBody && hiddenDepth == 0) {
+                appendCollapsed(text, parser.getText());
+            }
+            eventType = parser.next();
+        }
+        // 最后一段之后不留换行
+        int end = text.length();
+        while (end > 0 && isSpace(text.charAt(end - 1))) {
+            end--;
+        }
+        text.delete(end, text.length());
+        return text;
+    }
+
+    private static boolean isHidden(String name) {
+        return "head".equals(name) || "script".equals(name) || "style".equals(name);
+    }
+
+    private static boolean isBlock(String name) {
+        return "p".equals(name) || "div".equals(name) || "li".equals(name)
+                || "blockquote".equals(name) || "section".equals(name) || "tr".equals(name)
+                || "pre".equals(name) || "hr".equals(name) || headingLevel(name) > 0;
+    }
+
+    private static int headingLevel(String name) {
+        if (name.length() == 2 && name.charAt(0) == 'h' && name.charAt(1) >= '1' && name.charAt(1) <= '6') {
+            return name.charAt(1) - '0';
+        }
+        return 0;
+    }
+
+    private static void applyStyle(SpannableStringBuilder text, String name, int start) {
+        int end = text.length();
+        if (end <= start) {
+            return;
+        }
+        int level = headingLevel(name);
+        if (level > 0) {
+            text.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            text.setSpan(new RelativeSizeSpan(HEADING_SIZES[level - 1]), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        } else if ("b".equals(name) || "strong".equals(name)) {
+            text.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        } else if ("i".equals(name) || "em".equals(name) || "cite".equals(name)) {
+            text.setSpan(new StyleSpan(Typeface.ITALIC), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    // 连续空白合并为一个空格，段首不留空白
+    private static void appendCollapsed(SpannableStringBuilder text, String content) {
+        boolean space = text.length() == 0 || isSpace(text.charAt(text.length() - 1));
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (!space) {
+                    text.append(' ');
+                    space = true;
+                }
+            } else {
+                text.append(c);
+                space = false;
+            }
+        }
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\n';
+    }
+
+    private static void endParagraph(SpannableStringBuilder text) {
+        trimEnd(text);
+        if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
+            text.append('\n');
+        }
+    }
+
+    private static void trimEnd(SpannableStringBuilder text) {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        text.delete(end, text.length());
+    }
+}
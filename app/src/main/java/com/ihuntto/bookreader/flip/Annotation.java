@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A highlight or underline kept as vector ranges: rectangles in page
+ * coordinates from 0 to 1, usually one per line of marked text. It is
+ * rasterized only when an engine draws it, at whatever size the page has.
+ */
+public class Annotation {
+    public static final int TYPE_HIGHLIGHT = 0;
+    public static final int TYPE_UNDERLINE = 1;
+
+    private static final float UNDERLINE_THICKNESS = 0.003f;
+
+    protected int mType = TYPE_HIGHLIGHT;
+    protected int mColor = 0x66FFD54F;
+    protected final List<RectF> mRanges = new ArrayList<>();
+
+    protected Annotation() {
+    }
+
+    public static class Builder {
+        private Annotation mAnnotation;
+
+        public Builder() {
+            mAnnotation = new Annotation();
+        }
+
+        public Builder type(int type) {
+            mAnnotation.mType = type;
+            return this;
+        }
+
+        // 非预乘ARGB，高亮通常需要半透明
+        public Builder color(int color) {
+            mAnnotation.mColor = color;
+            return this;
+        }
+
+        public Builder range(float left, float top, float right, float bottom) {
+            mAnnotation.mRanges.add(new RectF(left, top, right, bottom));
+            return this;
+        }
+
+        public Annotation create() {
+            return mAnnotation;
+        }
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public int getColor() {
+        return mColor;
+    }
+
+    /**
+     * Pixels touched by this annotation on a page of the given size, rounded
+     * out; empty if it has no ranges.
+     */
+    public void getBounds(int width, int height, Rect out) {
+        out.setEmpty();
+        RectF pixels = new RectF();
+        Rect rounded = new Rect();
+        for (RectF range : mRanges) {
+            toPixels(range, width, height, pixels);
+            pixels.roundOut(rounded);
+            out.union(rounded);
+        }
+    }
+
+    public void draw(Canvas canvas, int width, int height, Paint paint) {
+        paint.setColor(mColor);
+        paint.setStyle(Paint.Style.FILL);
+        RectF pixels = new RectF();
+        for (RectF range : mRanges) {
+            toPixels(range, width, height, pixels);
+            canvas.drawRect(pixels, paint);
+        }
+    }
+
+    private void toPixels(RectF range, int width, int height, RectF out) {
+        if (mType == TYPE_UNDERLINE) {
+            float thickness = Math.max(1.0f, UNDERLINE_THICKNESS * height);
+            out.set(range.left * width, range.bottom * height - thickness,
+                    range.right * width, range.bottom * height);
+        } else {
+            out.set(range.left * width, range.top * height,
+                    range.right * width, range.bottom * height);
+        }
+    }
+}
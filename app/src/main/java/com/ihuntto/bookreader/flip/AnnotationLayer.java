@@ -0,0 +1,106 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Annotations of one book by page index, shared by an engine's UI thread and
+ * its render thread. Engines draw them on top of the page, so changing an
+ * annotation never re-renders the page underneath.
+ */
+public class AnnotationLayer {
+    private final SparseArray<List<Annotation>> mPages = new SparseArray<>();
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    public synchronized void add(int pageIndex, Annotation annotation) {
+        List<Annotation> annotations = mPages.get(pageIndex);
+        if (annotations == null) {
+            annotations = new ArrayList<>();
+            mPages.put(pageIndex, annotations);
+        }
+        annotations.add(annotation);
+    }
+
+    public synchronized boolean remove(int pageIndex, Annotation annotation) {
+        List<Annotation> annotations = mPages.get(pageIndex);
+        if (annotations == null || !annotations.remove(annotation)) {
+            return false;
+        }
+        if (annotations.isEmpty()) {
+            mPages.remove(pageIndex);
+        }
+        return true;
+    }
+
+    public synchronized void clear() {
+        mPages.clear();
+    }
+
+    /**
+     * Moves every annotation by shift pages, for when the provider renumbers
+     * its pages; see {@link RenumberingPageProvider}.
+     */
+    public synchronized void shift(int shift) {
+        if (shift == 0 || mPages.size() == 0) {
+            return;
+        }
+        SparseArray<List<Annotation>> pages = mPages.clone();
+        mPages.clear();
+        for (int i = 0; i < pages.size(); i++) {
+            mPages.put(pages.keyAt(i) + shift, pages.valueAt(i));
+        }
+    }
+
+    public synchronized boolean hasAnnotations(int pageIndex) {
+        return mPages.get(pageIndex) != null;
+    }
+
+    // 页面上所有批注覆盖的像素范围
+    public synchronized void getBounds(int pageIndex, int width, int height, Rect out) {
+        out.setEmpty();
+        List<Annotation> annotations = mPages.get(pageIndex);
+        if (annotations == null) {
+            return;
+        }
+        Rect bounds = new Rect();
+        for (Annotation annotation : annotations) {
+            annotation.getBounds(width, height, bounds);
+            out.union(bounds);
+        }
+    }
+
+    /**
+     * Draws the annotations of pageIndex in page pixels; the canvas may be
+     * translated and clipped to the region being redrawn.
+     */
+    public synchronized void draw(Canvas canvas, int pageIndex, int width, int height) {
+        List<Annotation> annotations = mPages.get(pageIndex);
+        if (annotations == null) {
+            return;
+        }
+        for (Annotation annotation : annotations) {
+            annotation.draw(canvas, width, height, mPaint);
+        }
+    }
+}
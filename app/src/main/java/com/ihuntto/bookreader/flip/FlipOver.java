@@ -19,6 +19,9 @@ package com.ihuntto.bookreader.flip;
 public interface FlipOver {
 
     public interface PageProvider {
+        // 用于区分不同书籍的缓存
+        String getBookId();
+
         int getPageCount();
 
         FlipOverPage updatePage(int index, int width, int height);
@@ -28,9 +31,30 @@ public interface FlipOver {
         void onFlipStart();
 
         void onPageClick();
+
+        // 在页面概览中点选了一页，引擎已直接跳到该页
+        void onPageJump(int index);
     }
 
     public void setPageProvider(PageProvider pageProvider);
 
     public void setOnPageFlipListener(OnPageFlipListener onPageFlipListener);
+
+    // 页数或页面内容变化后在主线程调用；RenumberingPageProvider的页面在此重新编号
+    public void notifyDataSetChanged();
+
+    public int getCurrentPageIndex();
+
+    // 直接跳到指定页，没有翻页动画
+    public void setCurrentPageIndex(int index);
+
+    // 绘制时应用，不重新生成页面
+    public void setReadingTheme(ReadingTheme readingTheme);
+
+    // 批注绘制在页面之上，增删批注不重新生成页面；页面重新编号时随页面移动，更换PageProvider时清空
+    public void addAnnotation(int pageIndex, Annotation annotation);
+
+    public void removeAnnotation(int pageIndex, Annotation annotation);
+
+    public void clearAnnotations();
 }
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.Typeface;
+
+/**
+ * A text page as positioned glyphs rather than pixels: for each glyph its
+ * code point, pen x and baseline y in page pixels. Engines that can draw
+ * glyphs themselves use this instead of a page bitmap.
+ */
+public class GlyphPage {
+    private final Typeface mTypeface;
+    private final float mTextSize;
+    private final int mTextColor;
+    private final int mBackgroundColor;
+    private final int mGlyphCount;
+    private final int[] mCodePoints;
+    private final float[] mPenX;
+    private final float[] mBaselineY;
+
+    public GlyphPage(Typeface typeface, float textSize, int textColor, int backgroundColor,
+                     int glyphCount, int[] codePoints, float[] penX, float[] baselineY) {
+        mTypeface = typeface;
+        mTextSize = textSize;
+        mTextColor = textColor;
+        mBackgroundColor = backgroundColor;
+        mGlyphCount = glyphCount;
+        mCodePoints = codePoints;
+        mPenX = penX;
+        mBaselineY = baselineY;
+    }
+
+    public Typeface getTypeface() {
+        return mTypeface;
+    }
+
+    public float getTextSize() {
+        return mTextSize;
+    }
+
+    public int getTextColor() {
+        return mTextColor;
+    }
+
+    public int getBackgroundColor() {
+        return mBackgroundColor;
+    }
+
+    public int getGlyphCount() {
+        return mGlyphCount;
+    }
+
+    public int getCodePoint(int i) {
+        return mCodePoints[i];
+    }
+
+    public float getPenX(int i) {
+        return mPenX[i];
+    }
+
+    public float getBaselineY(int i) {
+        return mBaselineY[i];
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.Bitmap;
+
+/**
+ * Implemented by page providers that can hand out a page as separate layers:
+ * a paper background shared by every page and a content layer drawn on top
+ * of it. GL engines compose the layers while drawing, so a paper or color
+ * change does not re-upload any page.
+ */
+public interface LayeredPageProvider extends FlipOver.PageProvider {
+    /**
+     * Paper tile repeated across every page, or null for plain paper color.
+     * The same instance must be returned while the paper does not change.
+     */
+    Bitmap getPaperBitmap();
+
+    int getPaperColor();
+
+    // 只有alpha的内容层用墨色着色
+    int getInkColor();
+
+    /**
+     * True if content bitmaps are {@link Bitmap.Config#ALPHA_8} coverage,
+     * otherwise they are colored with transparent paper.
+     */
+    boolean isAlphaOnlyContent();
+
+    // 超出范围时返回null
+    Bitmap getContentBitmap(int index, int width, int height);
+}
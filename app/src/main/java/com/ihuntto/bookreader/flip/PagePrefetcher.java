@@ -0,0 +1,274 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asks a {@link PrefetchPageProvider} for the pages the reader is likely to
+ * reach next. Flip direction and speed are learned from page changes: the
+ * window reaches further in the reading direction while pages are flipped
+ * quickly, and shrinks back to the neighbours when a page is read slowly,
+ * so the provider does not hold more pages than it needs.
+ * <p>
+ * Pages an engine is waiting for are requested through {@link #requestPage(int)}
+ * and produced before any prefetching, placeholder first for a
+ * {@link ProgressivePageProvider}.
+ */
+public class PagePrefetcher {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = PagePrefetcher.class.getSimpleName();
+
+    private static final int MAX_AHEAD = 5;
+    private static final int BEHIND = 1;
+    // 窗口覆盖接下来这段时间内会翻到的页
+    private static final float LOOKAHEAD_SECONDS = 1.5f;
+    // 在一页停留超过这个时间视为慢读，翻页速度从头估计
+    private static final long SLOW_DWELL_MILLIS = 8000;
+    private static final float RATE_SMOOTHING = 0.4f;
+    private static final float MAX_FLIPS_PER_SECOND = 10.0f;
+    private static final long IDLE_THREAD_SECONDS = 10;
+
+    public interface OnPageReadyListener {
+        // 在预取线程回调，占位图和完整页面各回调一次
+        void onPageReady(int index);
+    }
+
+    private final ExecutorService mExecutor;
+    // 每次重新规划加一，旧任务据此退出
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private PrefetchPageProvider mProvider;
+    private int mWidth;
+    private int mHeight;
+    private boolean mContent;
+
+    private int mCurrentIndex = -1;
+    private int mDirection = 1;
+    private long mLastChangeMillis;
+    private float mFlipsPerSecond;
+
+    // 引擎正在等待的页面，先生成占位图，再逐页生成完整页面
+    private final ArrayDeque<Integer> mPendingPlaceholders = new ArrayDeque<>();
+    private final ArrayDeque<Integer> mPendingPages = new ArrayDeque<>();
+    private volatile OnPageReadyListener mOnPageReadyListener;
+    private final Runnable mRequestTask = new Runnable() {
+        @Override
+        public void run() {
+            produceRequestedPages();
+        }
+    };
+
+    public PagePrefetcher() {
+        // 空闲时线程自行退出，不需要跟随引擎的生命周期关闭
+        mExecutor = new ThreadPoolExecutor(0, 1, IDLE_THREAD_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PagePrefetcher");
+            }
+        });
+    }
+
+    public void setOnPageReadyListener(OnPageReadyListener onPageReadyListener) {
+        mOnPageReadyListener = onPageReadyListener;
+    }
+
+    /**
+     * Providers without {@link PrefetchPageProvider} are not prefetched.
+     */
+    public synchronized void setPageProvider(FlipOver.PageProvider pageProvider) {
+        mProvider = pageProvider instanceof PrefetchPageProvider ? (PrefetchPageProvider) pageProvider : null;
+        mGeneration.incrementAndGet();
+        mPendingPlaceholders.clear();
+        mPendingPages.clear();
+        mCurrentIndex = -1;
+        mFlipsPerSecond = 0;
+    }
+
+    /**
+     * @param content true for engines that draw the content layers of a
+     *                {@link LayeredPageProvider} instead of whole pages
+     */
+    public synchronized void setPageSize(int width, int height, boolean content) {
+        if (mWidth == width && mHeight == height && mContent == content) {
+            return;
+        }
+        mWidth = width;
+        mHeight = height;
+        mContent = content;
+        if (mCurrentIndex >= 0) {
+            schedule();
+        }
+    }
+
+    /**
+     * Called by the engine whenever the current page changes, from any thread.
+     */
+    public void onPageChanged(int index) {
+        onPageChanged(index, SystemClock.uptimeMillis());
+    }
+
+    synchronized void onPageChanged(int index, long now) {
+        if (index == mCurrentIndex) {
+            return;
+        }
+        if (mCurrentIndex >= 0) {
+            int step = index - mCurrentIndex;
+            long dwell = now - mLastChangeMillis;
+            if (Math.abs(step) > 1 || dwell >= SLOW_DWELL_MILLIS) {
+                // 跳页或者慢读，之前的速度不再有参考价值
+                mFlipsPerSecond = 0;
+            } else {
+                float rate = Math.min(MAX_FLIPS_PER_SECOND, 1000.0f / Math.max(1, dwell));
+                mFlipsPerSecond += (rate - mFlipsPerSecond) * RATE_SMOOTHING;
+            }
+            mDirection = step > 0 ? 1 : -1;
+        }
+        mCurrentIndex = index;
+        mLastChangeMillis = now;
+        schedule();
+    }
+
+    /**
+     * Produces page index as soon as possible for an engine that is showing
+     * a placeholder for it; the listener hears when it is ready.
+     */
+    public synchronized void requestPage(int index) {
+        if (mProvider == null || mWidth <= 0 || mHeight <= 0 || mPendingPages.contains(index)) {
+            return;
+        }
+        mPendingPlaceholders.add(index);
+        mPendingPages.add(index);
+        mExecutor.execute(mRequestTask);
+    }
+
+    // 在预取线程调用
+    private void produceRequestedPages() {
+        while (true) {
+            PrefetchPageProvider provider;
+            int width;
+            int height;
+            boolean content;
+            Integer placeholder;
+            Integer page = null;
+            synchronized (this) {
+                provider = mProvider;
+                width = mWidth;
+                height = mHeight;
+                content = mContent;
+                placeholder = mPendingPlaceholders.poll();
+                if (placeholder == null) {
+                    page = mPendingPages.poll();
+                    if (page == null) {
+                        return;
+                    }
+                }
+            }
+            if (provider == null) {
+                return;
+            }
+            if (placeholder != null) {
+                if (provider instanceof ProgressivePageProvider) {
+                    ((ProgressivePageProvider) provider).preparePlaceholder(placeholder, width, height, content);
+                    notifyPageReady(placeholder);
+                }
+            } else if (page < provider.getPageCount()) {
+                provider.prefetchPage(page, width, height, content, true);
+                notifyPageReady(page);
+            }
+        }
+    }
+
+    private void notifyPageReady(int index) {
+        OnPageReadyListener listener = mOnPageReadyListener;
+        if (listener != null) {
+            listener.onPageReady(index);
+        }
+    }
+
+    private void schedule() {
+        final PrefetchPageProvider provider = mProvider;
+        if (provider == null || mWidth <= 0 || mHeight <= 0) {
+            return;
+        }
+        final int current = mCurrentIndex;
+        final int direction = mDirection;
+        final int ahead = getAhead();
+        final int width = mWidth;
+        final int height = mHeight;
+        final boolean content = mContent;
+        final int generation = mGeneration.incrementAndGet();
+        if (D) {
+            Log.d(TAG, "page " + current + " direction=" + direction + " ahead=" + ahead
+                    + " flips/s=" + mFlipsPerSecond);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int first = direction > 0 ? current - BEHIND : current - ahead;
+                int last = direction > 0 ? current + ahead : current + BEHIND;
+                provider.setPrefetchWindow(current, Math.max(0, first), last);
+                // 先取阅读方向上的下一页，再取身后一页，然后继续向前
+                for (int i = 1; i <= ahead; i++) {
+                    if (!prefetch(provider, generation, current + direction * i, width, height, content)) {
+                        return;
+                    }
+                    if (i <= BEHIND && !prefetch(provider, generation, current - direction * i, width, height, content)) {
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean prefetch(PrefetchPageProvider provider, int generation,
+                             int index, int width, int height, boolean content) {
+        // 引擎正在等待的页面优先
+        produceRequestedPages();
+        if (generation != mGeneration.get()) {
+            return false;
+        }
+        if (index >= 0 && index < provider.getPageCount()) {
+            provider.prefetchPage(index, width, height, content, false);
+        }
+        return true;
+    }
+
+    private int getAhead() {
+        int ahead = 1 + Math.round(mFlipsPerSecond * LOOKAHEAD_SECONDS);
+        return Math.max(1, Math.min(MAX_AHEAD, ahead));
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+/**
+ * Implemented by page providers that can produce pages before an engine
+ * asks for them, driven by a {@link PagePrefetcher}.
+ */
+public interface PrefetchPageProvider extends FlipOver.PageProvider {
+    /**
+     * Keeps room for the pages from first to last, which include
+     * currentIndex; cached pages outside the range are dropped first.
+     */
+    void setPrefetchWindow(int currentIndex, int first, int last);
+
+    /**
+     * Produces page index if it is not cached yet, the content layer of a
+     * {@link LayeredPageProvider} if content is true. requested is true
+     * when an engine is waiting for the page; other pages give way to the
+     * pages engines ask for and may be skipped. Called on a background
+     * thread.
+     */
+    void prefetchPage(int index, int width, int height, boolean content, boolean requested);
+}
@@ -0,0 +1,59 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.Bitmap;
+
+/**
+ * Implemented by page providers that can hand out what they already have
+ * without rendering, so an engine can show a small placeholder while the
+ * full page is produced in the background by a {@link PagePrefetcher}.
+ */
+public interface ProgressivePageProvider extends PrefetchPageProvider {
+    /**
+     * Page index if it is already produced, or null; never renders. content
+     * selects the content layer of a {@link LayeredPageProvider}.
+     */
+    Bitmap getReadyPage(int index, int width, int height, boolean content);
+
+    /**
+     * A scaled down copy of page index to stretch over the page, or null.
+     */
+    Bitmap getPlaceholder(int index, int width, int height, boolean content);
+
+    /**
+     * Produces the placeholder of page index if that is much cheaper than the
+     * page itself. Called on a background thread.
+     */
+    void preparePlaceholder(int index, int width, int height, boolean content);
+
+    /**
+     * Whether {@link #preparePlaceholder} can produce placeholders of pages
+     * that were never rendered. Engines render other pages at once rather
+     * than show nothing in their place.
+     */
+    boolean canPreparePlaceholder(boolean content);
+
+    /**
+     * Draws page index scaled down into thumbnail, which has the aspect of
+     * the page, for page overviews; returns false if the page cannot be
+     * drawn yet. Without render, only pages the provider already has or
+     * can draw as cheaply as a placeholder are drawn. Called on a
+     * background thread.
+     */
+    boolean renderThumbnail(int index, Bitmap thumbnail, boolean render);
+}
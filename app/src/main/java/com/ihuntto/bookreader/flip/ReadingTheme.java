@@ -0,0 +1,138 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.ColorMatrix;
+
+/**
+ * Brightness and color mode applied when pages are drawn, not when they are
+ * rendered, so switching themes never invalidates cached pages or textures.
+ * The GL engines feed {@link #getMatrix()} and {@link #getOffset()} to the
+ * page shaders; the Canvas engines use {@link #createColorMatrix()}.
+ */
+public class ReadingTheme {
+    public static final int MODE_NORMAL = 0;
+    public static final int MODE_SEPIA = 1;
+    // 反色，白底黑字变为深灰底浅灰字
+    public static final int MODE_NIGHT = 2;
+
+    public static final ReadingTheme DEFAULT = new Builder().create();
+
+    private static final float NIGHT_BACKGROUND = 0.10f;
+    private static final float NIGHT_TEXT = 0.75f;
+
+    protected int mMode = MODE_NORMAL;
+    protected float mBrightness = 1.0f;
+
+    // 列主序，作用于0~1的rgba
+    private final float[] mMatrix = new float[16];
+    private final float[] mOffset = new float[4];
+
+    protected ReadingTheme() {
+    }
+
+    public static class Builder {
+        private ReadingTheme mTheme;
+
+        public Builder() {
+            mTheme = new ReadingTheme();
+        }
+
+        public Builder mode(int mode) {
+            mTheme.mMode = mode;
+            return this;
+        }
+
+        public Builder brightness(float brightness) {
+            mTheme.mBrightness = Math.max(0.0f, Math.min(1.0f, brightness));
+            return this;
+        }
+
+        public ReadingTheme create() {
+            mTheme.computeMatrix();
+            return mTheme;
+        }
+    }
+
+    private void computeMatrix() {
+        float[] rows = new float[20];
+        switch (mMode) {
+            case MODE_SEPIA:
+                // 按亮度映射到暖色纸张色调
+                float[] tint = {1.0f, 0.91f, 0.76f};
+                for (int i = 0; i < 3; i++) {
+                    rows[i * 5] = 0.299f * tint[i];
+                    rows[i * 5 + 1] = 0.587f * tint[i];
+                    rows[i * 5 + 2] = 0.114f * tint[i];
+                }
+                break;
+            case MODE_NIGHT:
+                float scale = NIGHT_BACKGROUND - NIGHT_TEXT;
+                for (int i = 0; i < 3; i++) {
+                    rows[i * 5 + i] = scale;
+                    rows[i * 5 + 4] = NIGHT_TEXT;
+                }
+                break;
+            default:
+                for (int i = 0; i < 3; i++) {
+                    rows[i * 5 + i] = 1.0f;
+                }
+                break;
+        }
+        rows[18] = 1.0f;
+
+        for (int row = 0; row < 4; row++) {
+            float brightness = row < 3 ? mBrightness : 1.0f;
+            for (int column = 0; column < 4; column++) {
+                mMatrix[column * 4 + row] = rows[row * 5 + column] * brightness;
+            }
+            mOffset[row] = rows[row * 5 + 4] * brightness;
+        }
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public float getBrightness() {
+        return mBrightness;
+    }
+
+    public float[] getMatrix() {
+        return mMatrix;
+    }
+
+    public float[] getOffset() {
+        return mOffset;
+    }
+
+    public boolean isIdentity() {
+        return mMode == MODE_NORMAL && mBrightness >= 1.0f;
+    }
+
+    public ColorMatrix createColorMatrix() {
+        float[] array = new float[20];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                array[row * 5 + column] = mMatrix[column * 4 + row];
+            }
+            // ColorMatrix的偏移以0~255计
+            array[row * 5 + 4] = mOffset[row] * 255.0f;
+        }
+        return new ColorMatrix(array);
+    }
+}
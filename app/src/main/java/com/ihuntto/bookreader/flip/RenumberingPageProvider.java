@@ -0,0 +1,32 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+/**
+ * Implemented by page providers whose page numbering changes while a book
+ * is open, e.g. when pages laid out before the reading position get
+ * numbered. Engines call {@link #publishPages(int)} on the thread that owns
+ * their current page index and move that index by the result, so a flip in
+ * progress never sees half of a renumbering.
+ */
+public interface RenumberingPageProvider extends FlipOver.PageProvider {
+    /**
+     * Renumbers pages whose layout became known since the last call and
+     * returns how far the page at currentIndex moved.
+     */
+    int publishPages(int currentIndex);
+}
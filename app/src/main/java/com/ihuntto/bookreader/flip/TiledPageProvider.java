@@ -0,0 +1,39 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Implemented by page providers whose pages come from a large source image,
+ * such as a scan, so that a zoomed page can be drawn from tiles decoded at
+ * the resolution on screen. The page bitmap is expected to show the whole
+ * source scaled to fit and centered.
+ */
+public interface TiledPageProvider extends FlipOver.PageProvider {
+    // 原图尺寸，页面不存在时返回0
+    int getSourceWidth(int index);
+
+    int getSourceHeight(int index);
+
+    /**
+     * Decodes sourceRect of page index, downsampled by sampleSize, a power
+     * of two. Called on worker threads; may return null.
+     */
+    Bitmap decodeTile(int index, Rect sourceRect, int sampleSize);
+}
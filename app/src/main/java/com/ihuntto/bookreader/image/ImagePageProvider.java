@@ -0,0 +1,321 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.image;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.book.ImageBookSource;
+import com.ihuntto.bookreader.flip.TiledPageProvider;
+import com.ihuntto.bookreader.page.AbstractPageProvider;
+import com.ihuntto.bookreader.page.BitmapPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages of an image book, one image per page scaled to fit. Image sizes are
+ * read from headers first, and each image is decoded with the largest
+ * sample size that still covers the page, so decode time and memory follow
+ * the screen size rather than the scan size. Zoomed pages are served as
+ * tiles from a {@link BitmapRegionDecoder}.
+ */
+public class ImagePageProvider extends AbstractPageProvider implements TiledPageProvider {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = ImagePageProvider.class.getSimpleName();
+
+    // 区域解码器持有整张图片的解码状态，只保留最近缩放过的几页
+    private static final int MAX_REGION_DECODERS = 2;
+    private static final int DECODE_POOL_SIZE = 2;
+
+    private final ImageBookSource mSource;
+    // 未读取的尺寸为-1，读取失败为0
+    private final int[] mSourceWidths;
+    private final int[] mSourceHeights;
+    private final Object mBoundsLock = new Object();
+
+    // 按采样率解码出的中间位图，复用作为inBitmap
+    private final BitmapPool mDecodePool = new BitmapPool(DECODE_POOL_SIZE);
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mDestination = new RectF();
+    private int mBackgroundColor = Color.WHITE;
+
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<Integer, BitmapRegionDecoder> mRegionDecoders = new LinkedHashMap<>(4, 0.75f, true);
+
+    public ImagePageProvider(ImageBookSource source) {
+        mSource = source;
+        int count = source.getImageCount();
+        mSourceWidths = new int[count];
+        mSourceHeights = new int[count];
+        Arrays.fill(mSourceWidths, -1);
+        Arrays.fill(mSourceHeights, -1);
+    }
+
+    public synchronized void setBackgroundColor(int backgroundColor) {
+        if (mBackgroundColor != backgroundColor) {
+            mBackgroundColor = backgroundColor;
+            invalidate();
+        }
+    }
+
+    @Override
+    public String getBookId() {
+        return mSource.getId();
+    }
+
+    @Override
+    protected synchronized String getRenderKey(int index) {
+        return getBookId() + "/" + mBackgroundColor + "|" + index;
+    }
+
+    @Override
+    public int getPageCount() {
+        return mSource.getImageCount();
+    }
+
+    @Override
+    public int getSourceWidth(int index) {
+        return readBounds(index) ? mSourceWidths[index] : 0;
+    }
+
+    @Override
+    public int getSourceHeight(int index) {
+        return readBounds(index) ? mSourceHeights[index] : 0;
+    }
+
+    // 只读取文件头中的尺寸
+    private boolean readBounds(int index) {
+        if (index < 0 || index >= mSourceWidths.length) {
+            return false;
+        }
+        synchronized (mBoundsLock) {
+            if (mSourceWidths[index] < 0) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                decodeStream(index, options);
+                mSourceWidths[index] = Math.max(0, options.outWidth);
+                mSourceHeights[index] = Math.max(0, options.outHeight);
+            }
+            return mSourceWidths[index] > 0 && mSourceHeights[index] > 0;
+        }
+    }
+
+    @Override
+    protected void onRenderPage(int index, Bitmap bitmap) {
+        bitmap.eraseColor(mBackgroundColor);
+        drawImage(index, bitmap);
+    }
+
+    @Override
+    public boolean canPreparePlaceholder(boolean content) {
+        return !content;
+    }
+
+    @Override
+    protected boolean onRenderThumbnail(int index, Bitmap thumbnail) {
+        // 按缩略图尺寸采样解码，只读取很少的像素
+        thumbnail.eraseColor(mBackgroundColor);
+        return drawImage(index, thumbnail);
+    }
+
+    private boolean drawImage(int index, Bitmap bitmap) {
+        if (!readBounds(index)) {
+            return false;
+        }
+        int sourceWidth = mSourceWidths[index];
+        int sourceHeight = mSourceHeights[index];
+        float fit = Math.min((float) bitmap.getWidth() / sourceWidth, (float) bitmap.getHeight() / sourceHeight);
+        float width = sourceWidth * fit;
+        float height = sourceHeight * fit;
+
+        int sampleSize = 1;
+        while (sourceWidth / (sampleSize * 2) >= width && sourceHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        Bitmap decoded = decodeSampled(index, sampleSize);
+        if (decoded == null) {
+            return false;
+        }
+        mDestination.set((bitmap.getWidth() - width) / 2.0f, (bitmap.getHeight() - height) / 2.0f,
+                (bitmap.getWidth() + width) / 2.0f, (bitmap.getHeight() + height) / 2.0f);
+        new Canvas(bitmap).drawBitmap(decoded, null, mDestination, mPaint);
+        mDecodePool.release(decoded);
+        return true;
+    }
+
+    private Bitmap decodeSampled(int index, int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = getBitmapConfig();
+        options.inMutable = true;
+        // 4.4以前inBitmap要求尺寸完全一致且不能采样
+        Bitmap reusable = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int width = (mSourceWidths[index] + sampleSize - 1) / sampleSize;
+            int height = (mSourceHeights[index] + sampleSize - 1) / sampleSize;
+            reusable = mDecodePool.acquire(width, height, options.inPreferredConfig);
+            options.inBitmap = reusable;
+        }
+        try {
+            Bitmap decoded = decodeStream(index, options);
+            if (decoded == null) {
+                mDecodePool.release(reusable);
+            }
+            return decoded;
+        } catch (IllegalArgumentException e) {
+            // 复用的位图不合适，放回池中后不复用重新解码
+            options.inBitmap = null;
+            mDecodePool.release(reusable);
+            return decodeStream(index, options);
+        } catch (OutOfMemoryError e) {
+            Log.w(TAG, "Out of memory decoding page " + index, e);
+            mDecodePool.release(reusable);
+            return null;
+        }
+    }
+
+    private Bitmap decodeStream(int index, BitmapFactory.Options options) {
+        InputStream input = null;
+        try {
+            input = mSource.openImage(index);
+            return BitmapFactory.decodeStream(input, null, options);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read page " + index, e);
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public Bitmap decodeTile(int index, Rect sourceRect, int sampleSize) {
+        BitmapRegionDecoder decoder = getRegionDecoder(index);
+        if (decoder == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        // 扫描件不需要透明度，瓦片占用减半
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        // 只锁住这一页的解码器，不同页的瓦片可以同时解码
+        synchronized (decoder) {
+            if (decoder.isRecycled()) {
+                return null;
+            }
+            return decoder.decodeRegion(sourceRect, options);
+        }
+    }
+
+    private BitmapRegionDecoder getRegionDecoder(int index) {
+        synchronized (mRegionDecoders) {
+            BitmapRegionDecoder decoder = mRegionDecoders.get(index);
+            if (decoder != null) {
+                return decoder;
+            }
+        }
+        BitmapRegionDecoder decoder = createRegionDecoder(index);
+        if (decoder == null) {
+            return null;
+        }
+        List<BitmapRegionDecoder> evicted = new ArrayList<>();
+        synchronized (mRegionDecoders) {
+            BitmapRegionDecoder existing = mRegionDecoders.get(index);
+            if (existing != null) {
+                // 另一个线程已经创建了这一页的解码器
+                evicted.add(decoder);
+                decoder = existing;
+            } else {
+                mRegionDecoders.put(index, decoder);
+                Iterator<Map.Entry<Integer, BitmapRegionDecoder>> iterator = mRegionDecoders.entrySet().iterator();
+                while (mRegionDecoders.size() > MAX_REGION_DECODERS && iterator.hasNext()) {
+                    evicted.add(iterator.next().getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        recycleRegionDecoders(evicted);
+        return decoder;
+    }
+
+    private BitmapRegionDecoder createRegionDecoder(int index) {
+        InputStream input = null;
+        try {
+            String path = mSource.getImagePath(index);
+            if (path != null) {
+                return BitmapRegionDecoder.newInstance(path, false);
+            }
+            input = mSource.openImage(index);
+            return BitmapRegionDecoder.newInstance(input, false);
+        } catch (IOException e) {
+            // GIF等格式不支持区域解码
+            if (D) {
+                Log.w(TAG, "Could not create region decoder for page " + index, e);
+            }
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // 等正在进行的解码结束后再回收
+    private static void recycleRegionDecoders(List<BitmapRegionDecoder> decoders) {
+        for (BitmapRegionDecoder decoder : decoders) {
+            synchronized (decoder) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        List<BitmapRegionDecoder> decoders;
+        synchronized (mRegionDecoders) {
+            decoders = new ArrayList<>(mRegionDecoders.values());
+            mRegionDecoders.clear();
+        }
+        recycleRegionDecoders(decoders);
+        mDecodePool.clear();
+        mSource.close();
+    }
+}
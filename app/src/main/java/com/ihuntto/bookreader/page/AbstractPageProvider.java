@@ -0,0 +1,532 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.page;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.FlipOverPage;
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+import com.ihuntto.bookreader.flip.RenumberingPageProvider;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Page pipeline shared by the real book providers: keeps the most recently
+ * requested pages rendered in memory and draws new ones into pooled bitmaps.
+ * <p>
+ * A bitmap handed out stays valid while its page is among the recently
+ * requested ones, which always covers the current page and its neighbours.
+ * Speculative prefetching reads the disk cache without holding the
+ * provider and renders only while no engine is waiting for a page.
+ * With a {@link DiskPageCache} set, pages missing from memory are looked up
+ * on disk before they are rendered. A {@link com.ihuntto.bookreader.flip.PagePrefetcher}
+ * can resize the cache to its prefetch window.
+ * <p>
+ * Pages are rendered in the config the app asks for through
+ * {@link #setBitmapConfig(Bitmap.Config)} unless the provider settles for a
+ * smaller one in {@link #choosePageConfig(Bitmap.Config)}; the cache holds
+ * as many bytes of pages whatever their config, so smaller pages mean more
+ * of them stay resident.
+ * <p>
+ * Every rendered page also leaves a copy at 1/8 scale behind, which
+ * engines show as a placeholder while the page is rendered again in the
+ * background.
+ */
+public abstract class AbstractPageProvider implements ProgressivePageProvider,
+        RenumberingPageProvider {
+    // 以ARGB_8888页面计的缓存页数，像素格式更小时按字节数相应多缓存几页
+    private static final int PAGE_CACHE_SIZE = 6;
+    private static final int ARGB_8888_BYTES = 4;
+    // 引擎正在显示的当前页及前后各一页，可能还不在最新的预取窗口内
+    private static final int DISPLAYED_PAGES = 3;
+    private static final int BITMAP_POOL_SIZE = 3;
+    private static final int THUMBNAIL_SCALE = 8;
+    private static final int THUMBNAIL_CACHE_SIZE = 32;
+
+    public interface OnPagesChangedListener {
+        // 可能在工作线程回调
+        void onPagesChanged();
+    }
+
+    protected final BitmapPool mBitmapPool = new BitmapPool(BITMAP_POOL_SIZE);
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<Integer, Bitmap> mPageCache = new LinkedHashMap<>(16, 0.75f, true);
+    // 分层绘制时的内容层，与整页位图分开缓存
+    private final LinkedHashMap<Integer, Bitmap> mContentCache = new LinkedHashMap<>(16, 0.75f, true);
+    // 缩略图很小，不回收也不进入位图池
+    private final LinkedHashMap<Integer, Bitmap> mThumbnailCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Bitmap> mContentThumbnailCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Paint mThumbnailPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // 正在等待或取得页面的引擎调用数，预取在此期间不开始渲染
+    private final AtomicInteger mForegroundRequests = new AtomicInteger();
+
+    private int mWidth;
+    private int mHeight;
+    private Bitmap.Config mBitmapConfig = Bitmap.Config.ARGB_8888;
+    private volatile OnPagesChangedListener mOnPagesChangedListener;
+    private DiskPageCache mDiskCache;
+    private int mPageCacheSize = PAGE_CACHE_SIZE;
+    private boolean mClosed;
+    // 预取窗口，窗口外的页面先被淘汰；没有窗口时first大于last
+    private int mWindowFirst;
+    private int mWindowLast = -1;
+    // 引擎的当前页，附近的页面可能正在显示
+    private int mCurrentIndex = -1;
+    // 每次丢弃已渲染的页面时加一，不持锁读取磁盘的预取据此放弃结果
+    private int mInvalidations;
+
+    public void setOnPagesChangedListener(OnPagesChangedListener onPagesChangedListener) {
+        mOnPagesChangedListener = onPagesChangedListener;
+    }
+
+    protected void notifyPagesChanged() {
+        OnPagesChangedListener listener = mOnPagesChangedListener;
+        if (listener != null) {
+            listener.onPagesChanged();
+        }
+    }
+
+    public synchronized void setBitmapConfig(Bitmap.Config bitmapConfig) {
+        if (mBitmapConfig != bitmapConfig) {
+            mBitmapConfig = bitmapConfig;
+            invalidate();
+        }
+    }
+
+    public synchronized void setDiskCache(DiskPageCache diskCache) {
+        mDiskCache = diskCache;
+    }
+
+    /**
+     * Config of whole page bitmaps, as negotiated between the app and the
+     * provider.
+     */
+    public synchronized Bitmap.Config getBitmapConfig() {
+        return choosePageConfig(mBitmapConfig);
+    }
+
+    @Override
+    public FlipOverPage updatePage(int index, int width, int height) {
+        Bitmap currentPageBitmap = getPageBitmap(index, width, height);
+        Bitmap rightPageBitmap = getPageBitmap(index + 1, width, height);
+        Bitmap leftPageBitmap = getPageBitmap(index - 1, width, height);
+        return new FlipOverPage(leftPageBitmap, currentPageBitmap, rightPageBitmap);
+    }
+
+    public Bitmap getPageBitmap(int index, int width, int height) {
+        mForegroundRequests.incrementAndGet();
+        try {
+            synchronized (this) {
+                return getBitmap(mPageCache, false, index, width, height);
+            }
+        } finally {
+            mForegroundRequests.decrementAndGet();
+        }
+    }
+
+    /**
+     * Content layer of page index for {@link com.ihuntto.bookreader.flip.LayeredPageProvider},
+     * cleared to transparent and drawn by {@link #onRenderContent(int, Bitmap)}.
+     */
+    public Bitmap getContentBitmap(int index, int width, int height) {
+        mForegroundRequests.incrementAndGet();
+        try {
+            synchronized (this) {
+                return getBitmap(mContentCache, true, index, width, height);
+            }
+        } finally {
+            mForegroundRequests.decrementAndGet();
+        }
+    }
+
+    private Bitmap getBitmap(LinkedHashMap<Integer, Bitmap> cache, boolean content,
+                             int index, int width, int height) {
+        if (!isPageUsable(index, width, height)) {
+            return null;
+        }
+
+        Bitmap bitmap = cache.get(index);
+        if (bitmap != null && !bitmap.isRecycled()) {
+            return bitmap;
+        }
+
+        bitmap = mBitmapPool.acquire(width, height, content ? getContentConfig() : getBitmapConfig());
+        // 尚不能缓存的页面只在内存中保留到下次invalidate
+        boolean cacheable = canCachePage(index);
+        String diskKey = cacheable ? getDiskKey(index, width, height, content) : null;
+        if (diskKey == null || !mDiskCache.get(diskKey, bitmap)) {
+            render(content, index, bitmap, diskKey);
+        }
+        putPage(cache, content, index, bitmap, cacheable);
+        return bitmap;
+    }
+
+    private boolean isPageUsable(int index, int width, int height) {
+        return !mClosed && checkPageSize(width, height) && index >= 0 && index < getPageCount();
+    }
+
+    private void render(boolean content, int index, Bitmap bitmap, String diskKey) {
+        if (content) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+            onRenderContent(index, bitmap);
+        } else {
+            onRenderPage(index, bitmap);
+        }
+        if (diskKey != null) {
+            mDiskCache.put(diskKey, bitmap);
+        }
+    }
+
+    private void putPage(LinkedHashMap<Integer, Bitmap> cache, boolean content, int index,
+                         Bitmap bitmap, boolean cacheable) {
+        if (cacheable) {
+            putThumbnail(content ? mContentThumbnailCache : mThumbnailCache, index,
+                    Bitmap.createScaledBitmap(bitmap, getThumbnailWidth(), getThumbnailHeight(), true));
+        }
+        cache.put(index, bitmap);
+        trimCache(cache);
+    }
+
+    private String getDiskKey(int index, int width, int height, boolean content) {
+        String renderKey = mDiskCache != null ? getRenderKey(index) : null;
+        if (renderKey == null) {
+            return null;
+        }
+        return renderKey + "|" + width + "x" + height + (content ? "|content" : "|page");
+    }
+
+    /**
+     * Whether the whole page index of the given size is in the disk cache,
+     * so rendering it ahead of time would be wasted.
+     */
+    protected synchronized boolean isPageOnDisk(int index, int width, int height) {
+        String diskKey = getDiskKey(index, width, height, false);
+        return diskKey != null && mDiskCache.contains(diskKey);
+    }
+
+    @Override
+    public synchronized void setPrefetchWindow(int currentIndex, int first, int last) {
+        mCurrentIndex = currentIndex;
+        mWindowFirst = first;
+        mWindowLast = last;
+        mPageCacheSize = Math.max(PAGE_CACHE_SIZE, last - first + 1 + DISPLAYED_PAGES);
+        trimCache(mPageCache);
+        trimCache(mContentCache);
+    }
+
+    @Override
+    public void prefetchPage(int index, int width, int height, boolean content, boolean requested) {
+        if (requested) {
+            if (content) {
+                getContentBitmap(index, width, height);
+            } else {
+                getPageBitmap(index, width, height);
+            }
+            return;
+        }
+        LinkedHashMap<Integer, Bitmap> cache = content ? mContentCache : mPageCache;
+        DiskPageCache diskCache;
+        Bitmap bitmap;
+        String diskKey;
+        boolean cacheable;
+        int invalidations;
+        synchronized (this) {
+            if (mForegroundRequests.get() > 0 || !isPageUsable(index, width, height)
+                    || cache.containsKey(index)) {
+                return;
+            }
+            diskCache = mDiskCache;
+            bitmap = mBitmapPool.acquire(width, height, content ? getContentConfig() : getBitmapConfig());
+            cacheable = canCachePage(index);
+            diskKey = cacheable ? getDiskKey(index, width, height, content) : null;
+            invalidations = mInvalidations;
+        }
+        // 读取磁盘时不持有锁，引擎取页面不必等待
+        boolean loaded = diskKey != null && diskCache.get(diskKey, bitmap);
+        synchronized (this) {
+            // 引擎等待页面时不开始渲染，这一页留给之后的预取
+            if (invalidations != mInvalidations || !isPageUsable(index, width, height)
+                    || cache.containsKey(index) || (!loaded && mForegroundRequests.get() > 0)) {
+                mBitmapPool.release(bitmap);
+                return;
+            }
+            if (!loaded) {
+                render(content, index, bitmap, diskKey);
+            }
+            putPage(cache, content, index, bitmap, cacheable);
+        }
+    }
+
+    @Override
+    public synchronized Bitmap getReadyPage(int index, int width, int height, boolean content) {
+        if (width != mWidth || height != mHeight) {
+            return null;
+        }
+        Bitmap bitmap = (content ? mContentCache : mPageCache).get(index);
+        return bitmap != null && !bitmap.isRecycled() ? bitmap : null;
+    }
+
+    @Override
+    public synchronized Bitmap getPlaceholder(int index, int width, int height, boolean content) {
+        if (width != mWidth || height != mHeight) {
+            return null;
+        }
+        return (content ? mContentThumbnailCache : mThumbnailCache).get(index);
+    }
+
+    @Override
+    public synchronized void preparePlaceholder(int index, int width, int height, boolean content) {
+        // 内容层的缩略图只来自完整渲染过的页面
+        if (content || !checkPageSize(width, height) || index < 0 || index >= getPageCount()
+                || mThumbnailCache.containsKey(index)) {
+            return;
+        }
+        Bitmap thumbnail = Bitmap.createBitmap(getThumbnailWidth(), getThumbnailHeight(), getBitmapConfig());
+        if (onRenderThumbnail(index, thumbnail)) {
+            putThumbnail(mThumbnailCache, index, thumbnail);
+        }
+    }
+
+    // 只有能快速画出缩略图的子类才能为没渲染过的页面提供占位图
+    @Override
+    public boolean canPreparePlaceholder(boolean content) {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean renderThumbnail(int index, Bitmap thumbnail, boolean render) {
+        if (mClosed || mWidth <= 0 || mHeight <= 0 || index < 0 || index >= getPageCount()
+                || !canRenderThumbnail(index) || !canCachePage(index)) {
+            return false;
+        }
+        if (onRenderThumbnail(index, thumbnail)) {
+            return true;
+        }
+        // 依次使用已有的页面、缩略图和磁盘缓存，都没有时才渲染整页
+        Bitmap source = mPageCache.get(index);
+        if (source == null || source.isRecycled()) {
+            source = mThumbnailCache.get(index);
+        }
+        Bitmap rendered = null;
+        if (source == null) {
+            rendered = mBitmapPool.acquire(mWidth, mHeight, getBitmapConfig());
+            String diskKey = getDiskKey(index, mWidth, mHeight, false);
+            if (diskKey == null || !mDiskCache.get(diskKey, rendered)) {
+                if (!render) {
+                    mBitmapPool.release(rendered);
+                    return false;
+                }
+                onRenderPage(index, rendered);
+            }
+            source = rendered;
+        }
+        new Canvas(thumbnail).drawBitmap(source, null,
+                new Rect(0, 0, thumbnail.getWidth(), thumbnail.getHeight()), mThumbnailPaint);
+        if (rendered != null) {
+            mBitmapPool.release(rendered);
+        }
+        return true;
+    }
+
+    private int getThumbnailWidth() {
+        return Math.max(1, mWidth / THUMBNAIL_SCALE);
+    }
+
+    private int getThumbnailHeight() {
+        return Math.max(1, mHeight / THUMBNAIL_SCALE);
+    }
+
+    private static void putThumbnail(LinkedHashMap<Integer, Bitmap> cache, int index, Bitmap thumbnail) {
+        cache.put(index, thumbnail);
+        Iterator<Integer> iterator = cache.keySet().iterator();
+        while (cache.size() > THUMBNAIL_CACHE_SIZE && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Adopts a new page size before a page is produced; returns false if
+     * the size is not usable yet.
+     */
+    protected synchronized boolean checkPageSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        if (width != mWidth || height != mHeight) {
+            mWidth = width;
+            mHeight = height;
+            invalidate();
+            onPageSizeChanged(width, height);
+        }
+        return true;
+    }
+
+    private void trimCache(LinkedHashMap<Integer, Bitmap> cache) {
+        Bitmap.Config config = cache == mContentCache ? getContentConfig() : getBitmapConfig();
+        int capacity = Math.max(mPageCacheSize, PAGE_CACHE_SIZE * ARGB_8888_BYTES / getBytesPerPixel(config));
+        // 先淘汰窗口外的页面，再按最久未使用淘汰；引擎可能正在显示的页面不按窗口淘汰
+        Iterator<Map.Entry<Integer, Bitmap>> iterator = cache.entrySet().iterator();
+        while (cache.size() > capacity && iterator.hasNext()) {
+            Map.Entry<Integer, Bitmap> entry = iterator.next();
+            int index = entry.getKey();
+            boolean displayed = mCurrentIndex >= 0 && Math.abs(index - mCurrentIndex) <= DISPLAYED_PAGES / 2;
+            if (!displayed && (index < mWindowFirst || index > mWindowLast)) {
+                iterator.remove();
+                mBitmapPool.release(entry.getValue());
+            }
+        }
+        iterator = cache.entrySet().iterator();
+        while (cache.size() > capacity && iterator.hasNext()) {
+            Bitmap eldest = iterator.next().getValue();
+            iterator.remove();
+            mBitmapPool.release(eldest);
+        }
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return ARGB_8888_BYTES;
+    }
+
+    /**
+     * Drops every rendered page, for example after a style change.
+     */
+    public synchronized void invalidate() {
+        invalidatePages();
+        for (Bitmap bitmap : mContentCache.values()) {
+            mBitmapPool.release(bitmap);
+        }
+        mContentCache.clear();
+        mContentThumbnailCache.clear();
+    }
+
+    /**
+     * Drops the rendered whole pages but keeps content layers, for changes
+     * that only affect what is drawn under the content.
+     */
+    protected synchronized void invalidatePages() {
+        mInvalidations++;
+        for (Bitmap bitmap : mPageCache.values()) {
+            mBitmapPool.release(bitmap);
+        }
+        mPageCache.clear();
+        mThumbnailCache.clear();
+    }
+
+    // 页码固定不变的书不需要重新编号
+    @Override
+    public int publishPages(int currentIndex) {
+        return 0;
+    }
+
+    protected synchronized int getPageWidth() {
+        return mWidth;
+    }
+
+    protected synchronized int getPageHeight() {
+        return mHeight;
+    }
+
+    public void close() {
+        synchronized (this) {
+            // 后台线程正在绘制的页面在锁内完成，之后不再绘制
+            mClosed = true;
+            mPageCache.clear();
+            mContentCache.clear();
+            mThumbnailCache.clear();
+            mContentThumbnailCache.clear();
+        }
+        mBitmapPool.clear();
+    }
+
+    protected void onPageSizeChanged(int width, int height) {
+    }
+
+    /**
+     * Identifies everything besides size and config that decides how page
+     * index looks, also across launches, so a page stored on disk under the
+     * same key can stand in for rendering it. Null keeps the page off disk.
+     */
+    protected String getRenderKey(int index) {
+        return getBookId() + "|" + index;
+    }
+
+    /**
+     * Whether page index would be rendered as it finally looks. Pages that
+     * would not are still rendered, but kept off disk and out of the
+     * thumbnails; the provider must {@link #invalidate()} once they would.
+     */
+    protected boolean canCachePage(int index) {
+        return true;
+    }
+
+    /**
+     * Draws page index into bitmap, which is page sized and may hold an older page.
+     */
+    protected abstract void onRenderPage(int index, Bitmap bitmap);
+
+    /**
+     * Draws a page sized placeholder of page index into the small thumbnail
+     * bitmap, for providers that can do so much faster than rendering the
+     * page; returns false if it was not drawn.
+     */
+    protected boolean onRenderThumbnail(int index, Bitmap thumbnail) {
+        return false;
+    }
+
+    /**
+     * Config whole pages are rendered in, given the config the app asked
+     * for. Pages are opaque, so providers whose pages are flat colors can
+     * settle for RGB_565 whatever was asked.
+     */
+    protected Bitmap.Config choosePageConfig(Bitmap.Config requested) {
+        return requested;
+    }
+
+    /**
+     * Whether page index can be drawn for {@link #renderThumbnail(int, Bitmap, boolean)}
+     * without disturbing the pages being read.
+     */
+    protected boolean canRenderThumbnail(int index) {
+        return true;
+    }
+
+    protected Bitmap.Config getContentConfig() {
+        return getBitmapConfig();
+    }
+
+    /**
+     * Draws the content layer of page index into a transparent bitmap of
+     * {@link #getContentConfig()}; an opaque page is valid content too.
+     */
+    protected void onRenderContent(int index, Bitmap bitmap) {
+        onRenderPage(index, bitmap);
+    }
+}
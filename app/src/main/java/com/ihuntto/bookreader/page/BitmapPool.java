@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.page;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recycles page sized bitmaps so rendering a page does not allocate a new
+ * multi-megabyte buffer every time.
+ */
+public class BitmapPool {
+    private final int mMaxSize;
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+            Bitmap bitmap = mBitmaps.get(i);
+            if (bitmap.isRecycled()) {
+                mBitmaps.remove(i);
+            } else if (bitmap.getWidth() == width
+                    && bitmap.getHeight() == height
+                    && bitmap.getConfig() == config) {
+                mBitmaps.remove(i);
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || mBitmaps.contains(bitmap)) {
+            return;
+        }
+        if (mBitmaps.size() >= mMaxSize) {
+            mBitmaps.remove(0).recycle();
+        }
+        mBitmaps.add(bitmap);
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+    }
+}
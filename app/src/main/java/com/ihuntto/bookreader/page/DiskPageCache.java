@@ -0,0 +1,519 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.page;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendered pages kept on disk as raw pixels, under the in-memory page cache
+ * of {@link AbstractPageProvider}. Pages are appended to one data file and
+ * read back through mappings of its segments, so a page seen before costs a
+ * copy instead of a render. The least recently used pages are dropped once
+ * the budget is exceeded; their bytes are reclaimed by compacting the data
+ * file into a new one on the write thread, while reads go on.
+ * <p>
+ * Index file layout (big endian): magic, version, entry count, then per
+ * entry in use order: key hash (long), offset (long), byte count, width,
+ * height, config ordinal.
+ */
+public class DiskPageCache {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = DiskPageCache.class.getSimpleName();
+
+    private static final String DATA_FILE = "pages.dat";
+    private static final String INDEX_FILE = "pages.idx";
+    private static final int MAGIC = 0x50474443;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 12;
+    private static final int ENTRY_BYTES = 32;
+    // 等待写入的页面上限，超出时放弃新页面而不是占用更多内存
+    private static final int MAX_PENDING_WRITES = 2;
+    private static final int SAVE_INDEX_INTERVAL = 8;
+    // 数据文件按段映射，文件变长时只重新映射最后一段
+    private static final long SEGMENT_BYTES = 32L * 1024 * 1024;
+    private static final long IDLE_THREAD_SECONDS = 10;
+
+    // 所有实例共用一个写入线程：重新打开同一目录时，前一个实例关闭时保存的索引已经写完
+    private static final ExecutorService sWriteExecutor = new ThreadPoolExecutor(0, 1,
+            IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "DiskPageCache");
+        }
+    });
+
+    private static final class Entry {
+        long offset;
+        final int byteCount;
+        final int width;
+        final int height;
+        final Bitmap.Config config;
+
+        Entry(long offset, int byteCount, int width, int height, Bitmap.Config config) {
+            this.offset = offset;
+            this.byteCount = byteCount;
+            this.width = width;
+            this.height = height;
+            this.config = config;
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<Long, Entry> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Set<Long> mPendingKeys = new HashSet<>();
+    private final Map<Long, MappedByteBuffer> mSegments = new HashMap<>();
+    // 写入完成的像素缓冲，供下一次put复用
+    private final ArrayDeque<ByteBuffer> mFreeBuffers = new ArrayDeque<>();
+    private RandomAccessFile mDataFile;
+    private long mLiveBytes;
+    private int mUnsavedWrites;
+    private boolean mClosed;
+
+    /**
+     * Opens the cache in directory on its write thread, so it may be called
+     * from the main thread. Until the index is loaded no page is found.
+     */
+    public static DiskPageCache open(File directory, long maxBytes) {
+        return new DiskPageCache(directory, maxBytes);
+    }
+
+    private DiskPageCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    // 在写入线程调用。索引读入局部变量，加载完成前的get和contains都找不到页面
+    private void load() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Could not create " + mDirectory);
+            return;
+        }
+        LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+        RandomAccessFile dataFile = null;
+        try {
+            dataFile = new RandomAccessFile(new File(mDirectory, DATA_FILE), "rw");
+            loadIndex(dataFile, entries);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open page cache " + mDirectory, e);
+            closeQuietly(dataFile);
+            return;
+        }
+        synchronized (this) {
+            if (mClosed) {
+                closeQuietly(dataFile);
+                return;
+            }
+            mDataFile = dataFile;
+            for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+                mEntries.put(entry.getKey(), entry.getValue());
+                mLiveBytes += entry.getValue().byteCount;
+            }
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void loadIndex(RandomAccessFile dataFile, Map<Long, Entry> entries) throws IOException {
+        File indexFile = new File(mDirectory, INDEX_FILE);
+        long dataLength = dataFile.length();
+        if (!indexFile.exists()) {
+            dataFile.setLength(0);
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                dataFile.setLength(0);
+                return;
+            }
+            int count = buffer.getInt();
+            Bitmap.Config[] configs = Bitmap.Config.values();
+            for (int i = 0; i < count && buffer.remaining() >= ENTRY_BYTES; i++) {
+                long keyHash = buffer.getLong();
+                long offset = buffer.getLong();
+                int byteCount = buffer.getInt();
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                int config = buffer.getInt();
+                // 退出时数据可能没有写完，超出数据文件的条目不可用
+                if (offset < 0 || byteCount <= 0 || offset + byteCount > dataLength
+                        || config < 0 || config >= configs.length) {
+                    continue;
+                }
+                entries.put(keyHash, new Entry(offset, byteCount, width, height, configs[config]));
+            }
+        } finally {
+            file.close();
+        }
+        if (D) {
+            Log.d(TAG, "loaded " + entries.size() + " pages of " + dataLength + " bytes");
+        }
+    }
+
+    /**
+     * Copies the page stored under key into bitmap; returns false when
+     * there is none of the bitmap's size and config.
+     */
+    public synchronized boolean get(String key, Bitmap bitmap) {
+        if (mDataFile == null) {
+            return false;
+        }
+        Entry entry = mEntries.get(hash(key));
+        if (entry == null
+                || entry.width != bitmap.getWidth()
+                || entry.height != bitmap.getHeight()
+                || entry.config != bitmap.getConfig()
+                || entry.byteCount != bitmap.getByteCount()) {
+            return false;
+        }
+        try {
+            ByteBuffer buffer = map(entry);
+            bitmap.copyPixelsFromBuffer(buffer);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Could not read page " + key, e);
+            mEntries.remove(hash(key));
+            mLiveBytes -= entry.byteCount;
+            return false;
+        }
+    }
+
+    /**
+     * Whether a page is stored, or being stored, under key.
+     */
+    public synchronized boolean contains(String key) {
+        Long keyHash = hash(key);
+        return mDataFile != null && (mEntries.containsKey(keyHash) || mPendingKeys.contains(keyHash));
+    }
+
+    // 页面所在的段映射一次，跨段的页面单独映射
+    private ByteBuffer map(Entry entry) throws IOException {
+        FileChannel channel = mDataFile.getChannel();
+        long segment = entry.offset / SEGMENT_BYTES;
+        long segmentStart = segment * SEGMENT_BYTES;
+        long end = entry.offset + entry.byteCount;
+        if (end > segmentStart + SEGMENT_BYTES) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.byteCount);
+        }
+        MappedByteBuffer mapped = mSegments.get(segment);
+        if (mapped == null || segmentStart + mapped.capacity() < end) {
+            long size = Math.min(SEGMENT_BYTES, channel.size() - segmentStart);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, size);
+            mSegments.put(segment, mapped);
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position((int) (entry.offset - segmentStart));
+        buffer.limit((int) (end - segmentStart));
+        return buffer.slice();
+    }
+
+    /**
+     * Stores a copy of bitmap under key. The pixels are copied before
+     * returning and written on a background thread.
+     */
+    public void put(String key, Bitmap bitmap) {
+        final Long keyHash = hash(key);
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final Bitmap.Config config = bitmap.getConfig();
+        final ByteBuffer pixels;
+        synchronized (this) {
+            // 打开前不知道页面是否已在磁盘上，不写入
+            if (mClosed || mDataFile == null || config == null || mEntries.containsKey(keyHash)
+                    || mPendingKeys.contains(keyHash) || mPendingKeys.size() >= MAX_PENDING_WRITES
+                    || bitmap.getByteCount() > mMaxBytes) {
+                return;
+            }
+            mPendingKeys.add(keyHash);
+            pixels = obtainBuffer(bitmap.getByteCount());
+        }
+        bitmap.copyPixelsToBuffer(pixels);
+        pixels.flip();
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(keyHash, pixels, width, height, config);
+            }
+        });
+    }
+
+    // 容量够用的空闲缓冲，没有时新分配
+    private ByteBuffer obtainBuffer(int byteCount) {
+        Iterator<ByteBuffer> iterator = mFreeBuffers.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer buffer = iterator.next();
+            if (buffer.capacity() >= byteCount) {
+                iterator.remove();
+                buffer.clear();
+                buffer.limit(byteCount);
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(byteCount);
+    }
+
+    private void recycleBuffer(ByteBuffer buffer) {
+        mFreeBuffers.addFirst(buffer);
+        while (mFreeBuffers.size() > MAX_PENDING_WRITES) {
+            mFreeBuffers.removeLast();
+        }
+    }
+
+    // 在写入线程调用。数据文件只在本线程写入和压缩，这些操作不持有锁，读取不会被阻塞
+    private void write(Long keyHash, ByteBuffer pixels, int width, int height, Bitmap.Config config) {
+        int byteCount = pixels.remaining();
+        FileChannel channel;
+        long offset;
+        try {
+            boolean compact;
+            synchronized (this) {
+                if (mDataFile == null) {
+                    mPendingKeys.remove(keyHash);
+                    recycleBuffer(pixels);
+                    return;
+                }
+                trimToSize(mMaxBytes - byteCount);
+                compact = mDataFile.length() + byteCount > mMaxBytes * 2;
+            }
+            if (compact) {
+                compact();
+            }
+            synchronized (this) {
+                channel = mDataFile.getChannel();
+                offset = channel.size();
+            }
+            while (pixels.hasRemaining()) {
+                channel.write(pixels, offset + pixels.position());
+            }
+            synchronized (this) {
+                mPendingKeys.remove(keyHash);
+                recycleBuffer(pixels);
+                mEntries.put(keyHash, new Entry(offset, byteCount, width, height, config));
+                mLiveBytes += byteCount;
+                if (++mUnsavedWrites >= SAVE_INDEX_INTERVAL) {
+                    saveIndex();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write page", e);
+            synchronized (this) {
+                mPendingKeys.remove(keyHash);
+                recycleBuffer(pixels);
+            }
+        }
+    }
+
+    private void trimToSize(long maxBytes) {
+        Iterator<Map.Entry<Long, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mLiveBytes > maxBytes && iterator.hasNext()) {
+            mLiveBytes -= iterator.next().getValue().byteCount;
+            iterator.remove();
+        }
+    }
+
+    // 在写入线程调用。数据文件只追加，淘汰的页面占用的空间在这里收回：
+    // 不持有锁把仍在使用的页面复制到新文件，再在锁内换上新文件
+    private void compact() throws IOException {
+        long startMillis = System.currentTimeMillis();
+        List<Entry> entries;
+        FileChannel source;
+        synchronized (this) {
+            entries = new ArrayList<>(mEntries.values());
+            source = mDataFile.getChannel();
+        }
+        File compactFile = new File(mDirectory, DATA_FILE + ".tmp");
+        long[] offsets = new long[entries.size()];
+        RandomAccessFile output = new RandomAccessFile(compactFile, "rw");
+        try {
+            output.setLength(0);
+            FileChannel target = output.getChannel();
+            long position = 0;
+            for (int i = 0; i < offsets.length; i++) {
+                Entry entry = entries.get(i);
+                long transferred = 0;
+                while (transferred < entry.byteCount) {
+                    transferred += source.transferTo(entry.offset + transferred,
+                            entry.byteCount - transferred, target);
+                }
+                offsets[i] = position;
+                position += entry.byteCount;
+            }
+        } finally {
+            output.close();
+        }
+        synchronized (this) {
+            if (mDataFile == null) {
+                compactFile.delete();
+                return;
+            }
+            mDataFile.close();
+            mSegments.clear();
+            // 旧索引的偏移不适用于新文件，先删除：替换中途退出时下次打开会清空缓存，而不是读错页面
+            new File(mDirectory, INDEX_FILE).delete();
+            File dataFile = new File(mDirectory, DATA_FILE);
+            if (!compactFile.renameTo(dataFile)) {
+                // 旧文件已关闭，已有的页面都不能再读取
+                mEntries.clear();
+                mLiveBytes = 0;
+                mDataFile = new RandomAccessFile(dataFile, "rw");
+                mDataFile.setLength(0);
+                saveIndex();
+                throw new IOException("Could not replace " + dataFile);
+            }
+            mDataFile = new RandomAccessFile(dataFile, "rw");
+            // 复制期间被淘汰的页面也一并更新，它们已不在索引中
+            for (int i = 0; i < offsets.length; i++) {
+                entries.get(i).offset = offsets[i];
+            }
+            saveIndex();
+        }
+        if (D) {
+            Log.d(TAG, "compacted to " + mLiveBytes + " bytes in " + (System.currentTimeMillis() - startMillis) + "ms");
+        }
+    }
+
+    private void saveIndex() {
+        mUnsavedWrites = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + mEntries.size() * ENTRY_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(mEntries.size());
+        for (Map.Entry<Long, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            buffer.putLong(mapEntry.getKey())
+                    .putLong(entry.offset)
+                    .putInt(entry.byteCount)
+                    .putInt(entry.width)
+                    .putInt(entry.height)
+                    .putInt(entry.config.ordinal());
+        }
+        buffer.flip();
+        // 先写临时文件再替换，索引不会只写了一半
+        File indexFile = new File(mDirectory, INDEX_FILE);
+        File tempFile = new File(mDirectory, INDEX_FILE + ".tmp");
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(tempFile, "rw");
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            file.close();
+            file = null;
+            if (!tempFile.renameTo(indexFile)) {
+                Log.w(TAG, "Could not replace " + indexFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save page cache index", e);
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DiskPageCache.this) {
+                    if (mDataFile == null) {
+                        return;
+                    }
+                    saveIndex();
+                    try {
+                        mDataFile.close();
+                    } catch (IOException ignored) {
+                    }
+                    mDataFile = null;
+                    mSegments.clear();
+                }
+            }
+        });
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException("Could not hash page key", e);
+        }
+    }
+}
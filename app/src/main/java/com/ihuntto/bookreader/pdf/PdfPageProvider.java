@@ -0,0 +1,270 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.pdf;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.pdf.PdfRenderer;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.flip.FlipOverPage;
+import com.ihuntto.bookreader.page.AbstractPageProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pages of a PDF document rasterized by {@link PdfRenderer} at the page
+ * size, fit to the page. PdfRenderer is not thread-safe, so every call into
+ * it runs on one render thread; pages past the current one in the reading
+ * direction are rasterized ahead of time on the same thread, unless the
+ * {@link com.ihuntto.bookreader.page.DiskPageCache} already holds them.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PdfPageProvider extends AbstractPageProvider {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = PdfPageProvider.class.getSimpleName();
+
+    private static final int PREFETCH_PAGES = 2;
+    private static final int PAPER_COLOR = Color.WHITE;
+
+    private final String mId;
+    private final ParcelFileDescriptor mFileDescriptor;
+    // 只在mRenderExecutor中使用
+    private final PdfRenderer mRenderer;
+    private final int mPageCount;
+    private final ExecutorService mRenderExecutor;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // 预先光栅化的页面，access order
+    private final LinkedHashMap<Integer, Bitmap> mPrefetched = new LinkedHashMap<>(4, 0.75f, true);
+    // 同步请求页面时加一，排队中的旧预取任务随之放弃
+    private int mGeneration;
+    private int mLastIndex = -1;
+    private int mDirection = 1;
+
+    public PdfPageProvider(String id, File file) throws IOException {
+        mFileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        try {
+            mRenderer = new PdfRenderer(mFileDescriptor);
+        } catch (IOException | SecurityException e) {
+            // 加密文档抛出SecurityException
+            mFileDescriptor.close();
+            throw new IOException("Could not open PDF: " + e.getMessage());
+        }
+        mPageCount = mRenderer.getPageCount();
+        mId = id + "#" + file.length() + "-" + Long.toHexString(file.lastModified());
+        mRenderExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PdfRenderer");
+            }
+        });
+    }
+
+    @Override
+    public String getBookId() {
+        return mId;
+    }
+
+    @Override
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    @Override
+    public FlipOverPage updatePage(int index, int width, int height) {
+        FlipOverPage page = super.updatePage(index, width, height);
+        prefetch(index, width, height);
+        return page;
+    }
+
+    @Override
+    protected void onRenderPage(int index, Bitmap bitmap) {
+        Bitmap page;
+        synchronized (mPrefetched) {
+            mGeneration++;
+            page = mPrefetched.remove(index);
+        }
+        if (page != null && page.getWidth() == bitmap.getWidth() && page.getHeight() == bitmap.getHeight()) {
+            new Canvas(bitmap).drawBitmap(page, 0, 0, mPaint);
+            page.recycle();
+            return;
+        }
+        page = rasterizeOnRenderThread(index, bitmap.getWidth(), bitmap.getHeight());
+        if (page == null) {
+            bitmap.eraseColor(PAPER_COLOR);
+            return;
+        }
+        new Canvas(bitmap).drawBitmap(page, 0, 0, mPaint);
+        page.recycle();
+    }
+
+    @Override
+    public boolean canPreparePlaceholder(boolean content) {
+        return !content;
+    }
+
+    @Override
+    protected boolean onRenderThumbnail(int index, Bitmap thumbnail) {
+        // 按缩略图尺寸光栅化只需完整页面的一小部分时间
+        Bitmap page = rasterizeOnRenderThread(index, thumbnail.getWidth(), thumbnail.getHeight());
+        if (page == null) {
+            return false;
+        }
+        new Canvas(thumbnail).drawBitmap(page, 0, 0, mPaint);
+        page.recycle();
+        return true;
+    }
+
+    private Bitmap rasterizeOnRenderThread(final int index, final int width, final int height) {
+        if (mRenderExecutor.isShutdown()) {
+            return null;
+        }
+        Future<Bitmap> future = mRenderExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() {
+                return rasterize(index, width, height);
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not render page " + index, e.getCause());
+        }
+        return null;
+    }
+
+    // 在渲染线程调用；PdfRenderer只能绘制到ARGB_8888位图
+    private Bitmap rasterize(int index, int width, int height) {
+        long startMillis = System.currentTimeMillis();
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(PAPER_COLOR);
+        PdfRenderer.Page page = mRenderer.openPage(index);
+        try {
+            float scale = Math.min(width / (float) page.getWidth(), height / (float) page.getHeight());
+            Matrix matrix = new Matrix();
+            matrix.setScale(scale, scale);
+            matrix.postTranslate((width - page.getWidth() * scale) / 2, (height - page.getHeight() * scale) / 2);
+            page.render(bitmap, null, matrix, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+        } finally {
+            page.close();
+        }
+        if (D) {
+            Log.d(TAG, "rendered page " + index + " in " + (System.currentTimeMillis() - startMillis) + "ms");
+        }
+        return bitmap;
+    }
+
+    private synchronized void prefetch(int index, final int width, final int height) {
+        if (mLastIndex >= 0 && index != mLastIndex) {
+            mDirection = index > mLastIndex ? 1 : -1;
+        }
+        mLastIndex = index;
+        if (mRenderExecutor.isShutdown()) {
+            return;
+        }
+        final int generation;
+        synchronized (mPrefetched) {
+            generation = mGeneration;
+        }
+        // updatePage已经取了相邻页，从再往后一页开始
+        for (int i = 2; i < 2 + PREFETCH_PAGES; i++) {
+            final int prefetchIndex = index + mDirection * i;
+            if (prefetchIndex < 0 || prefetchIndex >= mPageCount) {
+                break;
+            }
+            if (isPageOnDisk(prefetchIndex, width, height)) {
+                continue;
+            }
+            mRenderExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mPrefetched) {
+                        if (generation != mGeneration || mPrefetched.containsKey(prefetchIndex)) {
+                            return;
+                        }
+                    }
+                    Bitmap page = rasterize(prefetchIndex, width, height);
+                    synchronized (mPrefetched) {
+                        mPrefetched.put(prefetchIndex, page);
+                        // access order下get也会修改map，只能通过entry取位图
+                        Iterator<Map.Entry<Integer, Bitmap>> iterator = mPrefetched.entrySet().iterator();
+                        while (mPrefetched.size() > PREFETCH_PAGES && iterator.hasNext()) {
+                            Bitmap eldest = iterator.next().getValue();
+                            iterator.remove();
+                            eldest.recycle();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            // 再次close时渲染线程已经关闭
+            if (!mRenderExecutor.isShutdown()) {
+                mRenderExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mRenderer.close();
+                        try {
+                            mFileDescriptor.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                });
+                mRenderExecutor.shutdown();
+            }
+        }
+        synchronized (mPrefetched) {
+            mGeneration++;
+            for (Bitmap page : mPrefetched.values()) {
+                page.recycle();
+            }
+            mPrefetched.clear();
+        }
+        super.close();
+    }
+}
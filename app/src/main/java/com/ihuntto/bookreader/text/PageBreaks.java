@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.text;
+
+import java.util.Arrays;
+
+/**
+ * Page start offsets of a contiguous laid out region of a book, which grows
+ * forward and, when layout started from an anchor, also backward.
+ * <p>
+ * Pages are numbered from the first published one: pages added in front of
+ * the anchor stay hidden until {@link #publishBackPages(int)}
+ * numbers them, so the index of a page only changes at that call.
+ */
+class PageBreaks {
+    static final int PUBLISH_INTERVAL_PAGES = 256;
+
+    // mBreaks[mHead + i]为区域第i页的起始偏移，mBreaks[mHead + mKnownPages]为区域结尾。
+    // 向前扩展时mHead随之减小
+    private int[] mBreaks = new int[256];
+    private int mHead;
+    private int mKnownPages;
+    // 区域中位于锚点页之前的页数，以及其中已对外编号的页数
+    private int mBackPages;
+    private int mPublishedBackPages;
+
+    /**
+     * Empties the region and starts it at offset. A region starting past 0
+     * leaves room to grow backward.
+     */
+    void reset(int offset) {
+        mHead = offset > 0 ? mBreaks.length / 2 : 0;
+        mBreaks[mHead] = offset;
+        mKnownPages = 0;
+        mBackPages = 0;
+        mPublishedBackPages = 0;
+    }
+
+    /**
+     * Replaces the region with breaks, which must start at offset 0.
+     */
+    void load(int[] breaks) {
+        mBreaks = Arrays.copyOf(breaks, Math.max(mBreaks.length, breaks.length * 2));
+        mHead = 0;
+        mKnownPages = breaks.length - 1;
+        mBackPages = 0;
+        mPublishedBackPages = 0;
+    }
+
+    void save(PaginationIndex index, boolean complete) {
+        index.save(mBreaks, mHead, mKnownPages, complete);
+    }
+
+    int getStartOffset() {
+        return mBreaks[mHead];
+    }
+
+    int getEndOffset() {
+        return mBreaks[mHead + mKnownPages];
+    }
+
+    boolean isFrontComplete() {
+        return mBreaks[mHead] == 0;
+    }
+
+    int getKnownPageCount() {
+        return mKnownPages;
+    }
+
+    int getPublishedBackPages() {
+        return mPublishedBackPages;
+    }
+
+    int getPendingBackPages() {
+        return mBackPages - mPublishedBackPages;
+    }
+
+    /**
+     * Returns the position of page index in the region, which is past the
+     * known pages if it has not been laid out yet.
+     */
+    int toRegionPage(int index) {
+        return index - mPublishedBackPages + mBackPages;
+    }
+
+    /**
+     * Returns the number of numbered pages that are laid out.
+     */
+    int getNumberedPageCount() {
+        return mPublishedBackPages + mKnownPages - mBackPages;
+    }
+
+    /**
+     * Returns {start, end} of page index, or null if it is not laid out.
+     */
+    int[] getPageRange(int index) {
+        int page = toRegionPage(index);
+        if (index < 0 || page >= mKnownPages) {
+            return null;
+        }
+        return new int[]{mBreaks[mHead + page], mBreaks[mHead + page + 1]};
+    }
+
+    /**
+     * Returns the index of the known page containing offset, or the closest
+     * page that is already numbered.
+     */
+    int getPageIndex(int offset) {
+        if (mKnownPages == 0) {
+            return 0;
+        }
+        int low = 0;
+        int high = mKnownPages - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mBreaks[mHead + mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(0, low - mBackPages + mPublishedBackPages);
+    }
+
+    /**
+     * Adds the page ending at end after the region.
+     */
+    void append(int end) {
+        if (mHead + mKnownPages + 2 > mBreaks.length) {
+            mBreaks = Arrays.copyOf(mBreaks, mBreaks.length * 2);
+        }
+        mKnownPages++;
+        mBreaks[mHead + mKnownPages] = end;
+    }
+
+    /**
+     * Adds the page starting at start before the region; it stays
+     * unnumbered until published.
+     */
+    void prepend(int start) {
+        if (mHead == 0) {
+            int[] breaks = new int[mBreaks.length * 2];
+            System.arraycopy(mBreaks, 0, breaks, mBreaks.length, mKnownPages + 1);
+            mHead = mBreaks.length;
+            mBreaks = breaks;
+        }
+        mHead--;
+        mBreaks[mHead] = start;
+        mKnownPages++;
+        mBackPages++;
+    }
+
+    /**
+     * Numbers the pending back pages if enough of them have piled up, the
+     * front of the book is reached or the reader is close to the first
+     * numbered page. Returns how far every page index moved.
+     */
+    int publishBackPages(int currentIndex) {
+        int pending = mBackPages - mPublishedBackPages;
+        if (pending == 0) {
+            return 0;
+        }
+        if (isFrontComplete() || pending >= PUBLISH_INTERVAL_PAGES || currentIndex <= 1) {
+            mPublishedBackPages = mBackPages;
+            return pending;
+        }
+        return 0;
+    }
+}
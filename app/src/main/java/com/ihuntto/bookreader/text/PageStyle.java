@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.text;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+
+public class PageStyle {
+    protected float mTextSize = 48;
+    protected float mLineSpacingMultiplier = 1.2f;
+    protected float mLineSpacingExtra = 0;
+    protected int mPadding = 48;
+    protected Typeface mTypeface = Typeface.DEFAULT;
+    protected String mTypefaceName = "default";
+    protected int mTextColor = Color.BLACK;
+    protected int mBackgroundColor = Color.WHITE;
+
+    protected PageStyle() {
+    }
+
+    public static class Builder {
+        private PageStyle mStyle;
+
+        public Builder() {
+            mStyle = new PageStyle();
+        }
+
+        public Builder(PageStyle style) {
+            mStyle = new PageStyle();
+            mStyle.mTextSize = style.mTextSize;
+            mStyle.mLineSpacingMultiplier = style.mLineSpacingMultiplier;
+            mStyle.mLineSpacingExtra = style.mLineSpacingExtra;
+            mStyle.mPadding = style.mPadding;
+            mStyle.mTypeface = style.mTypeface;
+            mStyle.mTypefaceName = style.mTypefaceName;
+            mStyle.mTextColor = style.mTextColor;
+            mStyle.mBackgroundColor = style.mBackgroundColor;
+        }
+
+        public Builder textSize(float textSize) {
+            mStyle.mTextSize = textSize;
+            return this;
+        }
+
+        public Builder lineSpacing(float add, float multiplier) {
+            mStyle.mLineSpacingExtra = add;
+            mStyle.mLineSpacingMultiplier = multiplier;
+            return this;
+        }
+
+        public Builder padding(int padding) {
+            mStyle.mPadding = padding;
+            return this;
+        }
+
+        // name用于区分排版缓存，不同字体必须使用不同的name
+        public Builder typeface(String name, Typeface typeface) {
+            mStyle.mTypefaceName = name;
+            mStyle.mTypeface = typeface;
+            return this;
+        }
+
+        public Builder textColor(int textColor) {
+            mStyle.mTextColor = textColor;
+            return this;
+        }
+
+        public Builder backgroundColor(int backgroundColor) {
+            mStyle.mBackgroundColor = backgroundColor;
+            return this;
+        }
+
+        public PageStyle create() {
+            return mStyle;
+        }
+    }
+
+    public TextPaint createTextPaint() {
+        TextPaint paint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(mTextSize);
+        paint.setTypeface(mTypeface);
+        paint.setColor(mTextColor);
+        return paint;
+    }
+
+    // 影响分页结果的参数，不包含颜色
+    public String getLayoutKey() {
+        return mTypefaceName
+                + "/" + mTextSize
+                + "/" + mLineSpacingMultiplier
+                + "/" + mLineSpacingExtra
+                + "/" + mPadding;
+    }
+
+    public float getTextSize() {
+        return mTextSize;
+    }
+
+    public float getLineSpacingMultiplier() {
+        return mLineSpacingMultiplier;
+    }
+
+    public float getLineSpacingExtra() {
+        return mLineSpacingExtra;
+    }
+
+    public int getPadding() {
+        return mPadding;
+    }
+
+    public Typeface getTypeface() {
+        return mTypeface;
+    }
+
+    public String getTypefaceName() {
+        return mTypefaceName;
+    }
+
+    public int getTextColor() {
+        return mTextColor;
+    }
+
+    public int getBackgroundColor() {
+        return mBackgroundColor;
+    }
+}
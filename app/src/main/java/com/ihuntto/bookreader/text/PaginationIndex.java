@@ -0,0 +1,225 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.text;
+
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Page start offsets of one book under one set of layout parameters,
+ * persisted in a small binary file so a book does not have to be laid out
+ * again on the next launch.
+ * <p>
+ * File layout (big endian): magic, version, key hash (long), book length,
+ * complete flag, page count, then page count + 1 character offsets.
+ */
+public class PaginationIndex {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = PaginationIndex.class.getSimpleName();
+
+    private static final int MAGIC = 0x50474958;
+    private static final int VERSION = 1;
+    private static final int COMPLETE_POSITION = 20;
+    private static final int HEADER_BYTES = 28;
+    private static final int BYTES_PER_INT = 4;
+    private static final int MAX_INDEX_FILES = 32;
+
+    private final File mFile;
+    private final long mKeyHash;
+    private final int mBookLength;
+
+    private RandomAccessFile mOutput;
+    // 已写入文件的页数，之后只追加新的分页位置
+    private int mPersistedPages = -1;
+    private boolean mComplete;
+
+    /**
+     * @param layoutKey identifies the book content and every parameter that
+     *                  affects page breaks (viewport, font, size, spacing)
+     */
+    public static PaginationIndex open(File directory, String layoutKey, int bookLength) {
+        byte[] digest = md5(layoutKey);
+        StringBuilder name = new StringBuilder();
+        long keyHash = 0;
+        for (int i = 0; i < digest.length; i++) {
+            name.append(String.format("%02x", digest[i]));
+            if (i < 8) {
+                keyHash = (keyHash << 8) | (digest[i] & 0xFF);
+            }
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            return null;
+        }
+        pruneOldFiles(directory);
+        return new PaginationIndex(new File(directory, name.append(".idx").toString()), keyHash, bookLength);
+    }
+
+    PaginationIndex(File file, long keyHash, int bookLength) {
+        mFile = file;
+        mKeyHash = keyHash;
+        mBookLength = bookLength;
+    }
+
+    /**
+     * Maps the index file and returns the stored offsets (page count + 1
+     * values), or null when there is no usable index for this key.
+     */
+    public int[] load() {
+        if (!mFile.exists() || mFile.length() < HEADER_BYTES + BYTES_PER_INT) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION
+                    || buffer.getLong() != mKeyHash
+                    || buffer.getInt() != mBookLength) {
+                return null;
+            }
+            boolean complete = buffer.getInt() != 0;
+            int pageCount = buffer.getInt();
+            if (pageCount < 0 || HEADER_BYTES + (pageCount + 1L) * BYTES_PER_INT > channel.size()) {
+                return null;
+            }
+            int[] breaks = new int[pageCount + 1];
+            IntBuffer offsets = buffer.asIntBuffer();
+            offsets.get(breaks);
+            mPersistedPages = pageCount;
+            mComplete = complete;
+            return breaks;
+        } catch (IOException e) {
+            if (D) {
+                Log.w(TAG, "Could not load pagination index " + mFile, e);
+            }
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * Discards the stored offsets; the next {@link #save} rewrites the file.
+     */
+    public void clear() {
+        mPersistedPages = -1;
+        mComplete = false;
+    }
+
+    /**
+     * Appends the offsets laid out since the last call. breaks holds
+     * pageCount + 1 values starting at offset.
+     */
+    public void save(int[] breaks, int offset, int pageCount, boolean complete) {
+        if (pageCount == mPersistedPages && complete == mComplete) {
+            return;
+        }
+        try {
+            if (mOutput == null) {
+                mOutput = new RandomAccessFile(mFile, "rw");
+            }
+            FileChannel channel = mOutput.getChannel();
+            if (mPersistedPages < 0 || pageCount < mPersistedPages) {
+                mOutput.setLength(0);
+                mPersistedPages = -1;
+            }
+            int from = mPersistedPages + 1;
+            ByteBuffer offsets = ByteBuffer.allocate((pageCount + 1 - from) * BYTES_PER_INT);
+            offsets.asIntBuffer().put(breaks, offset + from, pageCount + 1 - from);
+            channel.write(offsets, HEADER_BYTES + (long) from * BYTES_PER_INT);
+
+            // 先写数据再写头部，中途退出时头部的页数不会超过已写入的数据
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putLong(mKeyHash)
+                    .putInt(mBookLength)
+                    .putInt(complete ? 1 : 0)
+                    .putInt(pageCount);
+            header.flip();
+            channel.write(header, 0);
+
+            mPersistedPages = pageCount;
+            mComplete = complete;
+        } catch (IOException e) {
+            if (D) {
+                Log.w(TAG, "Could not save pagination index " + mFile, e);
+            }
+            close();
+        }
+    }
+
+    public void close() {
+        closeQuietly(mOutput);
+        mOutput = null;
+    }
+
+    private static void pruneOldFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_INDEX_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - MAX_INDEX_FILES; i++) {
+            //noinspection ResultOfMethodCallIgnored
+            files[i].delete();
+        }
+    }
+
+    private static byte[] md5(String value) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException("Could not hash pagination key", e);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.text;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Shader;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import com.ihuntto.bookreader.book.BookSource;
+import com.ihuntto.bookreader.flip.GlyphPage;
+import com.ihuntto.bookreader.flip.GlyphPageProvider;
+import com.ihuntto.bookreader.flip.LayeredPageProvider;
+import com.ihuntto.bookreader.page.AbstractPageProvider;
+
+import java.io.File;
+
+public class TextPageProvider extends AbstractPageProvider
+        implements GlyphPageProvider, LayeredPageProvider {
+    private final BookSource mSource;
+    private final TextPaginator mPaginator;
+    private PageStyle mStyle;
+    private TextPaint mRenderPaint;
+    private Bitmap mPaperBitmap;
+    private String mPaperId;
+    private Paint mPaperPaint;
+
+    public TextPageProvider(BookSource source, PageStyle style) {
+        mSource = source;
+        mStyle = style;
+        mRenderPaint = style.createTextPaint();
+        mPaginator = new TextPaginator(source);
+        mPaginator.setOnPaginationListener(new TextPaginator.OnPaginationListener() {
+            @Override
+            public void onPaginationChanged(int knownPageCount, boolean complete) {
+                notifyPagesChanged();
+            }
+        });
+    }
+
+    /**
+     * Directory for persisted page breaks; must be set before the first page
+     * size is known to take effect.
+     */
+    public void setIndexDirectory(File indexDirectory) {
+        mPaginator.setIndexDirectory(indexDirectory);
+    }
+
+    /**
+     * Switches to a new style, keeping anchorOffset on screen: the page that
+     * holds it is laid out first and numbered 0 until the pages before it
+     * are published through {@link #publishPages(int)}.
+     */
+    public synchronized void setStyle(PageStyle style, int anchorOffset) {
+        mStyle = style;
+        mRenderPaint = style.createTextPaint();
+        invalidate();
+        if (getPageWidth() > 0 && getPageHeight() > 0) {
+            mPaginator.setLayout(style, getPageWidth(), getPageHeight(), anchorOffset);
+        }
+    }
+
+    /**
+     * Paper texture tiled under the text and tinted with the background
+     * color; null for plain paper. paperId names the texture across
+     * launches, such as its resource name, so pages drawn on it can be
+     * reused from the disk cache.
+     */
+    public synchronized void setPaperBitmap(String paperId, Bitmap paperBitmap) {
+        mPaperBitmap = paperBitmap;
+        mPaperId = paperBitmap != null ? paperId : null;
+        if (paperBitmap != null) {
+            mPaperPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            mPaperPaint.setShader(new BitmapShader(paperBitmap, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT));
+            mPaperPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.MULTIPLY));
+        } else {
+            mPaperPaint = null;
+        }
+        // 只有整页位图含有纸张，内容层不受影响
+        invalidatePages();
+    }
+
+    public synchronized PageStyle getStyle() {
+        return mStyle;
+    }
+
+    public int getPageOffset(int index) {
+        int[] range = mPaginator.getPageRange(index);
+        return range != null ? range[0] : 0;
+    }
+
+    public int getPageIndex(int offset) {
+        return mPaginator.getPageIndex(offset);
+    }
+
+    /**
+     * Numbers pages laid out before the anchor, see
+     * {@link TextPaginator#publishBackPages(int)}. Returns how far every page
+     * index moved.
+     */
+    @Override
+    public int publishPages(int currentIndex) {
+        int shift = mPaginator.publishBackPages(currentIndex);
+        if (shift != 0) {
+            invalidate();
+        }
+        return shift;
+    }
+
+    @Override
+    public synchronized String getBookId() {
+        // 页码整体平移后旧的页面纹理不能再用
+        return mSource.getId() + "/" + mStyle.getLayoutKey() + "/" + mPaginator.getPublishedBackPages();
+    }
+
+    @Override
+    protected synchronized String getRenderKey(int index) {
+        // 页码随锚点变化，用页面的起始位置标识内容
+        int[] range = mPaginator.getPageRange(index);
+        if (range == null) {
+            return null;
+        }
+        return mSource.getId() + "/" + mStyle.getLayoutKey() + "/" + mStyle.getTextColor()
+                + "/" + mStyle.getBackgroundColor()
+                + (mPaperId != null ? "/" + mPaperId : "")
+                + "@" + range[0];
+    }
+
+    @Override
+    public int getPageCount() {
+        return mPaginator.getPageCount();
+    }
+
+    @Override
+    protected void onPageSizeChanged(int width, int height) {
+        mPaginator.setLayout(mStyle, width, height);
+    }
+
+    @Override
+    protected void onRenderPage(int index, Bitmap bitmap) {
+        bitmap.eraseColor(mStyle.getBackgroundColor());
+        if (mPaperPaint != null) {
+            new Canvas(bitmap).drawPaint(mPaperPaint);
+        }
+        drawText(index, bitmap);
+    }
+
+    @Override
+    protected Bitmap.Config choosePageConfig(Bitmap.Config requested) {
+        // 纯色背景上的文字在RGB_565下看不出差别，纸张纹理则按要求的格式
+        return mPaperBitmap == null ? Bitmap.Config.RGB_565 : requested;
+    }
+
+    @Override
+    protected Bitmap.Config getContentConfig() {
+        return Bitmap.Config.ALPHA_8;
+    }
+
+    @Override
+    protected void onRenderContent(int index, Bitmap bitmap) {
+        drawText(index, bitmap);
+    }
+
+    private void drawText(int index, Bitmap bitmap) {
+        int[] range = mPaginator.getPageRange(index);
+        if (range == null) {
+            return;
+        }
+        int padding = mStyle.getPadding();
+        int contentWidth = Math.max(1, bitmap.getWidth() - padding * 2);
+        StaticLayout layout = TextPaginator.createLayout(
+                mSource.subSequence(range[0], range[1]), mRenderPaint, contentWidth, mStyle);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(padding, padding);
+        layout.draw(canvas);
+    }
+
+    @Override
+    public synchronized Bitmap getPaperBitmap() {
+        return mPaperBitmap;
+    }
+
+    @Override
+    public synchronized int getPaperColor() {
+        return mStyle.getBackgroundColor();
+    }
+
+    @Override
+    public synchronized int getInkColor() {
+        return mStyle.getTextColor();
+    }
+
+    @Override
+    public boolean isAlphaOnlyContent() {
+        return true;
+    }
+
+    @Override
+    public synchronized GlyphPage getGlyphPage(int index, int width, int height) {
+        if (!checkPageSize(width, height) || index < 0 || index >= getPageCount()) {
+            return null;
+        }
+        int[] range = mPaginator.getPageRange(index);
+        if (range == null) {
+            return null;
+        }
+        CharSequence text = mSource.subSequence(range[0], range[1]);
+        int padding = mStyle.getPadding();
+        int contentWidth = Math.max(1, width - padding * 2);
+        StaticLayout layout = TextPaginator.createLayout(text, mRenderPaint, contentWidth, mStyle);
+
+        int capacity = text.length();
+        int[] codePoints = new int[capacity];
+        float[] penX = new float[capacity];
+        float[] baselineY = new float[capacity];
+        float[] widths = new float[capacity];
+        int count = 0;
+        for (int line = 0; line < layout.getLineCount(); line++) {
+            int start = layout.getLineStart(line);
+            int end = layout.getLineEnd(line);
+            float x = padding + layout.getPrimaryHorizontal(start);
+            float baseline = padding + layout.getLineBaseline(line);
+            mRenderPaint.getTextWidths(text, start, end, widths);
+            int i = start;
+            while (i < end) {
+                int codePoint = Character.codePointAt(text, i);
+                int charCount = Character.charCount(codePoint);
+                if (!Character.isWhitespace(codePoint) && !Character.isISOControl(codePoint)) {
+                    codePoints[count] = codePoint;
+                    penX[count] = x;
+                    baselineY[count] = baseline;
+                    count++;
+                }
+                // 代理对的宽度记在第一个char上
+                x += widths[i - start];
+                i += charCount;
+            }
+        }
+        return new GlyphPage(mStyle.getTypeface(), mStyle.getTextSize(), mStyle.getTextColor(),
+                mStyle.getBackgroundColor(), count, codePoints, penX, baselineY);
+    }
+
+    @Override
+    public void close() {
+        mPaginator.stop();
+        super.close();
+        mSource.close();
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.text;
+
+import android.os.Process;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.book.BookSource;
+
+import java.io.File;
+
+/**
+ * Splits a {@link BookSource} into pages. Pages are laid out on demand up to
+ * the one being asked for, and a background thread continues to the end of
+ * the book so that {@link #getPageCount()} converges from an estimate to the
+ * exact count.
+ * <p>
+ * When the layout changes while reading, {@link #setLayout(PageStyle, int, int, int)}
+ * can start from an anchor offset instead: the page holding the anchor is
+ * laid out first and the background thread works outward in both
+ * directions. Pages found before the anchor are only numbered once
+ * {@link #publishBackPages(int)} is called, which shifts every page index.
+ * <p>
+ * With an index directory set, page breaks are persisted in a
+ * {@link PaginationIndex} per layout, so reopening a book with the same
+ * layout does not lay out anything, and an interrupted pass resumes where it
+ * stopped.
+ */
+public class TextPaginator {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = TextPaginator.class.getSimpleName();
+
+    private static final int MIN_LAYOUT_WINDOW = 256;
+    private static final int NOTIFY_INTERVAL_PAGES = 32;
+    private static final int PARAGRAPH_SCAN_CHUNK = 1024;
+
+    public interface OnPaginationListener {
+        // 在排版线程回调
+        void onPaginationChanged(int knownPageCount, boolean complete);
+    }
+
+    private final BookSource mSource;
+    private final int mLength;
+
+    private PageStyle mStyle;
+    private TextPaint mPaint;
+    private int mContentWidth;
+    private int mContentHeight;
+
+    private final PageBreaks mBreaks = new PageBreaks();
+    private boolean mComplete;
+    private int mLayoutWindow;
+    // 每次重新排版加一，旧的后台线程据此退出
+    private int mRevision;
+
+    private File mIndexDirectory;
+    private PaginationIndex mIndex;
+
+    private volatile OnPaginationListener mOnPaginationListener;
+
+    public TextPaginator(BookSource source) {
+        mSource = source;
+        mLength = source.length();
+    }
+
+    public void setOnPaginationListener(OnPaginationListener onPaginationListener) {
+        mOnPaginationListener = onPaginationListener;
+    }
+
+    public synchronized void setIndexDirectory(File indexDirectory) {
+        mIndexDirectory = indexDirectory;
+    }
+
+    public void setLayout(PageStyle style, int pageWidth, int pageHeight) {
+        setLayout(style, pageWidth, pageHeight, 0);
+    }
+
+    /**
+     * @param anchorOffset character offset that must stay on screen; the page
+     *                     containing it becomes page 0 until earlier pages
+     *                     are published
+     */
+    public void setLayout(PageStyle style, int pageWidth, int pageHeight, int anchorOffset) {
+        int revision;
+        boolean complete;
+        synchronized (this) {
+            int contentWidth = Math.max(1, pageWidth - style.getPadding() * 2);
+            int contentHeight = Math.max(1, pageHeight - style.getPadding() * 2);
+            if (mStyle != null
+                    && mStyle.getLayoutKey().equals(style.getLayoutKey())
+                    && mContentWidth == contentWidth
+                    && mContentHeight == contentHeight) {
+                mStyle = style;
+                return;
+            }
+            mStyle = style;
+            mPaint = style.createTextPaint();
+            mContentWidth = contentWidth;
+            mContentHeight = contentHeight;
+            mBreaks.reset(0);
+            mComplete = mLength == 0;
+            mLayoutWindow = Math.max(MIN_LAYOUT_WINDOW, estimateCharsPerPage() * 2);
+            revision = ++mRevision;
+            loadIndex();
+            if (anchorOffset > 0 && anchorOffset < mLength && mBreaks.getEndOffset() <= anchorOffset) {
+                startAtAnchor(anchorOffset);
+            }
+            complete = isComplete();
+        }
+        if (!complete) {
+            startWorker(revision);
+        }
+    }
+
+    private void startAtAnchor(int anchorOffset) {
+        if (mIndex != null) {
+            // 索引中的分页从书首开始，与锚点分页不能拼接
+            mIndex.clear();
+        }
+        mBreaks.reset(findLineStart(anchorOffset));
+        mComplete = false;
+        if (D) {
+            Log.d(TAG, "anchored at " + anchorOffset + ", page starts at " + mBreaks.getStartOffset());
+        }
+    }
+
+    private void loadIndex() {
+        if (mIndex != null) {
+            mIndex.close();
+            mIndex = null;
+        }
+        if (mIndexDirectory == null) {
+            return;
+        }
+        String key = mSource.getId() + "|" + mLength + "|" + mContentWidth + "x" + mContentHeight
+                + "|" + mStyle.getLayoutKey();
+        mIndex = PaginationIndex.open(mIndexDirectory, key, mLength);
+        if (mIndex == null) {
+            return;
+        }
+        int[] breaks = mIndex.load();
+        if (breaks != null && breaks.length > 1) {
+            mBreaks.load(breaks);
+            mComplete = mIndex.isComplete();
+            if (D) {
+                Log.d(TAG, "loaded " + mBreaks.getKnownPageCount() + " pages from index, complete=" + mComplete);
+            }
+        }
+    }
+
+    private void saveIndex() {
+        // 只保存从书首开始的连续分页
+        if (mIndex != null && mBreaks.isFrontComplete()) {
+            mBreaks.save(mIndex, mComplete);
+        }
+    }
+
+    public synchronized boolean isLaidOut() {
+        return mStyle != null;
+    }
+
+    public synchronized boolean isComplete() {
+        return mComplete && mBreaks.isFrontComplete();
+    }
+
+    public synchronized int getKnownPageCount() {
+        return mBreaks.getKnownPageCount();
+    }
+
+    public synchronized int getPageCount() {
+        if (mStyle == null) {
+            return mLength > 0 ? 1 : 0;
+        }
+        int pageCount = mBreaks.getNumberedPageCount();
+        if (!mComplete) {
+            int knownPages = mBreaks.getKnownPageCount();
+            int endOffset = mBreaks.getEndOffset();
+            float charsPerPage = knownPages > 0
+                    ? (endOffset - mBreaks.getStartOffset()) / (float) knownPages
+                    : estimateCharsPerPage();
+            int remaining = (int) Math.ceil((mLength - endOffset) / Math.max(1.0f, charsPerPage));
+            pageCount += Math.max(1, remaining);
+        }
+        return pageCount;
+    }
+
+    /**
+     * Returns {start, end} of page index, laying out the pages before it if
+     * needed, or null if the book ends before that page.
+     */
+    public synchronized int[] getPageRange(int index) {
+        if (mStyle == null || index < 0) {
+            return null;
+        }
+        int page = mBreaks.toRegionPage(index);
+        while (mBreaks.getKnownPageCount() <= page && !mComplete) {
+            layoutNextPage();
+        }
+        return mBreaks.getPageRange(index);
+    }
+
+    /**
+     * Returns the index of the laid out page containing offset, or the
+     * closest page that is already numbered.
+     */
+    public synchronized int getPageIndex(int offset) {
+        if (mStyle == null) {
+            return 0;
+        }
+        return mBreaks.getPageIndex(offset);
+    }
+
+    public synchronized int getPublishedBackPages() {
+        return mBreaks.getPublishedBackPages();
+    }
+
+    /**
+     * Numbers the pages found before the anchor so far, if enough of them
+     * have piled up or the reader is close to the first numbered page.
+     * Every page index moves up by the returned count; must be called on
+     * the thread that owns the current page index.
+     */
+    public synchronized int publishBackPages(int currentIndex) {
+        if (currentIndex <= 1 && mStyle != null
+                && mBreaks.getPendingBackPages() == 0 && !mBreaks.isFrontComplete()) {
+            // 读者已到第一页而后台线程还没排出前一页，当场排一页，向前翻页不必等待
+            layoutPreviousPage();
+        }
+        return mBreaks.publishBackPages(currentIndex);
+    }
+
+    public synchronized void stop() {
+        mRevision++;
+        saveIndex();
+        if (mIndex != null) {
+            mIndex.close();
+            mIndex = null;
+        }
+    }
+
+    private void startWorker(final int revision) {
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                long startMillis = System.currentTimeMillis();
+                int notifiedPages = 0;
+                while (true) {
+                    int knownPages;
+                    boolean complete;
+                    synchronized (TextPaginator.this) {
+                        if (revision != mRevision) {
+                            return;
+                        }
+                        // 锚点前后交替排版，两侧的相邻页都尽快可用
+                        if (!mComplete) {
+                            layoutNextPage();
+                        }
+                        if (!mBreaks.isFrontComplete()) {
+                            layoutPreviousPage();
+                        }
+                        knownPages = mBreaks.getKnownPageCount();
+                        complete = isComplete();
+                    }
+                    if (complete || knownPages - notifiedPages >= NOTIFY_INTERVAL_PAGES) {
+                        notifiedPages = knownPages;
+                        synchronized (TextPaginator.this) {
+                            if (revision == mRevision) {
+                                saveIndex();
+                            }
+                        }
+                        OnPaginationListener listener = mOnPaginationListener;
+                        if (listener != null) {
+                            listener.onPaginationChanged(knownPages, complete);
+                        }
+                    }
+                    if (complete) {
+                        if (D) {
+                            Log.d(TAG, "paginated " + knownPages + " pages in "
+                                    + (System.currentTimeMillis() - startMillis) + "ms");
+                        }
+                        return;
+                    }
+                }
+            }
+        }, "TextPaginator");
+        worker.start();
+    }
+
+    private void layoutNextPage() {
+        int end = layoutPage(mBreaks.getEndOffset());
+        mBreaks.append(end);
+        if (end >= mLength) {
+            mComplete = true;
+        }
+    }
+
+    private void layoutPreviousPage() {
+        mBreaks.prepend(layoutPageBefore(mBreaks.getStartOffset()));
+    }
+
+    private int layoutPage(int start) {
+        int window = mLayoutWindow;
+        while (true) {
+            int end = Math.min(mLength, start + window);
+            StaticLayout layout = createLayout(mSource.subSequence(start, end), mPaint, mContentWidth, mStyle);
+            int lineCount = layout.getLineCount();
+            // 未到结尾时最后一行可能被窗口截断，不能使用
+            int usableLines = end < mLength ? lineCount - 1 : lineCount;
+            int fitLines = 0;
+            while (fitLines < usableLines && layout.getLineBottom(fitLines) <= mContentHeight) {
+                fitLines++;
+            }
+            if (fitLines == usableLines && end < mLength) {
+                // 窗口内的文字不足一页
+                window *= 2;
+                continue;
+            }
+            if (fitLines == 0) {
+                // 单行比页面还高时也至少放下一行
+                fitLines = 1;
+            }
+            int pageChars = layout.getLineEnd(fitLines - 1);
+            mLayoutWindow = Math.max(MIN_LAYOUT_WINDOW, pageChars * 3 / 2);
+            return start + pageChars;
+        }
+    }
+
+    /**
+     * Returns the start of the page that ends at end. Lines are only stable
+     * when laid out from a paragraph start, so the window is widened back to
+     * one before taking the last lines that fit.
+     */
+    private int layoutPageBefore(int end) {
+        int window = mLayoutWindow;
+        while (true) {
+            int paragraphStart = findParagraphStart(Math.max(0, end - window), window);
+            CharSequence text = mSource.subSequence(paragraphStart, end);
+            StaticLayout layout = createLayout(text, mPaint, mContentWidth, mStyle);
+            int last = layout.getLineCount() - 1;
+            // 以换行结尾时最后是一个空行，属于下一页
+            while (last > 0 && layout.getLineStart(last) >= text.length()) {
+                last--;
+            }
+            int first = last;
+            while (first > 0 && layout.getLineBottom(last) - layout.getLineTop(first - 1) <= mContentHeight) {
+                first--;
+            }
+            if (first == 0 && paragraphStart > 0 && window < end) {
+                // 窗口内的文字不足一页
+                window *= 2;
+                continue;
+            }
+            return paragraphStart + layout.getLineStart(first);
+        }
+    }
+
+    private int findLineStart(int offset) {
+        int paragraphStart = findParagraphStart(offset, mLayoutWindow * 4);
+        int end = Math.min(mLength, offset + mLayoutWindow);
+        StaticLayout layout = createLayout(mSource.subSequence(paragraphStart, end), mPaint, mContentWidth, mStyle);
+        int line = layout.getLineForOffset(offset - paragraphStart);
+        return paragraphStart + layout.getLineStart(line);
+    }
+
+    /**
+     * Returns the offset just after the last line feed before offset, looking
+     * back at most limit characters; a paragraph longer than that is cut at
+     * offset - limit.
+     */
+    private int findParagraphStart(int offset, int limit) {
+        int lowest = Math.max(0, offset - limit);
+        int end = offset;
+        while (end > lowest) {
+            int start = Math.max(lowest, end - PARAGRAPH_SCAN_CHUNK);
+            CharSequence chunk = mSource.subSequence(start, end);
+            for (int i = chunk.length() - 1; i >= 0; i--) {
+                if (chunk.charAt(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return lowest;
+    }
+
+    private int estimateCharsPerPage() {
+        float textSize = mStyle.getTextSize();
+        float lineHeight = textSize * mStyle.getLineSpacingMultiplier() + mStyle.getLineSpacingExtra();
+        int lines = Math.max(1, (int) (mContentHeight / lineHeight));
+        // 按半角字符估算，全角时窗口会偏大但不影响结果
+        int charsPerLine = Math.max(1, (int) (mContentWidth / (textSize * 0.5f)));
+        return lines * charsPerLine;
+    }
+
+    public static StaticLayout createLayout(CharSequence text, TextPaint paint, int width, PageStyle style) {
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL,
+                style.getLineSpacingMultiplier(), style.getLineSpacingExtra(), false);
+    }
+}
@@ -29,6 +29,10 @@ import android.widget.LinearLayout;
 import android.widget.Toast;
 
 import com.ihuntto.bookreader.R;
+import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+
+import java.io.File;
 
 public class PageEditView extends FrameLayout implements View.OnClickListener {
     private static final long ANIMATE_DURATION = 200;
@@ -36,12 +40,36 @@ public class PageEditView extends FrameLayout implements View.OnClickListener {
     private static final int VISIBILITY_STATE_SHOWED = 0x02;
     private static final int VISIBILITY_STATE_ANIMATING = 0x03;
 
+    // 点击字体按钮时依次切换的字号倍数
+    private static final float[] FONT_SCALES = {1.0f, 1.15f, 1.3f, 0.85f};
+
+    // 点击亮度按钮时依次切换的阅读主题
+    private static final ReadingTheme[] READING_THEMES = {
+            ReadingTheme.DEFAULT,
+            new ReadingTheme.Builder().mode(ReadingTheme.MODE_SEPIA).create(),
+            new ReadingTheme.Builder().mode(ReadingTheme.MODE_NIGHT).create(),
+            new ReadingTheme.Builder().brightness(0.7f).create()
+    };
+
+    public interface OnPageEditListener {
+        void onFontScaleChanged(float fontScale);
+
+        void onReadingThemeChanged(ReadingTheme readingTheme);
+
+        // 拖动缩略图条带后抬起手指时回调
+        void onPageScrubbed(int pageIndex);
+    }
+
     private int mVisibilityState = VISIBILITY_STATE_SHOWED;
+    private int mFontScaleIndex;
+    private int mReadingThemeIndex;
+    private OnPageEditListener mOnPageEditListener;
 
     private LinearLayout mToolbarLayout;
     private ImageButton mFontBtn;
     private ImageButton mBrightBtn;
     private ImageButton mTtsBtn;
+    private ScrubberView mScrubberView;
 
     public PageEditView(Context context) {
         super(context);
@@ -64,12 +92,37 @@ public class PageEditView extends FrameLayout implements View.OnClickListener {
         mFontBtn = findViewById(R.id.btn_font);
         mBrightBtn = findViewById(R.id.btn_bright);
         mTtsBtn = findViewById(R.id.btn_tts);
+        mScrubberView = findViewById(R.id.scrubber_view);
+        mScrubberView.setOnScrubListener(new ScrubberView.OnScrubListener() {
+            @Override
+            public void onScrubbed(int pageIndex) {
+                if (mOnPageEditListener != null) {
+                    mOnPageEditListener.onPageScrubbed(pageIndex);
+                }
+            }
+        });
 
         mFontBtn.setOnClickListener(this);
         mBrightBtn.setOnClickListener(this);
         mTtsBtn.setOnClickListener(this);
     }
 
+    public void setOnPageEditListener(OnPageEditListener onPageEditListener) {
+        mOnPageEditListener = onPageEditListener;
+    }
+
+    public void setPageProvider(FlipOver.PageProvider pageProvider) {
+        mScrubberView.setPageProvider(pageProvider);
+    }
+
+    public void setThumbnailDirectory(File thumbnailDirectory) {
+        mScrubberView.setThumbnailDirectory(thumbnailDirectory);
+    }
+
+    public void setCurrentPageIndex(int currentPageIndex) {
+        mScrubberView.setCurrentPageIndex(currentPageIndex);
+    }
+
     @Override
     public void onClick(View v) {
         switch (v.getId()) {
@@ -87,11 +140,17 @@ public class PageEditView extends FrameLayout implements View.OnClickListener {
     }
 
     private void handleOnSetFont() {
-
+        mFontScaleIndex = (mFontScaleIndex + 1) % FONT_SCALES.length;
+        if (mOnPageEditListener != null) {
+            mOnPageEditListener.onFontScaleChanged(FONT_SCALES[mFontScaleIndex]);
+        }
     }
 
     private void handleOnSetBright() {
-
+        mReadingThemeIndex = (mReadingThemeIndex + 1) % READING_THEMES.length;
+        if (mOnPageEditListener != null) {
+            mOnPageEditListener.onReadingThemeChanged(READING_THEMES[mReadingThemeIndex]);
+        }
     }
 
     private void handleOnSetTts() {
@@ -149,6 +208,7 @@ public class PageEditView extends FrameLayout implements View.OnClickListener {
         if (mVisibilityState != VISIBILITY_STATE_SHOWED) {
             return false;
         }
+        mScrubberView.pause();
         ObjectAnimator translateOut = ObjectAnimator.ofFloat(mToolbarLayout, "translationY",
                 0, mToolbarLayout.getHeight());
         translateOut.setInterpolator(new LinearInterpolator());
@@ -0,0 +1,259 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+
+import java.io.File;
+
+/**
+ * A strip of page thumbnails spread evenly over the whole book. Dragging
+ * along it shows the thumbnail of the page under the finger, and the page
+ * is only opened when the finger lifts.
+ */
+public class ScrubberView extends View {
+    private static final float CELL_GAP_DP = 4;
+    private static final float LABEL_SIZE_SP = 12;
+    // 缩略图占视图高度的比例，拖动时的预览占满整个高度
+    private static final float STRIP_HEIGHT_RATIO = 0.7f;
+
+    public interface OnScrubListener {
+        void onScrubbed(int pageIndex);
+    }
+
+    private FlipOver.PageProvider mPageProvider;
+    private File mThumbnailDirectory;
+    private ThumbnailAtlas mThumbnailAtlas;
+    private OnScrubListener mOnScrubListener;
+    private int mCurrentPageIndex;
+    // 正在拖动到的页面，未拖动时为-1
+    private int mScrubPageIndex = -1;
+
+    private final Paint mThumbnailPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mCellPaint = new Paint();
+    private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF mCellRect = new RectF();
+    private final float mCellGap;
+
+    public ScrubberView(Context context) {
+        this(context, null);
+    }
+
+    public ScrubberView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = getResources().getDisplayMetrics().density;
+        mCellGap = CELL_GAP_DP * density;
+        mCellPaint.setColor(Color.LTGRAY);
+        mMarkerPaint.setColor(Color.WHITE);
+        mMarkerPaint.setStyle(Paint.Style.STROKE);
+        mMarkerPaint.setStrokeWidth(2 * density);
+        mLabelPaint.setColor(Color.WHITE);
+        mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        mLabelPaint.setTextSize(LABEL_SIZE_SP * getResources().getDisplayMetrics().scaledDensity);
+    }
+
+    public void setOnScrubListener(OnScrubListener onScrubListener) {
+        mOnScrubListener = onScrubListener;
+    }
+
+    /**
+     * Directory for thumbnail sheets; without one no thumbnails are shown.
+     */
+    public void setThumbnailDirectory(File thumbnailDirectory) {
+        mThumbnailDirectory = thumbnailDirectory;
+        releaseThumbnailAtlas();
+        invalidate();
+    }
+
+    public void setPageProvider(FlipOver.PageProvider pageProvider) {
+        mPageProvider = pageProvider;
+        mScrubPageIndex = -1;
+        releaseThumbnailAtlas();
+        invalidate();
+    }
+
+    public void setCurrentPageIndex(int currentPageIndex) {
+        mCurrentPageIndex = currentPageIndex;
+        invalidate();
+    }
+
+    /**
+     * Stops producing thumbnails while the strip is hidden.
+     */
+    public void pause() {
+        if (mThumbnailAtlas != null) {
+            mThumbnailAtlas.pause();
+        }
+    }
+
+    private void releaseThumbnailAtlas() {
+        if (mThumbnailAtlas != null) {
+            mThumbnailAtlas.close();
+            mThumbnailAtlas = null;
+        }
+    }
+
+    // 书或排版变化后book id随之变化，缩略图重新生成
+    private ThumbnailAtlas getThumbnailAtlas(int cellWidth, int cellHeight) {
+        if (!(mPageProvider instanceof ProgressivePageProvider) || mThumbnailDirectory == null
+                || cellWidth <= 0 || cellHeight <= 0) {
+            return null;
+        }
+        String bookId = mPageProvider.getBookId();
+        ThumbnailAtlas atlas = mThumbnailAtlas;
+        if (atlas != null && atlas.getBookId().equals(bookId)
+                && atlas.getCellWidth() == cellWidth && atlas.getCellHeight() == cellHeight) {
+            return atlas;
+        }
+        releaseThumbnailAtlas();
+        if (!mThumbnailDirectory.isDirectory() && !mThumbnailDirectory.mkdirs()) {
+            return null;
+        }
+        atlas = new ThumbnailAtlas((ProgressivePageProvider) mPageProvider, bookId,
+                cellWidth, cellHeight, mThumbnailDirectory);
+        atlas.setOnThumbnailReadyListener(new ThumbnailAtlas.OnThumbnailReadyListener() {
+            @Override
+            public void onThumbnailReady() {
+                postInvalidate();
+            }
+        });
+        mThumbnailAtlas = atlas;
+        return atlas;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        releaseThumbnailAtlas();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        int pageCount = pageProvider != null ? pageProvider.getPageCount() : 0;
+        if (pageCount <= 0) {
+            return;
+        }
+        View root = getRootView();
+        float pageAspect = root.getHeight() > 0 ? (float) root.getWidth() / root.getHeight() : 0.6f;
+        float cellHeight = (getHeight() - getPaddingTop() - getPaddingBottom()) * STRIP_HEIGHT_RATIO;
+        float cellWidth = cellHeight * pageAspect;
+        ThumbnailAtlas atlas = getThumbnailAtlas((int) cellWidth, (int) cellHeight);
+
+        float left = getPaddingLeft();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float top = getPaddingTop() + (getHeight() - getPaddingTop() - getPaddingBottom() - cellHeight) / 2;
+        int slots = Math.max(1, (int) ((width + mCellGap) / (cellWidth + mCellGap)));
+        float step = slots > 1 ? (width - cellWidth) / (slots - 1) : 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int index = slots > 1 ? slot * (pageCount - 1) / (slots - 1) : 0;
+            mCellRect.set(left + slot * step, top, left + slot * step + cellWidth, top + cellHeight);
+            drawThumbnail(canvas, atlas, index, mCellRect);
+        }
+
+        // 当前页的位置
+        float markerX = getPageX(mCurrentPageIndex, pageCount, cellWidth);
+        mCellRect.set(markerX - cellWidth / 2, top, markerX + cellWidth / 2, top + cellHeight);
+        canvas.drawRect(mCellRect, mMarkerPaint);
+
+        if (mScrubPageIndex >= 0) {
+            int index = Math.min(mScrubPageIndex, pageCount - 1);
+            float previewHeight = getHeight() - getPaddingTop() - getPaddingBottom();
+            float previewWidth = previewHeight * pageAspect;
+            float x = getPageX(index, pageCount, previewWidth);
+            mCellRect.set(x - previewWidth / 2, getPaddingTop(), x + previewWidth / 2, getPaddingTop() + previewHeight);
+            drawThumbnail(canvas, atlas, index, mCellRect);
+            canvas.drawRect(mCellRect, mMarkerPaint);
+            canvas.drawText(String.valueOf(index + 1), mCellRect.centerX(),
+                    mCellRect.bottom - mLabelPaint.descent(), mLabelPaint);
+        }
+    }
+
+    private void drawThumbnail(Canvas canvas, ThumbnailAtlas atlas, int index, RectF destination) {
+        if (atlas == null || !atlas.draw(canvas, index, destination, mThumbnailPaint)) {
+            canvas.drawRect(destination, mCellPaint);
+            if (atlas != null) {
+                atlas.request(index);
+            }
+        }
+    }
+
+    // 页面在条带上的中心位置，首尾两页贴着两端
+    private float getPageX(int index, int pageCount, float cellWidth) {
+        float width = getWidth() - getPaddingLeft() - getPaddingRight() - cellWidth;
+        float fraction = pageCount > 1 ? (float) index / (pageCount - 1) : 0;
+        return getPaddingLeft() + cellWidth / 2 + width * Math.max(0, Math.min(1, fraction));
+    }
+
+    private int getPageIndex(float x, int pageCount) {
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float fraction = width > 0 ? (x - getPaddingLeft()) / width : 0;
+        return Math.round(Math.max(0, Math.min(1, fraction)) * (pageCount - 1));
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        int pageCount = mPageProvider != null ? mPageProvider.getPageCount() : 0;
+        if (pageCount <= 0) {
+            return false;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                getParent().requestDisallowInterceptTouchEvent(true);
+                // fall through
+            case MotionEvent.ACTION_MOVE:
+                int index = getPageIndex(event.getX(), pageCount);
+                if (index != mScrubPageIndex) {
+                    mScrubPageIndex = index;
+                    // 只请求缩略图，整页在抬起手指后才生成
+                    if (mThumbnailAtlas != null) {
+                        mThumbnailAtlas.request(index);
+                    }
+                    invalidate();
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                if (mScrubPageIndex >= 0) {
+                    mCurrentPageIndex = mScrubPageIndex;
+                    if (mOnScrubListener != null) {
+                        mOnScrubListener.onScrubbed(mScrubPageIndex);
+                    }
+                }
+                mScrubPageIndex = -1;
+                invalidate();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                mScrubPageIndex = -1;
+                invalidate();
+                return true;
+        }
+        return super.onTouchEvent(event);
+    }
+}
@@ -19,6 +19,8 @@ package com.ihuntto.bookreader.ui;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
 import android.graphics.Rect;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
@@ -27,8 +29,13 @@ import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 
+import com.ihuntto.bookreader.flip.Annotation;
+import com.ihuntto.bookreader.flip.AnnotationLayer;
 import com.ihuntto.bookreader.flip.FlipOver;
 import com.ihuntto.bookreader.flip.FlipOverPage;
+import com.ihuntto.bookreader.flip.PagePrefetcher;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.flip.RenumberingPageProvider;
 
 public class SimpleFlipOver extends View implements FlipOver {
     private static final int STATE_FLIP_NONE = 0x00;
@@ -43,6 +50,7 @@ public class SimpleFlipOver extends View implements FlipOver {
     private OnPageFlipListener mOnPageFlipListener;
     private PageProvider mPageProvider;
     private int mCurrentPageIndex = 0;
+    private final PagePrefetcher mPagePrefetcher = new PagePrefetcher();
 
     private int mTouchSlop;
     private int mActivePointerId = -1;
@@ -56,6 +64,9 @@ public class SimpleFlipOver extends View implements FlipOver {
     private Rect mBitmapDrawDstRect;
     private Bitmap mLeftBitmap;
     private Bitmap mRightBitmap;
+    // 阅读主题的颜色变换，默认主题时为null
+    private Paint mPagePaint;
+    private final AnnotationLayer mAnnotationLayer = new AnnotationLayer();
 
     private VelocityTracker mVelocityTracker;
     private int mMaximumVelocity;
@@ -97,14 +108,84 @@ public class SimpleFlipOver extends View implements FlipOver {
     @Override
     public void setPageProvider(PageProvider pageProvider) {
         mPageProvider = pageProvider;
+        mAnnotationLayer.clear();
+        mPagePrefetcher.setPageProvider(pageProvider);
+        mPagePrefetcher.onPageChanged(mCurrentPageIndex);
         invalidate();
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mPagePrefetcher.setPageSize(w, h, false);
+    }
+
     @Override
     public void setOnPageFlipListener(OnPageFlipListener onPageFlipListener) {
         mOnPageFlipListener = onPageFlipListener;
     }
 
+    @Override
+    public void notifyDataSetChanged() {
+        publishPages();
+        invalidate();
+    }
+
+    // 在主线程重新编号，当前页与翻页中的页面一起移动
+    private void publishPages() {
+        if (!(mPageProvider instanceof RenumberingPageProvider)) {
+            return;
+        }
+        int shift = ((RenumberingPageProvider) mPageProvider).publishPages(mCurrentPageIndex);
+        if (shift != 0) {
+            mAnnotationLayer.shift(shift);
+            mCurrentPageIndex = Math.max(0, mCurrentPageIndex + shift);
+            mPagePrefetcher.onPageChanged(mCurrentPageIndex);
+        }
+    }
+
+    @Override
+    public void setReadingTheme(ReadingTheme readingTheme) {
+        if (readingTheme == null || readingTheme.isIdentity()) {
+            mPagePaint = null;
+        } else {
+            mPagePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            mPagePaint.setColorFilter(new ColorMatrixColorFilter(readingTheme.createColorMatrix()));
+        }
+        invalidate();
+    }
+
+    @Override
+    public void addAnnotation(int pageIndex, Annotation annotation) {
+        mAnnotationLayer.add(pageIndex, annotation);
+        invalidate();
+    }
+
+    @Override
+    public void removeAnnotation(int pageIndex, Annotation annotation) {
+        if (mAnnotationLayer.remove(pageIndex, annotation)) {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void clearAnnotations() {
+        mAnnotationLayer.clear();
+        invalidate();
+    }
+
+    @Override
+    public int getCurrentPageIndex() {
+        return mCurrentPageIndex;
+    }
+
+    @Override
+    public void setCurrentPageIndex(int index) {
+        mCurrentPageIndex = Math.max(0, index);
+        mPagePrefetcher.onPageChanged(mCurrentPageIndex);
+        invalidate();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         if (mVelocityTracker == null) {
@@ -164,6 +245,10 @@ public class SimpleFlipOver extends View implements FlipOver {
             float y = event.getY(pointerIndex);
             float yDiff = Math.abs(y - mDownMotionY);
             if (xDiff > (float) mTouchSlop && xDiff > yDiff) {
+                if (x > mDownMotionX && mCurrentPageIndex == 0) {
+                    // 前面的页可能已排版但还未编号
+                    publishPages();
+                }
                 FlipOverPage page = mPageProvider.updatePage(mCurrentPageIndex, getWidth(), getHeight());
                 if (x > mDownMotionX && mCurrentPageIndex > 0) {
                     mFlipState = STATE_FLIP_TO_RIGHT;
@@ -245,6 +330,9 @@ public class SimpleFlipOver extends View implements FlipOver {
     }
 
     private void performClickLeftArea() {
+        if (mCurrentPageIndex == 0) {
+            publishPages();
+        }
         if (mPageProvider != null && mCurrentPageIndex > 0) {
             FlipOverPage page = mPageProvider.updatePage(mCurrentPageIndex, getWidth(), getHeight());
             mLeftBitmap = page.getLeftPageBitmap();
@@ -298,7 +386,8 @@ public class SimpleFlipOver extends View implements FlipOver {
         Bitmap bitmap = mPageProvider.updatePage(mCurrentPageIndex, getWidth(), getHeight())
                 .getCurrentPageBitmap();
         if (bitmap != null) {
-            canvas.drawBitmap(bitmap, 0, 0, null);
+            canvas.drawBitmap(bitmap, 0, 0, mPagePaint);
+            mAnnotationLayer.draw(canvas, mCurrentPageIndex, getWidth(), getHeight());
         }
     }
 
@@ -306,8 +395,21 @@ public class SimpleFlipOver extends View implements FlipOver {
         mBitmapDrawSrcRect.set(getWidth() - mPageSplitX, 0, getWidth(), getHeight());
         mBitmapDrawDstRect.set(0, 0, mPageSplitX, getHeight());
 
-        canvas.drawBitmap(mLeftBitmap, mBitmapDrawSrcRect, mBitmapDrawDstRect, null);
-        canvas.drawBitmap(mRightBitmap, mPageSplitX, 0, null);
+        canvas.drawBitmap(mLeftBitmap, mBitmapDrawSrcRect, mBitmapDrawDstRect, mPagePaint);
+        canvas.drawBitmap(mRightBitmap, mPageSplitX, 0, mPagePaint);
+
+        // 批注跟随各自的页面移动
+        int leftPageIndex = mFlipState == STATE_FLIP_TO_RIGHT ? mCurrentPageIndex - 1 : mCurrentPageIndex;
+        canvas.save();
+        canvas.clipRect(mBitmapDrawDstRect);
+        canvas.translate(mPageSplitX - getWidth(), 0);
+        mAnnotationLayer.draw(canvas, leftPageIndex, getWidth(), getHeight());
+        canvas.restore();
+        canvas.save();
+        canvas.clipRect(mPageSplitX, 0, getWidth(), getHeight());
+        canvas.translate(mPageSplitX, 0);
+        mAnnotationLayer.draw(canvas, leftPageIndex + 1, getWidth(), getHeight());
+        canvas.restore();
     }
 
     private void update() {
@@ -338,6 +440,7 @@ public class SimpleFlipOver extends View implements FlipOver {
             } else if (mCurrentPageIndex >= mPageProvider.getPageCount()) {
                 mCurrentPageIndex = mPageProvider.getPageCount() - 1;
             }
+            mPagePrefetcher.onPageChanged(mCurrentPageIndex);
             mFlipState = STATE_FLIP_NONE;
         }
     }
@@ -17,7 +17,11 @@
 package com.ihuntto.bookreader.ui;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
@@ -25,8 +29,12 @@ import android.view.LayoutInflater;
 import android.widget.FrameLayout;
 
 import com.ihuntto.bookreader.R;
+import com.ihuntto.bookreader.flip.Annotation;
+import com.ihuntto.bookreader.flip.AnnotationLayer;
 import com.ihuntto.bookreader.flip.FlipOver;
 import com.ihuntto.bookreader.flip.FlipOverPage;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.flip.RenumberingPageProvider;
 
 import fi.harism.curl.CurlPage;
 import fi.harism.curl.CurlView;
@@ -34,6 +42,10 @@ import fi.harism.curl.CurlView;
 public class SimulateFlipOver extends FrameLayout implements FlipOver {
     private OnPageFlipListener mOnPageFlipListener;
     private CurlView mCurlView;
+    private volatile PageProvider mPageProvider;
+    // CurlView在自己的GL context中绘制，主题在复制位图时应用
+    private volatile Paint mPagePaint;
+    private final AnnotationLayer mAnnotationLayer = new AnnotationLayer();
 
     public SimulateFlipOver(@NonNull Context context) {
         super(context);
@@ -62,6 +74,8 @@ public class SimulateFlipOver extends FrameLayout implements FlipOver {
 
     @Override
     public void setPageProvider(final PageProvider pageProvider) {
+        mPageProvider = pageProvider;
+        mAnnotationLayer.clear();
         mCurlView.setCurrentIndex(0);
         mCurlView.setBackgroundColor(0xCCCCCC);
         mCurlView.setRenderLeftPage(false);
@@ -79,7 +93,12 @@ public class SimulateFlipOver extends FrameLayout implements FlipOver {
             public void updatePage(CurlPage page, int width, int height, int index) {
                 if (pageProvider != null) {
                     FlipOverPage flipOverPage = pageProvider.updatePage(index, width, height);
-                    page.setTexture(flipOverPage.getCurrentPageBitmap(), CurlPage.SIDE_FRONT);
+                    // CurlPage会回收传入的位图，而页面位图归PageProvider所有
+                    Bitmap bitmap = flipOverPage.getCurrentPageBitmap();
+                    if (bitmap != null && !bitmap.isRecycled()) {
+                        bitmap = copyPageBitmap(bitmap, index);
+                    }
+                    page.setTexture(bitmap, CurlPage.SIDE_FRONT);
                     page.setColor(Color.rgb(0xee, 0xee, 0xee), CurlPage.SIDE_BACK);
                 } else {
                     page.setColor(Color.rgb(0xee, 0xee, 0xee), CurlPage.SIDE_BOTH);
@@ -88,6 +107,79 @@ public class SimulateFlipOver extends FrameLayout implements FlipOver {
         });
     }
 
+    @Override
+    public void notifyDataSetChanged() {
+        // CurlView在GL线程移动当前页，重新编号也在GL线程进行
+        mCurlView.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                int currentIndex = mCurlView.getCurrentIndex();
+                PageProvider pageProvider = mPageProvider;
+                if (pageProvider instanceof RenumberingPageProvider) {
+                    int shift = ((RenumberingPageProvider) pageProvider).publishPages(currentIndex);
+                    mAnnotationLayer.shift(shift);
+                    currentIndex += shift;
+                }
+                mCurlView.setCurrentIndex(Math.max(0, currentIndex));
+            }
+        });
+    }
+
+    private Bitmap copyPageBitmap(Bitmap bitmap, int index) {
+        Paint paint = mPagePaint;
+        if (paint == null && !mAnnotationLayer.hasAnnotations(index)) {
+            return bitmap.copy(bitmap.getConfig(), false);
+        }
+        Bitmap copy = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        Canvas canvas = new Canvas(copy);
+        canvas.drawBitmap(bitmap, 0, 0, paint);
+        // 批注随页面一起复制给CurlView
+        mAnnotationLayer.draw(canvas, index, bitmap.getWidth(), bitmap.getHeight());
+        return copy;
+    }
+
+    @Override
+    public void setReadingTheme(ReadingTheme readingTheme) {
+        if (readingTheme == null || readingTheme.isIdentity()) {
+            mPagePaint = null;
+        } else {
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            paint.setColorFilter(new ColorMatrixColorFilter(readingTheme.createColorMatrix()));
+            mPagePaint = paint;
+        }
+        // 重新复制当前页，PageProvider中的页面不需要重新生成
+        mCurlView.setCurrentIndex(mCurlView.getCurrentIndex());
+    }
+
+    @Override
+    public void addAnnotation(int pageIndex, Annotation annotation) {
+        mAnnotationLayer.add(pageIndex, annotation);
+        mCurlView.setCurrentIndex(mCurlView.getCurrentIndex());
+    }
+
+    @Override
+    public void removeAnnotation(int pageIndex, Annotation annotation) {
+        if (mAnnotationLayer.remove(pageIndex, annotation)) {
+            mCurlView.setCurrentIndex(mCurlView.getCurrentIndex());
+        }
+    }
+
+    @Override
+    public void clearAnnotations() {
+        mAnnotationLayer.clear();
+        mCurlView.setCurrentIndex(mCurlView.getCurrentIndex());
+    }
+
+    @Override
+    public int getCurrentPageIndex() {
+        return mCurlView.getCurrentIndex();
+    }
+
+    @Override
+    public void setCurrentPageIndex(int index) {
+        mCurlView.setCurrentIndex(index);
+    }
+
     @Override
     public void setOnPageFlipListener(OnPageFlipListener onPageFlipListener) {
         mOnPageFlipListener = onPageFlipListener;
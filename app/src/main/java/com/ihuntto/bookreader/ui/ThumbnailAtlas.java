@@ -0,0 +1,443 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Process;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Page thumbnails of one book packed into sheets of 8x4 cells. Thumbnails
+ * are rendered on a background thread, the most recently requested page
+ * first, and the rest of every touched sheet is filled in afterwards from
+ * pages the provider already has, without rendering them. Full sheets are
+ * written to disk, so a book scrubbed before shows its thumbnails at once.
+ */
+final class ThumbnailAtlas {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = ThumbnailAtlas.class.getSimpleName();
+
+    private static final int COLUMNS = 8;
+    private static final int ROWS = 4;
+    private static final int PAGES_PER_SHEET = COLUMNS * ROWS;
+    private static final int MAX_SHEETS = 16;
+    // 拖动时只有最近请求的页面有意义
+    private static final int MAX_REQUESTS = 32;
+    private static final long MAX_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final int TRIM_INTERVAL = 16;
+    private static final String FILE_SUFFIX = ".png";
+
+    interface OnThumbnailReadyListener {
+        // 在生成缩略图的线程回调
+        void onThumbnailReady();
+    }
+
+    private static final class Sheet {
+        final Bitmap bitmap;
+        final boolean[] ready = new boolean[PAGES_PER_SHEET];
+        int readyCount;
+
+        Sheet(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final ProgressivePageProvider mPageProvider;
+    private final String mBookId;
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final File mDirectory;
+    private final ExecutorService mExecutor;
+    private final Rect mSource = new Rect();
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<Integer, Sheet> mSheets = new LinkedHashMap<>(16, 0.75f, true);
+    // 最新请求的页面在最前
+    private final ArrayDeque<Integer> mRequests = new ArrayDeque<>();
+    // 还不能绘制的页面，补齐图集时跳过，再次请求时重试
+    private final Set<Integer> mSkipped = new HashSet<>();
+    private final Runnable mProduceTask = new Runnable() {
+        @Override
+        public void run() {
+            produceThumbnails();
+        }
+    };
+    private volatile OnThumbnailReadyListener mOnThumbnailReadyListener;
+    private boolean mScheduled;
+    private boolean mFilling;
+    private boolean mClosed;
+    private int mWrittenSheets;
+
+    ThumbnailAtlas(ProgressivePageProvider pageProvider, String bookId, int cellWidth, int cellHeight, File directory) {
+        mPageProvider = pageProvider;
+        mBookId = bookId;
+        mCellWidth = cellWidth;
+        mCellHeight = cellHeight;
+        mDirectory = directory;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ThumbnailAtlas");
+            }
+        });
+    }
+
+    String getBookId() {
+        return mBookId;
+    }
+
+    int getCellWidth() {
+        return mCellWidth;
+    }
+
+    int getCellHeight() {
+        return mCellHeight;
+    }
+
+    void setOnThumbnailReadyListener(OnThumbnailReadyListener onThumbnailReadyListener) {
+        mOnThumbnailReadyListener = onThumbnailReadyListener;
+    }
+
+    /**
+     * Draws the thumbnail of page index into destination; returns false if
+     * it is not ready yet.
+     */
+    synchronized boolean draw(Canvas canvas, int index, RectF destination, Paint paint) {
+        Sheet sheet = index >= 0 ? mSheets.get(index / PAGES_PER_SHEET) : null;
+        int cell = index % PAGES_PER_SHEET;
+        if (sheet == null || !sheet.ready[cell]) {
+            return false;
+        }
+        int left = (cell % COLUMNS) * mCellWidth;
+        int top = (cell / COLUMNS) * mCellHeight;
+        mSource.set(left, top, left + mCellWidth, top + mCellHeight);
+        canvas.drawBitmap(sheet.bitmap, mSource, destination, paint);
+        return true;
+    }
+
+    /**
+     * Asks for the thumbnail of page index; the latest request is produced
+     * first.
+     */
+    void request(int index) {
+        synchronized (this) {
+            if (mClosed || index < 0) {
+                return;
+            }
+            Sheet sheet = mSheets.get(index / PAGES_PER_SHEET);
+            if (sheet != null && sheet.ready[index % PAGES_PER_SHEET]) {
+                return;
+            }
+            Integer request = index;
+            mSkipped.remove(request);
+            mRequests.remove(request);
+            mRequests.addFirst(request);
+            while (mRequests.size() > MAX_REQUESTS) {
+                mRequests.removeLast();
+            }
+            mFilling = true;
+            if (mScheduled) {
+                return;
+            }
+            mScheduled = true;
+        }
+        mExecutor.execute(mProduceTask);
+    }
+
+    /**
+     * Drops pending requests and stops filling sheets until the next
+     * request, for when no thumbnails are shown.
+     */
+    synchronized void pause() {
+        mRequests.clear();
+        mSkipped.clear();
+        mFilling = false;
+    }
+
+    // 在生成缩略图的线程调用
+    private void produceThumbnails() {
+        Bitmap cell = Bitmap.createBitmap(mCellWidth, mCellHeight, Bitmap.Config.RGB_565);
+        try {
+            while (true) {
+                int index;
+                boolean requested;
+                synchronized (this) {
+                    Integer request = mRequests.pollFirst();
+                    requested = request != null;
+                    if (request == null) {
+                        // 请求处理完后补齐已打开的图集
+                        request = mFilling ? findMissingPage() : null;
+                    }
+                    if (request == null || mClosed) {
+                        mScheduled = false;
+                        return;
+                    }
+                    index = request;
+                }
+                if (produceThumbnail(index, cell, requested)) {
+                    OnThumbnailReadyListener listener = mOnThumbnailReadyListener;
+                    if (listener != null) {
+                        listener.onThumbnailReady();
+                    }
+                }
+            }
+        } finally {
+            cell.recycle();
+        }
+    }
+
+    private Integer findMissingPage() {
+        int pageCount = mPageProvider.getPageCount();
+        Integer missing = null;
+        // 越晚使用过的图集越靠后，取最后一个
+        for (Map.Entry<Integer, Sheet> entry : mSheets.entrySet()) {
+            Sheet sheet = entry.getValue();
+            int first = entry.getKey() * PAGES_PER_SHEET;
+            for (int i = 0; i < PAGES_PER_SHEET && first + i < pageCount; i++) {
+                if (!sheet.ready[i] && !mSkipped.contains(first + i)) {
+                    missing = first + i;
+                    break;
+                }
+            }
+        }
+        if (missing == null) {
+            mFilling = false;
+        }
+        return missing;
+    }
+
+    // 补齐图集时只用已有的页面，不为没人看的页面整页渲染
+    private boolean produceThumbnail(int index, Bitmap cell, boolean requested) {
+        int sheetIndex = index / PAGES_PER_SHEET;
+        int cellIndex = index % PAGES_PER_SHEET;
+        Sheet sheet = getSheet(sheetIndex);
+        if (sheet == null) {
+            return false;
+        }
+        synchronized (this) {
+            if (sheet.ready[cellIndex]) {
+                return true;
+            }
+        }
+        if (!mPageProvider.renderThumbnail(index, cell, requested)) {
+            // 页面还不能绘制，比如还未排版，或者补齐时还没有渲染过
+            synchronized (this) {
+                mSkipped.add(index);
+            }
+            return false;
+        }
+        boolean full;
+        synchronized (this) {
+            // 图集可能已被淘汰或随close回收
+            if (mClosed || sheet.bitmap.isRecycled()) {
+                return false;
+            }
+            new Canvas(sheet.bitmap).drawBitmap(cell,
+                    (cellIndex % COLUMNS) * mCellWidth, (cellIndex / COLUMNS) * mCellHeight, null);
+            sheet.ready[cellIndex] = true;
+            sheet.readyCount++;
+            full = sheet.readyCount == PAGES_PER_SHEET;
+        }
+        if (full) {
+            writeSheet(sheetIndex, sheet);
+        }
+        return true;
+    }
+
+    // close之后返回null
+    private Sheet getSheet(int sheetIndex) {
+        synchronized (this) {
+            if (mClosed) {
+                return null;
+            }
+            Sheet sheet = mSheets.get(sheetIndex);
+            if (sheet != null) {
+                return sheet;
+            }
+        }
+        Sheet sheet = readSheet(sheetIndex);
+        if (sheet == null) {
+            Bitmap bitmap = Bitmap.createBitmap(COLUMNS * mCellWidth, ROWS * mCellHeight, Bitmap.Config.RGB_565);
+            bitmap.eraseColor(Color.LTGRAY);
+            sheet = new Sheet(bitmap);
+        }
+        synchronized (this) {
+            if (mClosed) {
+                sheet.bitmap.recycle();
+                return null;
+            }
+            mSheets.put(sheetIndex, sheet);
+            Iterator<Map.Entry<Integer, Sheet>> iterator = mSheets.entrySet().iterator();
+            while (mSheets.size() > MAX_SHEETS && iterator.hasNext()) {
+                // 绘制也在锁内进行，移出后即可回收
+                iterator.next().getValue().bitmap.recycle();
+                iterator.remove();
+            }
+        }
+        return sheet;
+    }
+
+    private Sheet readSheet(int sheetIndex) {
+        File file = getFile(sheetIndex);
+        if (!file.isFile()) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null || bitmap.getWidth() != COLUMNS * mCellWidth || bitmap.getHeight() != ROWS * mCellHeight) {
+            file.delete();
+            return null;
+        }
+        // 按最近使用时间裁剪目录
+        file.setLastModified(System.currentTimeMillis());
+        Sheet sheet = new Sheet(bitmap);
+        Arrays.fill(sheet.ready, true);
+        sheet.readyCount = PAGES_PER_SHEET;
+        return sheet;
+    }
+
+    // 先写入临时文件再改名，读到的总是完整的图集
+    private void writeSheet(int sheetIndex, Sheet sheet) {
+        File file = getFile(sheetIndex);
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            synchronized (this) {
+                if (sheet.bitmap.isRecycled()) {
+                    return;
+                }
+                sheet.bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                temp.delete();
+            }
+        }
+        if (D) {
+            Log.d(TAG, "wrote thumbnails of pages " + sheetIndex * PAGES_PER_SHEET + "+");
+        }
+        if (++mWrittenSheets % TRIM_INTERVAL == 0) {
+            trimDirectory();
+        }
+    }
+
+    // 超出上限时先删除最久未用的文件
+    private void trimDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_CACHE_BYTES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_CACHE_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File getFile(int sheetIndex) {
+        String key = mBookId + "|" + mCellWidth + "x" + mCellHeight + "|" + sheetIndex;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(mDirectory, name.append(FILE_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException("Could not hash thumbnail key", e);
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            mRequests.clear();
+            for (Sheet sheet : mSheets.values()) {
+                sheet.bitmap.recycle();
+            }
+            mSheets.clear();
+        }
+        mExecutor.shutdown();
+    }
+}
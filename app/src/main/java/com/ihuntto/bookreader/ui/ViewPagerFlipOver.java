@@ -19,6 +19,14 @@ package com.ihuntto.bookreader.ui;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.view.PagerAdapter;
@@ -31,7 +39,13 @@ import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
 import com.ihuntto.bookreader.R;
+import com.ihuntto.bookreader.flip.Annotation;
+import com.ihuntto.bookreader.flip.AnnotationLayer;
 import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.PagePrefetcher;
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.flip.RenumberingPageProvider;
 
 public class ViewPagerFlipOver extends ViewPager implements FlipOver {
     private static final long MIN_CLICK_INTERVAL_MILLIS = 200;
@@ -40,21 +54,64 @@ public class ViewPagerFlipOver extends ViewPager implements FlipOver {
 
     private OnPageFlipListener mOnPageFlipListener;
     private PagerAdapter mPagerAdapter;
+    private ColorFilter mPageColorFilter;
+    private final AnnotationLayer mAnnotationLayer = new AnnotationLayer();
+    private final PagePrefetcher mPagePrefetcher = new PagePrefetcher();
 
     public ViewPagerFlipOver(@NonNull Context context) {
         super(context);
+        init();
     }
 
     public ViewPagerFlipOver(@NonNull Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
+        init();
+    }
+
+    private void init() {
+        mPagePrefetcher.setOnPageReadyListener(new PagePrefetcher.OnPageReadyListener() {
+            @Override
+            public void onPageReady(final int index) {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        rebindPage(index);
+                    }
+                });
+            }
+        });
+    }
+
+    // 占位图或完整页面已生成，替换正在显示的页面
+    private void rebindPage(int index) {
+        if (!(mPagerAdapter instanceof FlipOverPagerAdapter)) {
+            return;
+        }
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            Object tag = child.getTag();
+            if (tag instanceof Integer && (Integer) tag == index) {
+                ((FlipOverPagerAdapter) mPagerAdapter).bindPage(child, index);
+            }
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mPagePrefetcher.setPageSize(w, h, false);
+        mPagePrefetcher.onPageChanged(getCurrentItem());
     }
 
     @Override
     public void setPageProvider(final PageProvider pageProvider) {
+        mPagePrefetcher.setPageProvider(pageProvider);
         if (pageProvider == null) {
             removeOnPageChangeListener(mOnPageChangeListener);
             return;
         }
+        mAnnotationLayer.clear();
+        mPagePrefetcher.setPageSize(getWidth(), getHeight(), false);
         mPagerAdapter = new FlipOverPagerAdapter(pageProvider);
         getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
             @Override
@@ -67,6 +124,77 @@ public class ViewPagerFlipOver extends ViewPager implements FlipOver {
         addOnPageChangeListener(mOnPageChangeListener);
     }
 
+    @Override
+    public void notifyDataSetChanged() {
+        if (!(mPagerAdapter instanceof FlipOverPagerAdapter)) {
+            return;
+        }
+        FlipOverPagerAdapter adapter = (FlipOverPagerAdapter) mPagerAdapter;
+        // 已创建的页面随编号移动位置，ViewPager据此移动当前页
+        adapter.publishPages(getCurrentItem());
+        adapter.notifyDataSetChanged();
+        // 页面内容可能已改变，原地重新绑定
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            Object tag = child.getTag();
+            if (tag instanceof Integer) {
+                adapter.bindPage(child, (Integer) tag);
+            }
+        }
+    }
+
+    @Override
+    public void setReadingTheme(ReadingTheme readingTheme) {
+        if (readingTheme == null || readingTheme.isIdentity()) {
+            mPageColorFilter = null;
+        } else {
+            mPageColorFilter = new ColorMatrixColorFilter(readingTheme.createColorMatrix());
+        }
+        // 已创建的页面直接换滤镜，位图不变
+        for (int i = 0; i < getChildCount(); i++) {
+            ImageView imageView = getChildAt(i).findViewById(R.id.view_pager_flip_over_item);
+            if (imageView != null) {
+                imageView.setColorFilter(mPageColorFilter);
+            }
+        }
+    }
+
+    @Override
+    public void addAnnotation(int pageIndex, Annotation annotation) {
+        mAnnotationLayer.add(pageIndex, annotation);
+        invalidatePages();
+    }
+
+    @Override
+    public void removeAnnotation(int pageIndex, Annotation annotation) {
+        if (mAnnotationLayer.remove(pageIndex, annotation)) {
+            invalidatePages();
+        }
+    }
+
+    @Override
+    public void clearAnnotations() {
+        mAnnotationLayer.clear();
+        invalidatePages();
+    }
+
+    // 批注在页面位图之上的图层中绘制，只需重绘
+    private void invalidatePages() {
+        for (int i = 0; i < getChildCount(); i++) {
+            getChildAt(i).invalidate();
+        }
+    }
+
+    @Override
+    public int getCurrentPageIndex() {
+        return getCurrentItem();
+    }
+
+    @Override
+    public void setCurrentPageIndex(int index) {
+        setCurrentItem(index, false);
+    }
+
     private OnPageChangeListener mOnPageChangeListener = new OnPageChangeListener() {
         @Override
         public void onPageScrolled(int i, float v, int i1) {
@@ -75,12 +203,16 @@ public class ViewPagerFlipOver extends ViewPager implements FlipOver {
 
         @Override
         public void onPageSelected(int i) {
-
+            mPagePrefetcher.onPageChanged(i);
         }
 
         @Override
         public void onPageScrollStateChanged(int i) {
             mCurrentState = i;
+            if (mCurrentState == SCROLL_STATE_IDLE && getCurrentItem() == 0) {
+                // 停在第一页时编号前面已排版的页，以便继续向前翻
+                notifyDataSetChanged();
+            }
             if (mCurrentState == SCROLL_STATE_DRAGGING) {
                 if (mOnPageFlipListener != null) {
                     mOnPageFlipListener.onFlipStart();
@@ -135,6 +267,8 @@ public class ViewPagerFlipOver extends ViewPager implements FlipOver {
 
     private class FlipOverPagerAdapter extends PagerAdapter {
         private PageProvider mPageProvider;
+        // 本次notifyDataSetChanged中页面编号的移动量
+        private int mPositionShift;
 
         public FlipOverPagerAdapter(PageProvider pageProvider) {
             mPageProvider = pageProvider;
@@ -150,14 +284,74 @@ public class ViewPagerFlipOver extends ViewPager implements FlipOver {
         public Object instantiateItem(@NonNull ViewGroup container, int position) {
             View view = View.inflate(ViewPagerFlipOver.this.getContext(),
                     R.layout.layout_item_view_pager_flip_over, null);
-            ImageView imageView = view.findViewById(R.id.view_pager_flip_over_item);
-            Bitmap bitmap = mPageProvider.updatePage(position, container.getWidth(), container.getHeight())
-                    .getCurrentPageBitmap();
-            imageView.setImageBitmap(bitmap);
+            view.setTag(position);
+            bindPage(view, position);
             container.addView(view);
             return view;
         }
 
+        /**
+         * Shows page position if it is ready; otherwise shows its placeholder
+         * stretched over the page and lets the prefetcher render it.
+         */
+        void bindPage(View view, int position) {
+            ImageView imageView = view.findViewById(R.id.view_pager_flip_over_item);
+            int width = getWidth();
+            int height = getHeight();
+            Bitmap bitmap;
+            boolean placeholder = false;
+            if (mPageProvider instanceof ProgressivePageProvider) {
+                ProgressivePageProvider pageProvider = (ProgressivePageProvider) mPageProvider;
+                bitmap = pageProvider.getReadyPage(position, width, height, false);
+                if (bitmap == null) {
+                    mPagePrefetcher.requestPage(position);
+                    bitmap = pageProvider.getPlaceholder(position, width, height, false);
+                    placeholder = bitmap != null;
+                }
+            } else {
+                bitmap = mPageProvider.updatePage(position, width, height).getCurrentPageBitmap();
+            }
+            if (bitmap != null) {
+                BitmapDrawable drawable = new BitmapDrawable(getResources(), bitmap);
+                if (placeholder) {
+                    // 缩略图放大显示，线性过滤
+                    drawable.setFilterBitmap(true);
+                }
+                imageView.setImageDrawable(new LayerDrawable(new Drawable[]{
+                        drawable,
+                        new AnnotationDrawable(position)}));
+            } else {
+                imageView.setImageDrawable(null);
+            }
+            imageView.setColorFilter(mPageColorFilter);
+        }
+
+        void publishPages(int currentIndex) {
+            mPositionShift = mPageProvider instanceof RenumberingPageProvider
+                    ? ((RenumberingPageProvider) mPageProvider).publishPages(currentIndex) : 0;
+            mAnnotationLayer.shift(mPositionShift);
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            super.notifyDataSetChanged();
+            mPositionShift = 0;
+        }
+
+        @Override
+        public int getItemPosition(@NonNull Object object) {
+            View view = (View) object;
+            int position = (Integer) view.getTag() + mPositionShift;
+            if (position < 0 || position >= getCount()) {
+                return POSITION_NONE;
+            }
+            if (mPositionShift == 0) {
+                return POSITION_UNCHANGED;
+            }
+            view.setTag(position);
+            return position;
+        }
+
         @Override
         public boolean isViewFromObject(@NonNull View view, @NonNull Object object) {
             return view == object;
@@ -169,6 +363,36 @@ public class ViewPagerFlipOver extends ViewPager implements FlipOver {
         }
     }
 
+    private class AnnotationDrawable extends Drawable {
+        private final int mPageIndex;
+
+        AnnotationDrawable(int pageIndex) {
+            mPageIndex = pageIndex;
+        }
+
+        @Override
+        public void draw(@NonNull Canvas canvas) {
+            Rect bounds = getBounds();
+            canvas.save();
+            canvas.translate(bounds.left, bounds.top);
+            mAnnotationLayer.draw(canvas, mPageIndex, bounds.width(), bounds.height());
+            canvas.restore();
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+        }
+
+        @Override
+        public void setColorFilter(@Nullable ColorFilter colorFilter) {
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+
     @SuppressLint("ClickableViewAccessibility")
     @Override
     public boolean onTouchEvent(MotionEvent ev) {
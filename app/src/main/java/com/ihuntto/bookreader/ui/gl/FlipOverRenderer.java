@@ -17,15 +17,40 @@
 package com.ihuntto.bookreader.ui.gl;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.opengl.ETC1Util;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
+import android.util.SparseIntArray;
 
 import com.ihuntto.bookreader.BuildConfig;
+import com.ihuntto.bookreader.flip.Annotation;
+import com.ihuntto.bookreader.flip.AnnotationLayer;
 import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.GlyphPageProvider;
+import com.ihuntto.bookreader.flip.LayeredPageProvider;
+import com.ihuntto.bookreader.flip.PagePrefetcher;
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.flip.RenumberingPageProvider;
+import com.ihuntto.bookreader.flip.TiledPageProvider;
 import com.ihuntto.bookreader.ui.gl.light.Light;
+import com.ihuntto.bookreader.ui.gl.overview.OverviewLayout;
+import com.ihuntto.bookreader.ui.gl.overview.OverviewRenderer;
 import com.ihuntto.bookreader.ui.gl.shape.FlatPage;
 import com.ihuntto.bookreader.ui.gl.shape.FoldPage;
+import com.ihuntto.bookreader.ui.gl.shape.Page;
+import com.ihuntto.bookreader.ui.gl.shape.ScreenQuad;
+import com.ihuntto.bookreader.ui.gl.text.GlyphMesh;
+import com.ihuntto.bookreader.ui.gl.text.GlyphPageRenderer;
+import com.ihuntto.bookreader.ui.gl.tile.TileRenderer;
+import com.ihuntto.bookreader.ui.gl.util.CompressedTextureCache;
+import com.ihuntto.bookreader.ui.gl.util.FrameBuffer;
+import com.ihuntto.bookreader.ui.gl.util.OverlayTextureCache;
+import com.ihuntto.bookreader.ui.gl.util.RenderScaleController;
+import com.ihuntto.bookreader.ui.gl.util.TextureBudget;
+import com.ihuntto.bookreader.ui.gl.util.TextureHelper;
 import com.ihuntto.bookreader.ui.gl.util.TextureManager;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -37,21 +62,33 @@ import static android.opengl.GLES20.GL_DEPTH_TEST;
 import static android.opengl.GLES20.GL_ONE_MINUS_SRC_ALPHA;
 import static android.opengl.GLES20.GL_SRC_ALPHA;
 import static android.opengl.GLES20.glBlendFunc;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glDisable;
 import static android.opengl.GLES20.glEnable;
+import static android.opengl.GLES20.glViewport;
+import static android.opengl.Matrix.multiplyMM;
 import static android.opengl.Matrix.orthoM;
+import static android.opengl.Matrix.scaleM;
+import static android.opengl.Matrix.setIdentityM;
+import static android.opengl.Matrix.translateM;
 
 final class FlipOverRenderer implements GLSurfaceView.Renderer {
     private static final boolean D = BuildConfig.DEBUG;
     private static final String TAG = FlipOverRenderer.class.getSimpleName();
 
+    private static final int COLOR_WHITE = 0xFFFFFFFF;
+    private static final int COLOR_TRANSPARENT = 0x00000000;
+
     private static final int STATE_FLIP_NONE = 0x00;
     private static final int STATE_FLIP_TO_LEFT = 0x01;
     private static final int STATE_FLIP_TO_RIGHT = 0x02;
 
     private int mFlipState = STATE_FLIP_NONE;
 
-    private FlipOver.PageProvider mPageProvider;
-    private int mCurrentPageIndex;
+    private volatile FlipOver.PageProvider mPageProvider;
+    private final TextureManager mTextureManager;
+    // GL线程写，主线程读
+    private volatile int mCurrentPageIndex;
     private int mWidth;
     private int mHeight;
     private int mMaxTargetX;
@@ -73,6 +110,40 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
     private FoldPage mFoldPage;
     private int mConstraintX;
 
+    private RenderQuality mRenderQuality;
+    private ReadingTheme mReadingTheme = ReadingTheme.DEFAULT;
+    private RenderScaleController mRenderScaleController;
+    private FrameBuffer mScaledFrameBuffer;
+    private ScreenQuad mScreenQuad;
+    private GlyphPageRenderer mGlyphPageRenderer;
+    private String mBookId = "";
+    // 各页共用的图层纹理
+    private int mWhiteTexture;
+    private int mClearTexture;
+    private int mPaperTexture;
+    private Bitmap mPaperBitmap;
+    private final AnnotationLayer mAnnotationLayer;
+    private final OverlayTextureCache mOverlayTextures;
+    private final float[] mOverlayRect = new float[4];
+    private final TileRenderer mTileRenderer;
+    private final PagePrefetcher mPagePrefetcher = new PagePrefetcher();
+    // 页面还未生成时拉伸显示的缩略图纹理，只保留当前页附近的几页
+    private final SparseIntArray mPlaceholderTextures = new SparseIntArray();
+    private String mPlaceholderBookId = "";
+    // 扫描和漫画页面压缩为ETC1后的缓存，为null时不压缩
+    private volatile CompressedTextureCache mCompressedTextures;
+    private boolean mEtc1Supported;
+    // 缩放倍数及可见区域左上角的页面坐标，只在没有翻页时生效
+    private float mZoom = 1.0f;
+    private float mZoomLeft;
+    private float mZoomTop;
+    private final float[] mZoomMatrix = new float[16];
+    private final float[] mZoomedViewProjectionMatrix = new float[16];
+    // 概览的列数，为0时不显示概览
+    private int mOverviewColumns;
+    private float mOverviewScrollY;
+    private final OverviewRenderer mOverviewRenderer;
+
     private static class Color {
         final float r;
         final float g;
@@ -91,8 +162,10 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
     private float[] mEyePos;
     private Light mLight;
 
-    public FlipOverRenderer(GLSurfaceView surfaceView) {
+    public FlipOverRenderer(GLSurfaceView surfaceView, AnnotationLayer annotationLayer) {
         mGLSurfaceView = surfaceView;
+        mAnnotationLayer = annotationLayer;
+        mOverlayTextures = new OverlayTextureCache(annotationLayer, TextureBudget.getInstance());
         mContext = surfaceView.getContext();
         mBackgroundColor = new Color(0.9f, 0.9f, 0.9f, 1.0f);
 
@@ -103,6 +176,38 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
                 .specular(0.05f, 0.05f, 0.05f)
                 .diffuse(0.35f, 0.35f, 0.35f)
                 .create();
+
+        mTextureManager = new TextureManager(TextureBudget.getInstance());
+        mTextureManager.setOnTrimRequestListener(new TextureManager.OnTrimRequestListener() {
+            @Override
+            public void onTrimRequested() {
+                mGLSurfaceView.requestRender();
+            }
+        });
+
+        mPagePrefetcher.setOnPageReadyListener(new PagePrefetcher.OnPageReadyListener() {
+            @Override
+            public void onPageReady(int index) {
+                mGLSurfaceView.requestRender();
+            }
+        });
+
+        mTileRenderer = new TileRenderer(new TileRenderer.OnTileLoadedListener() {
+            @Override
+            public void onTileLoaded() {
+                mGLSurfaceView.requestRender();
+            }
+        });
+
+        mOverviewRenderer = new OverviewRenderer(new OverviewRenderer.OnThumbnailLoadedListener() {
+            @Override
+            public void onThumbnailLoaded() {
+                mGLSurfaceView.requestRender();
+            }
+        });
+
+        mRenderQuality = new RenderQuality.Builder().create();
+        mRenderScaleController = new RenderScaleController(mRenderQuality.getMinRenderScale());
     }
 
     @Override
@@ -114,6 +219,35 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
 
         FlatPage.initProgram(mContext);
         FoldPage.initProgram(mContext);
+        ScreenQuad.initProgram(mContext);
+        GlyphPageRenderer.initProgram(mContext);
+        TileRenderer.initProgram(mContext);
+        OverviewRenderer.initProgram(mContext);
+
+        mTextureManager.onContextCreated();
+        if (mGlyphPageRenderer != null) {
+            // 旧的图集纹理已随context失效
+            mGlyphPageRenderer.release();
+        }
+        mGlyphPageRenderer = new GlyphPageRenderer(new GlyphPageRenderer.OnGlyphPageLoadedListener() {
+            @Override
+            public void onGlyphPageLoaded() {
+                mGLSurfaceView.requestRender();
+            }
+        });
+        mGlyphPageRenderer.setBookId(mBookId);
+        mWhiteTexture = TextureHelper.createSolidTexture(COLOR_WHITE);
+        mClearTexture = TextureHelper.createSolidTexture(COLOR_TRANSPARENT);
+        mPaperTexture = 0;
+        mPaperBitmap = null;
+        mOverlayTextures.onContextCreated();
+        mTileRenderer.onContextCreated();
+        mOverviewRenderer.onContextCreated();
+        mPlaceholderTextures.clear();
+        mEtc1Supported = ETC1Util.isETC1Supported();
+
+        // 旧的context已经失效，其中的资源无需删除
+        mScaledFrameBuffer = null;
     }
 
     @Override
@@ -129,11 +263,29 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
         orthoM(mViewProjectionMatrix, 0, -1.0f, 1.0f, -1.0f, 1.0f, -10.0f, 10.0f);
 
         mFlatPage = new FlatPage(width, height);
+        mFlatPage.setReadingTheme(mReadingTheme);
 
         int foldHeight = (int) (width / 5.0f);
-        mFoldPage = new FoldPage(width, height);
+        mFoldPage = new FoldPage(width, height, mRenderQuality.getMeshStep());
+        mFoldPage.setReadingTheme(mReadingTheme);
 
         mConstraintX = foldHeight;
+
+        if (mScaledFrameBuffer != null) {
+            mScaledFrameBuffer.destroy();
+        }
+        mScaledFrameBuffer = new FrameBuffer(width, height);
+        if (!mScaledFrameBuffer.create()) {
+            mScaledFrameBuffer = null;
+        }
+        mScreenQuad = new ScreenQuad();
+        mOverlayTextures.setSize(width, height);
+
+        updateBookId();
+        updatePrefetcher();
+        if (mPageProvider != null) {
+            mTextureManager.restore(mCurrentPageIndex);
+        }
     }
 
     private void update() {
@@ -154,11 +306,19 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
             if (mTargetX == mMinTargetX) {
                 if (mFlipState == STATE_FLIP_TO_LEFT) {
                     mCurrentPageIndex++;
+                    mTextureManager.retainAround(mCurrentPageIndex);
+                    mOverlayTextures.retainAround(mCurrentPageIndex);
+                    mPagePrefetcher.onPageChanged(mCurrentPageIndex);
+                    preloadCompressedPages(mCurrentPageIndex);
                 }
                 mFlipState = STATE_FLIP_NONE;
             } else if (mTargetX == mMaxTargetX) {
                 if (mFlipState == STATE_FLIP_TO_RIGHT) {
                     mCurrentPageIndex--;
+                    mTextureManager.retainAround(mCurrentPageIndex);
+                    mOverlayTextures.retainAround(mCurrentPageIndex);
+                    mPagePrefetcher.onPageChanged(mCurrentPageIndex);
+                    preloadCompressedPages(mCurrentPageIndex);
                 }
                 mFlipState = STATE_FLIP_NONE;
             }
@@ -199,49 +359,431 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
-        GLES20.glClearColor(mBackgroundColor.r, mBackgroundColor.g, mBackgroundColor.b, mBackgroundColor.a);
-
+        mTextureManager.onFrame();
         update();
 
-        if (!isFlipping()) {
-            mFlatPage.setTexture(getPageTextureId(mCurrentPageIndex));
-            mFlatPage.draw(mEyePos, mLight, mViewProjectionMatrix);
+        float scale = 1.0f;
+        if (isFlipping()) {
+            mRenderScaleController.onAnimatedFrame(System.nanoTime());
+            if (mScaledFrameBuffer != null) {
+                scale = mRenderScaleController.getScale();
+            }
         } else {
-            if (mFlipState == STATE_FLIP_TO_LEFT) {
-                mFoldPage.setTexture(getPageTextureId(mCurrentPageIndex));
-                mFlatPage.setTexture(getPageTextureId(mCurrentPageIndex + 1));
-            } else {
-                mFoldPage.setTexture(getPageTextureId(mCurrentPageIndex - 1));
-                mFlatPage.setTexture(getPageTextureId(mCurrentPageIndex));
+            mRenderScaleController.onIdleFrame();
+        }
+
+        if (scale < 1.0f) {
+            // 翻页过程中先绘制到缩小的离屏区域，再放大到屏幕
+            int scaledWidth = (int) (mWidth * scale);
+            int scaledHeight = (int) (mHeight * scale);
+            mScaledFrameBuffer.bind();
+            glViewport(0, 0, scaledWidth, scaledHeight);
+            drawPages();
+            mScaledFrameBuffer.unbind();
+
+            glViewport(0, 0, mWidth, mHeight);
+            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+            glDisable(GL_DEPTH_TEST);
+            mScreenQuad.draw(mScaledFrameBuffer.getTextureId(),
+                    (float) scaledWidth / mScaledFrameBuffer.getWidth(),
+                    (float) scaledHeight / mScaledFrameBuffer.getHeight());
+            glEnable(GL_DEPTH_TEST);
+        } else {
+            drawPages();
+        }
+
+        if (mFlipState != STATE_FLIP_NONE) {
+            mGLSurfaceView.requestRender();
+        }
+    }
+
+    private void drawPages() {
+        GLES20.glClearColor(mBackgroundColor.r, mBackgroundColor.g, mBackgroundColor.b, mBackgroundColor.a);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+        if (mPageProvider == null) {
+            return;
+        }
+        if (mOverviewColumns > 0) {
+            drawOverview();
+            return;
+        }
+        mGlyphPageRenderer.beginFrame();
+        if (!isFlipping()) {
+            GlyphMesh flatMesh = bindPage(mFlatPage, mCurrentPageIndex);
+            mFlatPage.draw(mEyePos, mLight, getPageViewProjectionMatrix());
+            if (flatMesh != null) {
+                mGlyphPageRenderer.drawFlat(flatMesh, mFlatPage, mEyePos, mLight, mReadingTheme);
             }
+            FlipOver.PageProvider pageProvider = mPageProvider;
+            if (mZoom > 1.0f && pageProvider instanceof TiledPageProvider) {
+                int overlayTextureId = mOverlayTextures.getTexture(mCurrentPageIndex, mClearTexture, mOverlayRect);
+                mTileRenderer.draw((TiledPageProvider) pageProvider, mCurrentPageIndex, mFlatPage,
+                        mZoom, mZoomLeft, mZoomTop, mReadingTheme, overlayTextureId, mOverlayRect);
+            }
+        } else {
+            int foldIndex = mFlipState == STATE_FLIP_TO_LEFT ? mCurrentPageIndex : mCurrentPageIndex - 1;
+            GlyphMesh foldMesh = bindPage(mFoldPage, foldIndex);
+            GlyphMesh flatMesh = bindPage(mFlatPage, foldIndex + 1);
+            // 只有折起的页面会被缩小绘制，下一帧开始时为它生成mipmap
+            mTextureManager.requestMipmaps(foldIndex);
 
             mFlatPage.draw(mEyePos, mLight, mViewProjectionMatrix);
+            if (flatMesh != null) {
+                mGlyphPageRenderer.drawFlat(flatMesh, mFlatPage, mEyePos, mLight, mReadingTheme);
+            }
             mFoldPage.fold(mWidth, mAnchorY, mCurrentX, mCurrentY);
             mFoldPage.draw(mEyePos, mLight, mViewProjectionMatrix);
-            mFoldPage.drawShadow(mLight, mViewProjectionMatrix);
+            if (foldMesh != null) {
+                mGlyphPageRenderer.drawFold(foldMesh, mFoldPage, mEyePos, mLight, mReadingTheme);
+            }
+            if (mRenderQuality.getShadowPasses() == RenderQuality.SHADOW_ALL) {
+                mFoldPage.drawShadow(mLight, mViewProjectionMatrix);
+            } else if (mRenderQuality.getShadowPasses() == RenderQuality.SHADOW_CAST) {
+                mFoldPage.drawCastShadow(mViewProjectionMatrix);
+            }
         }
-        if (mFlipState != STATE_FLIP_NONE) {
-            mGLSurfaceView.requestRender();
+    }
+
+    private void drawOverview() {
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        OverviewLayout layout = new OverviewLayout(mWidth, mHeight, mOverviewColumns, pageProvider.getPageCount());
+        mOverviewRenderer.draw(pageProvider, layout, layout.clampScrollY(mOverviewScrollY),
+                mWidth, mHeight, mCurrentPageIndex, mWhiteTexture, mReadingTheme);
+    }
+
+    // 把页面的可见区域放大到整个视口
+    private float[] getPageViewProjectionMatrix() {
+        if (mZoom <= 1.0f) {
+            return mViewProjectionMatrix;
         }
+        float translateX = mZoom - 1.0f - 2.0f * mZoomLeft * mZoom / mWidth;
+        float translateY = 1.0f - mZoom + 2.0f * mZoomTop * mZoom / mHeight;
+        setIdentityM(mZoomMatrix, 0);
+        translateM(mZoomMatrix, 0, translateX, translateY, 0.0f);
+        scaleM(mZoomMatrix, 0, mZoom, mZoom, 1.0f);
+        multiplyMM(mZoomedViewProjectionMatrix, 0, mZoomMatrix, 0, mViewProjectionMatrix, 0);
+        return mZoomedViewProjectionMatrix;
+    }
+
+    /**
+     * Sets the layers of pageIndex. Text pages drawn from glyphs get only
+     * paper and their glyph mesh is returned for drawing after the page;
+     * other pages return null.
+     */
+    private GlyphMesh bindPage(Page page, int pageIndex) {
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        page.setOverlayTexture(mOverlayTextures.getTexture(pageIndex, mClearTexture, mOverlayRect), mOverlayRect);
+        if (mRenderQuality.useGlyphPages() && pageProvider instanceof GlyphPageProvider) {
+            GlyphMesh mesh = mGlyphPageRenderer.getMesh(pageIndex, (GlyphPageProvider) pageProvider, mWidth, mHeight);
+            if (mesh != null || !mGlyphPageRenderer.isOverflowed(pageIndex)) {
+                // 排版完成前只显示纸张
+                bindPaper(page, pageProvider, mesh != null ? mesh.getBackgroundColor()
+                        : pageProvider instanceof LayeredPageProvider
+                        ? ((LayeredPageProvider) pageProvider).getPaperColor() : COLOR_WHITE);
+                page.setContent(mClearTexture, false, 0);
+                return mesh;
+            }
+            // 本帧的字形超出图集容量，这一页改用位图绘制
+        }
+        if (pageProvider instanceof LayeredPageProvider) {
+            LayeredPageProvider layeredProvider = (LayeredPageProvider) pageProvider;
+            bindPaper(page, pageProvider, layeredProvider.getPaperColor());
+            page.setContent(getContentTextureId(layeredProvider, pageIndex),
+                    layeredProvider.isAlphaOnlyContent(), layeredProvider.getInkColor());
+            return null;
+        }
+        page.setPaper(mWhiteTexture, 1.0f, 1.0f, COLOR_WHITE);
+        page.setTexture(getPageTextureId(pageIndex));
+        return null;
+    }
+
+    private void bindPaper(Page page, FlipOver.PageProvider pageProvider, int color) {
+        Bitmap tile = pageProvider instanceof LayeredPageProvider
+                ? ((LayeredPageProvider) pageProvider).getPaperBitmap() : null;
+        if (tile != mPaperBitmap) {
+            // 纸张只在更换时上传一次
+            if (mPaperTexture != 0) {
+                glDeleteTextures(1, new int[]{mPaperTexture}, 0);
+            }
+            mPaperTexture = TextureHelper.createTileTexture(tile);
+            mPaperBitmap = tile;
+        }
+        if (mPaperTexture != 0) {
+            page.setPaper(mPaperTexture, (float) mWidth / tile.getWidth(), (float) mHeight / tile.getHeight(), color);
+        } else {
+            page.setPaper(mWhiteTexture, 1.0f, 1.0f, color);
+        }
+    }
+
+    private int getContentTextureId(LayeredPageProvider pageProvider, int pageIndex) {
+        int textureId = mTextureManager.getTexture(pageIndex);
+        if (textureId == 0) {
+            if (pageProvider instanceof ProgressivePageProvider) {
+                textureId = getProgressiveTextureId((ProgressivePageProvider) pageProvider, pageIndex, true);
+            } else {
+                textureId = mTextureManager.updateTexture(pageIndex, pageProvider.getContentBitmap(pageIndex, mWidth, mHeight));
+            }
+        }
+        // 没有内容时只显示纸张
+        return textureId != 0 ? textureId : mClearTexture;
     }
 
     private int getPageTextureId(int pageIndex) {
-        int textureId = TextureManager.getInstance().getTexture(pageIndex);
+        int textureId = mTextureManager.getTexture(pageIndex);
+        if (textureId != 0) {
+            return textureId;
+        }
+        ETC1Util.ETC1Texture compressed = getCompressedPage(pageIndex);
+        if (compressed != null) {
+            textureId = mTextureManager.updateTexture(pageIndex, compressed);
+            if (textureId != 0) {
+                deletePlaceholder(pageIndex);
+                return textureId;
+            }
+        }
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        if (pageProvider instanceof ProgressivePageProvider) {
+            textureId = getProgressiveTextureId((ProgressivePageProvider) pageProvider, pageIndex, false);
+            return textureId != 0 ? textureId : mWhiteTexture;
+        }
+        Bitmap bitmap = pageProvider.updatePage(pageIndex, mWidth, mHeight).getCurrentPageBitmap();
+        textureId = mTextureManager.updateTexture(pageIndex, bitmap);
+        if (textureId != 0) {
+            compressPage(pageIndex, bitmap);
+        }
+        return textureId;
+    }
+
+    public void setCompressedTextureCache(CompressedTextureCache compressedTextures) {
+        mCompressedTextures = compressedTextures;
+    }
+
+    // 只压缩图片页面，文字边缘在ETC1下会模糊
+    private CompressedTextureCache getCompressedTextures() {
+        CompressedTextureCache compressedTextures = mCompressedTextures;
+        return mEtc1Supported && mPageProvider instanceof TiledPageProvider ? compressedTextures : null;
+    }
+
+    private ETC1Util.ETC1Texture getCompressedPage(int pageIndex) {
+        CompressedTextureCache compressedTextures = getCompressedTextures();
+        return compressedTextures != null ? compressedTextures.get(mBookId + "|" + pageIndex) : null;
+    }
+
+    private void compressPage(int pageIndex, Bitmap bitmap) {
+        CompressedTextureCache compressedTextures = getCompressedTextures();
+        if (compressedTextures != null && bitmap != null && !bitmap.isRecycled()) {
+            compressedTextures.encode(mBookId + "|" + pageIndex, bitmap);
+        }
+    }
+
+    // 把当前页附近已压缩过的页面提前读入内存
+    private void preloadCompressedPages(int currentPageIndex) {
+        CompressedTextureCache compressedTextures = getCompressedTextures();
+        if (compressedTextures != null) {
+            for (int i = currentPageIndex - 1; i <= currentPageIndex + 2; i++) {
+                compressedTextures.preload(mBookId + "|" + i);
+            }
+        }
+    }
+
+    /**
+     * Uploads pageIndex if the provider already has it; otherwise asks the
+     * prefetcher for it and returns its placeholder texture, or 0 if there
+     * is none yet. Only waits for a page to render when the provider cannot
+     * make placeholders of it.
+     */
+    private int getProgressiveTextureId(ProgressivePageProvider pageProvider, int pageIndex, boolean content) {
+        if (!mPlaceholderBookId.equals(mBookId)) {
+            deletePlaceholders(-1);
+            mPlaceholderBookId = mBookId;
+        }
+        Bitmap bitmap = pageProvider.getReadyPage(pageIndex, mWidth, mHeight, content);
+        if (bitmap != null) {
+            int textureId = mTextureManager.updateTexture(pageIndex, bitmap);
+            if (textureId != 0) {
+                if (!content) {
+                    compressPage(pageIndex, bitmap);
+                }
+                deletePlaceholder(pageIndex);
+                return textureId;
+            }
+        }
+        int textureId = mPlaceholderTextures.get(pageIndex);
         if (textureId == 0) {
-            textureId = TextureManager.getInstance()
-                    .updateTexture(pageIndex, mPageProvider.updatePage(pageIndex, mWidth, mHeight).getCurrentPageBitmap());
+            Bitmap placeholder = pageProvider.getPlaceholder(pageIndex, mWidth, mHeight, content);
+            if (placeholder != null) {
+                deletePlaceholders(1);
+                textureId = TextureHelper.createPlaceholderTexture(placeholder);
+                if (textureId != 0) {
+                    mPlaceholderTextures.put(pageIndex, textureId);
+                }
+            }
+        }
+        if (textureId == 0 && !pageProvider.canPreparePlaceholder(content)) {
+            // 等不到占位图，同步渲染而不是显示空白页
+            bitmap = content
+                    ? ((LayeredPageProvider) pageProvider).getContentBitmap(pageIndex, mWidth, mHeight)
+                    : pageProvider.updatePage(pageIndex, mWidth, mHeight).getCurrentPageBitmap();
+            textureId = mTextureManager.updateTexture(pageIndex, bitmap);
+            if (textureId != 0 && !content) {
+                compressPage(pageIndex, bitmap);
+            }
+            return textureId;
         }
+        mPagePrefetcher.requestPage(pageIndex);
         return textureId;
     }
 
+    private void deletePlaceholder(int pageIndex) {
+        int textureId = mPlaceholderTextures.get(pageIndex);
+        if (textureId != 0) {
+            glDeleteTextures(1, new int[]{textureId}, 0);
+            mPlaceholderTextures.delete(pageIndex);
+        }
+    }
+
+    // 删除离当前页超过radius的缩略图纹理，radius为负时全部删除
+    private void deletePlaceholders(int radius) {
+        for (int i = mPlaceholderTextures.size() - 1; i >= 0; i--) {
+            if (radius < 0 || Math.abs(mPlaceholderTextures.keyAt(i) - mCurrentPageIndex) > radius) {
+                glDeleteTextures(1, new int[]{mPlaceholderTextures.valueAt(i)}, 0);
+                mPlaceholderTextures.removeAt(i);
+            }
+        }
+    }
+
     public void setPageProvider(FlipOver.PageProvider pageProvider) {
         mPageProvider = pageProvider;
-        TextureManager.getInstance().create(mPageProvider.getPageCount());
+        if (pageProvider != null) {
+            updateBookId();
+            mTextureManager.markActive();
+        }
+        updatePrefetcher();
+    }
+
+    // 由字形绘制的页面不需要预先生成位图
+    private void updatePrefetcher() {
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        boolean glyphPages = mRenderQuality != null && mRenderQuality.useGlyphPages()
+                && pageProvider instanceof GlyphPageProvider;
+        mPagePrefetcher.setPageProvider(glyphPages ? null : pageProvider);
+        mPagePrefetcher.setPageSize(mWidth, mHeight, pageProvider instanceof LayeredPageProvider);
+        mPagePrefetcher.onPageChanged(mCurrentPageIndex);
+    }
+
+    // 页面内容可能已改变，book id不同时旧纹理不会再被使用
+    public void onDataSetChanged() {
+        publishPages();
+        updateBookId();
+    }
+
+    // 需在GL线程调用，当前页与翻页中的页面一起移动
+    public void publishPages() {
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        if (!(pageProvider instanceof RenumberingPageProvider)) {
+            return;
+        }
+        int shift = ((RenumberingPageProvider) pageProvider).publishPages(mCurrentPageIndex);
+        if (shift != 0) {
+            // 批注与其覆盖层随页面移动
+            mAnnotationLayer.shift(shift);
+            mOverlayTextures.shift(shift);
+            updateBookId();
+            setCurrentPageIndex(Math.max(0, mCurrentPageIndex + shift));
+        }
+    }
+
+    private void updateBookId() {
+        FlipOver.PageProvider pageProvider = mPageProvider;
+        if (pageProvider != null) {
+            mBookId = pageProvider.getBookId() + "@" + mWidth + "x" + mHeight;
+            mTextureManager.setBookId(mBookId);
+            mTileRenderer.setBookId(mBookId);
+            mOverviewRenderer.setBookId(mBookId);
+            if (mGlyphPageRenderer != null) {
+                mGlyphPageRenderer.setBookId(mBookId);
+            }
+        }
+    }
+
+    public void markActive() {
+        mTextureManager.markActive();
+    }
+
+    // GL线程退出后调用，EGL context已随之销毁，纹理已由驱动回收
+    public void release() {
+        if (mGlyphPageRenderer != null) {
+            mGlyphPageRenderer.release();
+        }
+        mTextureManager.release();
+        mOverlayTextures.release();
+        mTileRenderer.release();
+        mOverviewRenderer.release();
+    }
+
+    // 需在GL线程调用
+    public void setRenderQuality(RenderQuality renderQuality) {
+        mRenderQuality = renderQuality;
+        mRenderScaleController = new RenderScaleController(renderQuality.getMinRenderScale());
+        if (mWidth > 0 && mHeight > 0) {
+            mFoldPage = new FoldPage(mWidth, mHeight, renderQuality.getMeshStep());
+            mFoldPage.setReadingTheme(mReadingTheme);
+        }
+        updatePrefetcher();
+    }
+
+    // 需在GL线程调用，只改变着色器参数，已有纹理继续有效
+    public void setReadingTheme(ReadingTheme readingTheme) {
+        mReadingTheme = readingTheme;
+        if (mFlatPage != null) {
+            mFlatPage.setReadingTheme(readingTheme);
+        }
+        if (mFoldPage != null) {
+            mFoldPage.setReadingTheme(readingTheme);
+        }
+    }
+
+    /**
+     * Zooms the current page; (left, top) is the page point shown at the top
+     * left corner of the view. A zoom of 1 shows the whole page. Must be
+     * called on the GL thread.
+     */
+    public void setZoom(float zoom, float left, float top) {
+        mZoom = zoom;
+        mZoomLeft = left;
+        mZoomTop = top;
+    }
+
+    /**
+     * Shows pages as a grid of columns thumbnails scrolled up by scrollY
+     * pixels instead of the current page; 0 columns goes back to the page.
+     * Must be called on the GL thread.
+     */
+    public void setOverview(int columns, float scrollY) {
+        if (columns == 0 && mOverviewColumns > 0) {
+            mOverviewRenderer.cancel();
+        }
+        mOverviewColumns = columns;
+        mOverviewScrollY = scrollY;
+    }
+
+    // 需在GL线程调用，批注已在AnnotationLayer中改变
+    public void onAnnotationChanged(int pageIndex, Annotation annotation) {
+        mOverlayTextures.invalidate(pageIndex, annotation);
+    }
+
+    // 需在GL线程调用
+    public void onAnnotationsCleared() {
+        mOverlayTextures.destroy();
     }
 
     public void setCurrentPageIndex(int currentPageIndex) {
         mCurrentPageIndex = currentPageIndex;
+        mTextureManager.retainAround(currentPageIndex);
+        mOverlayTextures.retainAround(currentPageIndex);
+        mPagePrefetcher.onPageChanged(currentPageIndex);
+        preloadCompressedPages(currentPageIndex);
     }
 
     public int getCurrentPageIndex() {
@@ -249,7 +791,7 @@ final class FlipOverRenderer implements GLSurfaceView.Renderer {
     }
 
     public void startFlipToSide(Side side, float anchorY) {
-        if (mFlipState != STATE_FLIP_NONE) {
+        if (mFlipState != STATE_FLIP_NONE || mPageProvider == null) {
             return;
         }
         mAnchorY = anchorY;
@@ -0,0 +1,82 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl;
+
+public class RenderQuality {
+    public static final int SHADOW_NONE = 0;
+    // 只绘制翻起部分投在下一页上的阴影
+    public static final int SHADOW_CAST = 1;
+    public static final int SHADOW_ALL = 2;
+
+    // 折叠网格的边长(像素)，越小越平滑
+    protected int mMeshStep = 5;
+    protected int mShadowPasses = SHADOW_ALL;
+    protected float mMinRenderScale = 0.5f;
+    // 文字页面用距离场字形绘制，不上传整页位图
+    protected boolean mGlyphPages = true;
+
+    protected RenderQuality() {
+    }
+
+    public static class Builder {
+        private RenderQuality mQuality;
+
+        public Builder() {
+            mQuality = new RenderQuality();
+        }
+
+        public Builder meshStep(int meshStep) {
+            mQuality.mMeshStep = meshStep;
+            return this;
+        }
+
+        public Builder shadowPasses(int shadowPasses) {
+            mQuality.mShadowPasses = shadowPasses;
+            return this;
+        }
+
+        public Builder minRenderScale(float minRenderScale) {
+            mQuality.mMinRenderScale = minRenderScale;
+            return this;
+        }
+
+        public Builder glyphPages(boolean glyphPages) {
+            mQuality.mGlyphPages = glyphPages;
+            return this;
+        }
+
+        public RenderQuality create() {
+            return mQuality;
+        }
+    }
+
+    public int getMeshStep() {
+        return mMeshStep;
+    }
+
+    public int getShadowPasses() {
+        return mShadowPasses;
+    }
+
+    public float getMinRenderScale() {
+        return mMinRenderScale;
+    }
+
+    public boolean useGlyphPages() {
+        return mGlyphPages;
+    }
+}
@@ -23,13 +23,24 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
 
+import com.ihuntto.bookreader.flip.Annotation;
+import com.ihuntto.bookreader.flip.AnnotationLayer;
 import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.ui.gl.overview.OverviewLayout;
+import com.ihuntto.bookreader.ui.gl.util.CompressedTextureCache;
 
 public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
     private static final long MIN_CLICK_INTERVAL_MILLIS = 200;
+    private static final float MAX_ZOOM = 8.0f;
+    // 缩放接近原大小时回到翻页模式
+    private static final float MIN_ZOOM = 1.05f;
+    private static final int MIN_OVERVIEW_COLUMNS = 3;
+    private static final int MAX_OVERVIEW_COLUMNS = 10;
     private long mClickDownTime;
 
     private OnPageFlipListener mOnPageFlipListener;
@@ -39,12 +50,29 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
     private int mActivePointerId = -1;
     private float mDownMotionX;
     private float mDownMotionY;
+    // 本次手势已请求过在第0页之前编号
+    private boolean mPublishRequested;
 
     private VelocityTracker mVelocityTracker;
     private int mMaximumVelocity;
     private int mMinimumVelocity;
 
     private FlipOverRenderer mFlipOverRenderer;
+    private final AnnotationLayer mAnnotationLayer = new AnnotationLayer();
+
+    private ScaleGestureDetector mScaleGestureDetector;
+    // 缩放倍数及可见区域左上角的页面坐标
+    private float mZoom = 1.0f;
+    private float mZoomLeft;
+    private float mZoomTop;
+    private float mLastFocusX;
+    private float mLastFocusY;
+    // 捏合缩小时连续变化的列数，1为单页
+    private float mGridColumns = 1.0f;
+    // 概览的列数，为0时不显示概览
+    private int mOverviewColumns;
+    private float mOverviewScrollY;
+    private boolean mOverviewDragging;
 
     public SimpleGLFlipOver(@NonNull Context context) {
         super(context);
@@ -58,7 +86,9 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
 
     private void init(Context context) {
         setEGLContextClientVersion(2);
-        mFlipOverRenderer = new FlipOverRenderer(this);
+        // 尽量保留context，恢复时无需重新上传纹理
+        setPreserveEGLContextOnPause(true);
+        mFlipOverRenderer = new FlipOverRenderer(this, mAnnotationLayer);
         setRenderer(mFlipOverRenderer);
         setRenderMode(RENDERMODE_WHEN_DIRTY);
 
@@ -67,13 +97,124 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
         mMinimumVelocity = (int) (400.0F * density);
         mMaximumVelocity = configuration.getScaledMaximumFlingVelocity();
         mTouchSlop = configuration.getScaledPagingTouchSlop();
+        mScaleGestureDetector = new ScaleGestureDetector(context, mOnScaleGestureListener);
     }
 
     @Override
-    public void setPageProvider(PageProvider pageProvider) {
+    public void setPageProvider(final PageProvider pageProvider) {
         mPageProvider = pageProvider;
-        mFlipOverRenderer.setPageProvider(pageProvider);
-        mFlipOverRenderer.setCurrentPageIndex(0);
+        mAnnotationLayer.clear();
+        setZoom(1.0f, 0, 0);
+        closeOverview();
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.onAnnotationsCleared();
+                mFlipOverRenderer.setPageProvider(pageProvider);
+                mFlipOverRenderer.setCurrentPageIndex(0);
+            }
+        });
+        requestRender();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // 等待GL线程退出后再释放纹理记录
+        super.onDetachedFromWindow();
+        mFlipOverRenderer.release();
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.onDataSetChanged();
+            }
+        });
+        requestRender();
+    }
+
+    @Override
+    public int getCurrentPageIndex() {
+        return mFlipOverRenderer.getCurrentPageIndex();
+    }
+
+    @Override
+    public void setCurrentPageIndex(final int index) {
+        setZoom(1.0f, 0, 0);
+        closeOverview();
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.setCurrentPageIndex(Math.max(0, index));
+            }
+        });
+        requestRender();
+    }
+
+    @Override
+    public void setReadingTheme(final ReadingTheme readingTheme) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.setReadingTheme(
+                        readingTheme != null ? readingTheme : ReadingTheme.DEFAULT);
+            }
+        });
+        requestRender();
+    }
+
+    @Override
+    public void addAnnotation(int pageIndex, Annotation annotation) {
+        mAnnotationLayer.add(pageIndex, annotation);
+        postAnnotationChanged(pageIndex, annotation);
+    }
+
+    @Override
+    public void removeAnnotation(int pageIndex, Annotation annotation) {
+        if (mAnnotationLayer.remove(pageIndex, annotation)) {
+            postAnnotationChanged(pageIndex, annotation);
+        }
+    }
+
+    private void postAnnotationChanged(final int pageIndex, final Annotation annotation) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.onAnnotationChanged(pageIndex, annotation);
+            }
+        });
+        requestRender();
+    }
+
+    @Override
+    public void clearAnnotations() {
+        mAnnotationLayer.clear();
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.onAnnotationsCleared();
+            }
+        });
+        requestRender();
+    }
+
+    /**
+     * Cache for compressing image pages to ETC1; null uploads pages as they
+     * are.
+     */
+    public void setCompressedTextureCache(CompressedTextureCache compressedTextures) {
+        mFlipOverRenderer.setCompressedTextureCache(compressedTextures);
+    }
+
+    public void setRenderQuality(final RenderQuality renderQuality) {
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.setRenderQuality(renderQuality);
+            }
+        });
         requestRender();
     }
 
@@ -89,6 +230,14 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
             mVelocityTracker = VelocityTracker.obtain();
         }
         mVelocityTracker.addMovement(event);
+        mFlipOverRenderer.markActive();
+        mScaleGestureDetector.onTouchEvent(event);
+        if (mOverviewColumns > 0 && !mScaleGestureDetector.isInProgress()) {
+            return onOverviewTouchEvent(event);
+        }
+        if (mZoom > 1.0f || mScaleGestureDetector.isInProgress()) {
+            return onZoomTouchEvent(event);
+        }
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_DOWN:
                 return onTouchDown(event);
@@ -108,6 +257,206 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
     }
 
 
+    private final ScaleGestureDetector.OnScaleGestureListener mOnScaleGestureListener
+            = new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+        @Override
+        public boolean onScaleBegin(ScaleGestureDetector detector) {
+            if (mFlipOverRenderer.isFlipping() || mPageProvider == null) {
+                return false;
+            }
+            // 手势结束前不再翻页
+            mActivePointerId = -1;
+            return true;
+        }
+
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            // 未放大时捏合缩小进入概览
+            if (mZoom <= 1.0f && (mGridColumns > 1.0f || detector.getScaleFactor() < 1.0f)) {
+                scaleOverview(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+            float zoom = Math.max(1.0f, Math.min(MAX_ZOOM, mZoom * detector.getScaleFactor()));
+            // 保持焦点下的页面位置不动
+            float focusX = detector.getFocusX();
+            float focusY = detector.getFocusY();
+            float pageX = mZoomLeft + focusX / mZoom;
+            float pageY = mZoomTop + focusY / mZoom;
+            setZoom(zoom, pageX - focusX / zoom, pageY - focusY / zoom);
+            return true;
+        }
+
+        @Override
+        public void onScaleEnd(ScaleGestureDetector detector) {
+            mGridColumns = mOverviewColumns > 0 ? mOverviewColumns : 1.0f;
+        }
+    };
+
+    private OverviewLayout createOverviewLayout(int columns) {
+        return new OverviewLayout(getWidth(), getHeight(), columns, mPageProvider.getPageCount());
+    }
+
+    private void scaleOverview(float scaleFactor, float focusX, float focusY) {
+        mGridColumns = Math.max(1.0f, Math.min(MAX_OVERVIEW_COLUMNS, mGridColumns / scaleFactor));
+        int columns = mGridColumns < 1.5f ? 0 : Math.max(MIN_OVERVIEW_COLUMNS, Math.round(mGridColumns));
+        if (columns == mOverviewColumns) {
+            return;
+        }
+        // 焦点下的页面保持在焦点所在的行
+        int anchorPage = -1;
+        if (mOverviewColumns > 0) {
+            anchorPage = createOverviewLayout(mOverviewColumns).getPageAt(focusX, focusY, mOverviewScrollY);
+        }
+        if (anchorPage < 0) {
+            anchorPage = mFlipOverRenderer.getCurrentPageIndex();
+        }
+        if (columns == 0) {
+            // 回到焦点下的页面
+            setCurrentPageIndex(anchorPage);
+            return;
+        }
+        setOverview(columns, createOverviewLayout(columns).getScrollYForPage(anchorPage, focusY));
+    }
+
+    private void setOverview(final int columns, float scrollY) {
+        final float clampedScrollY = columns > 0 ? createOverviewLayout(columns).clampScrollY(scrollY) : 0;
+        if (columns == mOverviewColumns && clampedScrollY == mOverviewScrollY) {
+            return;
+        }
+        mOverviewColumns = columns;
+        mOverviewScrollY = clampedScrollY;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.setOverview(columns, clampedScrollY);
+            }
+        });
+        requestRender();
+    }
+
+    private void closeOverview() {
+        mGridColumns = 1.0f;
+        setOverview(0, 0);
+    }
+
+    // 概览中上下拖动滚动，点击打开该页
+    private boolean onOverviewTouchEvent(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                mActivePointerId = event.getPointerId(0);
+                mClickDownTime = System.currentTimeMillis();
+                mDownMotionX = event.getX();
+                mDownMotionY = event.getY();
+                mLastFocusY = mDownMotionY;
+                mOverviewDragging = false;
+                break;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                mOverviewDragging = true;
+                break;
+            case MotionEvent.ACTION_POINTER_UP: {
+                int pointerIndex = event.getActionIndex();
+                if (event.getPointerId(pointerIndex) == mActivePointerId) {
+                    int newPointerIndex = pointerIndex == 0 ? 1 : 0;
+                    mActivePointerId = event.getPointerId(newPointerIndex);
+                    mLastFocusY = event.getY(newPointerIndex);
+                }
+                break;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                int pointerIndex = event.findPointerIndex(mActivePointerId);
+                if (pointerIndex < 0) {
+                    break;
+                }
+                float y = event.getY(pointerIndex);
+                if (!mOverviewDragging && Math.abs(y - mDownMotionY) > mTouchSlop) {
+                    mOverviewDragging = true;
+                }
+                if (mOverviewDragging) {
+                    setOverview(mOverviewColumns, mOverviewScrollY + mLastFocusY - y);
+                }
+                mLastFocusY = y;
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+                if (!mOverviewDragging
+                        && System.currentTimeMillis() - mClickDownTime < MIN_CLICK_INTERVAL_MILLIS) {
+                    int page = createOverviewLayout(mOverviewColumns)
+                            .getPageAt(event.getX(), event.getY(), mOverviewScrollY);
+                    if (page >= 0) {
+                        setCurrentPageIndex(page);
+                        if (mOnPageFlipListener != null) {
+                            mOnPageFlipListener.onPageJump(page);
+                        }
+                    }
+                }
+                mActivePointerId = -1;
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                mActivePointerId = -1;
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private boolean onZoomTouchEvent(MotionEvent event) {
+        int action = event.getActionMasked();
+        // 多指时以各手指的中心平移
+        int skipIndex = action == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1;
+        float sumX = 0;
+        float sumY = 0;
+        int count = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != skipIndex) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                count++;
+            }
+        }
+        float focusX = count > 0 ? sumX / count : mLastFocusX;
+        float focusY = count > 0 ? sumY / count : mLastFocusY;
+        switch (action) {
+            case MotionEvent.ACTION_MOVE:
+                if (!mScaleGestureDetector.isInProgress()) {
+                    setZoom(mZoom, mZoomLeft - (focusX - mLastFocusX) / mZoom,
+                            mZoomTop - (focusY - mLastFocusY) / mZoom);
+                }
+                break;
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                mActivePointerId = -1;
+                if (mZoom < MIN_ZOOM) {
+                    setZoom(1.0f, 0, 0);
+                }
+                break;
+            default:
+                break;
+        }
+        mLastFocusX = focusX;
+        mLastFocusY = focusY;
+        return true;
+    }
+
+    private void setZoom(float zoom, float left, float top) {
+        final float clampedZoom = Math.max(1.0f, Math.min(MAX_ZOOM, zoom));
+        final float clampedLeft = Math.max(0, Math.min(getWidth() - getWidth() / clampedZoom, left));
+        final float clampedTop = Math.max(0, Math.min(getHeight() - getHeight() / clampedZoom, top));
+        if (clampedZoom == mZoom && clampedLeft == mZoomLeft && clampedTop == mZoomTop) {
+            return;
+        }
+        mZoom = clampedZoom;
+        mZoomLeft = clampedLeft;
+        mZoomTop = clampedTop;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.setZoom(clampedZoom, clampedLeft, clampedTop);
+            }
+        });
+        requestRender();
+    }
+
     private boolean onTouchDown(MotionEvent event) {
         if (mFlipOverRenderer.isFlipping()) {
             return false;
@@ -116,6 +465,7 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
         mClickDownTime = System.currentTimeMillis();
         mDownMotionX = event.getX();
         mDownMotionY = event.getY();
+        mPublishRequested = false;
         mVelocityTracker.clear();
         mVelocityTracker.addMovement(event);
         return true;
@@ -144,6 +494,10 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
             float yDiff = Math.abs(y - mDownMotionY);
             if (xDiff > (float) mTouchSlop && xDiff > yDiff) {
                 if (x > mDownMotionX) {
+                    if (mFlipOverRenderer.getCurrentPageIndex() == 0) {
+                        // 编号后的下一次移动再开始翻页
+                        requestPublishPages();
+                    }
                     mFlipOverRenderer.startFlipToSide(FlipOverRenderer.Side.RIGHT, mDownMotionY);
                 } else if (x < mDownMotionX) {
                     mFlipOverRenderer.startFlipToSide(FlipOverRenderer.Side.LEFT, mDownMotionY);
@@ -219,8 +573,21 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
     }
 
     private void performClickLeftArea() {
-        mFlipOverRenderer.startFlipToSide(FlipOverRenderer.Side.RIGHT, mDownMotionY);
-        mFlipOverRenderer.endFlipToSide(FlipOverRenderer.Side.RIGHT);
+        if (mFlipOverRenderer.getCurrentPageIndex() == 0) {
+            // 前面的页可能已排版但还未编号，在GL线程编号后再翻页
+            final float anchorY = mDownMotionY;
+            queueEvent(new Runnable() {
+                @Override
+                public void run() {
+                    mFlipOverRenderer.publishPages();
+                    mFlipOverRenderer.startFlipToSide(FlipOverRenderer.Side.RIGHT, anchorY);
+                    mFlipOverRenderer.endFlipToSide(FlipOverRenderer.Side.RIGHT);
+                }
+            });
+        } else {
+            mFlipOverRenderer.startFlipToSide(FlipOverRenderer.Side.RIGHT, mDownMotionY);
+            mFlipOverRenderer.endFlipToSide(FlipOverRenderer.Side.RIGHT);
+        }
         requestRender();
 
         if (mOnPageFlipListener != null) {
@@ -228,6 +595,20 @@ public class SimpleGLFlipOver extends GLSurfaceView implements FlipOver {
         }
     }
 
+    private void requestPublishPages() {
+        if (mPublishRequested) {
+            return;
+        }
+        mPublishRequested = true;
+        queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                mFlipOverRenderer.publishPages();
+            }
+        });
+        requestRender();
+    }
+
     private void performClickRightArea() {
         // flip to left
         mFlipOverRenderer.startFlipToSide(FlipOverRenderer.Side.LEFT, mDownMotionY);
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.overview;
+
+import android.graphics.RectF;
+
+/**
+ * Grid of page cells for the overview, in view pixels with the grid scrolled
+ * up by scrollY. Cells keep the aspect of the view, which is the aspect of
+ * the pages.
+ */
+public final class OverviewLayout {
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final int mPageCount;
+    private final float mGap;
+    private final float mCellWidth;
+    private final float mCellHeight;
+
+    public OverviewLayout(int width, int height, int columns, int pageCount) {
+        mWidth = width;
+        mHeight = height;
+        mColumns = Math.max(1, columns);
+        mPageCount = Math.max(0, pageCount);
+        mGap = width / (mColumns * 12.0f);
+        mCellWidth = Math.max(1.0f, (width - mGap * (mColumns + 1)) / mColumns);
+        mCellHeight = width > 0 ? mCellWidth * height / width : 0;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public float getMaxScrollY() {
+        int rows = (mPageCount + mColumns - 1) / mColumns;
+        return Math.max(0, mGap + rows * (mCellHeight + mGap) - mHeight);
+    }
+
+    public float clampScrollY(float scrollY) {
+        return Math.max(0, Math.min(getMaxScrollY(), scrollY));
+    }
+
+    public int getFirstVisiblePage(float scrollY) {
+        int row = (int) Math.max(0, (scrollY - mGap) / (mCellHeight + mGap));
+        return Math.min(mPageCount, row * mColumns);
+    }
+
+    // 不含该页
+    public int getLastVisiblePage(float scrollY) {
+        int row = (int) Math.max(0, (scrollY + mHeight - mGap) / (mCellHeight + mGap));
+        return Math.min(mPageCount, (row + 1) * mColumns);
+    }
+
+    public void getCellRect(int index, float scrollY, RectF out) {
+        float left = mGap + (index % mColumns) * (mCellWidth + mGap);
+        float top = mGap + (index / mColumns) * (mCellHeight + mGap) - scrollY;
+        out.set(left, top, left + mCellWidth, top + mCellHeight);
+    }
+
+    /**
+     * The page under (x, y), or -1 if it falls between cells or past the
+     * last page.
+     */
+    public int getPageAt(float x, float y, float scrollY) {
+        float contentY = y + scrollY - mGap;
+        float contentX = x - mGap;
+        if (contentX < 0 || contentY < 0) {
+            return -1;
+        }
+        int column = (int) (contentX / (mCellWidth + mGap));
+        int row = (int) (contentY / (mCellHeight + mGap));
+        if (column >= mColumns
+                || contentX - column * (mCellWidth + mGap) > mCellWidth
+                || contentY - row * (mCellHeight + mGap) > mCellHeight) {
+            return -1;
+        }
+        int index = row * mColumns + column;
+        return index < mPageCount ? index : -1;
+    }
+
+    /**
+     * The scrollY that puts the row of page index at y on screen.
+     */
+    public float getScrollYForPage(int index, float y) {
+        int row = Math.max(0, index) / mColumns;
+        return clampScrollY(mGap + row * (mCellHeight + mGap) + mCellHeight / 2.0f - y);
+    }
+}
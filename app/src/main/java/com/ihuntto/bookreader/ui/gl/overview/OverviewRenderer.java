@@ -0,0 +1,270 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.overview;
+
+import android.content.Context;
+import android.graphics.RectF;
+import android.util.SparseBooleanArray;
+
+import com.ihuntto.bookreader.flip.FlipOver;
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.ui.gl.program.ShaderProgram;
+import com.ihuntto.bookreader.ui.gl.util.TextureBudget;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static android.opengl.GLES20.GL_DEPTH_TEST;
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static android.opengl.GLES20.glActiveTexture;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDisable;
+import static android.opengl.GLES20.glDrawArrays;
+import static android.opengl.GLES20.glEnable;
+import static android.opengl.Matrix.orthoM;
+
+/**
+ * Draws pages as a grid of thumbnails for the page overview. Thumbnails are
+ * packed into a few atlas textures and all cells sharing a texture go into
+ * one vertex buffer, each vertex carrying its own atlas coordinates, so the
+ * grid costs one draw call per atlas plus one for pages still loading.
+ */
+public class OverviewRenderer {
+    // 缩略图为页面的1/6
+    private static final int THUMBNAIL_SCALE = 6;
+
+    private static final String U_MVP_MATRIX = "uMVPMatrix";
+    private static final String U_TEXTURE_UNIT = "uTextureUnit";
+    private static final String U_COLOR_MATRIX = "uColorMatrix";
+    private static final String U_COLOR_OFFSET = "uColorOffset";
+    private static final String A_POSITION = "aPosition";
+    private static final String A_TEXTURE_COORDINATES = "aTextureCoordinates";
+
+    private static final int COMPONENT_COUNT = 4;
+    private static final int VERTICES_PER_PAGE = 6;
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private static ShaderProgram sProgram;
+
+    public static void initProgram(Context context) {
+        sProgram = new ShaderProgram(context,
+                "overview.vert",
+                "overview.frag");
+        sProgram.compile();
+    }
+
+    public interface OnThumbnailLoadedListener {
+        // 在工作线程回调
+        void onThumbnailLoaded();
+    }
+
+    // 共用一张纹理的格子
+    private static final class Batch {
+        float[] vertices = new float[64 * VERTICES_PER_PAGE * COMPONENT_COUNT];
+        int count;
+
+        void add(RectF position, float u0, float v0, float u1, float v1) {
+            if (count + VERTICES_PER_PAGE * COMPONENT_COUNT > vertices.length) {
+                float[] grown = new float[vertices.length * 2];
+                System.arraycopy(vertices, 0, grown, 0, count);
+                vertices = grown;
+            }
+            put(position.left, position.top, u0, v0);
+            put(position.left, position.bottom, u0, v1);
+            put(position.right, position.top, u1, v0);
+            put(position.right, position.top, u1, v0);
+            put(position.left, position.bottom, u0, v1);
+            put(position.right, position.bottom, u1, v1);
+        }
+
+        private void put(float x, float y, float u, float v) {
+            vertices[count++] = x;
+            vertices[count++] = y;
+            vertices[count++] = u;
+            vertices[count++] = v;
+        }
+    }
+
+    private final PageAtlas mAtlas = new PageAtlas(TextureBudget.getInstance());
+    private final ThumbnailLoader mThumbnailLoader;
+    // 每张图集一批，最后一批是还没有缩略图的页面
+    private final Batch[] mBatches = new Batch[mAtlas.getTextureCount() + 1];
+    private FloatBuffer mVertexData;
+    private final float[] mProjectionMatrix = new float[16];
+    private final RectF mCellRect = new RectF();
+    private final RectF mTextureRect = new RectF();
+    private final List<Integer> mMissingPages = new ArrayList<>();
+    // 暂时无法绘制的页面，换书或内容变化后再试
+    private final SparseBooleanArray mFailedPages = new SparseBooleanArray();
+    private String mBookId = "";
+
+    public OverviewRenderer(OnThumbnailLoadedListener onThumbnailLoadedListener) {
+        mThumbnailLoader = new ThumbnailLoader(onThumbnailLoadedListener);
+        for (int i = 0; i < mBatches.length; i++) {
+            mBatches[i] = new Batch();
+        }
+    }
+
+    public void setBookId(String bookId) {
+        if (!mBookId.equals(bookId)) {
+            mBookId = bookId;
+            mAtlas.clear();
+            mFailedPages.clear();
+        }
+    }
+
+    /**
+     * Draws the pages of layout visible at scrollY over a view of width x
+     * height. Pages without a thumbnail yet are drawn with
+     * placeholderTexture and their thumbnails are requested, nearest to
+     * currentPage first.
+     */
+    public void draw(FlipOver.PageProvider provider, OverviewLayout layout, float scrollY,
+                     int width, int height, int currentPage, int placeholderTexture, ReadingTheme theme) {
+        mAtlas.setThumbnailSize(Math.max(1, width / THUMBNAIL_SCALE), Math.max(1, height / THUMBNAIL_SCALE));
+        int firstVisible = layout.getFirstVisiblePage(scrollY);
+        int lastVisible = layout.getLastVisiblePage(scrollY);
+        uploadLoadedThumbnails(firstVisible, lastVisible);
+
+        for (Batch batch : mBatches) {
+            batch.count = 0;
+        }
+        Batch placeholders = mBatches[mBatches.length - 1];
+        mMissingPages.clear();
+        for (int page = firstVisible; page < lastVisible; page++) {
+            layout.getCellRect(page, scrollY, mCellRect);
+            int cell = mAtlas.getCell(page);
+            if (cell >= 0) {
+                mAtlas.getTextureRect(cell, mTextureRect);
+                mBatches[mAtlas.getTexture(cell)].add(mCellRect,
+                        mTextureRect.left, mTextureRect.top, mTextureRect.right, mTextureRect.bottom);
+            } else {
+                placeholders.add(mCellRect, 0, 0, 1, 1);
+                if (!mFailedPages.get(page)) {
+                    mMissingPages.add(page);
+                }
+            }
+        }
+
+        orthoM(mProjectionMatrix, 0, 0, width, height, 0, -1.0f, 1.0f);
+        sProgram.use();
+        sProgram.setUniformMatrix4fv(U_MVP_MATRIX, mProjectionMatrix);
+        sProgram.setUniformMatrix4fv(U_COLOR_MATRIX, theme.getMatrix());
+        sProgram.setUniform4fv(U_COLOR_OFFSET, theme.getOffset());
+        glActiveTexture(GL_TEXTURE0);
+        sProgram.setUniform1i(U_TEXTURE_UNIT, 0);
+        glDisable(GL_DEPTH_TEST);
+        drawBatch(placeholders, placeholderTexture);
+        for (int i = 0; i < mBatches.length - 1; i++) {
+            drawBatch(mBatches[i], mAtlas.getTextureId(i));
+        }
+        glEnable(GL_DEPTH_TEST);
+
+        requestThumbnails(provider, layout, currentPage, lastVisible);
+    }
+
+    private void drawBatch(Batch batch, int textureId) {
+        if (batch.count == 0 || textureId == 0) {
+            return;
+        }
+        if (mVertexData == null || mVertexData.capacity() < batch.count) {
+            mVertexData = ByteBuffer.allocateDirect(batch.vertices.length * BYTES_PER_FLOAT)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+        mVertexData.position(0);
+        mVertexData.put(batch.vertices, 0, batch.count);
+
+        mVertexData.position(0);
+        sProgram.setVertexAttribPointer(A_POSITION, 2, COMPONENT_COUNT * BYTES_PER_FLOAT, mVertexData);
+        mVertexData.position(2);
+        sProgram.setVertexAttribPointer(A_TEXTURE_COORDINATES, 2, COMPONENT_COUNT * BYTES_PER_FLOAT, mVertexData);
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glDrawArrays(GL_TRIANGLES, 0, batch.count / COMPONENT_COUNT);
+    }
+
+    private void requestThumbnails(FlipOver.PageProvider provider, OverviewLayout layout,
+                                   final int currentPage, int lastVisible) {
+        if (!(provider instanceof ProgressivePageProvider)) {
+            return;
+        }
+        Collections.sort(mMissingPages, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Math.abs(a - currentPage) - Math.abs(b - currentPage);
+            }
+        });
+        // 再预取下面一行，向下滚动时不用等待
+        int pageCount = provider.getPageCount();
+        for (int page = lastVisible; page < lastVisible + layout.getColumns() && page < pageCount; page++) {
+            if (mAtlas.getCell(page) < 0 && !mFailedPages.get(page)) {
+                mMissingPages.add(page);
+            }
+        }
+        mThumbnailLoader.request((ProgressivePageProvider) provider, mBookId,
+                mAtlas.getThumbnailWidth(), mAtlas.getThumbnailHeight(), mMissingPages);
+    }
+
+    private void uploadLoadedThumbnails(int firstVisible, int lastVisible) {
+        List<ThumbnailLoader.Result> results = mThumbnailLoader.drainResults();
+        if (results == null) {
+            return;
+        }
+        for (ThumbnailLoader.Result result : results) {
+            if (!result.bookId.equals(mBookId)) {
+                if (result.bitmap != null) {
+                    result.bitmap.recycle();
+                }
+            } else if (result.bitmap == null) {
+                mFailedPages.put(result.page, true);
+            } else {
+                mAtlas.put(result.page, result.bitmap, firstVisible, lastVisible);
+                result.bitmap.recycle();
+            }
+        }
+    }
+
+    // 离开概览后不再生成缩略图并删除图集纹理，无法绘制的页面下次再试
+    public void cancel() {
+        mThumbnailLoader.cancel();
+        mFailedPages.clear();
+        mAtlas.destroy();
+    }
+
+    // 旧context中的纹理已失效，无需删除
+    public void onContextCreated() {
+        mAtlas.onContextCreated();
+    }
+
+    public void destroy() {
+        mAtlas.destroy();
+    }
+
+    // 停止生成缩略图，GL线程退出后调用
+    public void release() {
+        mThumbnailLoader.shutdown();
+        mAtlas.onContextCreated();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.overview;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import android.util.SparseIntArray;
+
+import com.ihuntto.bookreader.ui.gl.util.TextureBudget;
+import com.ihuntto.bookreader.ui.gl.util.TextureHelper;
+
+import static android.opengl.GLES20.GL_MAX_TEXTURE_SIZE;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glGetIntegerv;
+
+/**
+ * Page thumbnails packed into a few large textures, so that a whole grid of
+ * pages is drawn with one draw call per texture. When every cell is taken
+ * the page farthest from the visible ones gives up its cell. The textures
+ * are counted in the {@link TextureBudget}.
+ */
+final class PageAtlas {
+    private static final int MAX_TEXTURE_SIZE = 2048;
+    private static final int MAX_TEXTURE_COUNT = 3;
+    // 相邻缩略图之间留空，线性过滤时不会混入旁边的页面
+    private static final int PADDING = 2;
+    // RGB_565
+    private static final int BYTES_PER_PIXEL = 2;
+
+    private final int[] mTextureIds = new int[MAX_TEXTURE_COUNT];
+    private int mTextureSize;
+    private int mThumbnailWidth;
+    private int mThumbnailHeight;
+    private int mColumns;
+    private int mCellsPerTexture;
+    // 格子到页码，空格子为-1
+    private int[] mCellPages = new int[0];
+    private final SparseIntArray mPageCells = new SparseIntArray();
+    private final TextureBudget mTextureBudget;
+
+    PageAtlas(TextureBudget textureBudget) {
+        mTextureBudget = textureBudget;
+    }
+
+    /**
+     * Sets the size of the thumbnails; cells of another size are dropped.
+     * Must be called with a current context.
+     */
+    void setThumbnailSize(int width, int height) {
+        if (mTextureSize == 0) {
+            int[] maxSize = new int[1];
+            glGetIntegerv(GL_MAX_TEXTURE_SIZE, maxSize, 0);
+            mTextureSize = Math.min(MAX_TEXTURE_SIZE, maxSize[0]);
+        }
+        width = Math.min(width, mTextureSize - PADDING);
+        height = Math.min(height, mTextureSize - PADDING);
+        if (width == mThumbnailWidth && height == mThumbnailHeight) {
+            return;
+        }
+        mThumbnailWidth = width;
+        mThumbnailHeight = height;
+        mColumns = mTextureSize / (width + PADDING);
+        mCellsPerTexture = mColumns * (mTextureSize / (height + PADDING));
+        mCellPages = new int[mCellsPerTexture * MAX_TEXTURE_COUNT];
+        clear();
+    }
+
+    int getThumbnailWidth() {
+        return mThumbnailWidth;
+    }
+
+    int getThumbnailHeight() {
+        return mThumbnailHeight;
+    }
+
+    int getTextureCount() {
+        return MAX_TEXTURE_COUNT;
+    }
+
+    int getTextureId(int texture) {
+        return mTextureIds[texture];
+    }
+
+    // 该页的格子，没有时为-1
+    int getCell(int page) {
+        return mPageCells.get(page, -1);
+    }
+
+    int getTexture(int cell) {
+        return cell / mCellsPerTexture;
+    }
+
+    /**
+     * Texture coordinates of cell, inset by half a texel so that filtering
+     * stays inside the thumbnail.
+     */
+    void getTextureRect(int cell, RectF out) {
+        int index = cell % mCellsPerTexture;
+        float left = (index % mColumns) * (mThumbnailWidth + PADDING);
+        float top = (index / mColumns) * (mThumbnailHeight + PADDING);
+        out.set((left + 0.5f) / mTextureSize, (top + 0.5f) / mTextureSize,
+                (left + mThumbnailWidth - 0.5f) / mTextureSize,
+                (top + mThumbnailHeight - 0.5f) / mTextureSize);
+    }
+
+    /**
+     * Copies thumbnail of page into a cell, taking it from the page farthest
+     * from [firstVisible, lastVisible) if none is free. Returns false if the
+     * thumbnail could not be placed.
+     */
+    boolean put(int page, Bitmap thumbnail, int firstVisible, int lastVisible) {
+        if (thumbnail.getWidth() != mThumbnailWidth || thumbnail.getHeight() != mThumbnailHeight) {
+            return false;
+        }
+        int cell = getCell(page);
+        if (cell < 0) {
+            cell = takeCell(firstVisible, lastVisible);
+            if (cell < 0) {
+                return false;
+            }
+        }
+        int texture = getTexture(cell);
+        if (mTextureIds[texture] == 0) {
+            mTextureIds[texture] = TextureHelper.createAtlasTexture(mTextureSize, mTextureSize);
+            if (mTextureIds[texture] == 0) {
+                return false;
+            }
+            mTextureBudget.acquire(getTextureBytes());
+        }
+        int index = cell % mCellsPerTexture;
+        glBindTexture(GL_TEXTURE_2D, mTextureIds[texture]);
+        TextureHelper.uploadSubBitmap(thumbnail,
+                (index % mColumns) * (mThumbnailWidth + PADDING),
+                (index / mColumns) * (mThumbnailHeight + PADDING));
+        glBindTexture(GL_TEXTURE_2D, 0);
+        mCellPages[cell] = page;
+        mPageCells.put(page, cell);
+        return true;
+    }
+
+    private int takeCell(int firstVisible, int lastVisible) {
+        int farthestCell = -1;
+        int farthestDistance = 0;
+        for (int cell = 0; cell < mCellPages.length; cell++) {
+            int page = mCellPages[cell];
+            if (page < 0) {
+                return cell;
+            }
+            int distance = page < firstVisible ? firstVisible - page
+                    : page >= lastVisible ? page - lastVisible + 1 : 0;
+            if (distance > farthestDistance) {
+                farthestDistance = distance;
+                farthestCell = cell;
+            }
+        }
+        if (farthestCell >= 0) {
+            mPageCells.delete(mCellPages[farthestCell]);
+            mCellPages[farthestCell] = -1;
+        }
+        return farthestCell;
+    }
+
+    // 书或页面尺寸改变，纹理保留给新的缩略图
+    void clear() {
+        for (int i = 0; i < mCellPages.length; i++) {
+            mCellPages[i] = -1;
+        }
+        mPageCells.clear();
+    }
+
+    private long getTextureBytes() {
+        return (long) mTextureSize * mTextureSize * BYTES_PER_PIXEL;
+    }
+
+    // 旧context中的纹理已失效，无需删除
+    void onContextCreated() {
+        for (int i = 0; i < mTextureIds.length; i++) {
+            if (mTextureIds[i] != 0) {
+                mTextureBudget.release(getTextureBytes());
+                mTextureIds[i] = 0;
+            }
+        }
+        clear();
+    }
+
+    void destroy() {
+        for (int i = 0; i < mTextureIds.length; i++) {
+            if (mTextureIds[i] != 0) {
+                glDeleteTextures(1, new int[]{mTextureIds[i]}, 0);
+                mTextureBudget.release(getTextureBytes());
+                mTextureIds[i] = 0;
+            }
+        }
+        clear();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.overview;
+
+import android.graphics.Bitmap;
+
+import com.ihuntto.bookreader.flip.ProgressivePageProvider;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders page thumbnails for the overview on a worker thread. Every request
+ * replaces the queue, so pages scrolled past before their turn are skipped.
+ */
+final class ThumbnailLoader {
+
+    static final class Result {
+        final String bookId;
+        final int page;
+        // 页面暂时无法绘制时为null
+        final Bitmap bitmap;
+
+        Result(String bookId, int page, Bitmap bitmap) {
+            this.bookId = bookId;
+            this.page = page;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final OverviewRenderer.OnThumbnailLoadedListener mOnThumbnailLoadedListener;
+    private final ArrayDeque<Integer> mQueue = new ArrayDeque<>();
+    private final List<Result> mResults = new ArrayList<>();
+    private ProgressivePageProvider mProvider;
+    private String mBookId;
+    private int mThumbnailWidth;
+    private int mThumbnailHeight;
+    private int mLoadingPage = -1;
+    private ExecutorService mExecutor;
+    private boolean mRunning;
+
+    ThumbnailLoader(OverviewRenderer.OnThumbnailLoadedListener onThumbnailLoadedListener) {
+        mOnThumbnailLoadedListener = onThumbnailLoadedListener;
+    }
+
+    /**
+     * Replaces the pending thumbnails with pages, most wanted first.
+     */
+    synchronized void request(ProgressivePageProvider provider, String bookId,
+                              int thumbnailWidth, int thumbnailHeight, List<Integer> pages) {
+        mProvider = provider;
+        mBookId = bookId;
+        mThumbnailWidth = thumbnailWidth;
+        mThumbnailHeight = thumbnailHeight;
+        mQueue.clear();
+        for (Integer page : pages) {
+            if (page != mLoadingPage) {
+                mQueue.add(page);
+            }
+        }
+        if (mQueue.isEmpty() || mRunning) {
+            return;
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadExecutor();
+        }
+        mRunning = true;
+        mExecutor.execute(mWorker);
+    }
+
+    synchronized List<Result> drainResults() {
+        if (mResults.isEmpty()) {
+            return null;
+        }
+        List<Result> results = new ArrayList<>(mResults);
+        mResults.clear();
+        return results;
+    }
+
+    // 离开概览时不再生成缩略图
+    synchronized void cancel() {
+        mQueue.clear();
+    }
+
+    synchronized void shutdown() {
+        mQueue.clear();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+        mRunning = false;
+        for (Result result : mResults) {
+            if (result.bitmap != null) {
+                result.bitmap.recycle();
+            }
+        }
+        mResults.clear();
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Integer page;
+                ProgressivePageProvider provider;
+                String bookId;
+                int width;
+                int height;
+                synchronized (ThumbnailLoader.this) {
+                    page = mQueue.poll();
+                    if (page == null) {
+                        mRunning = false;
+                        return;
+                    }
+                    mLoadingPage = page;
+                    provider = mProvider;
+                    bookId = mBookId;
+                    width = mThumbnailWidth;
+                    height = mThumbnailHeight;
+                }
+                Bitmap bitmap = render(provider, page, width, height);
+                synchronized (ThumbnailLoader.this) {
+                    mLoadingPage = -1;
+                    mResults.add(new Result(bookId, page, bitmap));
+                }
+                mOnThumbnailLoadedListener.onThumbnailLoaded();
+            }
+        }
+    };
+
+    private static Bitmap render(ProgressivePageProvider provider, int page, int width, int height) {
+        Bitmap bitmap;
+        try {
+            // 与图集纹理的格式一致
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+        if (!provider.renderThumbnail(page, bitmap, true)) {
+            bitmap.recycle();
+            return null;
+        }
+        return bitmap;
+    }
+}
@@ -68,6 +68,14 @@ public class ShaderProgram {
                 0);
     }
 
+    public void setUniform4fv(String name, float[] value) {
+        GLES20.glUniform4fv(
+                GLES20.glGetUniformLocation(mProgram, name),
+                1,
+                value,
+                0);
+    }
+
     public void setUniform3fv(String name, float[] value) {
         GLES20.glUniform3fv(
                 GLES20.glGetUniformLocation(mProgram, name),
@@ -104,13 +112,18 @@ public class ShaderProgram {
     }
 
     public void setVertexAttribPointer(String name, int size, FloatBuffer buffer) {
+        setVertexAttribPointer(name, size, 0, buffer);
+    }
+
+    // stride以字节计，用于交错存放的顶点数据
+    public void setVertexAttribPointer(String name, int size, int stride, FloatBuffer buffer) {
         int location = GLES20.glGetAttribLocation(mProgram, name);
         GLES20.glVertexAttribPointer(
                 location,
                 size,
                 GLES20.GL_FLOAT,
                 false,
-                0,
+                stride,
                 buffer);
         GLES20.glEnableVertexAttribArray(location);
     }
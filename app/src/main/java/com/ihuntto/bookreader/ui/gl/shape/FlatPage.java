@@ -25,11 +25,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
-import static android.opengl.GLES20.GL_TEXTURE0;
-import static android.opengl.GLES20.GL_TEXTURE_2D;
 import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
-import static android.opengl.GLES20.glActiveTexture;
-import static android.opengl.GLES20.glBindTexture;
 import static android.opengl.GLES20.glDrawArrays;
 import static android.opengl.Matrix.multiplyMM;
 import static android.opengl.Matrix.scaleM;
@@ -39,7 +35,6 @@ import static android.opengl.Matrix.translateM;
 public class FlatPage extends Page {
     private static final String U_MVP_MATRIX = "uMVPMatrix";
     private static final String U_PAGE_SIZE = "uPageSize";
-    private static final String U_TEXTURE_UNIT = "uTextureUnit";
     // light
     private static final String U_LIGHT_DIRECTION = "uLight.direction";
     private static final String U_LIGHT_AMBIENT = "uLight.ambient";
@@ -102,6 +97,19 @@ public class FlatPage extends Page {
         multiplyMM(mModelMatrix, 0, scaleMatrix, 0, translateMatrix, 0);
     }
 
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    // 最近一次draw使用的MVP矩阵
+    public float[] getMVPMatrix() {
+        return mMVPMatrix;
+    }
+
     @Override
     public void draw(final float[] eyePos, final Light light, float[] viewProjectionMatrix) {
         sProgram.use();
@@ -116,13 +124,13 @@ public class FlatPage extends Page {
         sProgram.setUniform3fv(U_VIEW_POS, eyePos);
 
         sProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
+        sProgram.setUniformMatrix4fv(U_COLOR_MATRIX, mReadingTheme.getMatrix());
+        sProgram.setUniform4fv(U_COLOR_OFFSET, mReadingTheme.getOffset());
 
         mVertexData.position(0);
         sProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
 
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, mTextureId);
-        sProgram.setUniform1i(U_TEXTURE_UNIT, 0);
+        bindLayers(sProgram);
         glDrawArrays(GL_TRIANGLE_STRIP, 0, mVertexData.limit() / POSITION_COMPONENT_COUNT);
     }
 }
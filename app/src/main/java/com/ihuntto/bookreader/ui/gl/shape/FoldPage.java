@@ -27,8 +27,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
-import static android.opengl.GLES20.GL_TEXTURE0;
-import static android.opengl.GLES20.GL_TEXTURE_2D;
 import static android.opengl.GLES20.GL_TRIANGLES;
 import static android.opengl.Matrix.multiplyMM;
 import static android.opengl.Matrix.scaleM;
@@ -38,9 +36,9 @@ import static android.opengl.Matrix.translateM;
 public class FoldPage extends Page {
     private static final int POSITION_COMPONENT_COUNT = 2;
     private static final int BYTES_PER_FLOAT = 4;
+    private static final int DEFAULT_MESH_STEP = 5;
 
     private static final String U_MVP_MATRIX = "uMVPMatrix";
-    private static final String U_TEXTURE_UNIT = "uTextureUnit";
     private static final String U_ORIGIN_POINT = "uOriginPoint";
     private static final String U_DRAG_POINT = "uDragPoint";
     private static final String U_PAGE_SIZE = "uPageSize";
@@ -60,22 +58,33 @@ public class FoldPage extends Page {
     private static ShaderProgram sShadowLeftProgram;
 
     public static void initProgram(Context context) {
-        sFoldProgram = new ShaderProgram(context,
-                "fold_page.vert",
-                "fold_page.frag");
-        sFoldProgram.compile();
+        sFoldProgram = createProgram(context, "fold_page");
+        sShadowRightProgram = createProgram(context, "fold_page_shadow_right");
+        sShadowLeftProgram = createProgram(context, "fold_page_shadow_left");
+    }
 
-        sShadowRightProgram = new ShaderProgram(context,
-                "fold_page_shadow_right.vert",
-                "fold_page_shadow_right.frag");
-        sShadowRightProgram.compile();
+    private static ShaderProgram createProgram(Context context, String name) {
+        ShaderProgram program = new ShaderProgram(context, name + ".vert", name + ".frag");
+        program.compile();
+        return program;
+    }
 
-        sShadowLeftProgram = new ShaderProgram(context,
-                "fold_page_shadow_left.vert",
-                "fold_page_shadow_left.frag");
-        sShadowLeftProgram.compile();
+    /**
+     * Creates a fold page with programs of its own compiled in the current
+     * context, leaving the ones shared through {@link #initProgram(Context)}
+     * to the renderer that owns them.
+     */
+    public static FoldPage createWithOwnPrograms(Context context, int width, int height) {
+        return new FoldPage(width, height, DEFAULT_MESH_STEP,
+                createProgram(context, "fold_page"),
+                createProgram(context, "fold_page_shadow_right"),
+                createProgram(context, "fold_page_shadow_left"));
     }
 
+    private final ShaderProgram mFoldProgram;
+    private final ShaderProgram mShadowRightProgram;
+    private final ShaderProgram mShadowLeftProgram;
+
 
     private int mWidth;
     private int mHeight;
@@ -92,6 +101,18 @@ public class FoldPage extends Page {
     private final float[] mShadowRightModelMatrix = new float[16];
 
     public FoldPage(int width, int height) {
+        this(width, height, DEFAULT_MESH_STEP);
+    }
+
+    public FoldPage(int width, int height, int step) {
+        this(width, height, step, sFoldProgram, sShadowRightProgram, sShadowLeftProgram);
+    }
+
+    private FoldPage(int width, int height, int step, ShaderProgram foldProgram,
+                     ShaderProgram shadowRightProgram, ShaderProgram shadowLeftProgram) {
+        mFoldProgram = foldProgram;
+        mShadowRightProgram = shadowRightProgram;
+        mShadowLeftProgram = shadowLeftProgram;
         mWidth = width;
         mHeight = height;
         mFoldHeight = height;
@@ -113,7 +134,6 @@ public class FoldPage extends Page {
         setIdentityM(mShadowRightModelMatrix, 0);
         multiplyMM(mShadowRightModelMatrix, 0, scaleMatrix, 0, translateMatrix, 0);
 
-        final int step = 5;
         final int wCount = width / step;
         final int hCount = height / step;
 
@@ -155,29 +175,54 @@ public class FoldPage extends Page {
         mVertexData.put(vertices);
     }
 
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFoldHeight() {
+        return mFoldHeight;
+    }
+
+    public PointF getDragPoint() {
+        return mDragPoint;
+    }
+
+    public PointF getOriginPoint() {
+        return mOriginPoint;
+    }
+
+    // 最近一次draw使用的MVP矩阵
+    public float[] getMVPMatrix() {
+        return mMVPMatrix;
+    }
+
     @Override
     public void draw(final float[] eyePos, final Light light, float[] viewProjectionMatrix) {
-        sFoldProgram.use();
+        mFoldProgram.use();
 
         multiplyMM(mMVPMatrix, 0, viewProjectionMatrix, 0, mFoldModelMatrix, 0);
-        sFoldProgram.setUniformMatrix4fv(U_MVP_MATRIX, mMVPMatrix);
-        sFoldProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
-        sFoldProgram.setUniform2f(U_DRAG_POINT, mDragPoint.x, mDragPoint.y);
-        sFoldProgram.setUniform2f(U_ORIGIN_POINT, mOriginPoint.x, mOriginPoint.y);
-        sFoldProgram.setUniform3fv(U_LIGHT_DIRECTION, light.getDirection());
-        sFoldProgram.setUniform3fv(U_LIGHT_AMBIENT, light.getAmbient());
-        sFoldProgram.setUniform3fv(U_LIGHT_DIFFUSE, light.getDiffuse());
-        sFoldProgram.setUniform3fv(U_LIGHT_SPECULAR, light.getSpecular());
-        sFoldProgram.setUniform3fv(U_LIGHT_COLOR, light.getColor());
-        sFoldProgram.setUniform1f(U_FOLD_HEIGHT, mFoldHeight);
-        sFoldProgram.setUniform3fv(U_VIEW_POS, eyePos);
+        mFoldProgram.setUniformMatrix4fv(U_MVP_MATRIX, mMVPMatrix);
+        mFoldProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
+        mFoldProgram.setUniform2f(U_DRAG_POINT, mDragPoint.x, mDragPoint.y);
+        mFoldProgram.setUniform2f(U_ORIGIN_POINT, mOriginPoint.x, mOriginPoint.y);
+        mFoldProgram.setUniform3fv(U_LIGHT_DIRECTION, light.getDirection());
+        mFoldProgram.setUniform3fv(U_LIGHT_AMBIENT, light.getAmbient());
+        mFoldProgram.setUniform3fv(U_LIGHT_DIFFUSE, light.getDiffuse());
+        mFoldProgram.setUniform3fv(U_LIGHT_SPECULAR, light.getSpecular());
+        mFoldProgram.setUniform3fv(U_LIGHT_COLOR, light.getColor());
+        mFoldProgram.setUniform1f(U_FOLD_HEIGHT, mFoldHeight);
+        mFoldProgram.setUniform3fv(U_VIEW_POS, eyePos);
+        mFoldProgram.setUniformMatrix4fv(U_COLOR_MATRIX, mReadingTheme.getMatrix());
+        mFoldProgram.setUniform4fv(U_COLOR_OFFSET, mReadingTheme.getOffset());
 
         mVertexData.position(0);
-        sFoldProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
+        mFoldProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
 
-        GLES20.glActiveTexture(GL_TEXTURE0);
-        GLES20.glBindTexture(GL_TEXTURE_2D, mTextureId);
-        sFoldProgram.setUniform1i(U_TEXTURE_UNIT, 0);
+        bindLayers(mFoldProgram);
 
         GLES20.glDrawArrays(GL_TRIANGLES, 0, mVertexData.limit() / POSITION_COMPONENT_COUNT);
     }
@@ -188,34 +233,38 @@ public class FoldPage extends Page {
         drawShadowRight(viewProjectionMatrix);
     }
 
+    public void drawCastShadow(float[] viewProjectionMatrix) {
+        drawShadowRight(viewProjectionMatrix);
+    }
+
     private void drawShadowRight(float[] viewProjectionMatrix) {
-        sShadowRightProgram.use();
+        mShadowRightProgram.use();
 
         multiplyMM(mMVPMatrix, 0, viewProjectionMatrix, 0, mShadowRightModelMatrix, 0);
-        sShadowRightProgram.setUniformMatrix4fv(U_MVP_MATRIX, mMVPMatrix);
-        sShadowRightProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
-        sShadowRightProgram.setUniform2f(U_DRAG_POINT, mDragPoint.x, mDragPoint.y);
-        sShadowRightProgram.setUniform2f(U_ORIGIN_POINT, mOriginPoint.x, mOriginPoint.y);
-        sShadowRightProgram.setUniform1f(U_FOLD_HEIGHT, mFoldHeight);
+        mShadowRightProgram.setUniformMatrix4fv(U_MVP_MATRIX, mMVPMatrix);
+        mShadowRightProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
+        mShadowRightProgram.setUniform2f(U_DRAG_POINT, mDragPoint.x, mDragPoint.y);
+        mShadowRightProgram.setUniform2f(U_ORIGIN_POINT, mOriginPoint.x, mOriginPoint.y);
+        mShadowRightProgram.setUniform1f(U_FOLD_HEIGHT, mFoldHeight);
 
         mVertexData.position(0);
-        sShadowRightProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
+        mShadowRightProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
 
         GLES20.glDrawArrays(GL_TRIANGLES, 0, mVertexData.limit() / POSITION_COMPONENT_COUNT);
     }
 
     private void drawShadowLeft(float[] viewProjectionMatrix) {
-        sShadowLeftProgram.use();
+        mShadowLeftProgram.use();
 
         multiplyMM(mMVPMatrix, 0, viewProjectionMatrix, 0, mFoldModelMatrix, 0);
-        sShadowLeftProgram.setUniformMatrix4fv(U_MVP_MATRIX, mMVPMatrix);
-        sShadowLeftProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
-        sShadowLeftProgram.setUniform2f(U_DRAG_POINT, mDragPoint.x, mDragPoint.y);
-        sShadowLeftProgram.setUniform2f(U_ORIGIN_POINT, mOriginPoint.x, mOriginPoint.y);
-        sShadowLeftProgram.setUniform1f(U_FOLD_HEIGHT, mFoldHeight);
+        mShadowLeftProgram.setUniformMatrix4fv(U_MVP_MATRIX, mMVPMatrix);
+        mShadowLeftProgram.setUniform2f(U_PAGE_SIZE, mWidth, mHeight);
+        mShadowLeftProgram.setUniform2f(U_DRAG_POINT, mDragPoint.x, mDragPoint.y);
+        mShadowLeftProgram.setUniform2f(U_ORIGIN_POINT, mOriginPoint.x, mOriginPoint.y);
+        mShadowLeftProgram.setUniform1f(U_FOLD_HEIGHT, mFoldHeight);
 
         mVertexData.position(0);
-        sShadowLeftProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
+        mShadowLeftProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
 
         GLES20.glDrawArrays(GL_TRIANGLES, 0, mVertexData.limit() / POSITION_COMPONENT_COUNT);
     }
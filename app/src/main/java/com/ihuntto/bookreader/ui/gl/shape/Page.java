@@ -16,13 +16,114 @@
 
 package com.ihuntto.bookreader.ui.gl.shape;
 
+import android.graphics.Color;
+
+import com.ihuntto.bookreader.flip.ReadingTheme;
 import com.ihuntto.bookreader.ui.gl.light.Light;
+import com.ihuntto.bookreader.ui.gl.program.ShaderProgram;
+
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE1;
+import static android.opengl.GLES20.GL_TEXTURE2;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.glActiveTexture;
+import static android.opengl.GLES20.glBindTexture;
 
+/**
+ * A page is composed from three layers while drawing: paper, content and
+ * overlay. Every texture holds premultiplied alpha; a page from a single
+ * opaque bitmap simply covers the paper with its content layer.
+ */
 public abstract class Page {
+    protected static final String U_COLOR_MATRIX = "uColorMatrix";
+    protected static final String U_COLOR_OFFSET = "uColorOffset";
+    private static final String U_TEXTURE_UNIT = "uTextureUnit";
+    private static final String U_PAPER_UNIT = "uPaperUnit";
+    private static final String U_OVERLAY_UNIT = "uOverlayUnit";
+    private static final String U_OVERLAY_RECT = "uOverlayRect";
+    private static final String U_PAPER_COLOR = "uPaperColor";
+    private static final String U_PAPER_REPEAT = "uPaperRepeat";
+    private static final String U_INK_COLOR = "uInkColor";
+    private static final String U_ALPHA_ONLY = "uAlphaOnly";
+
     protected int mTextureId;
+    protected ReadingTheme mReadingTheme = ReadingTheme.DEFAULT;
+
+    private int mPaperTextureId;
+    private final float[] mPaperColor = {1.0f, 1.0f, 1.0f, 1.0f};
+    private final float[] mPaperRepeat = {1.0f, 1.0f};
+    private final float[] mInkColor = {0.0f, 0.0f, 0.0f, 1.0f};
+    private boolean mAlphaOnly;
+    private int mOverlayTextureId;
+    private final float[] mOverlayRect = {0.0f, 0.0f, 1.0f, 1.0f};
 
+    /**
+     * Sets an opaque page bitmap as the content layer.
+     */
     public void setTexture(int textureId) {
+        setContent(textureId, false, Color.BLACK);
+    }
+
+    /**
+     * @param alphaOnly true if the texture only holds coverage, which is then
+     *                  drawn in inkColor
+     */
+    public void setContent(int textureId, boolean alphaOnly, int inkColor) {
         mTextureId = textureId;
+        mAlphaOnly = alphaOnly;
+        toColor(inkColor, mInkColor);
+    }
+
+    /**
+     * @param repeatX times the paper texture repeats across the page
+     */
+    public void setPaper(int textureId, float repeatX, float repeatY, int color) {
+        mPaperTextureId = textureId;
+        mPaperRepeat[0] = repeatX;
+        mPaperRepeat[1] = repeatY;
+        toColor(color, mPaperColor);
+    }
+
+    /**
+     * Sets the overlay layer, e.g. annotations, covering rect of the page
+     * given as {left, top, right, bottom} in texture coordinates. A
+     * transparent texture means no overlay.
+     */
+    public void setOverlayTexture(int textureId, float[] rect) {
+        mOverlayTextureId = textureId;
+        System.arraycopy(rect, 0, mOverlayRect, 0, mOverlayRect.length);
+    }
+
+    public void setReadingTheme(ReadingTheme readingTheme) {
+        mReadingTheme = readingTheme;
+    }
+
+    protected void bindLayers(ShaderProgram program) {
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, mTextureId);
+        program.setUniform1i(U_TEXTURE_UNIT, 0);
+
+        glActiveTexture(GL_TEXTURE1);
+        glBindTexture(GL_TEXTURE_2D, mPaperTextureId);
+        program.setUniform1i(U_PAPER_UNIT, 1);
+
+        glActiveTexture(GL_TEXTURE2);
+        glBindTexture(GL_TEXTURE_2D, mOverlayTextureId);
+        program.setUniform1i(U_OVERLAY_UNIT, 2);
+        program.setUniform4fv(U_OVERLAY_RECT, mOverlayRect);
+        glActiveTexture(GL_TEXTURE0);
+
+        program.setUniform4fv(U_PAPER_COLOR, mPaperColor);
+        program.setUniform2fv(U_PAPER_REPEAT, mPaperRepeat);
+        program.setUniform4fv(U_INK_COLOR, mInkColor);
+        program.setUniform1f(U_ALPHA_ONLY, mAlphaOnly ? 1.0f : 0.0f);
+    }
+
+    private static void toColor(int color, float[] out) {
+        out[0] = Color.red(color) / 255.0f;
+        out[1] = Color.green(color) / 255.0f;
+        out[2] = Color.blue(color) / 255.0f;
+        out[3] = Color.alpha(color) / 255.0f;
     }
 
     public abstract void draw(final float[] eyePos, final Light light, float[] viewProjectionMatrix);
@@ -0,0 +1,81 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.shape;
+
+import android.content.Context;
+
+import com.ihuntto.bookreader.ui.gl.program.ShaderProgram;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
+import static android.opengl.GLES20.glActiveTexture;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDrawArrays;
+
+/**
+ * Full screen quad used to upscale an offscreen frame onto the surface.
+ */
+public class ScreenQuad {
+    private static final String U_TEXTURE_UNIT = "uTextureUnit";
+    private static final String U_TEXTURE_SCALE = "uTextureScale";
+    private static final String A_POSITION = "aPosition";
+
+    private static final int POSITION_COMPONENT_COUNT = 2;
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private static ShaderProgram sProgram;
+
+    public static void initProgram(Context context) {
+        sProgram = new ShaderProgram(context,
+                "screen_quad.vert",
+                "screen_quad.frag");
+        sProgram.compile();
+    }
+
+    private final FloatBuffer mVertexData;
+
+    public ScreenQuad() {
+        final float[] vertices = {
+                -1, -1,
+                -1, 1,
+                1, -1,
+                1, 1
+        };
+        mVertexData = ByteBuffer.allocateDirect(vertices.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        mVertexData.put(vertices);
+    }
+
+    public void draw(int textureId, float textureScaleX, float textureScaleY) {
+        sProgram.use();
+        sProgram.setUniform2f(U_TEXTURE_SCALE, textureScaleX, textureScaleY);
+
+        mVertexData.position(0);
+        sProgram.setVertexAttribPointer(A_POSITION, POSITION_COMPONENT_COUNT, mVertexData);
+
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        sProgram.setUniform1i(U_TEXTURE_UNIT, 0);
+        glDrawArrays(GL_TRIANGLE_STRIP, 0, mVertexData.limit() / POSITION_COMPONENT_COUNT);
+    }
+}
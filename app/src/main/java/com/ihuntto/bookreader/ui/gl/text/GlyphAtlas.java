@@ -0,0 +1,234 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.text;
+
+import android.graphics.Typeface;
+import android.util.SparseArray;
+
+import com.ihuntto.bookreader.flip.GlyphPage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static android.opengl.GLES20.GL_ALPHA;
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.GL_UNPACK_ALIGNMENT;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.glPixelStorei;
+import static android.opengl.GLES20.glTexImage2D;
+import static android.opengl.GLES20.glTexParameteri;
+import static android.opengl.GLES20.glTexSubImage2D;
+
+/**
+ * Signed distance field glyphs of one typeface in a single alpha texture of
+ * fixed size cells. Fields are built by {@link GlyphFieldBuilder} off the GL
+ * thread; the atlas only copies them into free cells.
+ * <p>
+ * Every glyph remembers the last frame it was used in. When the atlas is
+ * full, {@link #evict()} frees the least recently used glyphs that the
+ * current frame does not use and bumps the generation, so meshes built
+ * against the old layout know to rebuild. GL thread only.
+ */
+public class GlyphAtlas {
+    public static final int ATLAS_SIZE = 1024;
+    public static final int CELL_SIZE = 32;
+    // 距离场中字形的字号，以及距离的有效范围(像素)
+    public static final float FIELD_TEXT_SIZE = 24.0f;
+    public static final int SPREAD = 4;
+
+    private static final int CELLS_PER_ROW = ATLAS_SIZE / CELL_SIZE;
+    private static final int CELL_COUNT = CELLS_PER_ROW * CELLS_PER_ROW;
+
+    public static class Glyph {
+        // 单元左上角相对笔位置与基线的偏移，以距离场像素计
+        final float left;
+        final float top;
+        final float u0;
+        final float v0;
+        final float u1;
+        final float v1;
+        final int codePoint;
+        final int cell;
+        int lastFrame;
+
+        Glyph(int codePoint, int cell, float left, float top) {
+            this.codePoint = codePoint;
+            this.cell = cell;
+            this.left = left;
+            this.top = top;
+            int cellX = (cell % CELLS_PER_ROW) * CELL_SIZE;
+            int cellY = (cell / CELLS_PER_ROW) * CELL_SIZE;
+            u0 = cellX / (float) ATLAS_SIZE;
+            v0 = cellY / (float) ATLAS_SIZE;
+            u1 = (cellX + CELL_SIZE) / (float) ATLAS_SIZE;
+            v1 = (cellY + CELL_SIZE) / (float) ATLAS_SIZE;
+        }
+    }
+
+    private static final Comparator<Glyph> LEAST_RECENTLY_USED = new Comparator<Glyph>() {
+        @Override
+        public int compare(Glyph g1, Glyph g2) {
+            return g1.lastFrame < g2.lastFrame ? -1 : (g1.lastFrame == g2.lastFrame ? 0 : 1);
+        }
+    };
+
+    private final SparseArray<Glyph> mGlyphs = new SparseArray<>();
+    // 空闲单元栈，mFreeCells[0, mFreeCount)
+    private final int[] mFreeCells = new int[CELL_COUNT];
+    private int mFreeCount;
+    private final int mTextureId;
+    private Typeface mTypeface;
+    private int mFrame;
+    private int mGeneration;
+
+    private final ByteBuffer mCellPixels = ByteBuffer.allocateDirect(CELL_SIZE * CELL_SIZE);
+
+    public GlyphAtlas() {
+        resetCells();
+        int[] ids = new int[1];
+        glGenTextures(1, ids, 0);
+        mTextureId = ids[0];
+        glBindTexture(GL_TEXTURE_2D, mTextureId);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_ALPHA, ATLAS_SIZE, ATLAS_SIZE, 0, GL_ALPHA, GL_UNSIGNED_BYTE, null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    private void resetCells() {
+        // 从0号单元开始分配
+        for (int i = 0; i < CELL_COUNT; i++) {
+            mFreeCells[i] = CELL_COUNT - 1 - i;
+        }
+        mFreeCount = CELL_COUNT;
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    // 每帧绘制前调用，此后用到的字形在本帧内不会被淘汰
+    public void beginFrame() {
+        mFrame++;
+    }
+
+    public void setTypeface(Typeface typeface) {
+        if (mTypeface != typeface) {
+            mTypeface = typeface;
+            clear();
+        }
+    }
+
+    public void clear() {
+        mGlyphs.clear();
+        resetCells();
+        mGeneration++;
+    }
+
+    /**
+     * Returns the glyph if it is in the atlas, marking it used by the
+     * current frame.
+     */
+    public Glyph getGlyph(int codePoint) {
+        Glyph glyph = mGlyphs.get(codePoint);
+        if (glyph != null) {
+            glyph.lastFrame = mFrame;
+        }
+        return glyph;
+    }
+
+    /**
+     * Copies field into a free cell, or returns null when the atlas is full.
+     */
+    Glyph addGlyph(int codePoint, GlyphFieldBuilder.Field field) {
+        if (mFreeCount == 0) {
+            return null;
+        }
+        Glyph glyph = new Glyph(codePoint, mFreeCells[--mFreeCount], field.left, field.top);
+        glyph.lastFrame = mFrame;
+        mGlyphs.put(codePoint, glyph);
+
+        mCellPixels.clear();
+        mCellPixels.put(field.pixels);
+        mCellPixels.flip();
+        int cellX = (glyph.cell % CELLS_PER_ROW) * CELL_SIZE;
+        int cellY = (glyph.cell / CELLS_PER_ROW) * CELL_SIZE;
+        glBindTexture(GL_TEXTURE_2D, mTextureId);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexSubImage2D(GL_TEXTURE_2D, 0, cellX, cellY, CELL_SIZE, CELL_SIZE,
+                GL_ALPHA, GL_UNSIGNED_BYTE, mCellPixels);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return glyph;
+    }
+
+    // 本帧已绘制的页面，其字形在淘汰时保留
+    public void pin(GlyphPage page) {
+        for (int i = 0; i < page.getGlyphCount(); i++) {
+            getGlyph(page.getCodePoint(i));
+        }
+    }
+
+    /**
+     * Frees the older half of the glyphs not used by the current frame.
+     * Returns the number of freed cells; 0 means the current frame alone
+     * fills the atlas.
+     */
+    public int evict() {
+        List<Glyph> candidates = new ArrayList<>();
+        for (int i = 0; i < mGlyphs.size(); i++) {
+            Glyph glyph = mGlyphs.valueAt(i);
+            if (glyph.lastFrame != mFrame) {
+                candidates.add(glyph);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(candidates, LEAST_RECENTLY_USED);
+        int count = (candidates.size() + 1) / 2;
+        for (int i = 0; i < count; i++) {
+            Glyph glyph = candidates.get(i);
+            mGlyphs.remove(glyph.codePoint);
+            mFreeCells[mFreeCount++] = glyph.cell;
+        }
+        mGeneration++;
+        return count;
+    }
+
+    public void destroy() {
+        glDeleteTextures(1, new int[]{mTextureId}, 0);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.text;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Turns glyphs of one typeface into signed distance fields the size of a
+ * {@link GlyphAtlas} cell. Each glyph is rasterized at {@link #UPSCALE}
+ * times the field resolution first. Only CPU work, so it runs on the
+ * {@link GlyphPageLoader} thread; not thread safe.
+ */
+final class GlyphFieldBuilder {
+    private static final int UPSCALE = 4;
+    private static final float INF = 1e20f;
+
+    static final class Field {
+        // 单元左上角相对笔位置与基线的偏移，以距离场像素计
+        final float left;
+        final float top;
+        final byte[] pixels;
+
+        Field(float left, float top, byte[] pixels) {
+            this.left = left;
+            this.top = top;
+            this.pixels = pixels;
+        }
+    }
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Rect mBounds = new Rect();
+    private final Bitmap mRaster;
+    private final Canvas mRasterCanvas;
+    private final byte[] mRasterPixels;
+    private final float[] mInside;
+    private final float[] mOutside;
+
+    // 一维距离变换的临时数组
+    private final float[] mLine;
+    private final float[] mLineResult;
+    private final int[] mParabolaSites;
+    private final float[] mParabolaBounds;
+
+    GlyphFieldBuilder() {
+        int rasterSize = GlyphAtlas.CELL_SIZE * UPSCALE;
+        mRaster = Bitmap.createBitmap(rasterSize, rasterSize, Bitmap.Config.ALPHA_8);
+        mRasterCanvas = new Canvas(mRaster);
+        mRasterPixels = new byte[mRaster.getRowBytes() * rasterSize];
+        mInside = new float[rasterSize * rasterSize];
+        mOutside = new float[rasterSize * rasterSize];
+        mLine = new float[rasterSize];
+        mLineResult = new float[rasterSize];
+        mParabolaSites = new int[rasterSize];
+        mParabolaBounds = new float[rasterSize + 1];
+        mPaint.setTextSize(GlyphAtlas.FIELD_TEXT_SIZE * UPSCALE);
+    }
+
+    void setTypeface(Typeface typeface) {
+        mPaint.setTypeface(typeface);
+    }
+
+    Field build(int codePoint) {
+        String text = new String(Character.toChars(codePoint));
+        mPaint.getTextBounds(text, 0, text.length(), mBounds);
+        // 字形包围盒放在单元内留出SPREAD边距的位置
+        float penX = GlyphAtlas.SPREAD * UPSCALE - mBounds.left;
+        float penY = GlyphAtlas.SPREAD * UPSCALE - mBounds.top;
+        mRaster.eraseColor(0);
+        mRasterCanvas.drawText(text, penX, penY, mPaint);
+        return new Field(-penX / UPSCALE, -penY / UPSCALE, buildField());
+    }
+
+    private byte[] buildField() {
+        int cellSize = GlyphAtlas.CELL_SIZE;
+        int size = cellSize * UPSCALE;
+        int rowBytes = mRaster.getRowBytes();
+        mRaster.copyPixelsToBuffer(ByteBuffer.wrap(mRasterPixels));
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                boolean inside = (mRasterPixels[y * rowBytes + x] & 0xFF) >= 128;
+                mInside[y * size + x] = inside ? INF : 0;
+                mOutside[y * size + x] = inside ? 0 : INF;
+            }
+        }
+        // mInside为到最近外部像素的距离平方，mOutside为到最近内部像素的距离平方
+        transform(mInside, size);
+        transform(mOutside, size);
+
+        byte[] pixels = new byte[cellSize * cellSize];
+        float range = 2.0f * GlyphAtlas.SPREAD * UPSCALE;
+        for (int y = 0; y < cellSize; y++) {
+            for (int x = 0; x < cellSize; x++) {
+                int index = (y * UPSCALE + UPSCALE / 2) * size + x * UPSCALE + UPSCALE / 2;
+                float distance = (float) (Math.sqrt(mOutside[index]) - Math.sqrt(mInside[index]));
+                // 0.5为轮廓，内部大于0.5
+                float value = 0.5f - distance / range;
+                pixels[y * cellSize + x] = (byte) Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+            }
+        }
+        return pixels;
+    }
+
+    // 二维距离平方变换，先按列再按行做一维变换(Felzenszwalb & Huttenlocher)
+    private void transform(float[] grid, int size) {
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                mLine[y] = grid[y * size + x];
+            }
+            transformLine(size);
+            for (int y = 0; y < size; y++) {
+                grid[y * size + x] = mLineResult[y];
+            }
+        }
+        for (int y = 0; y < size; y++) {
+            System.arraycopy(grid, y * size, mLine, 0, size);
+            transformLine(size);
+            System.arraycopy(mLineResult, 0, grid, y * size, size);
+        }
+    }
+
+    private void transformLine(int n) {
+        float[] f = mLine;
+        int[] v = mParabolaSites;
+        float[] z = mParabolaBounds;
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        for (int q = 1; q < n; q++) {
+            float s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            while (s <= z[k]) {
+                k--;
+                s = ((f[q] + q * q) - (f[v[k]] + v[k] * v[k])) / (2 * q - 2 * v[k]);
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            mLineResult[q] = (q - v[k]) * (q - v[k]) + f[v[k]];
+        }
+    }
+}
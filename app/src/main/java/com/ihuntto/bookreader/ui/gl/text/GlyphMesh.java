@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.text;
+
+import android.util.SparseArray;
+
+import com.ihuntto.bookreader.flip.GlyphPage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Quads of one glyph page, two triangles per glyph with position in page
+ * pixels and atlas coordinates. A few dozen bytes per glyph instead of a
+ * page sized texture.
+ */
+public class GlyphMesh {
+    static final int POSITION_COMPONENT_COUNT = 2;
+    static final int GLYPH_COORD_COMPONENT_COUNT = 2;
+    static final int STRIDE_FLOATS = POSITION_COMPONENT_COUNT + GLYPH_COORD_COMPONENT_COUNT;
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int VERTICES_PER_GLYPH = 6;
+
+    private final GlyphPage mPage;
+    private final SparseArray<GlyphFieldBuilder.Field> mFields;
+    private final FloatBuffer mVertexData;
+    private final int mVertexCount;
+    private int mAtlasGeneration;
+
+    private GlyphMesh(GlyphPage page, SparseArray<GlyphFieldBuilder.Field> fields,
+                      FloatBuffer vertexData, int vertexCount, int atlasGeneration) {
+        mPage = page;
+        mFields = fields;
+        mVertexData = vertexData;
+        mVertexCount = vertexCount;
+        mAtlasGeneration = atlasGeneration;
+    }
+
+    /**
+     * Returns null if the atlas ran out of cells before every glyph was
+     * added. Glyphs missing from the atlas are copied in from fields.
+     */
+    static GlyphMesh build(GlyphPage page, SparseArray<GlyphFieldBuilder.Field> fields, GlyphAtlas atlas) {
+        int glyphCount = page.getGlyphCount();
+        float[] vertices = new float[glyphCount * VERTICES_PER_GLYPH * STRIDE_FLOATS];
+        float scale = page.getTextSize() / GlyphAtlas.FIELD_TEXT_SIZE;
+        float cellSize = GlyphAtlas.CELL_SIZE * scale;
+        int count = 0;
+        for (int i = 0; i < glyphCount; i++) {
+            int codePoint = page.getCodePoint(i);
+            GlyphAtlas.Glyph glyph = atlas.getGlyph(codePoint);
+            if (glyph == null) {
+                glyph = atlas.addGlyph(codePoint, fields.get(codePoint));
+            }
+            if (glyph == null) {
+                return null;
+            }
+            float x0 = page.getPenX(i) + glyph.left * scale;
+            float y0 = page.getBaselineY(i) + glyph.top * scale;
+            float x1 = x0 + cellSize;
+            float y1 = y0 + cellSize;
+
+            count = put(vertices, count, x0, y0, glyph.u0, glyph.v0);
+            count = put(vertices, count, x1, y0, glyph.u1, glyph.v0);
+            count = put(vertices, count, x1, y1, glyph.u1, glyph.v1);
+            count = put(vertices, count, x0, y0, glyph.u0, glyph.v0);
+            count = put(vertices, count, x1, y1, glyph.u1, glyph.v1);
+            count = put(vertices, count, x0, y1, glyph.u0, glyph.v1);
+        }
+        FloatBuffer vertexData = ByteBuffer.allocateDirect(Math.max(1, count) * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        vertexData.put(vertices, 0, count);
+        return new GlyphMesh(page, fields, vertexData, count / STRIDE_FLOATS, atlas.getGeneration());
+    }
+
+    private static int put(float[] vertices, int offset, float x, float y, float u, float v) {
+        vertices[offset++] = x;
+        vertices[offset++] = y;
+        vertices[offset++] = u;
+        vertices[offset++] = v;
+        return offset;
+    }
+
+    GlyphPage getPage() {
+        return mPage;
+    }
+
+    SparseArray<GlyphFieldBuilder.Field> getFields() {
+        return mFields;
+    }
+
+    public int getBackgroundColor() {
+        return mPage.getBackgroundColor();
+    }
+
+    FloatBuffer getVertexData() {
+        return mVertexData;
+    }
+
+    int getVertexCount() {
+        return mVertexCount;
+    }
+
+    int getAtlasGeneration() {
+        return mAtlasGeneration;
+    }
+
+    // 淘汰时保留了本网格的全部字形，网格在新的图集布局下仍然有效
+    void setAtlasGeneration(int atlasGeneration) {
+        mAtlasGeneration = atlasGeneration;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.text;
+
+import android.graphics.Typeface;
+import android.util.SparseArray;
+
+import com.ihuntto.bookreader.flip.GlyphPage;
+import com.ihuntto.bookreader.flip.GlyphPageProvider;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lays out glyph pages and builds the distance fields of their glyphs on a
+ * worker thread, so the GL thread only copies finished fields into the
+ * atlas. Fields are cached across pages. The GL thread asks again every
+ * frame for the pages it still misses, so later requests go first and only
+ * the latest few are kept.
+ */
+final class GlyphPageLoader {
+    private static final int MAX_QUEUED_PAGES = 4;
+    // 每个距离场1KB
+    private static final int FIELD_CACHE_SIZE = 2048;
+
+    static final class Result {
+        final String bookId;
+        final int index;
+        // 页面不存在时为null
+        final GlyphPage page;
+        final SparseArray<GlyphFieldBuilder.Field> fields;
+
+        Result(String bookId, int index, GlyphPage page, SparseArray<GlyphFieldBuilder.Field> fields) {
+            this.bookId = bookId;
+            this.index = index;
+            this.page = page;
+            this.fields = fields;
+        }
+    }
+
+    private final GlyphPageRenderer.OnGlyphPageLoadedListener mOnGlyphPageLoadedListener;
+    private final ArrayDeque<Integer> mQueue = new ArrayDeque<>();
+    private final List<Result> mResults = new ArrayList<>();
+    private GlyphPageProvider mProvider;
+    private String mBookId;
+    private int mWidth;
+    private int mHeight;
+    private int mLoadingPage = -1;
+    private ExecutorService mExecutor;
+    private boolean mRunning;
+
+    // 只在工作线程访问
+    private final GlyphFieldBuilder mFieldBuilder = new GlyphFieldBuilder();
+    private final Map<Integer, GlyphFieldBuilder.Field> mFieldCache =
+            new LinkedHashMap<Integer, GlyphFieldBuilder.Field>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, GlyphFieldBuilder.Field> eldest) {
+                    return size() > FIELD_CACHE_SIZE;
+                }
+            };
+    private Typeface mTypeface;
+
+    GlyphPageLoader(GlyphPageRenderer.OnGlyphPageLoadedListener onGlyphPageLoadedListener) {
+        mOnGlyphPageLoadedListener = onGlyphPageLoadedListener;
+    }
+
+    synchronized void request(GlyphPageProvider provider, String bookId, int width, int height, int index) {
+        if (provider != mProvider || !bookId.equals(mBookId) || width != mWidth || height != mHeight) {
+            mQueue.clear();
+        }
+        mProvider = provider;
+        mBookId = bookId;
+        mWidth = width;
+        mHeight = height;
+        if (index == mLoadingPage) {
+            return;
+        }
+        mQueue.remove(index);
+        mQueue.addFirst(index);
+        while (mQueue.size() > MAX_QUEUED_PAGES) {
+            mQueue.removeLast();
+        }
+        if (mRunning) {
+            return;
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newSingleThreadExecutor();
+        }
+        mRunning = true;
+        mExecutor.execute(mWorker);
+    }
+
+    synchronized List<Result> drainResults() {
+        if (mResults.isEmpty()) {
+            return null;
+        }
+        List<Result> results = new ArrayList<>(mResults);
+        mResults.clear();
+        return results;
+    }
+
+    synchronized void shutdown() {
+        mQueue.clear();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+        mRunning = false;
+        mResults.clear();
+    }
+
+    private final Runnable mWorker = new Runnable() {
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Integer index;
+                GlyphPageProvider provider;
+                String bookId;
+                int width;
+                int height;
+                synchronized (GlyphPageLoader.this) {
+                    index = mQueue.poll();
+                    if (index == null) {
+                        mRunning = false;
+                        return;
+                    }
+                    mLoadingPage = index;
+                    provider = mProvider;
+                    bookId = mBookId;
+                    width = mWidth;
+                    height = mHeight;
+                }
+                GlyphPage page = provider.getGlyphPage(index, width, height);
+                SparseArray<GlyphFieldBuilder.Field> fields = page != null ? buildFields(page) : null;
+                synchronized (GlyphPageLoader.this) {
+                    mLoadingPage = -1;
+                    if (mExecutor == null) {
+                        return;
+                    }
+                    mResults.add(new Result(bookId, index, page, fields));
+                }
+                mOnGlyphPageLoadedListener.onGlyphPageLoaded();
+            }
+        }
+    };
+
+    private SparseArray<GlyphFieldBuilder.Field> buildFields(GlyphPage page) {
+        if (mTypeface != page.getTypeface()) {
+            mTypeface = page.getTypeface();
+            mFieldBuilder.setTypeface(mTypeface);
+            mFieldCache.clear();
+        }
+        SparseArray<GlyphFieldBuilder.Field> fields = new SparseArray<>();
+        for (int i = 0; i < page.getGlyphCount(); i++) {
+            int codePoint = page.getCodePoint(i);
+            if (fields.get(codePoint) != null) {
+                continue;
+            }
+            GlyphFieldBuilder.Field field = mFieldCache.get(codePoint);
+            if (field == null) {
+                field = mFieldBuilder.build(codePoint);
+                mFieldCache.put(codePoint, field);
+            }
+            fields.put(codePoint, field);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.text;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.PointF;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.ihuntto.bookreader.flip.GlyphPage;
+import com.ihuntto.bookreader.flip.GlyphPageProvider;
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.ui.gl.light.Light;
+import com.ihuntto.bookreader.ui.gl.program.ShaderProgram;
+import com.ihuntto.bookreader.ui.gl.shape.FlatPage;
+import com.ihuntto.bookreader.ui.gl.shape.FoldPage;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.opengl.GLES20.GL_LEQUAL;
+import static android.opengl.GLES20.GL_LESS;
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TRIANGLES;
+import static android.opengl.GLES20.glActiveTexture;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDepthFunc;
+import static android.opengl.GLES20.glDepthMask;
+import static android.opengl.GLES20.glDrawArrays;
+
+/**
+ * Draws text pages from a {@link GlyphAtlas}: the page itself is drawn by
+ * {@link FlatPage}/{@link FoldPage} with a 1x1 paper texture, then the
+ * page's glyph quads are drawn on top, folded by the same math as the page.
+ * Pages are laid out and their glyph fields built by a {@link GlyphPageLoader};
+ * until a page is loaded it is drawn as bare paper.
+ * <p>
+ * The atlas holds the glyphs of every page drawn in a frame: when it fills
+ * up, glyphs of the pages already drawn in the frame are kept and the other
+ * meshes are rebuilt when next used. A page that does not fit next to them
+ * is reported by {@link #isOverflowed(int)}.
+ * Must be created and used on the GL thread of a live context.
+ */
+public class GlyphPageRenderer {
+    private static final int MESH_CACHE_SIZE = 5;
+
+    public interface OnGlyphPageLoadedListener {
+        // 在加载线程回调
+        void onGlyphPageLoaded();
+    }
+
+    // 抬起距离以页面坐标计；平展页面的模型矩阵不缩放z，只需很小的值
+    private static final float FLAT_LIFT = 0.01f;
+    private static final float FOLD_LIFT = 1.0f;
+
+    private static final String U_MVP_MATRIX = "uMVPMatrix";
+    private static final String U_FOLD = "uFold";
+    private static final String U_ORIGIN_POINT = "uOriginPoint";
+    private static final String U_DRAG_POINT = "uDragPoint";
+    private static final String U_PAGE_SIZE = "uPageSize";
+    private static final String U_FOLD_HEIGHT = "uFoldHeight";
+    private static final String U_LIFT = "uLift";
+    private static final String U_ATLAS = "uAtlas";
+    private static final String U_TEXT_COLOR = "uTextColor";
+    private static final String U_SMOOTHING = "uSmoothing";
+    private static final String U_COLOR_MATRIX = "uColorMatrix";
+    private static final String U_COLOR_OFFSET = "uColorOffset";
+    // light
+    private static final String U_LIGHT_DIRECTION = "uLight.direction";
+    private static final String U_LIGHT_AMBIENT = "uLight.ambient";
+    private static final String U_LIGHT_DIFFUSE = "uLight.diffuse";
+    private static final String U_LIGHT_SPECULAR = "uLight.specular";
+    private static final String U_LIGHT_COLOR = "uLight.color";
+    private static final String U_VIEW_POS = "uViewPos";
+
+    private static final String A_POSITION = "aPosition";
+    private static final String A_GLYPH_COORD = "aGlyphCoord";
+
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private static ShaderProgram sProgram;
+
+    public static void initProgram(Context context) {
+        sProgram = new ShaderProgram(context,
+                "sdf_text.vert",
+                "sdf_text.frag");
+        sProgram.compile();
+    }
+
+    private final GlyphAtlas mAtlas = new GlyphAtlas();
+    private final GlyphPageLoader mLoader;
+    private final SparseArray<GlyphPageLoader.Result> mLoadedPages = new SparseArray<>();
+    private final SparseBooleanArray mMissingPages = new SparseBooleanArray();
+    private final SparseArray<GlyphMesh> mMeshes = new SparseArray<>();
+    // 本帧已取得的网格，以及放不下的页面
+    private final List<GlyphMesh> mFrameMeshes = new ArrayList<>();
+    private final SparseBooleanArray mOverflowedPages = new SparseBooleanArray();
+    private String mBookId = "";
+    private int mCurrentIndex;
+    private final float[] mTextColor = new float[4];
+
+    public GlyphPageRenderer(OnGlyphPageLoadedListener onGlyphPageLoadedListener) {
+        mLoader = new GlyphPageLoader(onGlyphPageLoadedListener);
+    }
+
+    public void setBookId(String bookId) {
+        if (!mBookId.equals(bookId)) {
+            mBookId = bookId;
+            mLoadedPages.clear();
+            mMissingPages.clear();
+            mMeshes.clear();
+        }
+    }
+
+    // 每帧取网格之前调用
+    public void beginFrame() {
+        mAtlas.beginFrame();
+        mFrameMeshes.clear();
+        mOverflowedPages.clear();
+        List<GlyphPageLoader.Result> results = mLoader.drainResults();
+        if (results == null) {
+            return;
+        }
+        for (GlyphPageLoader.Result result : results) {
+            if (!result.bookId.equals(mBookId)) {
+                continue;
+            }
+            if (result.page == null) {
+                mMissingPages.put(result.index, true);
+                continue;
+            }
+            if (mLoadedPages.size() >= MESH_CACHE_SIZE) {
+                evictFarthest(mLoadedPages, mCurrentIndex);
+            }
+            mLoadedPages.put(result.index, result);
+            mMeshes.remove(result.index);
+        }
+    }
+
+    /**
+     * Returns the mesh of page index, or null if the page does not exist,
+     * is still loading or overflows the atlas. Also loads the pages next to
+     * it.
+     */
+    public GlyphMesh getMesh(int index, GlyphPageProvider provider, int width, int height) {
+        mCurrentIndex = index;
+        GlyphMesh mesh = mMeshes.get(index);
+        if (mesh != null && mesh.getAtlasGeneration() != mAtlas.getGeneration()) {
+            // 图集淘汰过字形，按原来的页面重建
+            mesh = buildMesh(index, mesh.getPage(), mesh.getFields());
+        } else if (mesh == null) {
+            GlyphPageLoader.Result loaded = mLoadedPages.get(index);
+            if (loaded != null) {
+                mesh = buildMesh(index, loaded.page, loaded.fields);
+            } else {
+                load(index, provider, width, height);
+            }
+        }
+        if (mesh != null) {
+            mFrameMeshes.add(mesh);
+        }
+        // 相邻页提前排版，翻页时不必等待
+        load(index + 1, provider, width, height);
+        load(index - 1, provider, width, height);
+        return mesh;
+    }
+
+    /**
+     * Returns whether page index exists but its glyphs do not fit in the
+     * atlas next to the pages already drawn in this frame.
+     */
+    public boolean isOverflowed(int index) {
+        return mOverflowedPages.get(index);
+    }
+
+    private GlyphMesh buildMesh(int index, GlyphPage page, SparseArray<GlyphFieldBuilder.Field> fields) {
+        mAtlas.setTypeface(page.getTypeface());
+        GlyphMesh mesh = GlyphMesh.build(page, fields, mAtlas);
+        while (mesh == null) {
+            // 图集已满，保留本帧已绘制页面的字形，淘汰最久未用的字形
+            for (GlyphMesh frameMesh : mFrameMeshes) {
+                mAtlas.pin(frameMesh.getPage());
+            }
+            if (mAtlas.evict() == 0) {
+                mOverflowedPages.put(index, true);
+                mMeshes.remove(index);
+                return null;
+            }
+            for (GlyphMesh frameMesh : mFrameMeshes) {
+                frameMesh.setAtlasGeneration(mAtlas.getGeneration());
+            }
+            mesh = GlyphMesh.build(page, fields, mAtlas);
+        }
+        if (mMeshes.size() >= MESH_CACHE_SIZE) {
+            evictFarthest(mMeshes, index);
+        }
+        mMeshes.put(index, mesh);
+        return mesh;
+    }
+
+    private void load(int index, GlyphPageProvider provider, int width, int height) {
+        if (index < 0 || mLoadedPages.get(index) != null || mMeshes.get(index) != null
+                || mMissingPages.get(index)) {
+            return;
+        }
+        mLoader.request(provider, mBookId, width, height, index);
+    }
+
+    private static void evictFarthest(SparseArray<?> cache, int index) {
+        int farthest = 0;
+        for (int i = 1; i < cache.size(); i++) {
+            if (Math.abs(cache.keyAt(i) - index) > Math.abs(cache.keyAt(farthest) - index)) {
+                farthest = i;
+            }
+        }
+        cache.removeAt(farthest);
+    }
+
+    public void drawFlat(GlyphMesh mesh, FlatPage page, float[] eyePos, Light light, ReadingTheme theme) {
+        sProgram.use();
+        sProgram.setUniformMatrix4fv(U_MVP_MATRIX, page.getMVPMatrix());
+        sProgram.setUniform1f(U_FOLD, 0.0f);
+        sProgram.setUniform1f(U_LIFT, FLAT_LIFT);
+        sProgram.setUniform2f(U_PAGE_SIZE, page.getWidth(), page.getHeight());
+        draw(mesh, eyePos, light, theme);
+    }
+
+    public void drawFold(GlyphMesh mesh, FoldPage page, float[] eyePos, Light light, ReadingTheme theme) {
+        PointF dragPoint = page.getDragPoint();
+        PointF originPoint = page.getOriginPoint();
+        sProgram.use();
+        sProgram.setUniformMatrix4fv(U_MVP_MATRIX, page.getMVPMatrix());
+        sProgram.setUniform1f(U_FOLD, 1.0f);
+        sProgram.setUniform1f(U_LIFT, FOLD_LIFT);
+        sProgram.setUniform2f(U_PAGE_SIZE, page.getWidth(), page.getHeight());
+        sProgram.setUniform2f(U_DRAG_POINT, dragPoint.x, dragPoint.y);
+        sProgram.setUniform2f(U_ORIGIN_POINT, originPoint.x, originPoint.y);
+        sProgram.setUniform1f(U_FOLD_HEIGHT, page.getFoldHeight());
+        draw(mesh, eyePos, light, theme);
+    }
+
+    private void draw(GlyphMesh mesh, float[] eyePos, Light light, ReadingTheme theme) {
+        if (mesh.getVertexCount() == 0) {
+            return;
+        }
+        GlyphPage page = mesh.getPage();
+        int color = page.getTextColor();
+        mTextColor[0] = Color.red(color) / 255.0f;
+        mTextColor[1] = Color.green(color) / 255.0f;
+        mTextColor[2] = Color.blue(color) / 255.0f;
+        mTextColor[3] = Color.alpha(color) / 255.0f;
+        float scale = page.getTextSize() / GlyphAtlas.FIELD_TEXT_SIZE;
+
+        sProgram.setUniform3fv(U_LIGHT_DIRECTION, light.getDirection());
+        sProgram.setUniform3fv(U_LIGHT_AMBIENT, light.getAmbient());
+        sProgram.setUniform3fv(U_LIGHT_DIFFUSE, light.getDiffuse());
+        sProgram.setUniform3fv(U_LIGHT_SPECULAR, light.getSpecular());
+        sProgram.setUniform3fv(U_LIGHT_COLOR, light.getColor());
+        sProgram.setUniform3fv(U_VIEW_POS, eyePos);
+        sProgram.setUniform4fv(U_TEXT_COLOR, mTextColor);
+        // 距离场0~1对应2*SPREAD个场像素，过渡宽度约为屏幕上的半个像素
+        sProgram.setUniform1f(U_SMOOTHING, 1.0f / (4.0f * GlyphAtlas.SPREAD * Math.max(0.25f, scale)));
+        sProgram.setUniformMatrix4fv(U_COLOR_MATRIX, theme.getMatrix());
+        sProgram.setUniform4fv(U_COLOR_OFFSET, theme.getOffset());
+
+        FloatBuffer vertexData = mesh.getVertexData();
+        int stride = GlyphMesh.STRIDE_FLOATS * BYTES_PER_FLOAT;
+        vertexData.position(0);
+        sProgram.setVertexAttribPointer(A_POSITION, GlyphMesh.POSITION_COMPONENT_COUNT, stride, vertexData);
+        vertexData.position(GlyphMesh.POSITION_COMPONENT_COUNT);
+        sProgram.setVertexAttribPointer(A_GLYPH_COORD, GlyphMesh.GLYPH_COORD_COMPONENT_COUNT, stride, vertexData);
+
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, mAtlas.getTextureId());
+        sProgram.setUniform1i(U_ATLAS, 0);
+
+        // 相邻字形的四边形互相重叠，不写深度以免透明边缘遮住邻字
+        glDepthMask(false);
+        glDepthFunc(GL_LEQUAL);
+        glDrawArrays(GL_TRIANGLES, 0, mesh.getVertexCount());
+        glDepthFunc(GL_LESS);
+        glDepthMask(true);
+    }
+
+    // 停止加载线程；context已销毁时只调用这里，不删除纹理
+    public void release() {
+        mLoader.shutdown();
+        mLoadedPages.clear();
+        mMeshes.clear();
+    }
+
+    public void destroy() {
+        release();
+        mAtlas.destroy();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.tile;
+
+import android.graphics.Bitmap;
+
+import com.ihuntto.bookreader.ui.gl.util.TextureBudget;
+import com.ihuntto.bookreader.ui.gl.util.TextureHelper;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.glTexParameteri;
+
+/**
+ * Tile textures in least recently drawn order, counted in the
+ * {@link TextureBudget}. Must be used on the GL thread.
+ */
+final class TileCache {
+    // 足够容纳一屏的瓦片，256x256的ARGB_8888共约24MB
+    private static final int MAX_TILES = 96;
+
+    static final class Tile {
+        // 解码失败的瓦片为0，不再重复请求
+        final int textureId;
+        final long bytes;
+
+        Tile(int textureId, long bytes) {
+            this.textureId = textureId;
+            this.bytes = bytes;
+        }
+    }
+
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<TileKey, Tile> mTiles = new LinkedHashMap<>(16, 0.75f, true);
+    private final TextureBudget mTextureBudget;
+
+    TileCache(TextureBudget textureBudget) {
+        mTextureBudget = textureBudget;
+    }
+
+    Tile get(TileKey key) {
+        return mTiles.get(key);
+    }
+
+    void put(TileKey key, Bitmap bitmap) {
+        int textureId = 0;
+        long bytes = 0;
+        if (bitmap != null) {
+            final int[] ids = new int[1];
+            glGenTextures(1, ids, 0);
+            textureId = ids[0];
+            glBindTexture(GL_TEXTURE_2D, textureId);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            TextureHelper.uploadBitmap(bitmap);
+            glBindTexture(GL_TEXTURE_2D, 0);
+            bytes = (long) bitmap.getWidth() * bitmap.getHeight() * 4;
+            mTextureBudget.acquire(bytes);
+            bitmap.recycle();
+        }
+        Tile old = mTiles.put(key, new Tile(textureId, bytes));
+        if (old != null) {
+            delete(old);
+        }
+        trim();
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<TileKey, Tile>> iterator = mTiles.entrySet().iterator();
+        while (mTiles.size() > MAX_TILES && iterator.hasNext()) {
+            delete(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private void delete(Tile tile) {
+        if (tile.textureId != 0) {
+            glDeleteTextures(1, new int[]{tile.textureId}, 0);
+        }
+        mTextureBudget.release(tile.bytes);
+    }
+
+    void clear() {
+        for (Tile tile : mTiles.values()) {
+            delete(tile);
+        }
+        mTiles.clear();
+    }
+
+    // 旧context中的纹理已失效，无需删除
+    void onContextCreated() {
+        for (Tile tile : mTiles.values()) {
+            mTextureBudget.release(tile.bytes);
+        }
+        mTiles.clear();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.tile;
+
+/**
+ * One tile of the pyramid: level n is the source downsampled by 2^n and cut
+ * into {@link TileRenderer#TILE_SIZE} squares.
+ */
+final class TileKey {
+    final String bookId;
+    final int page;
+    final int level;
+    final int column;
+    final int row;
+
+    TileKey(String bookId, int page, int level, int column, int row) {
+        this.bookId = bookId;
+        this.page = page;
+        this.level = level;
+        this.column = column;
+        this.row = row;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TileKey)) {
+            return false;
+        }
+        TileKey other = (TileKey) o;
+        return page == other.page && level == other.level
+                && column == other.column && row == other.row
+                && bookId.equals(other.bookId);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = bookId.hashCode();
+        result = 31 * result + page;
+        result = 31 * result + level;
+        result = 31 * result + column;
+        return 31 * result + row;
+    }
+}
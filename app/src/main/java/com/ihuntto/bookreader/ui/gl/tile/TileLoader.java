@@ -0,0 +1,165 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.tile;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import com.ihuntto.bookreader.flip.TiledPageProvider;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes tiles on worker threads. Every request replaces the queue, so
+ * tiles that scrolled out of view before their turn are never decoded.
+ */
+final class TileLoader {
+    private static final int WORKER_COUNT = 2;
+
+    static final class Result {
+        final TileKey key;
+        // 解码失败时为null
+        final Bitmap bitmap;
+
+        Result(TileKey key, Bitmap bitmap) {
+            this.key = key;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final TileRenderer.OnTileLoadedListener mOnTileLoadedListener;
+    private final ArrayDeque<TileKey> mQueue = new ArrayDeque<>();
+    private final Set<TileKey> mLoading = new HashSet<>();
+    private final List<Result> mResults = new ArrayList<>();
+    private TiledPageProvider mProvider;
+    private ExecutorService mExecutor;
+    private int mRunningWorkers;
+    // shutdown时加一，旧的工作线程结束时不再改动计数和结果
+    private int mGeneration;
+
+    TileLoader(TileRenderer.OnTileLoadedListener onTileLoadedListener) {
+        mOnTileLoadedListener = onTileLoadedListener;
+    }
+
+    /**
+     * Replaces the pending tiles with keys, most wanted first.
+     */
+    synchronized void request(TiledPageProvider provider, List<TileKey> keys) {
+        mProvider = provider;
+        mQueue.clear();
+        for (TileKey key : keys) {
+            if (!mLoading.contains(key)) {
+                mQueue.add(key);
+            }
+        }
+        if (mQueue.isEmpty()) {
+            return;
+        }
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(WORKER_COUNT);
+        }
+        while (mRunningWorkers < WORKER_COUNT && mRunningWorkers < mQueue.size()) {
+            mRunningWorkers++;
+            mExecutor.execute(new Worker(mGeneration));
+        }
+    }
+
+    synchronized List<Result> drainResults() {
+        if (mResults.isEmpty()) {
+            return null;
+        }
+        List<Result> results = new ArrayList<>(mResults);
+        mResults.clear();
+        return results;
+    }
+
+    synchronized void shutdown() {
+        mQueue.clear();
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+        mGeneration++;
+        mRunningWorkers = 0;
+        mLoading.clear();
+        for (Result result : mResults) {
+            if (result.bitmap != null) {
+                result.bitmap.recycle();
+            }
+        }
+        mResults.clear();
+    }
+
+    private final class Worker implements Runnable {
+        private final int mWorkerGeneration;
+
+        Worker(int generation) {
+            mWorkerGeneration = generation;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                TileKey key;
+                TiledPageProvider provider;
+                synchronized (TileLoader.this) {
+                    if (mWorkerGeneration != mGeneration) {
+                        return;
+                    }
+                    key = mQueue.poll();
+                    if (key == null) {
+                        mRunningWorkers--;
+                        return;
+                    }
+                    mLoading.add(key);
+                    provider = mProvider;
+                }
+                Bitmap bitmap = decode(provider, key);
+                synchronized (TileLoader.this) {
+                    if (mWorkerGeneration != mGeneration) {
+                        if (bitmap != null) {
+                            bitmap.recycle();
+                        }
+                        return;
+                    }
+                    mLoading.remove(key);
+                    mResults.add(new Result(key, bitmap));
+                }
+                mOnTileLoadedListener.onTileLoaded();
+            }
+        }
+    }
+
+    private static Bitmap decode(TiledPageProvider provider, TileKey key) {
+        Rect sourceRect = new Rect();
+        if (!TileRenderer.getSourceRect(key, provider.getSourceWidth(key.page),
+                provider.getSourceHeight(key.page), sourceRect)) {
+            return null;
+        }
+        try {
+            return provider.decodeTile(key.page, sourceRect, 1 << key.level);
+        } catch (OutOfMemoryError e) {
+            return null;
+        }
+    }
+}
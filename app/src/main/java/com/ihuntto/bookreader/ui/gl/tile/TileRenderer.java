@@ -0,0 +1,259 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.tile;
+
+import android.content.Context;
+import android.graphics.Rect;
+
+import com.ihuntto.bookreader.flip.ReadingTheme;
+import com.ihuntto.bookreader.flip.TiledPageProvider;
+import com.ihuntto.bookreader.ui.gl.program.ShaderProgram;
+import com.ihuntto.bookreader.ui.gl.shape.FlatPage;
+import com.ihuntto.bookreader.ui.gl.util.TextureBudget;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static android.opengl.GLES20.GL_DEPTH_TEST;
+import static android.opengl.GLES20.GL_TEXTURE0;
+import static android.opengl.GLES20.GL_TEXTURE1;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TRIANGLE_STRIP;
+import static android.opengl.GLES20.glActiveTexture;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glDisable;
+import static android.opengl.GLES20.glDrawArrays;
+import static android.opengl.GLES20.glEnable;
+
+/**
+ * Draws the visible part of a zoomed page from a tile pyramid over the page
+ * texture, which stays visible where tiles are still loading. Only tiles of
+ * the level that matches the zoom are requested, so the source is never
+ * decoded whole.
+ */
+public class TileRenderer {
+    static final int TILE_SIZE = 256;
+
+    private static final String U_MVP_MATRIX = "uMVPMatrix";
+    private static final String U_TEXTURE_UNIT = "uTextureUnit";
+    private static final String U_COLOR_MATRIX = "uColorMatrix";
+    private static final String U_COLOR_OFFSET = "uColorOffset";
+    private static final String U_PAGE_SIZE = "uPageSize";
+    private static final String U_OVERLAY_UNIT = "uOverlayUnit";
+    private static final String U_OVERLAY_RECT = "uOverlayRect";
+    private static final String A_POSITION = "aPosition";
+    private static final String A_TEXTURE_COORDINATES = "aTextureCoordinates";
+
+    private static final int COMPONENT_COUNT = 4;
+    private static final int BYTES_PER_FLOAT = 4;
+
+    private static ShaderProgram sProgram;
+
+    public static void initProgram(Context context) {
+        sProgram = new ShaderProgram(context,
+                "tile.vert",
+                "tile.frag");
+        sProgram.compile();
+    }
+
+    public interface OnTileLoadedListener {
+        // 在工作线程回调
+        void onTileLoaded();
+    }
+
+    private final TileCache mTileCache = new TileCache(TextureBudget.getInstance());
+    private final TileLoader mTileLoader;
+    private final FloatBuffer mVertexData;
+    private final float[] mVertices = new float[4 * COMPONENT_COUNT];
+    private final List<TileKey> mMissingTiles = new ArrayList<>();
+    private final Rect mSourceRect = new Rect();
+    private String mBookId = "";
+
+    public TileRenderer(OnTileLoadedListener onTileLoadedListener) {
+        mTileLoader = new TileLoader(onTileLoadedListener);
+        mVertexData = ByteBuffer.allocateDirect(mVertices.length * BYTES_PER_FLOAT)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    public void setBookId(String bookId) {
+        if (!mBookId.equals(bookId)) {
+            mBookId = bookId;
+            mTileCache.clear();
+        }
+    }
+
+    /**
+     * Source pixels covered by key, clipped to the source; false if the tile
+     * lies outside it.
+     */
+    static boolean getSourceRect(TileKey key, int sourceWidth, int sourceHeight, Rect out) {
+        int size = TILE_SIZE << key.level;
+        out.set(key.column * size, key.row * size,
+                Math.min(sourceWidth, (key.column + 1) * size),
+                Math.min(sourceHeight, (key.row + 1) * size));
+        return out.left < out.right && out.top < out.bottom;
+    }
+
+    /**
+     * Draws page index of provider as seen through page after
+     * {@link FlatPage#draw}, with the page zoomed by zoom and its visible
+     * area starting at (visibleLeft, visibleTop) in page pixels. The
+     * annotation overlay of the page, covering overlayRect (left, top,
+     * right, bottom as fractions of the page), is drawn over the tiles.
+     */
+    public void draw(TiledPageProvider provider, int index, FlatPage page,
+                     float zoom, float visibleLeft, float visibleTop, ReadingTheme theme,
+                     int overlayTextureId, float[] overlayRect) {
+        uploadLoadedTiles();
+
+        int sourceWidth = provider.getSourceWidth(index);
+        int sourceHeight = provider.getSourceHeight(index);
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            return;
+        }
+        // 原图等比缩放后居中显示在页面中
+        float fit = Math.min((float) page.getWidth() / sourceWidth, (float) page.getHeight() / sourceHeight);
+        float offsetX = (page.getWidth() - sourceWidth * fit) / 2.0f;
+        float offsetY = (page.getHeight() - sourceHeight * fit) / 2.0f;
+
+        // 取最接近屏幕分辨率的一层
+        float sourcePerScreenPixel = 1.0f / (fit * zoom);
+        int level = 0;
+        while ((2 << level) <= sourcePerScreenPixel * 1.414f) {
+            level++;
+        }
+        int tileSource = TILE_SIZE << level;
+
+        float left = (visibleLeft - offsetX) / fit;
+        float top = (visibleTop - offsetY) / fit;
+        float right = left + page.getWidth() / zoom / fit;
+        float bottom = top + page.getHeight() / zoom / fit;
+        int firstColumn = Math.max(0, (int) (left / tileSource));
+        int firstRow = Math.max(0, (int) (top / tileSource));
+        int lastColumn = (int) (Math.min(right, sourceWidth - 1) / tileSource);
+        int lastRow = (int) (Math.min(bottom, sourceHeight - 1) / tileSource);
+
+        sProgram.use();
+        sProgram.setUniformMatrix4fv(U_MVP_MATRIX, page.getMVPMatrix());
+        sProgram.setUniformMatrix4fv(U_COLOR_MATRIX, theme.getMatrix());
+        sProgram.setUniform4fv(U_COLOR_OFFSET, theme.getOffset());
+        sProgram.setUniform2f(U_PAGE_SIZE, page.getWidth(), page.getHeight());
+        sProgram.setUniform4fv(U_OVERLAY_RECT, overlayRect);
+        glActiveTexture(GL_TEXTURE1);
+        glBindTexture(GL_TEXTURE_2D, overlayTextureId);
+        sProgram.setUniform1i(U_OVERLAY_UNIT, 1);
+        glActiveTexture(GL_TEXTURE0);
+        sProgram.setUniform1i(U_TEXTURE_UNIT, 0);
+        // 瓦片与页面共面，直接覆盖在页面上
+        glDisable(GL_DEPTH_TEST);
+
+        mMissingTiles.clear();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                TileKey key = new TileKey(mBookId, index, level, column, row);
+                TileCache.Tile tile = mTileCache.get(key);
+                if (tile == null) {
+                    mMissingTiles.add(key);
+                } else if (tile.textureId != 0 && getSourceRect(key, sourceWidth, sourceHeight, mSourceRect)) {
+                    drawTile(tile.textureId, mSourceRect, fit, offsetX, offsetY);
+                }
+            }
+        }
+        glEnable(GL_DEPTH_TEST);
+
+        // 离视野中心近的先解码
+        final float centerColumn = (left + right) / 2.0f / tileSource - 0.5f;
+        final float centerRow = (top + bottom) / 2.0f / tileSource - 0.5f;
+        Collections.sort(mMissingTiles, new Comparator<TileKey>() {
+            @Override
+            public int compare(TileKey a, TileKey b) {
+                return Float.compare(distance(a, centerColumn, centerRow), distance(b, centerColumn, centerRow));
+            }
+        });
+        mTileLoader.request(provider, mMissingTiles);
+    }
+
+    private static float distance(TileKey key, float column, float row) {
+        float dx = key.column - column;
+        float dy = key.row - row;
+        return dx * dx + dy * dy;
+    }
+
+    private void uploadLoadedTiles() {
+        List<TileLoader.Result> results = mTileLoader.drainResults();
+        if (results == null) {
+            return;
+        }
+        for (TileLoader.Result result : results) {
+            if (result.key.bookId.equals(mBookId)) {
+                mTileCache.put(result.key, result.bitmap);
+            } else if (result.bitmap != null) {
+                result.bitmap.recycle();
+            }
+        }
+    }
+
+    private void drawTile(int textureId, Rect sourceRect, float fit, float offsetX, float offsetY) {
+        float left = offsetX + sourceRect.left * fit;
+        float top = offsetY + sourceRect.top * fit;
+        float right = offsetX + sourceRect.right * fit;
+        float bottom = offsetY + sourceRect.bottom * fit;
+        int i = 0;
+        i = putVertex(i, left, bottom, 0, 1);
+        i = putVertex(i, left, top, 0, 0);
+        i = putVertex(i, right, bottom, 1, 1);
+        putVertex(i, right, top, 1, 0);
+        mVertexData.position(0);
+        mVertexData.put(mVertices);
+
+        mVertexData.position(0);
+        sProgram.setVertexAttribPointer(A_POSITION, 2, COMPONENT_COUNT * BYTES_PER_FLOAT, mVertexData);
+        mVertexData.position(2);
+        sProgram.setVertexAttribPointer(A_TEXTURE_COORDINATES, 2, COMPONENT_COUNT * BYTES_PER_FLOAT, mVertexData);
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+    }
+
+    private int putVertex(int i, float x, float y, float u, float v) {
+        mVertices[i++] = x;
+        mVertices[i++] = y;
+        mVertices[i++] = u;
+        mVertices[i++] = v;
+        return i;
+    }
+
+    // 旧context中的纹理已失效，无需删除
+    public void onContextCreated() {
+        mTileCache.onContextCreated();
+    }
+
+    public void destroy() {
+        mTileCache.clear();
+    }
+
+    // 停止解码，GL线程退出后调用
+    public void release() {
+        mTileLoader.shutdown();
+        mTileCache.onContextCreated();
+    }
+}
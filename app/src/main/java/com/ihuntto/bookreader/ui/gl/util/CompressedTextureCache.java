@@ -0,0 +1,372 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import android.graphics.Bitmap;
+import android.opengl.ETC1Util;
+import android.os.Process;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opaque page textures compressed to ETC1, which every GLES 2.0 device can
+ * sample, at 4 bits per pixel. Pages are encoded on a background thread
+ * after their first upload and kept as PKM files on disk, with the most
+ * recent ones in memory; the GL thread only ever uses what is in memory and
+ * asks for the rest to be loaded with {@link #preload(String)}.
+ */
+public class CompressedTextureCache {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = CompressedTextureCache.class.getSimpleName();
+
+    private static final String FILE_SUFFIX = ".pkm";
+    private static final long MEMORY_BYTES = 16L * 1024 * 1024;
+    // 等待编码的页面上限，超出时放弃新页面而不是占用更多内存
+    private static final int MAX_PENDING = 2;
+    private static final int TRIM_INTERVAL = 16;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final ExecutorService mExecutor;
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<String, ETC1Util.ETC1Texture> mTextures = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> mPendingKeys = new HashSet<>();
+    // 编码完的像素缓冲，GL线程复制下一页时复用，不再每页分配
+    private final ArrayDeque<ByteBuffer> mFreeBuffers = new ArrayDeque<>();
+    // 只在编码线程使用
+    private ByteBuffer mRgbBuffer;
+    private long mMemoryBytes;
+    private int mWrittenFiles;
+    private boolean mClosed;
+
+    public static CompressedTextureCache open(File directory, long maxBytes) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create " + directory);
+            return null;
+        }
+        return new CompressedTextureCache(directory, maxBytes);
+    }
+
+    private CompressedTextureCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "Etc1Encoder");
+            }
+        });
+    }
+
+    /**
+     * The compressed page of key if it is in memory, or null; never reads
+     * the disk.
+     */
+    public synchronized ETC1Util.ETC1Texture get(String key) {
+        return mTextures.get(key);
+    }
+
+    /**
+     * Reads the compressed page of key from disk into memory in the
+     * background, if it was encoded before.
+     */
+    public void preload(final String key) {
+        synchronized (this) {
+            if (mClosed || mTextures.containsKey(key) || !startPending(key)) {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ETC1Util.ETC1Texture texture = readTexture(getFile(key));
+                    if (texture != null) {
+                        putTexture(key, texture);
+                    }
+                } finally {
+                    finishPending(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Compresses page in the background unless it is already cached. The
+     * pixels are copied into a reused buffer before returning, so the
+     * caller keeps ownership of page; only RGB_565 and ARGB_8888 pages are
+     * encoded.
+     */
+    public void encode(final String key, Bitmap page) {
+        final int pixelSize;
+        if (page.getConfig() == Bitmap.Config.RGB_565) {
+            pixelSize = 2;
+        } else if (page.getConfig() == Bitmap.Config.ARGB_8888) {
+            pixelSize = 4;
+        } else {
+            return;
+        }
+        final int width = page.getWidth();
+        final int height = page.getHeight();
+        final ByteBuffer pixels;
+        synchronized (this) {
+            if (mClosed || mTextures.containsKey(key) || !startPending(key)) {
+                return;
+            }
+            pixels = obtainBuffer(page.getRowBytes() * height);
+        }
+        page.copyPixelsToBuffer(pixels);
+        pixels.rewind();
+        final int stride = page.getRowBytes();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File file = getFile(key);
+                    ETC1Util.ETC1Texture texture = readTexture(file);
+                    if (texture == null) {
+                        texture = compress(pixels, width, height, pixelSize, stride);
+                        writeTexture(file, texture);
+                    }
+                    putTexture(key, texture);
+                } finally {
+                    recycleBuffer(pixels);
+                    finishPending(key);
+                }
+            }
+        });
+    }
+
+    // 容量够用的空闲缓冲，没有时新分配
+    private ByteBuffer obtainBuffer(int byteCount) {
+        Iterator<ByteBuffer> iterator = mFreeBuffers.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer buffer = iterator.next();
+            if (buffer.capacity() >= byteCount) {
+                iterator.remove();
+                buffer.clear();
+                buffer.limit(byteCount);
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(byteCount).order(ByteOrder.nativeOrder());
+    }
+
+    private synchronized void recycleBuffer(ByteBuffer buffer) {
+        mFreeBuffers.addFirst(buffer);
+        while (mFreeBuffers.size() > MAX_PENDING) {
+            mFreeBuffers.removeLast();
+        }
+    }
+
+    private synchronized boolean startPending(String key) {
+        if (mPendingKeys.size() >= MAX_PENDING || mPendingKeys.contains(key)) {
+            return false;
+        }
+        mPendingKeys.add(key);
+        return true;
+    }
+
+    private synchronized void finishPending(String key) {
+        mPendingKeys.remove(key);
+    }
+
+    private synchronized void putTexture(String key, ETC1Util.ETC1Texture texture) {
+        if (mClosed) {
+            return;
+        }
+        ETC1Util.ETC1Texture old = mTextures.put(key, texture);
+        if (old != null) {
+            mMemoryBytes -= old.getData().capacity();
+        }
+        mMemoryBytes += texture.getData().capacity();
+        Iterator<Map.Entry<String, ETC1Util.ETC1Texture>> iterator = mTextures.entrySet().iterator();
+        while (mMemoryBytes > MEMORY_BYTES && iterator.hasNext()) {
+            mMemoryBytes -= iterator.next().getValue().getData().capacity();
+            iterator.remove();
+        }
+    }
+
+    // 在编码线程调用；ETC1只接受RGB565或RGB888，ARGB_8888页面先去掉透明通道
+    private ETC1Util.ETC1Texture compress(ByteBuffer pixels, int width, int height,
+                                          int pixelSize, int stride) {
+        long startMillis = System.currentTimeMillis();
+        if (pixelSize == 4) {
+            if (mRgbBuffer == null || mRgbBuffer.capacity() < width * height * 3) {
+                mRgbBuffer = ByteBuffer.allocateDirect(width * height * 3).order(ByteOrder.nativeOrder());
+            }
+            ByteBuffer rgb = mRgbBuffer;
+            rgb.clear();
+            byte[] row = new byte[stride];
+            for (int y = 0; y < height; y++) {
+                pixels.position(y * stride);
+                pixels.get(row);
+                for (int x = 0; x < width; x++) {
+                    rgb.put(row, x * 4, 3);
+                }
+            }
+            rgb.rewind();
+            pixels = rgb;
+            pixelSize = 3;
+            stride = width * 3;
+        }
+        ETC1Util.ETC1Texture texture = ETC1Util.compressTexture(pixels, width, height, pixelSize, stride);
+        if (D) {
+            Log.d(TAG, "encoded " + width + "x" + height + " in " + (System.currentTimeMillis() - startMillis) + "ms");
+        }
+        return texture;
+    }
+
+    private static ETC1Util.ETC1Texture readTexture(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            ETC1Util.ETC1Texture texture = ETC1Util.createTexture(in);
+            // 按最近使用时间裁剪目录
+            file.setLastModified(System.currentTimeMillis());
+            return texture;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    // 先写入临时文件再改名，读到的总是完整的文件
+    private void writeTexture(File file, ETC1Util.ETC1Texture texture) {
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            ETC1Util.writeTexture(texture, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (++mWrittenFiles % TRIM_INTERVAL == 0) {
+            trimDirectory();
+        }
+    }
+
+    // 超出上限时先删除最久未用的文件
+    private void trimDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (total <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+
+    private File getFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(mDirectory, name.append(FILE_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException("Could not hash texture key", e);
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+            mTextures.clear();
+            mFreeBuffers.clear();
+            mMemoryBytes = 0;
+        }
+        mExecutor.shutdown();
+    }
+}
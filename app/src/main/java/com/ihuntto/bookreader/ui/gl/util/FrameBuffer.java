@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_COLOR_ATTACHMENT0;
+import static android.opengl.GLES20.GL_DEPTH_ATTACHMENT;
+import static android.opengl.GLES20.GL_DEPTH_COMPONENT16;
+import static android.opengl.GLES20.GL_FRAMEBUFFER;
+import static android.opengl.GLES20.GL_FRAMEBUFFER_COMPLETE;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_RENDERBUFFER;
+import static android.opengl.GLES20.GL_RGBA;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.glBindFramebuffer;
+import static android.opengl.GLES20.glBindRenderbuffer;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glCheckFramebufferStatus;
+import static android.opengl.GLES20.glDeleteFramebuffers;
+import static android.opengl.GLES20.glDeleteRenderbuffers;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glFramebufferRenderbuffer;
+import static android.opengl.GLES20.glFramebufferTexture2D;
+import static android.opengl.GLES20.glGenFramebuffers;
+import static android.opengl.GLES20.glGenRenderbuffers;
+import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.glRenderbufferStorage;
+import static android.opengl.GLES20.glTexImage2D;
+import static android.opengl.GLES20.glTexParameteri;
+
+/**
+ * Offscreen color + depth target. Must be created and used on the GL thread.
+ */
+public class FrameBuffer {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = FrameBuffer.class.getSimpleName();
+
+    private final int mWidth;
+    private final int mHeight;
+
+    private int mFrameBufferId;
+    private int mTextureId;
+    private int mDepthBufferId;
+
+    public FrameBuffer(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public boolean create() {
+        final int[] ids = new int[1];
+
+        glGenTextures(1, ids, 0);
+        mTextureId = ids[0];
+        glBindTexture(GL_TEXTURE_2D, mTextureId);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, mWidth, mHeight, 0, GL_RGBA, GL_UNSIGNED_BYTE, null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        glGenRenderbuffers(1, ids, 0);
+        mDepthBufferId = ids[0];
+        glBindRenderbuffer(GL_RENDERBUFFER, mDepthBufferId);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT16, mWidth, mHeight);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        glGenFramebuffers(1, ids, 0);
+        mFrameBufferId = ids[0];
+        glBindFramebuffer(GL_FRAMEBUFFER, mFrameBufferId);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, mTextureId, 0);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, mDepthBufferId);
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            if (D) {
+                Log.w(TAG, "Frame buffer incomplete, status=" + status);
+            }
+            destroy();
+            return false;
+        }
+        return true;
+    }
+
+    public void bind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, mFrameBufferId);
+    }
+
+    public void unbind() {
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+    }
+
+    public void destroy() {
+        if (mFrameBufferId != 0) {
+            glDeleteFramebuffers(1, new int[]{mFrameBufferId}, 0);
+            mFrameBufferId = 0;
+        }
+        if (mDepthBufferId != 0) {
+            glDeleteRenderbuffers(1, new int[]{mDepthBufferId}, 0);
+            mDepthBufferId = 0;
+        }
+        if (mTextureId != 0) {
+            glDeleteTextures(1, new int[]{mTextureId}, 0);
+            mTextureId = 0;
+        }
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.ihuntto.bookreader.flip.Annotation;
+import com.ihuntto.bookreader.flip.AnnotationLayer;
+
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_COLOR_ATTACHMENT0;
+import static android.opengl.GLES20.GL_COLOR_BUFFER_BIT;
+import static android.opengl.GLES20.GL_COLOR_CLEAR_VALUE;
+import static android.opengl.GLES20.GL_FRAMEBUFFER;
+import static android.opengl.GLES20.GL_FRAMEBUFFER_BINDING;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_RGBA;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.GL_VIEWPORT;
+import static android.opengl.GLES20.glBindFramebuffer;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glClear;
+import static android.opengl.GLES20.glClearColor;
+import static android.opengl.GLES20.glDeleteFramebuffers;
+import static android.opengl.GLES20.glDeleteTextures;
+import static android.opengl.GLES20.glFramebufferTexture2D;
+import static android.opengl.GLES20.glGenFramebuffers;
+import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.glGetFloatv;
+import static android.opengl.GLES20.glGetIntegerv;
+import static android.opengl.GLES20.glTexImage2D;
+import static android.opengl.GLES20.glTexParameteri;
+import static android.opengl.GLES20.glViewport;
+import static android.opengl.GLUtils.texSubImage2D;
+
+/**
+ * Annotation overlay textures of the pages around the current one. Only
+ * pages that have annotations get a texture, sized to the rectangle their
+ * annotations cover and counted in the {@link TextureBudget}. A changed
+ * annotation only rasterizes and uploads the pixels it covers. Must be used
+ * on the GL thread.
+ */
+public class OverlayTextureCache {
+    // 与页面纹理窗口一致
+    private static final int RETAIN_RADIUS = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static class Overlay {
+        final int textureId;
+        // 纹理覆盖的页面区域
+        final Rect bounds;
+        // 待重新绘制的区域
+        final Rect dirty = new Rect();
+        // 新的批注超出纹理范围，需要重新创建
+        boolean outgrown;
+
+        Overlay(int textureId, Rect bounds) {
+            this.textureId = textureId;
+            this.bounds = bounds;
+        }
+
+        long getBytes() {
+            return (long) bounds.width() * bounds.height() * BYTES_PER_PIXEL;
+        }
+    }
+
+    private static final float[] FULL_PAGE = {0.0f, 0.0f, 1.0f, 1.0f};
+
+    private final SparseArray<Overlay> mOverlays = new SparseArray<>();
+    private final AnnotationLayer mAnnotationLayer;
+    private final TextureBudget mBudget;
+    private final Rect mBounds = new Rect();
+    private int mWidth;
+    private int mHeight;
+    private int mFrameBufferId;
+    private final int[] mSavedFrameBuffer = new int[1];
+    private final int[] mSavedViewport = new int[4];
+    private final float[] mSavedClearColor = new float[4];
+
+    public OverlayTextureCache(AnnotationLayer annotationLayer, TextureBudget budget) {
+        mAnnotationLayer = annotationLayer;
+        mBudget = budget;
+    }
+
+    public void setSize(int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            destroy();
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+
+    /**
+     * Returns the overlay of pageIndex, or emptyTextureId if the page has
+     * no annotations. outRect receives the part of the page the texture
+     * covers as {left, top, right, bottom} in texture coordinates.
+     */
+    public int getTexture(int pageIndex, int emptyTextureId, float[] outRect) {
+        System.arraycopy(FULL_PAGE, 0, outRect, 0, FULL_PAGE.length);
+        Overlay overlay = mOverlays.get(pageIndex);
+        boolean annotated = mAnnotationLayer.hasAnnotations(pageIndex);
+        if (overlay != null && (overlay.outgrown || !annotated)) {
+            delete(pageIndex);
+            overlay = null;
+        }
+        if (!annotated) {
+            return emptyTextureId;
+        }
+        if (overlay == null) {
+            overlay = create(pageIndex);
+            if (overlay == null) {
+                return emptyTextureId;
+            }
+            mOverlays.put(pageIndex, overlay);
+        }
+        if (!overlay.dirty.isEmpty()) {
+            upload(pageIndex, overlay);
+        }
+        Rect bounds = overlay.bounds;
+        outRect[0] = bounds.left / (float) mWidth;
+        outRect[1] = bounds.top / (float) mHeight;
+        outRect[2] = bounds.right / (float) mWidth;
+        outRect[3] = bounds.bottom / (float) mHeight;
+        return overlay.textureId;
+    }
+
+    /**
+     * Marks the pixels of annotation as changed; they are redrawn with the
+     * annotations the page still has the next time the page is bound.
+     */
+    public void invalidate(int pageIndex, Annotation annotation) {
+        Overlay overlay = mOverlays.get(pageIndex);
+        if (overlay != null && mWidth > 0 && mHeight > 0) {
+            annotation.getBounds(mWidth, mHeight, mBounds);
+            if (!mBounds.intersect(0, 0, mWidth, mHeight)) {
+                return;
+            }
+            if (overlay.bounds.contains(mBounds)) {
+                overlay.dirty.union(mBounds);
+            } else {
+                overlay.outgrown = true;
+            }
+        }
+    }
+
+    // 页面重新编号后，覆盖层随页面移动
+    public void shift(int shift) {
+        if (shift == 0 || mOverlays.size() == 0) {
+            return;
+        }
+        SparseArray<Overlay> overlays = mOverlays.clone();
+        mOverlays.clear();
+        for (int i = 0; i < overlays.size(); i++) {
+            mOverlays.put(overlays.keyAt(i) + shift, overlays.valueAt(i));
+        }
+    }
+
+    public void retainAround(int currentIndex) {
+        for (int i = mOverlays.size() - 1; i >= 0; i--) {
+            int pageIndex = mOverlays.keyAt(i);
+            if (Math.abs(pageIndex - currentIndex) > RETAIN_RADIUS) {
+                delete(pageIndex);
+            }
+        }
+    }
+
+    // 旧context中的纹理已失效，无需删除
+    public void onContextCreated() {
+        release();
+        mFrameBufferId = 0;
+    }
+
+    // context已销毁时只归还预算
+    public void release() {
+        for (int i = 0; i < mOverlays.size(); i++) {
+            mBudget.release(mOverlays.valueAt(i).getBytes());
+        }
+        mOverlays.clear();
+    }
+
+    public void destroy() {
+        for (int i = 0; i < mOverlays.size(); i++) {
+            glDeleteTextures(1, new int[]{mOverlays.valueAt(i).textureId}, 0);
+        }
+        release();
+        if (mFrameBufferId != 0) {
+            glDeleteFramebuffers(1, new int[]{mFrameBufferId}, 0);
+            mFrameBufferId = 0;
+        }
+    }
+
+    private void delete(int pageIndex) {
+        Overlay overlay = mOverlays.get(pageIndex);
+        glDeleteTextures(1, new int[]{overlay.textureId}, 0);
+        mBudget.release(overlay.getBytes());
+        mOverlays.remove(pageIndex);
+    }
+
+    private Overlay create(int pageIndex) {
+        if (mWidth <= 0 || mHeight <= 0) {
+            return null;
+        }
+        Rect bounds = new Rect();
+        mAnnotationLayer.getBounds(pageIndex, mWidth, mHeight, bounds);
+        if (!bounds.intersect(0, 0, mWidth, mHeight)) {
+            return null;
+        }
+        final int[] ids = new int[1];
+        glGenTextures(1, ids, 0);
+        if (ids[0] == 0) {
+            return null;
+        }
+        glBindTexture(GL_TEXTURE_2D, ids[0]);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, bounds.width(), bounds.height(), 0,
+                GL_RGBA, GL_UNSIGNED_BYTE, null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        // 在GPU上清成透明，不从内存上传整页
+        if (mFrameBufferId == 0) {
+            glGenFramebuffers(1, ids, 0);
+            mFrameBufferId = ids[0];
+        }
+        // 可能在绘制到离屏缓冲的过程中调用，结束后恢复原来的状态
+        glGetIntegerv(GL_FRAMEBUFFER_BINDING, mSavedFrameBuffer, 0);
+        glGetIntegerv(GL_VIEWPORT, mSavedViewport, 0);
+        glGetFloatv(GL_COLOR_CLEAR_VALUE, mSavedClearColor, 0);
+        glBindFramebuffer(GL_FRAMEBUFFER, mFrameBufferId);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, ids[0], 0);
+        glViewport(0, 0, bounds.width(), bounds.height());
+        glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        glClear(GL_COLOR_BUFFER_BIT);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glBindFramebuffer(GL_FRAMEBUFFER, mSavedFrameBuffer[0]);
+        glViewport(mSavedViewport[0], mSavedViewport[1], mSavedViewport[2], mSavedViewport[3]);
+        glClearColor(mSavedClearColor[0], mSavedClearColor[1], mSavedClearColor[2], mSavedClearColor[3]);
+        Overlay overlay = new Overlay(ids[0], bounds);
+        overlay.dirty.set(bounds);
+        mBudget.acquire(overlay.getBytes());
+        return overlay;
+    }
+
+    private void upload(int pageIndex, Overlay overlay) {
+        Rect dirty = overlay.dirty;
+        if (!dirty.intersect(overlay.bounds)) {
+            dirty.setEmpty();
+            return;
+        }
+        // 只重画变化的区域，其中仍存在的批注一并画上
+        Bitmap bitmap = Bitmap.createBitmap(dirty.width(), dirty.height(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.translate(-dirty.left, -dirty.top);
+        mAnnotationLayer.draw(canvas, pageIndex, mWidth, mHeight);
+
+        glBindTexture(GL_TEXTURE_2D, overlay.textureId);
+        texSubImage2D(GL_TEXTURE_2D, 0, dirty.left - overlay.bounds.left,
+                dirty.top - overlay.bounds.top, bitmap);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        bitmap.recycle();
+        dirty.setEmpty();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+/**
+ * Picks the resolution scale used while a page is in motion, based on the
+ * measured interval between consecutive animated frames. The interval never
+ * drops below vsync, so a lowered scale is raised again only after frames
+ * have kept up with vsync for a while; a raise that misses frames makes the
+ * next attempt wait longer.
+ */
+public class RenderScaleController {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = RenderScaleController.class.getSimpleName();
+
+    private static final long FRAME_BUDGET_NANOS = 16_666_667L;
+    private static final float SCALE_DOWN_THRESHOLD = 1.15f;
+    // 间隔受垂直同步限制，跟上垂直同步时负载约为1，留一点抖动余量
+    private static final float SCALE_UP_THRESHOLD = 1.05f;
+    private static final float SMOOTHING = 0.2f;
+    private static final float SCALE_STEP = 0.1f;
+    private static final int COOL_DOWN_FRAMES = 8;
+    private static final int MIN_SCALE_UP_FRAMES = 30;
+    private static final int MAX_SCALE_UP_FRAMES = 240;
+
+    private final float mMinScale;
+    private float mScale = 1.0f;
+    private float mAverageFrameNanos;
+    private long mLastFrameNanos;
+    private int mFramesSinceChange;
+    // 提高分辨率前需要连续跟上的帧数，提高后又掉帧时加倍
+    private int mScaleUpFrames = MIN_SCALE_UP_FRAMES;
+    private boolean mLastChangeUp;
+
+    public RenderScaleController(float minScale) {
+        mMinScale = minScale;
+    }
+
+    public void onAnimatedFrame(long frameTimeNanos) {
+        if (mLastFrameNanos == 0) {
+            mLastFrameNanos = frameTimeNanos;
+            return;
+        }
+        long interval = frameTimeNanos - mLastFrameNanos;
+        mLastFrameNanos = frameTimeNanos;
+
+        if (mAverageFrameNanos == 0) {
+            mAverageFrameNanos = interval;
+        } else {
+            mAverageFrameNanos += (interval - mAverageFrameNanos) * SMOOTHING;
+        }
+
+        if (++mFramesSinceChange < COOL_DOWN_FRAMES) {
+            return;
+        }
+        float load = mAverageFrameNanos / FRAME_BUDGET_NANOS;
+        float scale = mScale;
+        if (load > SCALE_DOWN_THRESHOLD) {
+            scale = Math.max(mMinScale, mScale - SCALE_STEP);
+            if (mLastChangeUp && mFramesSinceChange < mScaleUpFrames) {
+                mScaleUpFrames = Math.min(MAX_SCALE_UP_FRAMES, mScaleUpFrames * 2);
+            }
+        } else if (load < SCALE_UP_THRESHOLD && mFramesSinceChange >= mScaleUpFrames) {
+            if (mLastChangeUp) {
+                // 上一次提高后一直没有掉帧
+                mScaleUpFrames = MIN_SCALE_UP_FRAMES;
+            }
+            scale = Math.min(1.0f, mScale + SCALE_STEP);
+        }
+        if (scale != mScale) {
+            if (D) {
+                Log.d(TAG, "render scale " + mScale + " -> " + scale + " load=" + load);
+            }
+            mLastChangeUp = scale > mScale;
+            mScale = scale;
+            mFramesSinceChange = 0;
+        }
+    }
+
+    // 静止时暂停计时：静止的间隔不计入，平均帧间隔和帧数留到下一次翻页继续累计，
+    // 点击翻页只有十几帧，每次清零就永远凑不够提高分辨率所需的帧数
+    public void onIdleFrame() {
+        mLastFrameNanos = 0;
+    }
+
+    public float getScale() {
+        return mScale;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Process wide GPU memory budget shared by every {@link TextureManager}.
+ * <p>
+ * Each manager lives on its own GL thread, so the arbiter never deletes
+ * textures itself: it asks the chosen managers to trim, and they do so at
+ * the start of their next frame. Managers above their fair share are asked
+ * first, least recently active view first.
+ */
+public class TextureBudget {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = TextureBudget.class.getSimpleName();
+
+    private static final long DEFAULT_BUDGET_BYTES = 96L * 1024 * 1024;
+
+    private final List<TextureManager> mManagers = new ArrayList<>();
+    private long mBudgetBytes = DEFAULT_BUDGET_BYTES;
+    private long mUsedBytes;
+
+    public static TextureBudget getInstance() {
+        return TextureBudgetHolder.sTextureBudget;
+    }
+
+    private static class TextureBudgetHolder {
+        private static TextureBudget sTextureBudget = new TextureBudget();
+    }
+
+    public synchronized void setBudgetBytes(long budgetBytes) {
+        mBudgetBytes = budgetBytes;
+        arbitrate();
+    }
+
+    synchronized void register(TextureManager manager) {
+        if (!mManagers.contains(manager)) {
+            mManagers.add(manager);
+        }
+    }
+
+    synchronized void unregister(TextureManager manager) {
+        mManagers.remove(manager);
+        mUsedBytes -= manager.getUsedBytes();
+    }
+
+    /**
+     * Counts bytes of textures allocated outside a {@link TextureManager}.
+     * Such bytes raise the pressure on the managers but are never trimmed
+     * by the budget; their owner must {@link #release} them.
+     */
+    public synchronized void acquire(long bytes) {
+        mUsedBytes += bytes;
+        if (mUsedBytes > mBudgetBytes) {
+            arbitrate();
+        }
+    }
+
+    public synchronized void release(long bytes) {
+        mUsedBytes -= bytes;
+    }
+
+    private void arbitrate() {
+        long overflow = mUsedBytes - mBudgetBytes;
+        if (overflow <= 0 || mManagers.isEmpty()) {
+            return;
+        }
+
+        List<TextureManager> managers = new ArrayList<>(mManagers);
+        Collections.sort(managers, new Comparator<TextureManager>() {
+            @Override
+            public int compare(TextureManager m1, TextureManager m2) {
+                long a1 = m1.getLastActiveMillis();
+                long a2 = m2.getLastActiveMillis();
+                return a1 < a2 ? -1 : (a1 == a2 ? 0 : 1);
+            }
+        });
+
+        long fairShare = mBudgetBytes / managers.size();
+        // 先回收超出平均份额的部分
+        for (TextureManager manager : managers) {
+            if (overflow <= 0) {
+                break;
+            }
+            long excess = manager.getUsedBytes() - manager.getPendingTrimBytes() - fairShare;
+            if (excess > 0) {
+                long trim = Math.min(excess, overflow);
+                manager.requestTrim(trim);
+                overflow -= trim;
+            }
+        }
+        // 仍然超出时按活跃度从低到高回收
+        for (TextureManager manager : managers) {
+            if (overflow <= 0) {
+                break;
+            }
+            long available = manager.getUsedBytes() - manager.getPendingTrimBytes();
+            if (available > 0) {
+                long trim = Math.min(available, overflow);
+                manager.requestTrim(trim);
+                overflow -= trim;
+            }
+        }
+
+        if (D) {
+            Log.d(TAG, "arbitrate used=" + mUsedBytes + " budget=" + mBudgetBytes
+                    + " managers=" + managers.size() + " unresolved=" + Math.max(0, overflow));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.Log;
+
+import com.ihuntto.bookreader.BuildConfig;
+
+import java.nio.ByteBuffer;
+
+import static android.opengl.GLES20.GL_ALPHA;
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_LINEAR;
+import static android.opengl.GLES20.GL_NEAREST;
+import static android.opengl.GLES20.GL_REPEAT;
+import static android.opengl.GLES20.GL_RGB;
+import static android.opengl.GLES20.GL_RGBA;
+import static android.opengl.GLES20.GL_TEXTURE_2D;
+import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
+import static android.opengl.GLES20.GL_UNPACK_ALIGNMENT;
+import static android.opengl.GLES20.GL_UNSIGNED_BYTE;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT_4_4_4_4;
+import static android.opengl.GLES20.GL_UNSIGNED_SHORT_5_6_5;
+import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glGenTextures;
+import static android.opengl.GLES20.glPixelStorei;
+import static android.opengl.GLES20.glTexImage2D;
+import static android.opengl.GLES20.glTexParameteri;
+import static android.opengl.GLUtils.texImage2D;
+import static android.opengl.GLUtils.texSubImage2D;
+
+public final class TextureHelper {
+    private static final boolean D = BuildConfig.DEBUG;
+    private static final String TAG = TextureHelper.class.getSimpleName();
+
+    private TextureHelper() {
+    }
+
+    /**
+     * Creates a 1x1 texture of color, with premultiplied alpha like the
+     * textures uploaded from bitmaps.
+     */
+    public static int createSolidTexture(int color) {
+        int textureId = genTexture();
+        if (textureId == 0) {
+            return 0;
+        }
+        int alpha = Color.alpha(color);
+        ByteBuffer pixel = ByteBuffer.allocateDirect(4);
+        pixel.put((byte) (Color.red(color) * alpha / 255))
+                .put((byte) (Color.green(color) * alpha / 255))
+                .put((byte) (Color.blue(color) * alpha / 255))
+                .put((byte) alpha);
+        pixel.flip();
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixel);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return textureId;
+    }
+
+    /**
+     * Creates a texture that repeats tile. GLES 2.0 only repeats power of two
+     * textures, so the tile is scaled up to the next power of two first.
+     */
+    public static int createTileTexture(Bitmap tile) {
+        if (tile == null || tile.isRecycled()) {
+            return 0;
+        }
+        int textureId = genTexture();
+        if (textureId == 0) {
+            return 0;
+        }
+        int width = nextPowerOfTwo(tile.getWidth());
+        int height = nextPowerOfTwo(tile.getHeight());
+        Bitmap bitmap = tile;
+        if (width != tile.getWidth() || height != tile.getHeight()) {
+            bitmap = Bitmap.createScaledBitmap(tile, width, height, true);
+        }
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        if (bitmap != tile) {
+            bitmap.recycle();
+        }
+        return textureId;
+    }
+
+    /**
+     * Creates a texture from a scaled down page that is stretched over the
+     * whole page; linear filtering without mipmaps keeps the upload cheap.
+     */
+    public static int createPlaceholderTexture(Bitmap placeholder) {
+        if (placeholder == null || placeholder.isRecycled()) {
+            return 0;
+        }
+        int textureId = genTexture();
+        if (textureId == 0) {
+            return 0;
+        }
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        // 缩略图不是2的幂，只能使用CLAMP_TO_EDGE
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        uploadBitmap(placeholder);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return textureId;
+    }
+
+    /**
+     * Uploads bitmap to level 0 of the bound texture in its own pixel format:
+     * ALPHA_8 as GL_ALPHA, RGB_565 as GL_RGB with GL_UNSIGNED_SHORT_5_6_5 and
+     * ARGB_8888 as GL_RGBA, so smaller pages stay smaller on the GPU.
+     */
+    public static void uploadBitmap(Bitmap bitmap) {
+        uploadBitmap(bitmap, false, 0, 0);
+    }
+
+    /**
+     * Creates an RGB_565 texture of width x height with undefined contents,
+     * into which page thumbnails are copied with
+     * {@link #uploadSubBitmap(Bitmap, int, int)}.
+     */
+    public static int createAtlasTexture(int width, int height) {
+        int textureId = genTexture();
+        if (textureId == 0) {
+            return 0;
+        }
+        glBindTexture(GL_TEXTURE_2D, textureId);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, width, height, 0, GL_RGB, GL_UNSIGNED_SHORT_5_6_5, null);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return textureId;
+    }
+
+    /**
+     * Copies bitmap into the bound texture at (x, y); the bitmap must have
+     * the pixel format the texture was created with.
+     */
+    public static void uploadSubBitmap(Bitmap bitmap, int x, int y) {
+        uploadBitmap(bitmap, true, x, y);
+    }
+
+    private static void uploadBitmap(Bitmap bitmap, boolean sub, int x, int y) {
+        Bitmap.Config config = bitmap.getConfig();
+        int format = GL_RGBA;
+        int type = GL_UNSIGNED_BYTE;
+        // 每行按像素大小对齐，宽度为奇数时默认的4字节对齐会错位
+        int alignment = 4;
+        if (config == Bitmap.Config.ALPHA_8) {
+            format = GL_ALPHA;
+            alignment = 1;
+        } else if (config == Bitmap.Config.RGB_565) {
+            format = GL_RGB;
+            type = GL_UNSIGNED_SHORT_5_6_5;
+            alignment = 2;
+        } else if (config == Bitmap.Config.ARGB_4444) {
+            type = GL_UNSIGNED_SHORT_4_4_4_4;
+            alignment = 2;
+        }
+        glPixelStorei(GL_UNPACK_ALIGNMENT, alignment);
+        if (sub) {
+            texSubImage2D(GL_TEXTURE_2D, 0, x, y, bitmap, format, type);
+        } else {
+            texImage2D(GL_TEXTURE_2D, 0, format, bitmap, type, 0);
+        }
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+    }
+
+    private static int genTexture() {
+        final int[] textureObjectIds = new int[1];
+        glGenTextures(1, textureObjectIds, 0);
+        if (textureObjectIds[0] == 0 && D) {
+            Log.w(TAG, "Could not generate a new OpenGL texture object.");
+        }
+        return textureObjectIds[0];
+    }
+
+    static int nextPowerOfTwo(int value) {
+        int result = 1;
+        while (result < value) {
+            result <<= 1;
+        }
+        return result;
+    }
+}
@@ -17,53 +17,329 @@
 package com.ihuntto.bookreader.ui.gl.util;
 
 import android.graphics.Bitmap;
+import android.opengl.ETC1;
+import android.opengl.ETC1Util;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.ihuntto.bookreader.BuildConfig;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static android.opengl.GLES20.GL_CLAMP_TO_EDGE;
+import static android.opengl.GLES20.GL_EXTENSIONS;
 import static android.opengl.GLES20.GL_LINEAR;
 import static android.opengl.GLES20.GL_LINEAR_MIPMAP_LINEAR;
 import static android.opengl.GLES20.GL_TEXTURE_2D;
 import static android.opengl.GLES20.GL_TEXTURE_MAG_FILTER;
 import static android.opengl.GLES20.GL_TEXTURE_MIN_FILTER;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_S;
+import static android.opengl.GLES20.GL_TEXTURE_WRAP_T;
 import static android.opengl.GLES20.glBindTexture;
+import static android.opengl.GLES20.glCompressedTexImage2D;
 import static android.opengl.GLES20.glDeleteTextures;
 import static android.opengl.GLES20.glGenTextures;
 import static android.opengl.GLES20.glGenerateMipmap;
+import static android.opengl.GLES20.glGetString;
 import static android.opengl.GLES20.glTexParameteri;
-import static android.opengl.GLUtils.texImage2D;
 
+/**
+ * Page textures of one renderer, keyed by (book id, page index). All methods
+ * except {@link #markActive()} and {@link #requestTrim(long)} must be called
+ * on the owning GL thread.
+ * <p>
+ * Flat pages are drawn about 1:1, so textures are uploaded without mipmaps.
+ * Only a page that is minified, the folding flap, gets them, through
+ * {@link #requestMipmaps(int)}: they are generated once at the start of the
+ * next frame and kept for the life of the texture.
+ */
 public class TextureManager {
     private static final boolean D = BuildConfig.DEBUG;
     private static final String TAG = TextureManager.class.getSimpleName();
 
-    private int[] mTextureIds;
+    // 纹理窗口: 当前页及前后各一页
+    private static final int RETAIN_RADIUS = 1;
+
+    public interface OnTrimRequestListener {
+        void onTrimRequested();
+    }
+
+    private static class PageKey {
+        final String bookId;
+        final int index;
+
+        PageKey(String bookId, int index) {
+            this.bookId = bookId;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return index == other.index && bookId.equals(other.bookId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * bookId.hashCode() + index;
+        }
+    }
+
+    private static class PageTexture {
+        final int id;
+        final int generation;
+        // 压缩纹理不能生成mipmap
+        final boolean compressed;
+        final boolean powerOfTwo;
+        long bytes;
+        boolean mipmapped;
+
+        PageTexture(int id, int generation, long bytes, boolean compressed, boolean powerOfTwo) {
+            this.id = id;
+            this.generation = generation;
+            this.bytes = bytes;
+            this.compressed = compressed;
+            this.powerOfTwo = powerOfTwo;
+        }
+    }
+
+    private final TextureBudget mBudget;
+    // access order，最久未使用的在最前
+    private final LinkedHashMap<PageKey, PageTexture> mTextures = new LinkedHashMap<>(16, 0.75f, true);
+    // 最近上传过的ETC1数据，context重建后直接用来恢复纹理。页面位图归PageProvider所有，
+    // 随时可能被复用或回收，不能保留
+    private final Map<PageKey, ETC1Util.ETC1Texture> mRetainedPages = new HashMap<>();
+
+    private String mBookId = "";
+    private int mCurrentIndex;
+    // 每个纹理id所属的context代数，代数不一致的id已随旧context失效
+    private int mGeneration;
+    // 不支持GL_OES_texture_npot时非2的幂的纹理不能使用mipmap
+    private boolean mNpotMipmaps;
+    private PageKey mMipmapRequest;
+
+    private final AtomicLong mUsedBytes = new AtomicLong();
+    private final AtomicLong mPendingTrimBytes = new AtomicLong();
+    private volatile long mLastActiveMillis;
+    private volatile OnTrimRequestListener mOnTrimRequestListener;
+
+    public TextureManager(TextureBudget budget) {
+        mBudget = budget;
+        mBudget.register(this);
+        markActive();
+    }
+
+    public void setOnTrimRequestListener(OnTrimRequestListener onTrimRequestListener) {
+        mOnTrimRequestListener = onTrimRequestListener;
+    }
 
-    public static TextureManager getInstance() {
-        return TextureManagerHolder.sTextureManager;
+    public void setBookId(String bookId) {
+        mBookId = bookId != null ? bookId : "";
     }
 
-    private static class TextureManagerHolder {
-        private static TextureManager sTextureManager = new TextureManager();
+    public void markActive() {
+        mLastActiveMillis = SystemClock.uptimeMillis();
+    }
+
+    long getLastActiveMillis() {
+        return mLastActiveMillis;
+    }
+
+    long getUsedBytes() {
+        return mUsedBytes.get();
+    }
+
+    long getPendingTrimBytes() {
+        return mPendingTrimBytes.get();
+    }
+
+    void requestTrim(long bytes) {
+        mPendingTrimBytes.addAndGet(bytes);
+        OnTrimRequestListener listener = mOnTrimRequestListener;
+        if (listener != null) {
+            listener.onTrimRequested();
+        }
+    }
+
+    /**
+     * Called at the start of every frame to honour trims requested by the budget.
+     */
+    public void onFrame() {
+        long pending = mPendingTrimBytes.getAndSet(0);
+        if (pending > 0) {
+            trim(pending);
+        }
+        if (mMipmapRequest != null) {
+            generateMipmaps(mMipmapRequest);
+            mMipmapRequest = null;
+        }
+    }
+
+    /**
+     * Asks for mipmaps of page index, which is about to be drawn minified.
+     * Until they are generated the page is sampled linearly.
+     */
+    public void requestMipmaps(int index) {
+        PageKey key = new PageKey(mBookId, index);
+        PageTexture texture = mTextures.get(key);
+        if (texture != null && !texture.mipmapped && !texture.compressed && texture.generation == mGeneration) {
+            mMipmapRequest = key;
+        }
+    }
+
+    private void generateMipmaps(PageKey key) {
+        PageTexture texture = mTextures.get(key);
+        if (texture == null || texture.mipmapped || texture.compressed || texture.generation != mGeneration) {
+            return;
+        }
+        // 每张纹理只尝试一次
+        texture.mipmapped = true;
+        if (!mNpotMipmaps && !texture.powerOfTwo) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        glBindTexture(GL_TEXTURE_2D, texture.id);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        // mipmap额外占用约1/3
+        long extra = texture.bytes / 3;
+        texture.bytes += extra;
+        mUsedBytes.addAndGet(extra);
+        mBudget.acquire(extra);
+        if (D) {
+            Log.d(TAG, "mipmaps for page " + key.index + " in " + (System.nanoTime() - startNanos) / 1000 + "us");
+        }
     }
 
-    public void create(int capacity) {
-        mTextureIds = new int[capacity];
+    private static boolean isPowerOfTwo(int width, int height) {
+        return (width & (width - 1)) == 0 && (height & (height - 1)) == 0;
     }
 
+    private void trim(long bytes) {
+        long freed = 0;
+        Iterator<Map.Entry<PageKey, PageTexture>> iterator = mTextures.entrySet().iterator();
+        while (iterator.hasNext() && freed < bytes) {
+            Map.Entry<PageKey, PageTexture> entry = iterator.next();
+            if (isPinned(entry.getKey())) {
+                continue;
+            }
+            PageTexture texture = entry.getValue();
+            if (texture.generation == mGeneration) {
+                glDeleteTextures(1, new int[]{texture.id}, 0);
+            }
+            iterator.remove();
+            mRetainedPages.remove(entry.getKey());
+            freed += texture.bytes;
+        }
+        releaseBytes(freed);
+        if (D) {
+            Log.d(TAG, "trim requested=" + bytes + " freed=" + freed + " used=" + mUsedBytes.get());
+        }
+    }
+
+    private boolean isPinned(PageKey key) {
+        return key.bookId.equals(mBookId) && Math.abs(key.index - mCurrentIndex) <= RETAIN_RADIUS;
+    }
+
+    /**
+     * Deletes every texture. Must run on the GL thread while the context is alive.
+     */
     public void destroy() {
-        if (mTextureIds != null) {
-            glDeleteTextures(mTextureIds.length, mTextureIds, 0);
-            mTextureIds = null;
+        for (PageTexture texture : mTextures.values()) {
+            if (texture.generation == mGeneration) {
+                glDeleteTextures(1, new int[]{texture.id}, 0);
+            }
         }
+        release();
     }
 
-    public int updateTextureIfAbsent(int index, Bitmap bitmap) {
-        if (mTextureIds != null) {
-            if (mTextureIds[index] <= 0) {
-                return updateTexture(index, bitmap);
+    /**
+     * Forgets every texture without GL calls, for when the context is already gone.
+     */
+    public void release() {
+        mTextures.clear();
+        mRetainedPages.clear();
+        releaseBytes(mUsedBytes.get());
+        mPendingTrimBytes.set(0);
+        mBudget.unregister(this);
+    }
+
+    private void releaseBytes(long bytes) {
+        if (bytes > 0) {
+            mUsedBytes.addAndGet(-bytes);
+            mBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Called from onSurfaceCreated. Every id handed out so far belongs to the
+     * previous EGL context and is no longer valid.
+     */
+    public void onContextCreated() {
+        mGeneration++;
+        String extensions = glGetString(GL_EXTENSIONS);
+        mNpotMipmaps = extensions != null && extensions.contains("GL_OES_texture_npot");
+        mMipmapRequest = null;
+        mBudget.register(this);
+        long dead = 0;
+        for (PageTexture texture : mTextures.values()) {
+            dead += texture.bytes;
+        }
+        mTextures.clear();
+        releaseBytes(dead);
+        if (D) {
+            Log.d(TAG, "context generation " + mGeneration);
+        }
+    }
+
+    /**
+     * Re-uploads the retained compressed pages around currentIndex, current
+     * page first. Pages uploaded from bitmaps are requested from the provider
+     * again when they are drawn.
+     */
+    public int restore(int currentIndex) {
+        int restored = 0;
+        int[] order = {currentIndex, currentIndex + 1, currentIndex - 1};
+        for (int index : order) {
+            if (getTexture(index) != 0) {
+                continue;
+            }
+            ETC1Util.ETC1Texture page = mRetainedPages.get(new PageKey(mBookId, index));
+            if (page != null && updateTexture(index, page) != 0) {
+                restored++;
+            }
+        }
+        if (D) {
+            Log.d(TAG, "restored " + restored + " textures around page " + currentIndex);
+        }
+        return restored;
+    }
+
+    public void retainAround(int currentIndex) {
+        mCurrentIndex = currentIndex;
+        Iterator<PageKey> iterator = mRetainedPages.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!isPinned(iterator.next())) {
+                iterator.remove();
             }
         }
+    }
+
+    public int updateTextureIfAbsent(int index, Bitmap bitmap) {
+        if (getTexture(index) <= 0) {
+            return updateTexture(index, bitmap);
+        }
         return 0;
     }
 
@@ -83,22 +359,71 @@ public class TextureManager {
         }
 
         glBindTexture(GL_TEXTURE_2D, textureObjectIds[0]);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        // 平铺的页面按1:1绘制，上传时不生成mipmap
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
 
-        texImage2D(GL_TEXTURE_2D, 0, bitmap, 0);
+        // 按位图的像素格式上传，RGB_565和ALPHA_8的页面在显存中同样更小
+        TextureHelper.uploadBitmap(bitmap);
 
-        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        putTexture(index, textureObjectIds[0], bitmap.getByteCount(), false,
+                isPowerOfTwo(bitmap.getWidth(), bitmap.getHeight()), null);
+        return textureObjectIds[0];
+    }
 
+    /**
+     * Uploads an ETC1 compressed page. Compressed textures cannot have
+     * mipmaps generated, so they are always sampled linearly.
+     */
+    public int updateTexture(int index, ETC1Util.ETC1Texture texture) {
+        if (texture == null) {
+            return 0;
+        }
+        final int[] textureObjectIds = new int[1];
+        glGenTextures(1, textureObjectIds, 0);
+        if (textureObjectIds[0] == 0) {
+            return 0;
+        }
+        glBindTexture(GL_TEXTURE_2D, textureObjectIds[0]);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        int size = texture.getData().remaining();
+        glCompressedTexImage2D(GL_TEXTURE_2D, 0, ETC1.ETC1_RGB8_OES,
+                texture.getWidth(), texture.getHeight(), 0, size, texture.getData());
         glBindTexture(GL_TEXTURE_2D, 0);
+        putTexture(index, textureObjectIds[0], size, true, false, texture);
+        return textureObjectIds[0];
+    }
 
-        mTextureIds[index] = textureObjectIds[0];
-        return mTextureIds[index];
+    private void putTexture(int index, int textureId, long bytes, boolean compressed, boolean powerOfTwo,
+                            ETC1Util.ETC1Texture compressedPage) {
+        PageKey key = new PageKey(mBookId, index);
+        PageTexture old = mTextures.put(key, new PageTexture(textureId, mGeneration, bytes, compressed, powerOfTwo));
+        if (old != null) {
+            if (old.generation == mGeneration) {
+                glDeleteTextures(1, new int[]{old.id}, 0);
+            }
+            releaseBytes(old.bytes);
+        }
+        mUsedBytes.addAndGet(bytes);
+        mBudget.acquire(bytes);
+        if (compressedPage != null && isPinned(key)) {
+            mRetainedPages.put(key, compressedPage);
+        } else {
+            mRetainedPages.remove(key);
+        }
     }
 
     public int getTexture(int index) {
-        if (mTextureIds != null) {
-            return mTextureIds[index];
+        PageTexture texture = mTextures.get(new PageKey(mBookId, index));
+        if (texture != null && texture.generation == mGeneration) {
+            return texture.id;
         } else {
             return 0;
         }
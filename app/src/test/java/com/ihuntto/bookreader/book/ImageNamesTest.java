@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImageNamesTest {
+
+    @Test
+    public void numbersCompareByValue() {
+        assertTrue(ImageNames.compareNatural("page2.jpg", "page10.jpg") < 0);
+        assertTrue(ImageNames.compareNatural("page10.jpg", "page2.jpg") > 0);
+        assertTrue(ImageNames.compareNatural("9", "10") < 0);
+    }
+
+    @Test
+    public void leadingZerosAreIgnored() {
+        assertEquals(0, ImageNames.compareNatural("page007.jpg", "page7.jpg"));
+        assertTrue(ImageNames.compareNatural("page007.jpg", "page8.jpg") < 0);
+        assertTrue(ImageNames.compareNatural("000", "001") < 0);
+    }
+
+    @Test
+    public void lettersCompareIgnoringCase() {
+        assertEquals(0, ImageNames.compareNatural("Cover.PNG", "cover.png"));
+        assertTrue(ImageNames.compareNatural("a1.png", "B1.png") < 0);
+    }
+
+    @Test
+    public void prefixSortsFirst() {
+        assertTrue(ImageNames.compareNatural("page", "page1") < 0);
+        assertTrue(ImageNames.compareNatural("page1", "page1b") < 0);
+        assertTrue(ImageNames.compareNatural("page1b", "page1") > 0);
+    }
+
+    @Test
+    public void longNumbersDoNotOverflow() {
+        assertTrue(ImageNames.compareNatural("p99999999999999999999", "p100000000000000000000") < 0);
+    }
+
+    @Test
+    public void sortOrdersVolumesAndPages() {
+        List<String> names = new ArrayList<>(Arrays.asList(
+                "vol2/page1.jpg", "vol10/page1.jpg", "vol2/page10.jpg", "vol2/page9.jpg", "vol1/page1.jpg"));
+        ImageNames.sort(names);
+
+        assertEquals(Arrays.asList(
+                "vol1/page1.jpg", "vol2/page1.jpg", "vol2/page9.jpg", "vol2/page10.jpg", "vol10/page1.jpg"), names);
+    }
+
+    @Test
+    public void isImageMatchesExtensionsIgnoringCase() {
+        assertTrue(ImageNames.isImage("cover.JPG"));
+        assertTrue(ImageNames.isImage("p1.webp"));
+        assertFalse(ImageNames.isImage("toc.xhtml"));
+        assertFalse(ImageNames.isImage("jpg"));
+    }
+}
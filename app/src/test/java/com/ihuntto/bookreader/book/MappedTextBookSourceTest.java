@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.book;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class MappedTextBookSourceTest {
+    private File mFile;
+    private MappedTextBookSource mSource;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("book", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        if (mSource != null) {
+            mSource.close();
+        }
+        mFile.delete();
+    }
+
+    // 超过两个64K字节窗口，多字节字符会跨越窗口边界
+    private static String longText() {
+        StringBuilder text = new StringBuilder();
+        int line = 0;
+        while (text.length() < 80 * 1024) {
+            text.append("第").append(line++).append("行：天地玄黄，宇宙洪荒。Lorem ipsum.\n");
+        }
+        return text.toString();
+    }
+
+    private MappedTextBookSource open(byte[] bom, String text, String charset) throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(bom);
+            out.write(text.getBytes(charset));
+        } finally {
+            out.close();
+        }
+        mSource = new MappedTextBookSource("file://" + mFile.getPath(), new FileInputStream(mFile));
+        return mSource;
+    }
+
+    private static void assertSameText(String expected, MappedTextBookSource source) {
+        assertEquals(expected.length(), source.length());
+        assertEquals(expected, source.subSequence(0, source.length()).toString());
+        int step = 997;
+        for (int start = 0; start + step * 3 < expected.length(); start += step * 7) {
+            assertEquals(expected.substring(start, start + step * 3),
+                    source.subSequence(start, start + step * 3).toString());
+        }
+    }
+
+    @Test
+    public void decodesUtf8WithoutBom() throws IOException {
+        String text = longText();
+        MappedTextBookSource source = open(new byte[0], text, "UTF-8");
+
+        assertEquals(Charset.forName("UTF-8"), source.getCharset());
+        assertSameText(text, source);
+    }
+
+    @Test
+    public void skipsUtf8Bom() throws IOException {
+        String text = longText();
+        MappedTextBookSource source = open(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, text, "UTF-8");
+
+        assertEquals(Charset.forName("UTF-8"), source.getCharset());
+        assertSameText(text, source);
+    }
+
+    @Test
+    public void decodesUtf16ByBom() throws IOException {
+        String text = longText();
+        MappedTextBookSource source = open(new byte[]{(byte) 0xFF, (byte) 0xFE}, text, "UTF-16LE");
+        assertEquals(Charset.forName("UTF-16LE"), source.getCharset());
+        assertSameText(text, source);
+        source.close();
+
+        source = open(new byte[]{(byte) 0xFE, (byte) 0xFF}, text, "UTF-16BE");
+        assertEquals(Charset.forName("UTF-16BE"), source.getCharset());
+        assertSameText(text, source);
+    }
+
+    @Test
+    public void fallsBackToGbk() throws IOException {
+        String text = longText();
+        MappedTextBookSource source = open(new byte[0], text, "GBK");
+
+        assertEquals(Charset.forName("GBK"), source.getCharset());
+        assertSameText(text, source);
+    }
+
+    @Test
+    public void readsRangeAtEnd() throws IOException {
+        String text = longText();
+        MappedTextBookSource source = open(new byte[0], text, "UTF-8");
+        int length = text.length();
+
+        assertEquals(text.substring(length - 10), source.subSequence(length - 10, length).toString());
+        assertEquals("", source.subSequence(length, length).toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsRangePastEnd() throws IOException {
+        MappedTextBookSource source = open(new byte[0], "abc", "UTF-8");
+        source.subSequence(1, 4);
+    }
+
+    @Test
+    public void emptyFileHasNoText() throws IOException {
+        MappedTextBookSource source = open(new byte[0], "", "UTF-8");
+
+        assertEquals(0, source.length());
+        assertEquals("", source.subSequence(0, 0).toString());
+    }
+
+    @Test
+    public void idChangesWithContent() throws IOException {
+        String id = open(new byte[0], "第一章", "UTF-8").getId();
+        mSource.close();
+        String sameId = open(new byte[0], "第一章", "UTF-8").getId();
+        mSource.close();
+        String changedId = open(new byte[0], "第二章", "UTF-8").getId();
+
+        assertEquals(id, sameId);
+        assertNotEquals(id, changedId);
+    }
+}
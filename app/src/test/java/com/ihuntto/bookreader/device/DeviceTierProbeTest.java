@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.device;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceTierProbeTest {
+    private static final String ADRENO_640 = "Adreno (TM) 640";
+
+    @Test
+    public void frameTimeSelectsTier() {
+        assertEquals(DeviceTier.HIGH, DeviceTierProbe.classify(256, false, ADRENO_640, 4.0f));
+        assertEquals(DeviceTier.MEDIUM, DeviceTierProbe.classify(256, false, ADRENO_640, 8.0f));
+        assertEquals(DeviceTier.MEDIUM, DeviceTierProbe.classify(256, false, ADRENO_640, 12.0f));
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, false, ADRENO_640, 16.0f));
+    }
+
+    @Test
+    public void lowMemoryIsLowTier() {
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, true, ADRENO_640, 4.0f));
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(64, false, ADRENO_640, 4.0f));
+        assertEquals(DeviceTier.HIGH, DeviceTierProbe.classify(96, false, ADRENO_640, 4.0f));
+    }
+
+    @Test
+    public void failedBenchmarkIsLowTier() {
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, false, ADRENO_640, -1));
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, false, null, -1));
+    }
+
+    @Test
+    public void softwareRendererIsLowTier() {
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, false,
+                "Android Emulator OpenGL ES Translator (SwiftShader)", 2.0f));
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, false, "llvmpipe (LLVM 10.0.0, 256 bits)", 2.0f));
+    }
+
+    @Test
+    public void weakRendererIsNeverHighTier() {
+        assertEquals(DeviceTier.MEDIUM, DeviceTierProbe.classify(256, false, "Mali-400 MP", 4.0f));
+        assertEquals(DeviceTier.LOW, DeviceTierProbe.classify(256, false, "Mali-400 MP", 16.0f));
+        assertEquals(DeviceTier.MEDIUM, DeviceTierProbe.classify(256, false, "Adreno (TM) 306", 4.0f));
+        // 名单里只有Adreno 30x
+        assertEquals(DeviceTier.HIGH, DeviceTierProbe.classify(256, false, "Adreno (TM) 330", 4.0f));
+    }
+
+    @Test
+    public void unknownRendererFallsBackToFrameTime() {
+        assertEquals(DeviceTier.HIGH, DeviceTierProbe.classify(256, false, null, 4.0f));
+        assertEquals(DeviceTier.MEDIUM, DeviceTierProbe.classify(256, false, null, 10.0f));
+    }
+}
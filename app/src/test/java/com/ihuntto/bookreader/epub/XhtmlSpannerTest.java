@@ -0,0 +1,124 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.epub;
+
+import android.graphics.Typeface;
+import android.text.Spanned;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class XhtmlSpannerTest {
+
+    private static Spanned parse(String body) throws IOException, XmlPullParserException {
+        String xhtml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<html xmlns=\"http://www.w3.org/1999/xhtml\">\n"
+                + "<head><title>Chapter</title><style>p { margin: 0 }</style></head>\n"
+                + "<body>" + body + "</body></html>";
+        return XhtmlSpanner.parse(new ByteArrayInputStream(xhtml.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void blocksBecomeParagraphs() throws Exception {
+        Spanned text = parse("<h1>第一章</h1>\n<p>第一段。</p>\n<div><p>第二段。</p></div>\n");
+
+        assertEquals("第一章\n第一段。\n第二段。", text.toString());
+    }
+
+    @Test
+    public void headAndScriptsAreDropped() throws Exception {
+        Spanned text = parse("<script>var a = 1;</script><p>正文</p>");
+
+        assertEquals("正文", text.toString());
+    }
+
+    @Test
+    public void whitespaceIsCollapsed() throws Exception {
+        Spanned text = parse("<p>\n    one   two\n\tthree  </p><p>  four</p>");
+
+        assertEquals("one two three\nfour", text.toString());
+    }
+
+    @Test
+    public void lineBreaksAreKept() throws Exception {
+        Spanned text = parse("<p>床前明月光，<br/>疑是地上霜。</p>");
+
+        assertEquals("床前明月光，\n疑是地上霜。", text.toString());
+    }
+
+    @Test
+    public void htmlEntitiesAreReplaced() throws Exception {
+        Spanned text = parse("<p>a&nbsp;b&mdash;c&hellip;&ldquo;d&rdquo;&amp;</p>");
+
+        assertEquals("a b—c…“d”&", text.toString());
+    }
+
+    @Test
+    public void headingsAreBoldAndLarger() throws Exception {
+        Spanned text = parse("<h1>Title</h1><p>Body</p>");
+
+        StyleSpan[] styles = text.getSpans(0, text.length(), StyleSpan.class);
+        assertEquals(1, styles.length);
+        assertEquals(Typeface.BOLD, styles[0].getStyle());
+        assertEquals(0, text.getSpanStart(styles[0]));
+        assertEquals(5, text.getSpanEnd(styles[0]));
+
+        RelativeSizeSpan[] sizes = text.getSpans(0, text.length(), RelativeSizeSpan.class);
+        assertEquals(1, sizes.length);
+        assertEquals(1.5f, sizes[0].getSizeChange(), 0.001f);
+    }
+
+    @Test
+    public void emphasisBecomesStyleSpans() throws Exception {
+        Spanned text = parse("<p>plain <b>bold</b> and <em>italic</em></p>");
+
+        assertEquals("plain bold and italic", text.toString());
+        StyleSpan[] bold = text.getSpans(6, 10, StyleSpan.class);
+        assertEquals(1, bold.length);
+        assertEquals(Typeface.BOLD, bold[0].getStyle());
+        StyleSpan[] italic = text.getSpans(15, 21, StyleSpan.class);
+        assertEquals(1, italic.length);
+        assertEquals(Typeface.ITALIC, italic[0].getStyle());
+    }
+
+    @Test
+    public void doctypeIsSkipped() throws Exception {
+        String xhtml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.1//EN\" "
+                + "\"http://www.w3.org/TR/xhtml11/DTD/xhtml11.dtd\">\n"
+                + "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>t</title></head>"
+                + "<body><p>&ldquo;正文&rdquo;</p></body></html>";
+        Spanned text = XhtmlSpanner.parse(new ByteArrayInputStream(xhtml.getBytes("UTF-8")));
+
+        assertEquals("\u201c正文\u201d", text.toString());
+    }
+
+    @Test
+    public void emptyBodyHasNoText() throws Exception {
+        assertEquals(0, parse("<p>  </p><div></div>").length());
+    }
+}
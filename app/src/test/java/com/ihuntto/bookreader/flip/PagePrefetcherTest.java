@@ -0,0 +1,154 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.flip;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PagePrefetcherTest {
+    private PagePrefetcher mPrefetcher;
+    private RecordingProvider mProvider;
+
+    // 只记录预取窗口，不生成页面
+    private static class RecordingProvider implements PrefetchPageProvider {
+        final BlockingQueue<int[]> windows = new LinkedBlockingQueue<>();
+
+        @Override
+        public String getBookId() {
+            return "book";
+        }
+
+        @Override
+        public int getPageCount() {
+            return 100;
+        }
+
+        @Override
+        public FlipOverPage updatePage(int index, int width, int height) {
+            return null;
+        }
+
+        @Override
+        public void setPrefetchWindow(int currentIndex, int first, int last) {
+            windows.add(new int[]{currentIndex, first, last});
+        }
+
+        @Override
+        public void prefetchPage(int index, int width, int height, boolean content, boolean requested) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mPrefetcher = new PagePrefetcher();
+        mProvider = new RecordingProvider();
+        mPrefetcher.setPageProvider(mProvider);
+        mPrefetcher.setPageSize(1080, 1920, false);
+    }
+
+    private int[] flipTo(int index, long now) throws InterruptedException {
+        mPrefetcher.onPageChanged(index, now);
+        int[] window = mProvider.windows.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no window for page " + index, window);
+        return window;
+    }
+
+    @Test
+    public void firstPageGetsMinimalWindow() throws InterruptedException {
+        assertArrayEquals(new int[]{10, 9, 11}, flipTo(10, 1000));
+    }
+
+    @Test
+    public void windowStartsAtFirstPage() throws InterruptedException {
+        assertArrayEquals(new int[]{0, 0, 1}, flipTo(0, 1000));
+    }
+
+    @Test
+    public void fastFlippingWidensWindowAhead() throws InterruptedException {
+        long now = 1000;
+        int[] window = flipTo(10, now);
+        for (int index = 11; index <= 20; index++) {
+            now += 200;
+            window = flipTo(index, now);
+        }
+        // 每秒5页，窗口达到上限
+        assertArrayEquals(new int[]{20, 19, 25}, window);
+    }
+
+    @Test
+    public void windowGrowsWithFlipRate() throws InterruptedException {
+        long now = 1000;
+        flipTo(10, now);
+        int[] window = flipTo(11, now + 1000);
+        int ahead = window[2] - window[0];
+        assertTrue(ahead >= 1);
+
+        window = flipTo(12, now + 1200);
+        assertTrue(window[2] - window[0] > ahead);
+        assertEquals(11, window[1]);
+    }
+
+    @Test
+    public void flippingBackMovesWindowBehind() throws InterruptedException {
+        long now = 1000;
+        flipTo(50, now);
+        int[] window = null;
+        for (int index = 49; index >= 40; index--) {
+            now += 200;
+            window = flipTo(index, now);
+        }
+        assertArrayEquals(new int[]{40, 35, 41}, window);
+    }
+
+    @Test
+    public void jumpResetsFlipRate() throws InterruptedException {
+        long now = 1000;
+        flipTo(10, now);
+        for (int index = 11; index <= 20; index++) {
+            now += 200;
+            flipTo(index, now);
+        }
+        now += 200;
+        assertArrayEquals(new int[]{60, 59, 61}, flipTo(60, now));
+    }
+
+    @Test
+    public void slowReadingResetsFlipRate() throws InterruptedException {
+        long now = 1000;
+        flipTo(10, now);
+        for (int index = 11; index <= 20; index++) {
+            now += 200;
+            flipTo(index, now);
+        }
+        now += 10000;
+        assertArrayEquals(new int[]{21, 20, 22}, flipTo(21, now));
+    }
+
+    @Test
+    public void sizeChangeReplansCurrentWindow() throws InterruptedException {
+        flipTo(10, 1000);
+        mPrefetcher.setPageSize(720, 1280, false);
+
+        assertArrayEquals(new int[]{10, 9, 11}, mProvider.windows.poll(5, TimeUnit.SECONDS));
+    }
+}
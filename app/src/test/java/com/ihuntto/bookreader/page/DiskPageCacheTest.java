@@ -0,0 +1,213 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.page;
+
+import android.graphics.Bitmap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiskPageCacheTest {
+    private static final int SIZE = 8;
+    // 8x8 ARGB_8888
+    private static final int PAGE_BYTES = SIZE * SIZE * 4;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private File mDirectory;
+    private DiskPageCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("pages", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        if (mCache != null) {
+            mCache.close();
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    // 每页的像素各不相同
+    private static Bitmap page(int seed) {
+        return page(seed, SIZE);
+    }
+
+    private static Bitmap page(int seed, int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                bitmap.setPixel(x, y, 0xFF000000 | (seed << 16) | (y << 8) | x);
+            }
+        }
+        return bitmap;
+    }
+
+    private static void assertSamePixels(Bitmap expected, Bitmap actual) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                assertEquals(expected.getPixel(x, y), actual.getPixel(x, y));
+            }
+        }
+    }
+
+    private boolean read(String key, int seed) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        if (!mCache.get(key, bitmap)) {
+            return false;
+        }
+        assertSamePixels(page(seed), bitmap);
+        return true;
+    }
+
+    // 打开和写入都在后台线程进行，打开前放入的页面被丢弃，所以反复放入直到能读出为止
+    private void putAndWait(String key, int seed) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!read(key, seed)) {
+            if (!mCache.contains(key)) {
+                mCache.put(key, page(seed));
+            }
+            assertTrue("page " + key + " was not written", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // 新实例在前一个实例关闭并保存索引之后才打开
+    private void reopen(long maxBytes) {
+        mCache.close();
+        mCache = DiskPageCache.open(mDirectory, maxBytes);
+    }
+
+    private boolean readWhenOpen(String key, int seed) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (read(key, seed)) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    @Test
+    public void readsBackWrittenPage() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 16 * PAGE_BYTES);
+        putAndWait("a", 1);
+        assertTrue(mCache.contains("a"));
+        assertFalse(mCache.contains("b"));
+
+        // 写入中的页面也算已有
+        mCache.put("b", page(2));
+        assertTrue(mCache.contains("b"));
+    }
+
+    @Test
+    public void missesOtherSizeOrConfig() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 16 * PAGE_BYTES);
+        putAndWait("a", 1);
+
+        assertFalse(mCache.get("a", Bitmap.createBitmap(SIZE / 2, SIZE, Bitmap.Config.ARGB_8888)));
+        assertFalse(mCache.get("a", Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.RGB_565)));
+        assertFalse(mCache.get("b", Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888)));
+    }
+
+    @Test
+    public void rejectsPageLargerThanBudget() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 2 * PAGE_BYTES);
+        putAndWait("a", 1);
+        mCache.put("b", page(2, 2 * SIZE));
+
+        assertFalse(mCache.contains("b"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPage() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 3 * PAGE_BYTES);
+        putAndWait("a", 1);
+        putAndWait("b", 2);
+        putAndWait("c", 3);
+        // 读过的a比b新
+        assertTrue(read("a", 1));
+        putAndWait("d", 4);
+
+        assertFalse(mCache.contains("b"));
+        assertTrue(read("a", 1));
+        assertTrue(read("c", 3));
+        assertTrue(read("d", 4));
+    }
+
+    @Test
+    public void compactionKeepsLivePages() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 2 * PAGE_BYTES);
+        for (int i = 0; i < 10; i++) {
+            putAndWait("page" + i, i);
+        }
+
+        // 数据文件超过预算的两倍之前会被压缩
+        assertTrue(new File(mDirectory, "pages.dat").length() <= 4 * PAGE_BYTES);
+        for (int i = 0; i < 8; i++) {
+            assertFalse(mCache.contains("page" + i));
+        }
+        assertTrue(read("page8", 8));
+        assertTrue(read("page9", 9));
+
+        // 压缩后保存的索引指向新文件
+        reopen(2 * PAGE_BYTES);
+        assertTrue(readWhenOpen("page8", 8));
+        assertTrue(readWhenOpen("page9", 9));
+    }
+
+    @Test
+    public void pagesSurviveReopen() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 16 * PAGE_BYTES);
+        putAndWait("a", 1);
+        putAndWait("b", 2);
+        reopen(16 * PAGE_BYTES);
+
+        assertTrue(readWhenOpen("a", 1));
+        assertTrue(read("b", 2));
+        assertFalse(mCache.contains("c"));
+    }
+
+    @Test
+    public void closedCacheStoresNothing() throws InterruptedException {
+        mCache = DiskPageCache.open(mDirectory, 16 * PAGE_BYTES);
+        putAndWait("a", 1);
+        mCache.close();
+        mCache.put("b", page(2));
+
+        assertFalse(mCache.contains("b"));
+    }
+}
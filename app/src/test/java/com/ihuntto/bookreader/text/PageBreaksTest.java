@@ -0,0 +1,167 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.text;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PageBreaksTest {
+
+    @Test
+    public void forwardPagesAreNumberedFromZero() {
+        PageBreaks breaks = new PageBreaks();
+        breaks.reset(0);
+        breaks.append(100);
+        breaks.append(250);
+
+        assertTrue(breaks.isFrontComplete());
+        assertEquals(2, breaks.getNumberedPageCount());
+        assertArrayEquals(new int[]{0, 100}, breaks.getPageRange(0));
+        assertArrayEquals(new int[]{100, 250}, breaks.getPageRange(1));
+        assertNull(breaks.getPageRange(2));
+        assertNull(breaks.getPageRange(-1));
+        assertEquals(250, breaks.getEndOffset());
+    }
+
+    @Test
+    public void backPagesStayHiddenUntilPublished() {
+        PageBreaks breaks = anchoredAt(1000, 3);
+        breaks.prepend(900);
+        breaks.prepend(800);
+
+        // 锚点页仍是第0页
+        assertArrayEquals(new int[]{1000, 1100}, breaks.getPageRange(0));
+        assertEquals(3, breaks.getNumberedPageCount());
+        assertEquals(2, breaks.getPendingBackPages());
+        assertEquals(0, breaks.getPublishedBackPages());
+        // 未编号的页按已编号的第一页算
+        assertEquals(0, breaks.getPageIndex(850));
+    }
+
+    @Test
+    public void publishWaitsWhileReaderIsFarFromFirstPage() {
+        PageBreaks breaks = anchoredAt(1000, 10);
+        breaks.prepend(900);
+
+        assertEquals(0, breaks.publishBackPages(5));
+        assertEquals(1, breaks.getPendingBackPages());
+        assertArrayEquals(new int[]{1000, 1100}, breaks.getPageRange(0));
+    }
+
+    @Test
+    public void publishShiftsIndicesWhenReaderNearsFirstPage() {
+        PageBreaks breaks = anchoredAt(1000, 10);
+        breaks.prepend(900);
+        breaks.prepend(800);
+
+        assertEquals(2, breaks.publishBackPages(1));
+        assertEquals(0, breaks.getPendingBackPages());
+        assertEquals(2, breaks.getPublishedBackPages());
+        assertEquals(12, breaks.getNumberedPageCount());
+        assertArrayEquals(new int[]{800, 900}, breaks.getPageRange(0));
+        assertArrayEquals(new int[]{1000, 1100}, breaks.getPageRange(2));
+        assertEquals(1, breaks.getPageIndex(950));
+        // 没有新的页时不再移动
+        assertEquals(0, breaks.publishBackPages(0));
+    }
+
+    @Test
+    public void publishOnceFrontOfBookIsReached() {
+        PageBreaks breaks = anchoredAt(200, 10);
+        breaks.prepend(100);
+        breaks.prepend(0);
+
+        assertTrue(breaks.isFrontComplete());
+        assertEquals(2, breaks.publishBackPages(8));
+        assertArrayEquals(new int[]{0, 100}, breaks.getPageRange(0));
+    }
+
+    @Test
+    public void publishWhenEnoughBackPagesPiledUp() {
+        int backPages = PageBreaks.PUBLISH_INTERVAL_PAGES;
+        PageBreaks breaks = anchoredAt(100000, 10);
+        for (int i = 1; i < backPages; i++) {
+            breaks.prepend(100000 - i * 10);
+        }
+        assertEquals(0, breaks.publishBackPages(5));
+
+        breaks.prepend(100000 - backPages * 10);
+        assertEquals(backPages, breaks.publishBackPages(5));
+        // 读者所在的页随之后移
+        assertArrayEquals(new int[]{100000 + 5 * 100, 100000 + 6 * 100},
+                breaks.getPageRange(5 + backPages));
+    }
+
+    @Test
+    public void pagesAddedAfterPublishStayHiddenAgain() {
+        PageBreaks breaks = anchoredAt(1000, 10);
+        breaks.prepend(900);
+        breaks.publishBackPages(0);
+        breaks.prepend(800);
+
+        assertArrayEquals(new int[]{900, 1000}, breaks.getPageRange(0));
+        assertEquals(1, breaks.getPendingBackPages());
+        assertEquals(1, breaks.publishBackPages(0));
+        assertArrayEquals(new int[]{800, 900}, breaks.getPageRange(0));
+    }
+
+    @Test
+    public void regionGrowsInBothDirections() {
+        int pages = 2000;
+        PageBreaks breaks = new PageBreaks();
+        breaks.reset(pages * 10);
+        for (int i = 1; i <= pages; i++) {
+            breaks.append(pages * 10 + i * 10);
+            breaks.prepend(pages * 10 - i * 10);
+        }
+
+        assertTrue(breaks.isFrontComplete());
+        assertEquals(pages * 2, breaks.getKnownPageCount());
+        assertEquals(pages, breaks.publishBackPages(pages));
+        for (int i = 0; i < pages * 2; i++) {
+            assertArrayEquals(new int[]{i * 10, i * 10 + 10}, breaks.getPageRange(i));
+        }
+        assertEquals(pages + 3, breaks.getPageIndex(pages * 10 + 35));
+    }
+
+    @Test
+    public void loadReplacesRegion() {
+        PageBreaks breaks = anchoredAt(1000, 2);
+        breaks.prepend(900);
+        breaks.load(new int[]{0, 40, 90, 150});
+
+        assertEquals(3, breaks.getKnownPageCount());
+        assertEquals(0, breaks.getPendingBackPages());
+        assertEquals(3, breaks.getNumberedPageCount());
+        assertArrayEquals(new int[]{40, 90}, breaks.getPageRange(1));
+        assertEquals(2, breaks.getPageIndex(149));
+
+        breaks.append(200);
+        assertArrayEquals(new int[]{150, 200}, breaks.getPageRange(3));
+    }
+
+    // 从anchor开始向后排出pages页，每页100字
+    private static PageBreaks anchoredAt(int anchor, int pages) {
+        PageBreaks breaks = new PageBreaks();
+        breaks.reset(anchor);
+        for (int i = 1; i <= pages; i++) {
+            breaks.append(anchor + i * 100);
+        }
+        return breaks;
+    }
+}
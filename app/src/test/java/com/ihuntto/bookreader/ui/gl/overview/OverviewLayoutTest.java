@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.overview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OverviewLayoutTest {
+    // 1200x1800的视图分4列：间隔25，格子268.75x403.125
+    private static final float GAP = 25;
+    private static final float COLUMN_STEP = 268.75f + GAP;
+    private static final float ROW_STEP = 403.125f + GAP;
+    private static final float DELTA = 0.01f;
+
+    private static float centerX(int column) {
+        return GAP + column * COLUMN_STEP + 134;
+    }
+
+    private static float centerY(int row) {
+        return GAP + row * ROW_STEP + 200;
+    }
+
+    @Test
+    public void hitsPageUnderPoint() {
+        OverviewLayout layout = new OverviewLayout(1200, 1800, 4, 10);
+
+        assertEquals(0, layout.getPageAt(centerX(0), centerY(0), 0));
+        assertEquals(3, layout.getPageAt(centerX(3), centerY(0), 0));
+        assertEquals(6, layout.getPageAt(centerX(2), centerY(1), 0));
+        assertEquals(9, layout.getPageAt(centerX(1), centerY(2), 0));
+    }
+
+    @Test
+    public void missesGapsAndEmptyCells() {
+        OverviewLayout layout = new OverviewLayout(1200, 1800, 4, 10);
+
+        assertEquals(-1, layout.getPageAt(10, centerY(0), 0));
+        assertEquals(-1, layout.getPageAt(centerX(0), 10, 0));
+        // 第0列和第1列之间
+        assertEquals(-1, layout.getPageAt(GAP + 268.75f + 10, centerY(0), 0));
+        // 第0行和第1行之间
+        assertEquals(-1, layout.getPageAt(centerX(0), GAP + 403.125f + 10, 0));
+        // 最后一页之后的空格子
+        assertEquals(-1, layout.getPageAt(centerX(2), centerY(2), 0));
+        // 最后一列右侧
+        assertEquals(-1, layout.getPageAt(1195, centerY(0), 0));
+    }
+
+    @Test
+    public void hitTestingFollowsScroll() {
+        OverviewLayout layout = new OverviewLayout(1200, 1800, 4, 40);
+
+        assertEquals(5, layout.getPageAt(centerX(1), centerY(0), ROW_STEP));
+        assertEquals(-1, layout.getPageAt(centerX(1), centerY(0), ROW_STEP / 2));
+    }
+
+    @Test
+    public void scrollIsClampedToContent() {
+        OverviewLayout layout = new OverviewLayout(1200, 1800, 4, 40);
+        float maxScrollY = GAP + 10 * ROW_STEP - 1800;
+
+        assertEquals(maxScrollY, layout.getMaxScrollY(), DELTA);
+        assertEquals(0, layout.clampScrollY(-100), DELTA);
+        assertEquals(maxScrollY, layout.clampScrollY(10000), DELTA);
+        assertEquals(0, new OverviewLayout(1200, 1800, 4, 10).getMaxScrollY(), DELTA);
+    }
+
+    @Test
+    public void visiblePagesCoverPartialRows() {
+        OverviewLayout layout = new OverviewLayout(1200, 1800, 4, 40);
+
+        assertEquals(0, layout.getFirstVisiblePage(0));
+        assertEquals(20, layout.getLastVisiblePage(0));
+        assertEquals(4, layout.getFirstVisiblePage(500));
+        assertEquals(24, layout.getLastVisiblePage(500));
+        assertEquals(40, layout.getLastVisiblePage(layout.getMaxScrollY()));
+    }
+
+    @Test
+    public void scrollForPageBringsItUnderPoint() {
+        OverviewLayout layout = new OverviewLayout(1200, 1800, 4, 40);
+        float scrollY = layout.getScrollYForPage(21, 900);
+
+        assertEquals(21, layout.getPageAt(centerX(1), 900, scrollY));
+        assertEquals(0, layout.getScrollYForPage(0, 900), DELTA);
+        assertEquals(layout.getMaxScrollY(), layout.getScrollYForPage(39, 900), DELTA);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RenderScaleControllerTest {
+    private static final long VSYNC_NANOS = 16_666_667L;
+    private static final long SLOW_NANOS = 2 * VSYNC_NANOS;
+    private static final float DELTA = 0.001f;
+
+    private long mFrameNanos;
+
+    @Before
+    public void setUp() {
+        mFrameNanos = 1_000_000_000L;
+    }
+
+    @Test
+    public void keepsFullScaleAtVsync() {
+        RenderScaleController controller = new RenderScaleController(0.5f);
+        feed(controller, VSYNC_NANOS, 300);
+
+        assertEquals(1.0f, controller.getScale(), DELTA);
+    }
+
+    @Test
+    public void slowFramesLowerScaleDownToMinimum() {
+        RenderScaleController controller = new RenderScaleController(0.7f);
+        feed(controller, SLOW_NANOS, 12);
+        float scale = controller.getScale();
+        assertTrue(scale < 1.0f);
+
+        feed(controller, SLOW_NANOS, 300);
+        assertTrue(controller.getScale() < scale);
+        assertEquals(0.7f, controller.getScale(), DELTA);
+    }
+
+    @Test
+    public void recoversOneStepAtATime() {
+        RenderScaleController controller = new RenderScaleController(0.5f);
+        feed(controller, SLOW_NANOS, 300);
+        assertEquals(0.5f, controller.getScale(), DELTA);
+
+        int frames = framesUntilChange(controller, VSYNC_NANOS);
+        assertTrue(frames > 0);
+        assertEquals(0.6f, controller.getScale(), DELTA);
+
+        feed(controller, VSYNC_NANOS, 1000);
+        assertEquals(1.0f, controller.getScale(), DELTA);
+    }
+
+    @Test
+    public void failedRaiseWaitsLongerBeforeNextRaise() {
+        RenderScaleController controller = new RenderScaleController(0.9f);
+        assertTrue(framesUntilChange(controller, SLOW_NANOS) > 0);
+        assertEquals(0.9f, controller.getScale(), DELTA);
+        int firstRaise = framesUntilChange(controller, VSYNC_NANOS);
+        assertEquals(1.0f, controller.getScale(), DELTA);
+
+        // 提高后立即又掉帧
+        assertTrue(framesUntilChange(controller, SLOW_NANOS) > 0);
+        assertEquals(0.9f, controller.getScale(), DELTA);
+        int secondRaise = framesUntilChange(controller, VSYNC_NANOS);
+        assertEquals(1.0f, controller.getScale(), DELTA);
+
+        assertTrue("first=" + firstRaise + " second=" + secondRaise, secondRaise > firstRaise);
+    }
+
+    @Test
+    public void idleGapIsNotMeasured() {
+        RenderScaleController controller = new RenderScaleController(0.5f);
+        feed(controller, VSYNC_NANOS, 20);
+        controller.onIdleFrame();
+        // 静止了几秒后重新开始翻页
+        mFrameNanos += 5_000_000_000L;
+        feed(controller, VSYNC_NANOS, 20);
+
+        assertEquals(1.0f, controller.getScale(), DELTA);
+    }
+
+    @Test
+    public void recoversAcrossShortFlips() {
+        RenderScaleController controller = new RenderScaleController(0.9f);
+        feed(controller, SLOW_NANOS, 20);
+        controller.onIdleFrame();
+        assertEquals(0.9f, controller.getScale(), DELTA);
+
+        // 点击翻页每次只有十几帧，中间静止
+        for (int flip = 0; flip < 5 && controller.getScale() < 1.0f; flip++) {
+            mFrameNanos += 2_000_000_000L;
+            feed(controller, VSYNC_NANOS, 15);
+            controller.onIdleFrame();
+        }
+        assertEquals(1.0f, controller.getScale(), DELTA);
+    }
+
+    @Test
+    public void idleKeepsLearnedScale() {
+        RenderScaleController controller = new RenderScaleController(0.5f);
+        feed(controller, SLOW_NANOS, 300);
+        controller.onIdleFrame();
+
+        assertEquals(0.5f, controller.getScale(), DELTA);
+    }
+
+    private void feed(RenderScaleController controller, long intervalNanos, int frames) {
+        for (int i = 0; i < frames; i++) {
+            controller.onAnimatedFrame(mFrameNanos);
+            mFrameNanos += intervalNanos;
+        }
+    }
+
+    private int framesUntilChange(RenderScaleController controller, long intervalNanos) {
+        float scale = controller.getScale();
+        for (int i = 1; i <= 1000; i++) {
+            controller.onAnimatedFrame(mFrameNanos);
+            mFrameNanos += intervalNanos;
+            if (controller.getScale() != scale) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
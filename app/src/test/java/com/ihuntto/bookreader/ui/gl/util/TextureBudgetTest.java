@@ -0,0 +1,146 @@
+/*
+ *    Copyright 2019 Huntto
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.ihuntto.bookreader.ui.gl.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TextureBudgetTest {
+    private TextureBudget mBudget;
+
+    // 纹理字节数和活跃时间由测试指定，不需要GL
+    private static class FakeTextureManager extends TextureManager {
+        private final long mUsed;
+        private final long mLastActive;
+        int trimRequests;
+
+        FakeTextureManager(TextureBudget budget, long used, long lastActive) {
+            super(budget);
+            mUsed = used;
+            mLastActive = lastActive;
+            budget.acquire(used);
+            setOnTrimRequestListener(new OnTrimRequestListener() {
+                @Override
+                public void onTrimRequested() {
+                    trimRequests++;
+                }
+            });
+        }
+
+        @Override
+        long getUsedBytes() {
+            return mUsed;
+        }
+
+        @Override
+        long getLastActiveMillis() {
+            return mLastActive;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mBudget = new TextureBudget();
+        mBudget.setBudgetBytes(100);
+    }
+
+    @Test
+    public void underBudgetNothingIsTrimmed() {
+        FakeTextureManager a = new FakeTextureManager(mBudget, 60, 1);
+        FakeTextureManager b = new FakeTextureManager(mBudget, 30, 2);
+        mBudget.acquire(10);
+
+        assertEquals(0, a.getPendingTrimBytes());
+        assertEquals(0, b.getPendingTrimBytes());
+        assertEquals(0, a.trimRequests + b.trimRequests);
+    }
+
+    @Test
+    public void managerAboveFairShareIsTrimmedFirst() {
+        // b最久未活跃，但a超出了平均份额
+        FakeTextureManager a = new FakeTextureManager(mBudget, 70, 2);
+        FakeTextureManager b = new FakeTextureManager(mBudget, 20, 1);
+        mBudget.acquire(30);
+
+        assertEquals(20, a.getPendingTrimBytes());
+        assertEquals(0, b.getPendingTrimBytes());
+        assertEquals(1, a.trimRequests);
+    }
+
+    @Test
+    public void leastRecentlyActiveIsTrimmedWithinFairShare() {
+        FakeTextureManager a = new FakeTextureManager(mBudget, 40, 2);
+        FakeTextureManager b = new FakeTextureManager(mBudget, 40, 1);
+        mBudget.acquire(40);
+
+        assertEquals(0, a.getPendingTrimBytes());
+        assertEquals(20, b.getPendingTrimBytes());
+    }
+
+    @Test
+    public void pendingTrimsAreNotRequestedTwice() {
+        FakeTextureManager a = new FakeTextureManager(mBudget, 40, 2);
+        FakeTextureManager b = new FakeTextureManager(mBudget, 40, 1);
+        mBudget.acquire(40);
+        mBudget.acquire(10);
+
+        // b只剩20字节可回收，余下的由a承担
+        assertEquals(40, b.getPendingTrimBytes());
+        assertEquals(10, a.getPendingTrimBytes());
+    }
+
+    @Test
+    public void releasedBytesRelievePressure() {
+        FakeTextureManager a = new FakeTextureManager(mBudget, 90, 1);
+        mBudget.acquire(20);
+        assertEquals(10, a.getPendingTrimBytes());
+
+        mBudget.release(20);
+        mBudget.acquire(10);
+        assertEquals(10, a.getPendingTrimBytes());
+        assertEquals(1, a.trimRequests);
+    }
+
+    @Test
+    public void loweringBudgetTrims() {
+        FakeTextureManager a = new FakeTextureManager(mBudget, 90, 1);
+        mBudget.setBudgetBytes(50);
+
+        assertEquals(40, a.getPendingTrimBytes());
+    }
+
+    @Test
+    public void unregisteredManagerFreesItsShare() {
+        FakeTextureManager a = new FakeTextureManager(mBudget, 50, 1);
+        FakeTextureManager b = new FakeTextureManager(mBudget, 40, 2);
+        mBudget.unregister(a);
+        mBudget.acquire(50);
+
+        assertEquals(0, a.getPendingTrimBytes());
+        assertEquals(0, b.getPendingTrimBytes());
+    }
+
+    @Test
+    public void bytesAcquiredBeforeManagersStillCount() {
+        mBudget.acquire(500);
+        FakeTextureManager a = new FakeTextureManager(mBudget, 10, 1);
+
+        assertEquals(10, a.getPendingTrimBytes());
+    }
+}